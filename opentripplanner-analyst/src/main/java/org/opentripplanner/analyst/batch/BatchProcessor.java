@@ -1,12 +1,33 @@
 package org.opentripplanner.analyst.batch;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import org.opentripplanner.analyst.batch.aggregator.Aggregator;
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.analyst.core.TimeSurface;
 import org.opentripplanner.analyst.request.Renderer;
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.SimpleEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.raptor.DepartureSweep;
+import org.opentripplanner.routing.raptor.RaptorPathServiceImpl;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,8 +45,71 @@ public class BatchProcessor {
     @Autowired Renderer renderer;
     @Resource Population origins;
     @Resource Population destinations;
-    @Resource Aggregator aggregator;
-    private boolean aggregate = false;
+    @Autowired(required = false) Aggregator aggregator;
+    @Autowired GraphService graphService;
+    @Autowired SPTService sptService;
+
+    private static final int PROGRESS_INTERVAL = 1000;
+    private RoutingRequest prototypeRoutingRequest = new RoutingRequest();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String outputPath = "batch.csv";
+    private String outputFormat = "csv";
+    private int departureWindow = 0;
+    private int departureStep = 60;
+    private double percentile = 0.5;
+    private RaptorPathServiceImpl raptorPathService;
+    private DepartureSweep sweep;
+
+    /** The options for every search. Each origin is searched from a copy of this request. */
+    public void setPrototypeRoutingRequest(RoutingRequest prototypeRoutingRequest) {
+        this.prototypeRoutingRequest = prototypeRoutingRequest;
+    }
+
+    /** The number of origins searched at once, by default one per processor. */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setOutputPath(String outputPath) {
+        this.outputPath = outputPath;
+    }
+
+    /** Either "csv" or "binary"; see CsvResultWriter and BinaryResultWriter. */
+    public void setOutputFormat(String outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+    
+    /**
+     * The length in seconds of the span of departure times to evaluate from each origin, starting 
+     * at the time of the prototype request. When it is 0, the default, each origin is searched at 
+     * that one departure time. Otherwise the travel times are a percentile of those over all the 
+     * departures in the window; this needs a depart-after transit request.
+     */
+    public void setDepartureWindow(int departureWindow) {
+        this.departureWindow = departureWindow;
+    }
+
+    /** The seconds between departures evaluated within the window, by default 60. */
+    public void setDepartureStep(int departureStep) {
+        this.departureStep = departureStep;
+    }
+
+    /** 
+     * The percentile of travel times over the window that is written out or aggregated: 0 for 
+     * the shortest, 1 for the longest and by default 0.5 for the median.
+     */
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /** 
+     * The round-based path service whose timetables and transfer settings the departure sweeps 
+     * use, by default the one configured in the application context. Needed for departure windows.
+     */
+    @Autowired(required = false)
+    public void setRaptorPathService(RaptorPathServiceImpl raptorPathService) {
+        this.raptorPathService = raptorPathService;
+    }
     
     public static void main(String[] args) throws IOException {
 
@@ -35,7 +119,7 @@ public class BatchProcessor {
         xmlReader.loadBeanDefinitions(new ClassPathResource(BATCH_CONFIG));
         ctx.refresh();
         ctx.registerShutdownHook();
-        //ctx.getBean(BatchProcessor.class).run();
+        ctx.getBean(BatchProcessor.class).run();
     }
 
     // actually probably better to run explicitly, so batch processor will do nothing unless it
@@ -70,4 +154,144 @@ public class BatchProcessor {
         */
     }
 
+    /**
+     * Search from every origin and write out the results as they are found. Worker threads take 
+     * origins one at a time, each reusing its own search workspace, and only the travel time 
+     * surface of an origin is kept while its results are computed, so memory use does not grow 
+     * with the number of origins. Searches start at the origin itself, which is linked to both 
+     * street vertices of its sample by edges taking as long as walking to them.
+     */
+    public void run() {
+        final Graph graph = graphService.getGraph();
+        if (departureWindow > 0) {
+            if (prototypeRoutingRequest.isArriveBy()
+                    || !prototypeRoutingRequest.getModes().isTransit()) {
+                LOG.error("departure windows need a depart-after transit request");
+                return;
+            }
+            if (raptorPathService == null) {
+                LOG.error("departure windows need a RaptorPathServiceImpl");
+                return;
+            }
+            sweep = raptorPathService.getDepartureSweep(graph);
+            LOG.info("sweeping departures over {} seconds every {} seconds", departureWindow,
+                    departureStep);
+        }
+        final ResultWriter writer;
+        try {
+            if ("binary".equals(outputFormat))
+                writer = new BinaryResultWriter(outputPath);
+            else
+                writer = new CsvResultWriter(outputPath);
+        } catch (IOException e) {
+            LOG.error("cannot open batch output " + outputPath, e);
+            return;
+        }
+        LOG.info("searching from {} origins to {} destinations on {} threads", new Object[] {
+                origins.size(), destinations.size(), threads });
+        final long t0 = System.currentTimeMillis();
+        final AtomicInteger nextOrigin = new AtomicInteger(0);
+        final AtomicInteger nDone = new AtomicInteger(0);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(workers.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws IOException {
+                    int i;
+                    while ((i = nextOrigin.getAndIncrement()) < origins.size()) {
+                        processOrigin(graph, i, writer);
+                        int done = nDone.incrementAndGet();
+                        if (done % PROGRESS_INTERVAL == 0) {
+                            long elapsed = System.currentTimeMillis() - t0;
+                            LOG.info("{} / {} origins done, {} per second", new Object[] { done,
+                                    origins.size(), done * 1000 / Math.max(elapsed, 1) });
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        workers.shutdown();
+        try {
+            for (Future<Object> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        } catch (ExecutionException e) {
+            LOG.error("batch analysis failed", e.getCause());
+            workers.shutdownNow();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.error("cannot close batch output " + outputPath, e);
+            }
+        }
+        LOG.info("batch analysis of {} origins took {}msec", nDone.get(), 
+                System.currentTimeMillis() - t0);
+    }
+
+    private void processOrigin(Graph graph, int originIndex, ResultWriter writer) 
+            throws IOException {
+        Individual origin = origins.get(originIndex);
+        TimeSurface surface = null;
+        if (origin.sample != null && origin.sample.v0 != null)
+            surface = findTimeSurface(graph, makeOrigin(origin));
+        if (aggregator != null) {
+            // origins off the street network have no aggregate
+            double value = Double.NaN;
+            if (surface != null)
+                value = aggregator.computeAggregate(destinations, surface);
+            synchronized (writer) {
+                writer.writeAggregate(originIndex, origin, value);
+            }
+        } else {
+            long[] times = new long[destinations.size()];
+            for (int d = 0; d < times.length; d++) {
+                Sample s = destinations.get(d).sample;
+                times[d] = (surface == null || s == null) ? Long.MAX_VALUE : s.eval(surface);
+            }
+            synchronized (writer) {
+                writer.writeTimes(originIndex, origin, times);
+            }
+        }
+    }
+
+    /**
+     * A temporary vertex at the origin, with an edge to each street vertex of its sample taking 
+     * the time the sample gives for walking there. Edges leaving a temporary vertex are only in
+     * its own edge list, so the graph is unchanged and the vertex is dropped with the search.
+     */
+    private Vertex makeOrigin(Individual origin) {
+        Sample sample = origin.sample;
+        Vertex vertex = new IntersectionVertex(null, "batch origin " + origin.id, origin.lon,
+                origin.lat);
+        double reluctance = prototypeRoutingRequest.walkReluctance;
+        new SimpleEdge(vertex, sample.v0, sample.t0 * reluctance, sample.t0);
+        if (sample.v1 != null)
+            new SimpleEdge(vertex, sample.v1, sample.t1 * reluctance, sample.t1);
+        return vertex;
+    }
+
+    private TimeSurface findTimeSurface(Graph graph, Vertex origin) {
+        RoutingRequest req = prototypeRoutingRequest.clone();
+        req.setBatch(true);
+        req.setRoutingContext(graph, origin, origin);
+        try {
+            if (sweep != null)
+                return new TimeSurface(sweep.getPercentileSurfaces(req, departureWindow,
+                        departureStep, new double[] { percentile })[0]);
+            ShortestPathTree spt = sptService.getShortestPathTree(req);
+            if (spt == null)
+                return null;
+            TimeSurface surface = new TimeSurface(spt);
+            SearchWorkspace.recycle(spt);
+            return surface;
+        } finally {
+            req.cleanup();
+        }
+    }
+
 }
@@ -0,0 +1,43 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes batch results as a stream of big-endian records, one per origin: the origin's index as 
+ * an int, followed by either its aggregate value as a double or its travel time in seconds to 
+ * each destination as an int, with -1 where the destination was not reached. This is about a 
+ * third of the size of CSV output for travel times, and much faster to read back.
+ */
+public class BinaryResultWriter implements ResultWriter {
+
+    public static final int UNREACHED = -1;
+
+    private final DataOutputStream out;
+
+    public BinaryResultWriter(String fileName) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+    }
+
+    @Override
+    public void writeAggregate(int originIndex, Individual origin, double value)
+            throws IOException {
+        out.writeInt(originIndex);
+        out.writeDouble(value);
+    }
+
+    @Override
+    public void writeTimes(int originIndex, Individual origin, long[] times) throws IOException {
+        out.writeInt(originIndex);
+        for (long t : times)
+            out.writeInt(t > Integer.MAX_VALUE ? UNREACHED : (int) t);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
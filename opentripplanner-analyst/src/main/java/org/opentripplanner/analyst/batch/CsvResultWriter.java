@@ -0,0 +1,70 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes batch results as CSV, one line per origin: the origin's index, id and coordinates 
+ * followed by either its aggregate value or its travel time in seconds to each destination,
+ * left empty where the destination was not reached.
+ */
+public class CsvResultWriter implements ResultWriter {
+
+    private final Writer out;
+
+    private boolean headerWritten = false;
+
+    public CsvResultWriter(String fileName) throws IOException {
+        out = new BufferedWriter(new FileWriter(fileName));
+    }
+
+    @Override
+    public void writeAggregate(int originIndex, Individual origin, double value)
+            throws IOException {
+        if (!headerWritten) {
+            out.write("origin,id,lon,lat,value\n");
+            headerWritten = true;
+        }
+        writeOrigin(originIndex, origin);
+        out.write(',');
+        out.write(Double.toString(value));
+        out.write('\n');
+    }
+
+    @Override
+    public void writeTimes(int originIndex, Individual origin, long[] times) throws IOException {
+        if (!headerWritten) {
+            out.write("origin,id,lon,lat");
+            for (int d = 0; d < times.length; d++)
+                out.write(",d" + d);
+            out.write('\n');
+            headerWritten = true;
+        }
+        writeOrigin(originIndex, origin);
+        for (long t : times) {
+            out.write(',');
+            if (t != Long.MAX_VALUE)
+                out.write(Long.toString(t));
+        }
+        out.write('\n');
+    }
+
+    private void writeOrigin(int originIndex, Individual origin) throws IOException {
+        out.write(Integer.toString(originIndex));
+        out.write(',');
+        if (origin.id != null)
+            out.write(origin.id);
+        out.write(',');
+        out.write(Double.toString(origin.lon));
+        out.write(',');
+        out.write(Double.toString(origin.lat));
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
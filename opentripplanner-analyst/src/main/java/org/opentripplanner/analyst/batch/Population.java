@@ -6,7 +6,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.opentripplanner.analyst.core.Sample;
-import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.analyst.core.TimeSurface;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,7 +26,7 @@ public class Population extends ArrayList<Individual> {
         super(Arrays.asList(individuals));
     }
     
-    public void writeCsv(String outFileName, ShortestPathTree spt) {
+    public void writeCsv(String outFileName, TimeSurface surface) {
         LOG.debug("Writing population to CSV: {}", outFileName);
         File outFile = new File(outFileName);
         PrintWriter csvWriter;
@@ -37,7 +37,7 @@ public class Population extends ArrayList<Individual> {
                 Sample s = i.sample;
                 long t = Long.MAX_VALUE;
                 if (s != null)
-                    t = s.eval(spt);
+                    t = s.eval(surface);
                 csvWriter.printf("%f;%d\n", i.data, t);
             }
             csvWriter.close();
@@ -0,0 +1,24 @@
+package org.opentripplanner.analyst.batch;
+
+import java.io.IOException;
+
+/**
+ * Receives the results of a batch analysis one origin at a time, so that they can be written out
+ * as they are found rather than held in memory. Origins may arrive in any order; each result 
+ * carries the index of its origin in the origin population.
+ */
+public interface ResultWriter {
+
+    /** Record the aggregate value found for one origin. */
+    public void writeAggregate(int originIndex, Individual origin, double value) 
+            throws IOException;
+
+    /** 
+     * Record the travel times in seconds from one origin to every destination, with 
+     * Long.MAX_VALUE for destinations that were not reached. 
+     */
+    public void writeTimes(int originIndex, Individual origin, long[] times) throws IOException;
+
+    public void close() throws IOException;
+
+}
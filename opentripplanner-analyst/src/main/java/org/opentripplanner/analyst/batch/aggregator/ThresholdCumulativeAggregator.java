@@ -2,7 +2,7 @@ package org.opentripplanner.analyst.batch.aggregator;
 
 import org.opentripplanner.analyst.batch.Individual;
 import org.opentripplanner.analyst.batch.Population;
-import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.analyst.core.TimeSurface;
 
 /**
  * An aggregator that approximates the integral of a cumulative opportunity
@@ -22,10 +22,10 @@ public class ThresholdCumulativeAggregator implements Aggregator {
 	}
 
 	@Override
-	public double computeAggregate(Population destinations, ShortestPathTree spt) {
+	public double computeAggregate(Population destinations, TimeSurface surface) {
 		double result = 0;
 		for (Individual destination : destinations) {
-		    double t = destination.sample.eval(spt); 
+		    double t = destination.sample.eval(surface); 
 	            if (t < thresholdSeconds)
 	                result += destination.data * (thresholdSeconds - t);
 		}
@@ -2,7 +2,7 @@ package org.opentripplanner.analyst.batch.aggregator;
 
 import org.opentripplanner.analyst.batch.Individual;
 import org.opentripplanner.analyst.batch.Population;
-import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.analyst.core.TimeSurface;
 
 /**
  * An Aggregator that simply sums the data for all destination Individuals less
@@ -20,10 +20,10 @@ public class ThresholdSumAggregator implements Aggregator {
 	}
 
 	@Override
-	public double computeAggregate(Population destinations, ShortestPathTree spt) {
+	public double computeAggregate(Population destinations, TimeSurface surface) {
 		double result = 0;
 		for (Individual destination : destinations)
-			if (destination.sample.eval(spt) < thresholdSeconds)
+			if (destination.sample.eval(surface) < thresholdSeconds)
 				result += destination.data;
 
 		return result;
@@ -2,7 +2,7 @@ package org.opentripplanner.analyst.batch.aggregator;
 
 import org.opentripplanner.analyst.batch.Individual;
 import org.opentripplanner.analyst.batch.Population;
-import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.analyst.core.TimeSurface;
 
 /**
  * An Aggregator which calculates the weighted average of the shortest path
@@ -16,13 +16,13 @@ import org.opentripplanner.routing.spt.ShortestPathTree;
 public class WeightedAverageAggregator implements Aggregator {
 
 	@Override
-	public double computeAggregate(Population destinations, ShortestPathTree spt) {
+	public double computeAggregate(Population destinations, TimeSurface surface) {
 		double result = 0;
 		int n = 0;
 		for (Individual destination : destinations) {
 			if (Double.isInfinite(destination.data))
 				continue;
-			double t = destination.sample.eval(spt);
+			double t = destination.sample.eval(surface);
 			if (Double.isInfinite(t))
 				continue;
 
@@ -1,11 +1,8 @@
 package org.opentripplanner.analyst.core;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
-import org.geotools.referencing.CRS;
-import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.opengis.geometry.DirectPosition;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.MathTransform;
+import java.awt.image.BufferedImage;
+
+import org.opentripplanner.analyst.request.RenderRequest;
 import org.opentripplanner.analyst.request.TileRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,32 +18,17 @@ public class DynamicTile extends Tile {
     }
     
     public Sample[] getSamples() {
-        Sample[] ret = new Sample[width * height];
         long t0 = System.currentTimeMillis();
-        CoordinateReferenceSystem crs = gg.getCoordinateReferenceSystem2D();
+        double[] lons = new double[width * height];
+        double[] lats = new double[width * height];
+        Sample[] ret;
         try {
-            MathTransform tr = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84);
-            // grid coordinate object to be reused for examining each cell 
-            GridCoordinates2D coord = new GridCoordinates2D();
-            int i = 0, ns = 0;
-            for (int gy = 0; gy < height; gy++) {
-                for (int gx = 0; gx < width; gx++) {
-                    coord.x = gx;
-                    coord.y = gy;
-                    // find coordinates for current raster cell in tile CRS
-                    DirectPosition sourcePos = gg.gridToWorld(coord);
-                    // convert coordinates in tile CRS to WGS84
-                    tr.transform(sourcePos, sourcePos);
-                    // axis order can vary
-                    double lon = sourcePos.getOrdinate(0);
-                    double lat = sourcePos.getOrdinate(1);
-                    Sample s = ss.getSample(lon, lat);
-                    if (s != null)
-                        ns++;
-                    ret[i] = s;
-                    i++;
-                }
-            }
+            findPixelCoordinates(lons, lats);
+            ret = ss.getSamples(lons, lats, width);
+            int ns = 0;
+            for (Sample s : ret)
+                if (s != null)
+                    ns++;
             LOG.debug("finished preparing tile. number of samples: {}", ns); 
         } catch (Exception e) {
             LOG.error(e.getMessage());
@@ -57,4 +39,49 @@ public class DynamicTile extends Tile {
         return ret;
     }
 
+    @Override
+    public BufferedImage generateImage(TimeSurface surface, RenderRequest renderRequest) {
+        long t0 = System.currentTimeMillis();
+        BufferedImage image = getEmptyImage(renderRequest.style);
+        byte[] imagePixelData = getPixelData(image);
+        int i = 0;
+        for (Sample s : getSamples()) {
+            byte pixel;
+            if (s != null) {
+                pixel = timePixel(s.eval(surface));
+            } else {
+                pixel = TRANSPARENT;
+            }
+            imagePixelData[i] = pixel;
+            i++;
+        }
+        long t1 = System.currentTimeMillis();
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
+        return image;
+    }
+
+    @Override
+    public BufferedImage linearCombination(
+            double k1, TimeSurface surface1, 
+            double k2, TimeSurface surface2, 
+            double intercept, RenderRequest renderRequest) {
+        long t0 = System.currentTimeMillis();
+        BufferedImage image = getEmptyImage(renderRequest.style);
+        byte[] imagePixelData = getPixelData(image);
+        int i = 0;
+        for (Sample s : getSamples()) {
+            byte pixel;
+            if (s != null) {
+                pixel = combinationPixel(k1, s.eval(surface1), k2, s.eval(surface2), intercept);
+            } else {
+                pixel = TRANSPARENT;
+            }
+            imagePixelData[i] = pixel;
+            i++;
+        }
+        long t1 = System.currentTimeMillis();
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
+        return image;
+    }
+
 }
@@ -34,6 +34,25 @@ public class Sample {
         return (m0 < m1) ? m0 : m1; 
     }
     
+    public byte evalByte(TimeSurface surface) {
+        long t = eval(surface) / 60;
+        if (t >= 255)
+            t = 255;
+        return (byte) t;
+    }
+
+    public long eval(TimeSurface surface) {
+        int s0 = surface.getTime(v0);
+        int s1 = surface.getTime(v1);
+        long m0 = Long.MAX_VALUE;
+        long m1 = Long.MAX_VALUE;
+        if (s0 != TimeSurface.UNREACHABLE)
+            m0 = s0 + t0;
+        if (s1 != TimeSurface.UNREACHABLE)
+            m1 = s1 + t1;
+        return (m0 < m1) ? m0 : m1;
+    }
+
     public String toString() {
         return String.format("Sample: %s in %d min or %s in %d min\n", v0, t0, v1, t1);
     }
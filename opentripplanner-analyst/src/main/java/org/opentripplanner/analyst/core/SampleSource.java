@@ -4,4 +4,12 @@ public interface SampleSource {
 
     Sample getSample(double lon, double lat);
 
+    /**
+     * Find the samples for many points at once, such as the pixels of a tile. The points are 
+     * laid out in rows of the given width, so that neighboring points are close together.
+     * 
+     * @return the samples in the same order as the points, null where there is no sample
+     */
+    Sample[] getSamples(double[] lons, double[] lats, int width);
+
 }
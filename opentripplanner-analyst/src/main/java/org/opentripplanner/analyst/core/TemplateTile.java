@@ -1,57 +1,192 @@
 package org.opentripplanner.analyst.core;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
-import org.geotools.referencing.CRS;
-import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.opengis.geometry.DirectPosition;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.MathTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import org.opentripplanner.analyst.request.RenderRequest;
 import org.opentripplanner.analyst.request.TileRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A tile whose samples are found once and kept. Each pixel is stored as the indices of its two 
+ * nearest vertices and the walk times to them, in parallel arrays rather than as Sample objects, 
+ * so templates take little memory, can be written to disk, and render in a tight loop.
+ */
 public class TemplateTile extends Tile {
 
     private static final Logger LOG = LoggerFactory.getLogger(TemplateTile.class);
-    Sample[] samples;
+    private static final int NO_VERTEX = -1;
+    private static final int VERSION = 1;
+
+    /* vertex indices and walk times in seconds for each pixel, with NO_VERTEX where no sample */
+    final int[] v0s, v1s, t0s, t1s;
+    private boolean complete = false;
     
     public TemplateTile(TileRequest req, SampleSource sampleSource) {
         super(req);
-        this.samples = new Sample[width * height];
-        CoordinateReferenceSystem crs = gg.getCoordinateReferenceSystem2D(); 
-        int i = 0;
+        int n = width * height;
+        v0s = new int[n];
+        v1s = new int[n];
+        t0s = new int[n];
+        t1s = new int[n];
+        Arrays.fill(v0s, NO_VERTEX);
+        Arrays.fill(v1s, NO_VERTEX);
+        double[] lons = new double[n];
+        double[] lats = new double[n];
         try {
-            MathTransform tr = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84);
-            // grid coordinate object to be reused for examining each cell 
-            GridCoordinates2D coord = new GridCoordinates2D();
-            for (int gy = 0; gy < height; gy++) {
-                if (gy % 100 == 0)
-                    LOG.trace("raster line {} / {}", gy, height);
-                for (int gx = 0; gx < width; gx++) {
-                    coord.x = gx;
-                    coord.y = gy;
-                    // find coordinates for current raster cell in tile CRS
-                    DirectPosition sourcePos = gg.gridToWorld(coord);
-                    // convert coordinates in tile CRS to WGS84
-                    //LOG.debug("world : {}", sourcePos);
-                    tr.transform(sourcePos, sourcePos);
-                    //LOG.debug("wgs84 : {}", sourcePos);
-                    // axis order can vary
-                    double lon = sourcePos.getOrdinate(0);
-                    double lat = sourcePos.getOrdinate(1);
-                    // TODO: axes are reversed in the default mathtransform
-                    Sample s = sampleSource.getSample(lon, lat);
-                    samples[i++] = s;
+            findPixelCoordinates(lons, lats);
+            Sample[] samples = sampleSource.getSamples(lons, lats, width);
+            for (int i = 0; i < n; i++) {
+                Sample s = samples[i];
+                if (s != null && s.v0 != null) {
+                    v0s[i] = s.v0.getIndex();
+                    t0s[i] = s.t0;
+                    if (s.v1 != null) {
+                        v1s[i] = s.v1.getIndex();
+                        t1s[i] = s.t1;
+                    }
                 }
             }
+            complete = true;
         } catch (Exception e) {
             LOG.error(e.getMessage());
             return;
         }
     }
-    
-    public Sample[] getSamples() {
-        return this.samples;
+
+    private TemplateTile(TileRequest req, int[] v0s, int[] t0s, int[] v1s, int[] t1s) {
+        super(req);
+        this.v0s = v0s;
+        this.t0s = t0s;
+        this.v1s = v1s;
+        this.t1s = t1s;
+        this.complete = true;
+    }
+
+    /** @return false if finding the samples failed part way, leaving some pixels empty */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /* the same as Sample.eval, for the sample at pixel i */
+    private long eval(int i, TimeSurface surface) {
+        int s0 = surface.getTime(v0s[i]);
+        int s1 = surface.getTime(v1s[i]);
+        long m0 = Long.MAX_VALUE;
+        long m1 = Long.MAX_VALUE;
+        if (s0 != TimeSurface.UNREACHABLE)
+            m0 = s0 + t0s[i];
+        if (s1 != TimeSurface.UNREACHABLE)
+            m1 = s1 + t1s[i];
+        return (m0 < m1) ? m0 : m1;
+    }
+
+    @Override
+    public BufferedImage generateImage(TimeSurface surface, RenderRequest renderRequest) {
+        long t0 = System.currentTimeMillis();
+        BufferedImage image = getEmptyImage(renderRequest.style);
+        byte[] imagePixelData = getPixelData(image);
+        for (int i = 0; i < v0s.length; i++) {
+            if (v0s[i] == NO_VERTEX)
+                imagePixelData[i] = TRANSPARENT;
+            else
+                imagePixelData[i] = timePixel(eval(i, surface));
+        }
+        long t1 = System.currentTimeMillis();
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
+        return image;
+    }
+
+    @Override
+    public BufferedImage linearCombination(
+            double k1, TimeSurface surface1, 
+            double k2, TimeSurface surface2, 
+            double intercept, RenderRequest renderRequest) {
+        long t0 = System.currentTimeMillis();
+        BufferedImage image = getEmptyImage(renderRequest.style);
+        byte[] imagePixelData = getPixelData(image);
+        for (int i = 0; i < v0s.length; i++) {
+            if (v0s[i] == NO_VERTEX)
+                imagePixelData[i] = TRANSPARENT;
+            else
+                imagePixelData[i] = combinationPixel(k1, eval(i, surface1), k2,
+                        eval(i, surface2), intercept);
+        }
+        long t1 = System.currentTimeMillis();
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
+        return image;
+    }
+
+    /**
+     * Save this template to a file, along with a key identifying the request and graph it was
+     * made for. The file is replaced only once it is complete.
+     */
+    public void write(File file, String key) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            byte[] keyBytes = key.getBytes("UTF-8");
+            out.writeInt(VERSION);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeInt(v0s.length);
+            for (int[] array : new int[][] { v0s, t0s, v1s, t1s })
+                for (int x : array)
+                    out.writeInt(x);
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete())
+            throw new IOException("cannot replace tile template " + file);
+        if (!tmp.renameTo(file))
+            throw new IOException("cannot move tile template to " + file);
+    }
+
+    /**
+     * Load a template saved by write(). The file is memory mapped and copied straight into the 
+     * sample arrays.
+     * 
+     * @return null if the file holds a template for another key or tile size.
+     */
+    public static TemplateTile read(File file, TileRequest req, String key) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != VERSION)
+                return null;
+            int keyLength = buffer.getInt();
+            if (keyLength < 0 || keyLength > buffer.remaining())
+                return null;
+            byte[] keyBytes = new byte[keyLength];
+            buffer.get(keyBytes);
+            if (!key.equals(new String(keyBytes, "UTF-8")) || buffer.remaining() < 4)
+                return null;
+            int n = buffer.getInt();
+            IntBuffer ints = buffer.asIntBuffer();
+            if (n != req.width * req.height || ints.remaining() != 4 * n) {
+                LOG.warn("tile template {} does not match its request, ignoring it", file);
+                return null;
+            }
+            int[][] arrays = new int[4][n];
+            for (int[] array : arrays)
+                ints.get(array);
+            return new TemplateTile(req, arrays[0], arrays[1], arrays[2], arrays[3]);
+        } finally {
+            raf.close();
+        }
     }
 
 }
@@ -10,14 +10,19 @@ import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.Map;
 
+import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.geometry.DirectPosition;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 import org.opentripplanner.analyst.request.RenderRequest;
 import org.opentripplanner.analyst.request.TileRequest;
 import org.opentripplanner.analyst.parameter.Style;
-import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +30,7 @@ public abstract class Tile {
 
     /* STATIC */
     private static final Logger LOG = LoggerFactory.getLogger(Tile.class);
+    protected static final byte TRANSPARENT = (byte) 255;
     public static final Map<Style, IndexColorModel> modelsByStyle; 
     static {
         modelsByStyle = new EnumMap<Style, IndexColorModel>(Style.class);
@@ -170,62 +176,69 @@ public abstract class Tile {
             return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
     }
     
-    public BufferedImage generateImage(ShortestPathTree spt, RenderRequest renderRequest) {
-        long t0 = System.currentTimeMillis();
-        BufferedImage image = getEmptyImage(renderRequest.style);
-        byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+    /** Find the WGS84 coordinates of every pixel of this tile, row by row. */
+    protected void findPixelCoordinates(double[] lons, double[] lats) throws Exception {
+        CoordinateReferenceSystem crs = gg.getCoordinateReferenceSystem2D(); 
+        MathTransform tr = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84);
+        // grid coordinate object to be reused for examining each cell 
+        GridCoordinates2D coord = new GridCoordinates2D();
         int i = 0;
-        final byte TRANSPARENT = (byte) 255;
-        for (Sample s : getSamples()) {
-            byte pixel;
-            if (s != null) {
-                pixel = s.evalByte(spt);
-            } else {
-                pixel = TRANSPARENT;
+        for (int gy = 0; gy < height; gy++) {
+            for (int gx = 0; gx < width; gx++) {
+                coord.x = gx;
+                coord.y = gy;
+                // find coordinates for current raster cell in tile CRS
+                DirectPosition sourcePos = gg.gridToWorld(coord);
+                // convert coordinates in tile CRS to WGS84
+                tr.transform(sourcePos, sourcePos);
+                // axis order can vary
+                // TODO: axes are reversed in the default mathtransform
+                lons[i] = sourcePos.getOrdinate(0);
+                lats[i] = sourcePos.getOrdinate(1);
+                i++;
             }
-            imagePixelData[i] = pixel;
-            i++;
         }
-        long t1 = System.currentTimeMillis();
-        LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
-        return image;
     }
 
-    public BufferedImage linearCombination(
-            double k1, ShortestPathTree spt1, 
-            double k2, ShortestPathTree spt2, 
-            double intercept, RenderRequest renderRequest) {
-        long t0 = System.currentTimeMillis();
-        BufferedImage image = getEmptyImage(renderRequest.style);
-        byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-        int i = 0;
-        final byte TRANSPARENT = (byte) 255;
-        for (Sample s : getSamples()) {
-            byte pixel;
-            if (s != null) {
-                double t = (k1 * s.eval(spt1) + k2 * s.eval(spt2)) / 60 + intercept; 
-                if (t < 0 || t > 255)
-                    t = TRANSPARENT;
-                pixel = (byte) t;
-            } else {
-                pixel = TRANSPARENT;
-            }
-            imagePixelData[i] = pixel;
-            i++;
-        }
-        long t1 = System.currentTimeMillis();
-        LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
-        return image;
+    /** @return the byte array backing an image made by getEmptyImage */
+    protected static byte[] getPixelData(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /** @return the pixel value showing a travel time, in minutes up to 255 */
+    protected static byte timePixel(long seconds) {
+        long t = seconds / 60;
+        if (t >= 255)
+            t = 255;
+        return (byte) t;
+    }
+
+    /** @return the pixel value showing a linear combination of two travel times */
+    protected static byte combinationPixel(double k1, long seconds1, double k2, long seconds2,
+            double intercept) {
+        double t = (k1 * seconds1 + k2 * seconds2) / 60 + intercept; 
+        if (t < 0 || t > 255)
+            t = TRANSPARENT;
+        return (byte) t;
+    }
+
+    public int getPixelCount() {
+        return width * height;
     }
 
+    public abstract BufferedImage generateImage(TimeSurface surface, RenderRequest renderRequest);
+
+    public abstract BufferedImage linearCombination(
+            double k1, TimeSurface surface1, 
+            double k2, TimeSurface surface2, 
+            double intercept, RenderRequest renderRequest);
+
     public GridCoverage2D getGridCoverage2D(BufferedImage image) {
         GridCoverage2D gridCoverage = new GridCoverageFactory()
             .create("isochrone", image, gg.getEnvelope2D());
         return gridCoverage;
     }
 
-    public abstract Sample[] getSamples();
-
     public static BufferedImage getLegend(Style style, int width, int height) {
         final int NBANDS = 150;
         final int LABEL_SPACING = 30; 
@@ -0,0 +1,68 @@
+package org.opentripplanner.analyst.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+/**
+ * The travel times from one origin to every vertex reached by a batch search, in seconds, kept 
+ * in an array indexed by vertex index. This is all that samples and tiles read from a search, 
+ * and is a small fraction of the size of the shortest path tree it is made from, so many more 
+ * of them can be cached.
+ */
+public class TimeSurface {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final int[] times;
+
+    /** 
+     * Record the earliest arrival at each graph vertex of the given tree. The tree is not 
+     * referenced afterward and can be discarded or recycled. The array only reaches the largest 
+     * index in the tree: temporary vertices, whose indices keep growing as requests are made, 
+     * are left out, since samples are always linked to graph vertices.
+     */
+    public TimeSurface(ShortestPathTree spt) {
+        Collection<? extends State> states = spt.getAllStates();
+        int maxIndex = -1;
+        for (State s : states) {
+            Vertex v = s.getVertex();
+            if (!v.isTemporary())
+                maxIndex = Math.max(maxIndex, v.getIndex());
+        }
+        times = new int[maxIndex + 1];
+        Arrays.fill(times, UNREACHABLE);
+        for (State s : states) {
+            Vertex v = s.getVertex();
+            if (v.isTemporary())
+                continue;
+            int index = v.getIndex();
+            long t = s.getElapsedTime();
+            if (t < times[index])
+                times[index] = (int) t;
+        }
+    }
+
+    /** Wrap travel times already indexed by vertex index, UNREACHABLE where there are none. */
+    public TimeSurface(int[] times) {
+        this.times = times;
+    }
+
+    /** @return the travel time to the given vertex in seconds, or UNREACHABLE */
+    public int getTime(Vertex v) {
+        if (v == null)
+            return UNREACHABLE;
+        return getTime(v.getIndex());
+    }
+
+    /** @return the travel time to the vertex with the given index, or UNREACHABLE */
+    public int getTime(int index) {
+        if (index < 0 || index >= times.length)
+            return UNREACHABLE;
+        return times[index];
+    }
+
+}
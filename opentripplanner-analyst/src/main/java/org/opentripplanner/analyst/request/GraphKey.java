@@ -0,0 +1,38 @@
+package org.opentripplanner.analyst.request;
+
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * A cache key made of a request and the graph it is answered on. Two keys are equal when their
+ * requests are equal and their graphs have the same build id, so that entries computed on a graph
+ * are not returned once another graph is loaded in its place.
+ */
+class GraphKey<R> {
+
+    public final R request;
+
+    public final Graph graph;
+
+    public GraphKey(R request, Graph graph) {
+        this.request = request;
+        this.graph = graph;
+    }
+
+    public int hashCode() {
+        return request.hashCode() * 31 + graph.getBuildId().hashCode();
+    }
+
+    public boolean equals(Object other) {
+        if (other instanceof GraphKey) {
+            GraphKey<?> that = (GraphKey<?>) other;
+            return this.request.equals(that.request) &&
+                   this.graph.getBuildId().equals(that.graph.getBuildId());
+        }
+        return false;
+    }
+
+    public String toString() {
+        return String.format("%s on graph %s", request, graph.getBuildId());
+    }
+
+}
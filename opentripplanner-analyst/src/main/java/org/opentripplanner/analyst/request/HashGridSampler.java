@@ -92,6 +92,14 @@ public class HashGridSampler implements SampleSource {
         return null;
     }
 
+    @Override
+    public Sample[] getSamples(double[] lons, double[] lats, int width) {
+        Sample[] samples = new Sample[lons.length];
+        for (int i = 0; i < lons.length; i++)
+            samples[i] = getSample(lons[i], lats[i]);
+        return samples;
+    }
+
     private static int timeToVertex(RasterizedSegment segment, Coordinate coordOnSegment, 
                                     double distToSegment) {
         if (segment == null)
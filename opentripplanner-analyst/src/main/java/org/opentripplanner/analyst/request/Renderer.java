@@ -16,10 +16,10 @@ import org.geotools.gce.geotiff.GeoTiffWriteParams;
 import org.geotools.gce.geotiff.GeoTiffWriter;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValueGroup;
+import org.opentripplanner.analyst.core.TimeSurface;
 import org.opentripplanner.analyst.core.Tile;
 import org.opentripplanner.analyst.parameter.MIMEImageFormat;
 import org.opentripplanner.routing.core.RoutingRequest;
-import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,28 +34,28 @@ public class Renderer {
     private TileCache tileCache;
 
     @Autowired
-    private SPTCache sptCache;
+    private TimeSurfaceCache surfaceCache;
 
     public Response getResponse (TileRequest tileRequest, 
             RoutingRequest sptRequestA, RoutingRequest sptRequestB, 
             RenderRequest renderRequest) throws Exception {
 
         Tile tile = tileCache.get(tileRequest);
-        ShortestPathTree sptA = sptCache.get(sptRequestA);
-        ShortestPathTree sptB = sptCache.get(sptRequestB);
+        TimeSurface surfaceA = surfaceCache.get(sptRequestA);
+        TimeSurface surfaceB = surfaceCache.get(sptRequestB);
         
         BufferedImage image;
         switch (renderRequest.layer) {
         case DIFFERENCE :
-            image = tile.linearCombination(1, sptA, -1, sptB, 128, renderRequest);
+            image = tile.linearCombination(1, surfaceA, -1, surfaceB, 128, renderRequest);
             break;
         case HAGERSTRAND :
             long elapsed = Math.abs(sptRequestB.dateTime - sptRequestA.dateTime);
-            image = tile.linearCombination(-1, sptA, -1, sptB, elapsed/60, renderRequest);
+            image = tile.linearCombination(-1, surfaceA, -1, surfaceB, elapsed/60, renderRequest);
             break;
         case TRAVELTIME :
         default :
-            image = tile.generateImage(sptA, renderRequest);
+            image = tile.generateImage(surfaceA, renderRequest);
         }
         
         // geotiff kludge
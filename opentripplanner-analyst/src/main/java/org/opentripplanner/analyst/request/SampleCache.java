@@ -39,4 +39,12 @@ public class SampleCache implements SampleSource {
         return ret;
     }
 
+    @Override
+    public Sample[] getSamples(double[] lons, double[] lats, int width) {
+        Sample[] samples = new Sample[lons.length];
+        for (int i = 0; i < lons.length; i++)
+            samples[i] = getSample(lons[i], lats[i]);
+        return samples;
+    }
+
 }
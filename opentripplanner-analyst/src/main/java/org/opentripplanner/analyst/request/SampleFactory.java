@@ -1,25 +1,24 @@
 package org.opentripplanner.analyst.request;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.opentripplanner.analyst.core.GeometryIndex;
 import org.opentripplanner.analyst.core.Sample;
 import org.opentripplanner.analyst.core.SampleSource;
 import org.opentripplanner.routing.vertextype.TurnVertex;
 import org.opentripplanner.common.geometry.DistanceLibrary;
-import org.opentripplanner.common.geometry.GeometryUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.linearref.LinearLocation;
-import com.vividsolutions.jts.linearref.LocationIndexedLine;
-import com.vividsolutions.jts.operation.distance.DistanceOp;
-import com.vividsolutions.jts.operation.distance.GeometryLocation;
 
 @Component
 public class SampleFactory implements SampleSource {
@@ -27,78 +26,208 @@ public class SampleFactory implements SampleSource {
     private static final double SEARCH_RADIUS_M = 150; // meters
     private static final double SEARCH_RADIUS_DEG = DistanceLibrary.metersToDegrees(SEARCH_RADIUS_M);
 
+    /* points are sampled in blocks of this many rows and columns, sharing one index query */
+    private static final int BLOCK_ROWS = 8;
+    private static final int BLOCK_COLUMNS = 16;
+
+    /* blocks spread wider than this (at low zoom levels) query the index for each point */
+    private static final double MAX_SHARED_QUERY_DEG = 2 * SEARCH_RADIUS_DEG;
+
     @Autowired
     private GeometryIndex index;
 
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "sample-factory");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /* the nearest point on a street geometry to the point being sampled */
+    private static class Snap {
+        TurnVertex vertex;
+        double distance;
+        double lengthRatio;
+        double x, y;
+    }
+
     @Override
     /** implements SampleSource interface */
     public Sample getSample(double lon, double lat) {
-        Coordinate c = new Coordinate(lon, lat);
-        Point p = GeometryUtils.getGeometryFactory().createPoint(c);
-        
-        // track best two turn vertices
-        TurnVertex v0 = null;
-        TurnVertex v1 = null;
-        DistanceOp o0 = null;
-        DistanceOp o1 = null;
-        double d0 = Double.MAX_VALUE;
-        double d1 = Double.MAX_VALUE;
-
-        // query
-        Envelope env = new Envelope(c);
+        Envelope env = new Envelope(lon, lon, lat, lat);
         env.expandBy(SEARCH_RADIUS_DEG, SEARCH_RADIUS_DEG);
         @SuppressWarnings("unchecked")
         List<TurnVertex> vs = (List<TurnVertex>) index.queryPedestrian(env);
         // query always returns a (possibly empty) list, but never null
-        
+        return makeSample(lon, lat, vs, new Snap[] { new Snap(), new Snap(), new Snap() });
+    }
+
+    /**
+     * Sample a grid of points, such as the pixels of a tile. Neighboring points share the street 
+     * geometries found by one index query, and groups of rows are sampled in parallel.
+     */
+    @Override
+    public Sample[] getSamples(final double[] lons, final double[] lats, final int width) {
+        final Sample[] samples = new Sample[lons.length];
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        final int rows = (lons.length + width - 1) / width;
+        for (int row = 0; row < rows; row += BLOCK_ROWS) {
+            final int firstRow = row;
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    int lastRow = Math.min(firstRow + BLOCK_ROWS, rows);
+                    for (int col = 0; col < width; col += BLOCK_COLUMNS) {
+                        sampleBlock(lons, lats, width, firstRow, lastRow, col,
+                                Math.min(col + BLOCK_COLUMNS, width), samples);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> future : executor.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while sampling", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return samples;
+    }
+
+    private void sampleBlock(double[] lons, double[] lats, int width, int firstRow, int lastRow,
+            int firstCol, int lastCol, Sample[] samples) {
+        Envelope env = new Envelope();
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int col = firstCol; col < lastCol; col++) {
+                int i = row * width + col;
+                if (i < lons.length)
+                    env.expandToInclude(lons[i], lats[i]);
+            }
+        }
+        if (env.isNull())
+            return;
+        List<TurnVertex> shared = null;
+        if (env.getWidth() <= MAX_SHARED_QUERY_DEG && env.getHeight() <= MAX_SHARED_QUERY_DEG) {
+            env.expandBy(SEARCH_RADIUS_DEG, SEARCH_RADIUS_DEG);
+            @SuppressWarnings("unchecked")
+            List<TurnVertex> vs = (List<TurnVertex>) index.queryPedestrian(env);
+            shared = vs;
+        }
+        Snap[] work = new Snap[] { new Snap(), new Snap(), new Snap() };
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int col = firstCol; col < lastCol; col++) {
+                int i = row * width + col;
+                if (i >= lons.length)
+                    break;
+                if (shared != null)
+                    samples[i] = makeSample(lons[i], lats[i], shared, work);
+                else
+                    samples[i] = getSample(lons[i], lats[i]);
+            }
+        }
+    }
+
+    /* make a sample from the two nearest of the candidate street geometries */
+    private Sample makeSample(double lon, double lat, List<TurnVertex> candidates, Snap[] work) {
+        // track best two turn vertices
+        Snap s0 = work[0];
+        Snap s1 = work[1];
+        Snap scratch = work[2];
+        s0.vertex = null;
+        s1.vertex = null;
+        s0.distance = Double.MAX_VALUE;
+        s1.distance = Double.MAX_VALUE;
+
         // find two closest among nearby geometries
-        for (TurnVertex v : vs) {
-            Geometry g = v.getGeometry();
-            DistanceOp o = new DistanceOp(p, g);
-            double d = o.distance();
+        for (TurnVertex v : candidates) {
+            Envelope e = v.getGeometry().getEnvelopeInternal();
+            if (e.getMinX() - SEARCH_RADIUS_DEG > lon || e.getMaxX() + SEARCH_RADIUS_DEG < lon
+                    || e.getMinY() - SEARCH_RADIUS_DEG > lat
+                    || e.getMaxY() + SEARCH_RADIUS_DEG < lat)
+                continue;
+            snap(lon, lat, v, scratch);
+            double d = scratch.distance;
             if (d > SEARCH_RADIUS_DEG)
                 continue;
-            if (d < d1) {
-                if (d < d0) {
-                    v1 = v0;
-                    o1 = o0;
-                    d1 = d0;
-                    v0 = v;
-                    o0 = o;
-                    d0 = d;
+            if (d < s1.distance) {
+                Snap free = s1;
+                if (d < s0.distance) {
+                    s1 = s0;
+                    s0 = scratch;
                 } else {
-                    v1 = v;
-                    o1 = o;
-                    d1 = d;
+                    s1 = scratch;
                 }
+                scratch = free;
             }
         }
         
         // if at least one vertex was found make a sample
-        if (v0 != null) { 
-            int t0 = timeToVertex(v0, o0);
-            int t1 = timeToVertex(v1, o1);
-            Sample s = new Sample(v0, t0, v1, t1);
+        if (s0.vertex != null) { 
+            int t0 = timeToVertex(lon, lat, s0);
+            int t1 = timeToVertex(lon, lat, s1);
+            Sample s = new Sample(s0.vertex, t0, s1.vertex, t1);
             return s;
         }
         return null;
     }
 
-    private static int timeToVertex(TurnVertex v, DistanceOp o) {
-        if (v == null)
-            return -1;
-        GeometryLocation[] gl = o.nearestLocations();
-        Geometry g = v.getGeometry();
-        LocationIndexedLine lil = new LocationIndexedLine(g);
-        LinearLocation ll = lil.indexOf(gl[1].getCoordinate());
-        LineString beginning = (LineString) 
-                lil.extractLine(lil.getStartIndex(), ll);                    
+    /* 
+     * Find the nearest point on the street geometry, and how far along the geometry it lies, in
+     * one pass over its segments. This gives the same results as a DistanceOp followed by a
+     * LocationIndexedLine, without making any intermediate geometries.
+     */
+    private static void snap(double lon, double lat, TurnVertex v, Snap snap) {
+        Coordinate[] coords = v.getGeometry().getCoordinates();
+        double best = Double.MAX_VALUE;
+        double bestAlong = 0;
+        double along = 0;
+        double bestX = coords[0].x;
+        double bestY = coords[0].y;
+        for (int i = 0; i < coords.length - 1; i++) {
+            Coordinate a = coords[i];
+            Coordinate b = coords[i + 1];
+            double dx = b.x - a.x;
+            double dy = b.y - a.y;
+            double len2 = dx * dx + dy * dy;
+            double r = 0;
+            if (len2 > 0) {
+                r = ((lon - a.x) * dx + (lat - a.y) * dy) / len2;
+                if (r < 0)
+                    r = 0;
+                else if (r > 1)
+                    r = 1;
+            }
+            double x = a.x + r * dx;
+            double y = a.y + r * dy;
+            double d = Math.sqrt((lon - x) * (lon - x) + (lat - y) * (lat - y));
+            double segmentLength = Math.sqrt(len2);
+            if (d < best) {
+                best = d;
+                bestAlong = along + r * segmentLength;
+                bestX = x;
+                bestY = y;
+            }
+            along += segmentLength;
+        }
+        snap.vertex = v;
+        snap.distance = best;
         // WRONG: using unprojected coordinates
-        double lengthRatio = beginning.getLength() / g.getLength();
-        double distOnStreet = v.getLength() * lengthRatio;
-        double distToStreet = DistanceLibrary.fastDistance(
-                gl[0].getCoordinate(), 
-                gl[1].getCoordinate());
+        snap.lengthRatio = along > 0 ? bestAlong / along : 0;
+        snap.x = bestX;
+        snap.y = bestY;
+    }
+
+    private static int timeToVertex(double lon, double lat, Snap snap) {
+        if (snap.vertex == null)
+            return -1;
+        double distOnStreet = snap.vertex.getLength() * snap.lengthRatio;
+        double distToStreet = DistanceLibrary.fastDistance(lat, lon, snap.y, snap.x);
         double dist = distOnStreet + distToStreet;
         int t = (int) (dist / 1.33);
         return t;
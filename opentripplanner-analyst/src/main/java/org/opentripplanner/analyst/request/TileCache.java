@@ -1,8 +1,13 @@
 package org.opentripplanner.analyst.request;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.opentripplanner.analyst.core.DynamicTile;
 import org.opentripplanner.analyst.core.TemplateTile;
 import org.opentripplanner.analyst.core.Tile;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.GraphService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,45 +19,101 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.cache.Weigher;
 
 @Component
-public class TileCache extends CacheLoader<TileRequest, Tile> 
-    implements  Weigher<TileRequest, Tile> { 
+public class TileCache extends CacheLoader<GraphKey<TileRequest>, Tile> 
+    implements  Weigher<GraphKey<TileRequest>, Tile> { 
     
     private static final Logger LOG = LoggerFactory.getLogger(TileCache.class);
 
+    /* about 2000 tiles of 256 by 256 pixels, at 16 bytes per pixel */
+    private static final long MAX_PIXELS = 2000L * 256 * 256;
+
     @Autowired
     private SampleFactory sampleFactory;
     
+    @Autowired
+    private GraphService graphService;
+
 //    @Autowired
 //    private HashGridSampler hashSampler;
 //
 //    @Autowired
 //    private SampleCache sampleCache;
 
-    private final LoadingCache<TileRequest, Tile> tileCache = CacheBuilder
+    private File cacheDirectory;
+
+    /* tiles are keyed on the graph as well, since their samples refer to its vertices */
+    private final LoadingCache<GraphKey<TileRequest>, Tile> tileCache = CacheBuilder
             .newBuilder()
             .concurrencyLevel(32)
-            .maximumSize(900)
+            .maximumWeight(MAX_PIXELS)
+            .weigher(this)
             //.softValues()
             .build(this);
 
+    /** 
+     * Keep tile templates in this directory as well as in memory, so that they survive restarts.
+     * Templates made for another graph are not used.
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
     @Override
     /** completes the abstract CacheLoader superclass */
-    public Tile load(TileRequest req) throws Exception {
+    public Tile load(GraphKey<TileRequest> key) throws Exception {
         LOG.debug("tile cache miss; cache size is {}", this.tileCache.size());
+        TileRequest req = key.request;
+        if (cacheDirectory != null)
+            return loadTemplate(req, key.graph);
         return new TemplateTile(req, sampleFactory);
         //return new TemplateTile(req, hashSampler);
         //return new DynamicTile(req, hashSampler);
         //return new DynamicTile(req, sampleFactory);
     }
 
+    private Tile loadTemplate(TileRequest req, Graph graph) {
+        String key = getKey(req, graph);
+        File file = new File(cacheDirectory, Integer.toHexString(key.hashCode()) + ".tile");
+        if (file.exists()) {
+            try {
+                TemplateTile tile = TemplateTile.read(file, req, key);
+                if (tile != null)
+                    return tile;
+            } catch (IOException e) {
+                LOG.warn("cannot read tile template {} : {}", file, e.getMessage());
+            }
+        }
+        TemplateTile tile = new TemplateTile(req, sampleFactory);
+        if (tile.isComplete()) {
+            try {
+                cacheDirectory.mkdirs();
+                tile.write(file, key);
+            } catch (IOException e) {
+                LOG.warn("cannot write tile template {} : {}", file, e.getMessage());
+            }
+        }
+        return tile;
+    }
+
+    /* 
+     * Identify a tile request and the graph whose vertex indices the template refers to. A saved
+     * graph keeps its build id each time it is loaded, and any rebuilt graph gets a new one.
+     */
+    private String getKey(TileRequest req, Graph graph) {
+        return String.format("%s %s %s %s %s %d %d graph %s", 
+                req.bbox.getCoordinateReferenceSystem().getName(),
+                req.bbox.getMinX(), req.bbox.getMinY(), req.bbox.getWidth(), req.bbox.getHeight(),
+                req.width, req.height, graph.getBuildId());
+    }
+
     /** delegate to the tile LoadingCache */
     public Tile get(TileRequest req) throws Exception {
-        return tileCache.get(req);
+        return tileCache.get(new GraphKey<TileRequest>(req, graphService.getGraph()));
     }
     
     @Override
-    public int weigh(TileRequest req, Tile tile) {
-        return tile.getSamples().length;
+    public int weigh(GraphKey<TileRequest> key, Tile tile) {
+        return tile.getPixelCount();
     }
     
 }
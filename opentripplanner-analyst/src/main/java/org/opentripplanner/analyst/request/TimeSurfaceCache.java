@@ -0,0 +1,62 @@
+package org.opentripplanner.analyst.request;
+
+import org.opentripplanner.analyst.core.TimeSurface;
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Caches the travel times from recently requested origins. Only a time surface is kept from 
+ * each search, which is much smaller than the shortest path tree, so many more origins fit.
+ * Surfaces are keyed on the graph as well, so a reloaded or rebuilt graph gets new ones.
+ */
+@Component
+public class TimeSurfaceCache extends CacheLoader<GraphKey<RoutingRequest>, TimeSurface> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeSurfaceCache.class);
+
+    @Autowired private SPTService sptService; 
+    
+    @Autowired private GraphService graphService; 
+
+    private LoadingCache<GraphKey<RoutingRequest>, TimeSurface> surfaceCache = CacheBuilder
+            .newBuilder()
+            .concurrencyLevel(16)
+            .maximumSize(256)
+            .build(this);
+
+    @Override /** completes the abstract CacheLoader superclass */
+    public TimeSurface load(GraphKey<RoutingRequest> key) throws Exception {
+        LOG.debug("time surface cache miss : {}", key);
+        RoutingRequest req = key.request;
+        req.setRoutingContext(key.graph);
+        try {
+            long t0 = System.currentTimeMillis();
+            ShortestPathTree spt = sptService.getShortestPathTree(req);
+            TimeSurface surface = new TimeSurface(spt);
+            SearchWorkspace.recycle(spt);
+            long t1 = System.currentTimeMillis();
+            LOG.debug("calculated time surface in {}msec", (int) (t1 - t0));
+            return surface;
+        } finally {
+            req.cleanup();
+        }
+    }
+
+    public TimeSurface get(RoutingRequest req) throws Exception {
+        if (req == null)
+            return null;
+        return surfaceCache.get(new GraphKey<RoutingRequest>(req, graphService.getGraph()));
+    }
+    
+}
@@ -0,0 +1,41 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.api.model.analysis;
+
+import org.opentripplanner.util.monitoring.Histogram;
+
+/** The count, extremes, mean and rough percentiles of a histogram of the monitoring store. */
+public class HistogramSummary {
+    public long count;
+    public long min;
+    public long max;
+    public double mean;
+    public long p50;
+    public long p90;
+    public long p99;
+
+    public HistogramSummary() {
+    }
+
+    public HistogramSummary(Histogram histogram) {
+        count = histogram.getCount();
+        min = histogram.getMin();
+        max = histogram.getMax();
+        mean = histogram.getMean();
+        p50 = histogram.getPercentile(0.5);
+        p90 = histogram.getPercentile(0.9);
+        p99 = histogram.getPercentile(0.99);
+    }
+}
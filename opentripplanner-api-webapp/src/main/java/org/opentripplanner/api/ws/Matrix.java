@@ -0,0 +1,162 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.opentripplanner.api.common.ParameterException;
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.services.MatrixService;
+import org.opentripplanner.routing.services.MatrixService.RowHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.sun.jersey.api.spring.Autowire;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Travel times from every origin to every destination, for dispatch and accessibility studies
+ * that would otherwise need one trip plan per pair. Origins and destinations are given as
+ * repeated <code>origin</code> and <code>destination</code> parameters, each a latitude,
+ * longitude pair; the other parameters are those of the trip planner.
+ * 
+ * Long lists of places can be POSTed as CSV instead, one place per line: the word
+ * <code>origin</code> or <code>destination</code> followed by its latitude and longitude, such as
+ * <code>origin,45.52,-122.68</code>. The trip planner parameters stay in the query string.
+ * 
+ * The result is streamed as CSV while it is computed, one line per origin: the index of the
+ * origin followed by the travel time in seconds to each destination, left empty where a
+ * destination cannot be reached.
+ */
+@Path("/matrix") // NOTE - /ws/matrix is the full path -- see web.xml
+@XmlRootElement
+@Autowire
+public class Matrix extends RoutingResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Matrix.class);
+
+    @Autowired public MatrixService matrixService;
+
+    /** The origins of the trips, as latitude, longitude pairs. */
+    @QueryParam("origin") protected List<String> origin;
+
+    /** The destinations of the trips, as latitude, longitude pairs. */
+    @QueryParam("destination") protected List<String> destination;
+
+    @GET
+    @Produces("text/csv")
+    public StreamingOutput getMatrix() {
+        return getMatrix(parseCoordinates(origin), parseCoordinates(destination));
+    }
+
+    @POST
+    @Consumes("text/csv")
+    @Produces("text/csv")
+    public StreamingOutput postMatrix(String places) {
+        List<String> origins = new ArrayList<String>();
+        List<String> destinations = new ArrayList<String>();
+        for (String line : places.split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            String[] place = line.split(",", 2);
+            if (place.length == 2 && place[0].trim().equals("origin"))
+                origins.add(place[1]);
+            else if (place.length == 2 && place[0].trim().equals("destination"))
+                destinations.add(place[1]);
+            else
+                throw new WebApplicationException(new IllegalArgumentException(line),
+                        Status.BAD_REQUEST);
+        }
+        return getMatrix(parseCoordinates(origins), parseCoordinates(destinations));
+    }
+
+    private StreamingOutput getMatrix(final List<Coordinate> origins,
+            final List<Coordinate> destinations) {
+        final RoutingRequest request;
+        try {
+            request = super.buildRequest();
+        } catch (ParameterException e) {
+            throw new WebApplicationException(e, Status.BAD_REQUEST);
+        }
+        return new StreamingOutput() {
+            public void write(OutputStream outStream) throws IOException {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(outStream,
+                        "UTF-8"));
+                try {
+                    matrixService.getMatrix(request, origins, destinations, new RowHandler() {
+                        public void handleRow(int origin, double[] weights, double[] durations) {
+                            try {
+                                writer.write(Integer.toString(origin));
+                                for (double duration : durations) {
+                                    writer.write(',');
+                                    if (duration != Double.POSITIVE_INFINITY)
+                                        writer.write(Long.toString(Math.round(duration)));
+                                }
+                                writer.write('\n');
+                                writer.flush();
+                            } catch (IOException e) {
+                                throw new WebApplicationException(e);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    LOG.error("exception while computing matrix : {}", e.getMessage());
+                    throw e;
+                } finally {
+                    writer.flush();
+                }
+            }
+        };
+    }
+
+    private static List<Coordinate> parseCoordinates(List<String> places) {
+        List<Coordinate> coordinates = new ArrayList<Coordinate>();
+        if (places == null)
+            return coordinates;
+        for (String place : places) {
+            String[] latLon = place.split(",");
+            try {
+                if (latLon.length != 2)
+                    throw new NumberFormatException(place);
+                double lat = Double.parseDouble(latLon[0].trim());
+                double lon = Double.parseDouble(latLon[1].trim());
+                coordinates.add(new Coordinate(lon, lat));
+            } catch (NumberFormatException e) {
+                throw new WebApplicationException(e, Status.BAD_REQUEST);
+            }
+        }
+        return coordinates;
+    }
+
+}
@@ -250,31 +250,34 @@ public class TransitIndex {
         Vertex boarding = preBoardEdge.getToVertex();
 
         RoutingRequest options = makeTraverseOptions(startTime, routerId);
-
-        //add all departures
-        HashSet<AgencyAndId> trips = new HashSet<AgencyAndId>();
-        StopTimeList result = new StopTimeList();
-        result.stopTimes = new ArrayList<StopTime>();
-        for (Edge e : boarding.getOutgoing()) {
-            // each of these edges boards a separate set of trips
-            for (StopTime st : getStopTimesForBoardEdge(startTime, endTime, options, e)) {
-                result.stopTimes.add(st);
-                trips.add(st.trip);
+        try {
+            //add all departures
+            HashSet<AgencyAndId> trips = new HashSet<AgencyAndId>();
+            StopTimeList result = new StopTimeList();
+            result.stopTimes = new ArrayList<StopTime>();
+            for (Edge e : boarding.getOutgoing()) {
+                // each of these edges boards a separate set of trips
+                for (StopTime st : getStopTimesForBoardEdge(startTime, endTime, options, e)) {
+                    result.stopTimes.add(st);
+                    trips.add(st.trip);
+                }
             }
-        }
 
-        //add the arriving stop times for cases where there are no departures
-        Edge preAlightEdge = transitIndexService.getPreAlightEdge(stop);
-        Vertex alighting = preAlightEdge.getFromVertex();
-        for (Edge e : alighting.getIncoming()) {
-            for (StopTime st : getStopTimesForAlightEdge(startTime, endTime, options, e)) {
-                if (!trips.contains(st.trip)) {
-                    result.stopTimes.add(st);
+            //add the arriving stop times for cases where there are no departures
+            Edge preAlightEdge = transitIndexService.getPreAlightEdge(stop);
+            Vertex alighting = preAlightEdge.getFromVertex();
+            for (Edge e : alighting.getIncoming()) {
+                for (StopTime st : getStopTimesForAlightEdge(startTime, endTime, options, e)) {
+                    if (!trips.contains(st.trip)) {
+                        result.stopTimes.add(st);
+                    }
                 }
             }
-        }
 
-        return result;
+            return result;
+        } finally {
+            options.cleanup();
+        }
     }
 
     private RoutingRequest makeTraverseOptions(long startTime, String routerId) {
@@ -316,43 +319,46 @@ public class TransitIndex {
 
         RouteVariant variant = transitIndexService.getVariantForTrip(trip);
         RoutingRequest options = makeTraverseOptions(time, routerId);
-
-        StopTimeList result = new StopTimeList();
-        result.stopTimes = new ArrayList<StopTime>();
-        State state = null;
-        RouteSegment start = null;
-        for (RouteSegment segment : variant.getSegments()) {
-            //this is all segments across all patterns that match this variant
-            if (segment.stop.equals(firstStop)) {
-                //this might be the correct start segment, but we need to try traversing and see if we get this trip
-                // TODO: verify options and state creation correctness (AMB)
-                State s0 = new State(segment.board.getFromVertex(), options);
-                state = segment.board.traverse(s0);
-                if (state == null) continue;
-                if (state.getBackEdgeNarrative().getTrip().getId().equals(trip)) {
-                    start = segment;
-                    StopTime st = new StopTime();
-                    st.time = state.getTime();
-                    st.stop = segment.stop;
-                    result.stopTimes.add(st);
-                    break;
+        try {
+            StopTimeList result = new StopTimeList();
+            result.stopTimes = new ArrayList<StopTime>();
+            State state = null;
+            RouteSegment start = null;
+            for (RouteSegment segment : variant.getSegments()) {
+                //this is all segments across all patterns that match this variant
+                if (segment.stop.equals(firstStop)) {
+                    //this might be the correct start segment, but we need to try traversing and see if we get this trip
+                    // TODO: verify options and state creation correctness (AMB)
+                    State s0 = new State(segment.board.getFromVertex(), options);
+                    state = segment.board.traverse(s0);
+                    if (state == null) continue;
+                    if (state.getBackEdgeNarrative().getTrip().getId().equals(trip)) {
+                        start = segment;
+                        StopTime st = new StopTime();
+                        st.time = state.getTime();
+                        st.stop = segment.stop;
+                        result.stopTimes.add(st);
+                        break;
+                    }
                 }
             }
-        }
-        if (start == null) {
-            return null;
-        }
+            if (start == null) {
+                return null;
+            }
 
-        for (RouteSegment segment :  variant.segmentsAfter(start)) {
-            // TODO: verify options/state init correctness
-            State s0 = new State(segment.hopIn.getFromVertex(), state.getTime(), options);
-            state = segment.hopIn.traverse(s0);
-            StopTime st = new StopTime();
-            st.time = state.getTime();
-            st.stop = segment.stop;
-            result.stopTimes.add(st);
+            for (RouteSegment segment :  variant.segmentsAfter(start)) {
+                // TODO: verify options/state init correctness
+                State s0 = new State(segment.hopIn.getFromVertex(), state.getTime(), options);
+                state = segment.hopIn.traverse(s0);
+                StopTime st = new StopTime();
+                st.time = state.getTime();
+                st.stop = segment.stop;
+                result.stopTimes.add(st);
+            }
+            return result;
+        } finally {
+            options.cleanup();
         }
-        return result;
     }
 
     private List<StopTime> getStopTimesForBoardEdge(long startTime, long endTime,
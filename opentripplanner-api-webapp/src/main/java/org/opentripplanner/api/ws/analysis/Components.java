@@ -105,7 +105,11 @@ public class Components {
             Graph graph = graphService.getGraph();
             //TODO: fix
             options.setRoutingContext(graph);
-            cachedPolygons = AnalysisUtils.getComponentPolygons(graph, options, dateTime);
+            try {
+                cachedPolygons = AnalysisUtils.getComponentPolygons(graph, options, dateTime);
+            } finally {
+                options.cleanup();
+            }
         }
         
         GraphComponentPolygons out = new GraphComponentPolygons();
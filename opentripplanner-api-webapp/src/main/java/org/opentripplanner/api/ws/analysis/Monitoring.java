@@ -13,6 +13,11 @@
 
 package org.opentripplanner.api.ws.analysis;
 
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -22,6 +27,8 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.opentripplanner.api.model.analysis.HistogramSummary;
+import org.opentripplanner.util.monitoring.Histogram;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.springframework.security.access.annotation.Secured;
@@ -86,4 +93,51 @@ public class Monitoring {
         return store.isMonitoring(key);
     }
 
+    /**
+     * Summarize the histograms whose keys start with a prefix, such as the histograms of the
+     * searches, which are recorded under "search." while the "search" key is monitored.
+     * 
+     * @param prefix
+     * @return the summaries by key
+     */
+    @Secured({ "ROLE_USER" })
+    @GET
+    @Path("/histograms")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Object getHistograms(@QueryParam("prefix") @DefaultValue("") String prefix) {
+        SortedMap<String, HistogramSummary> summaries = new TreeMap<String, HistogramSummary>();
+        for (Map.Entry<String, Histogram> entry : store.getHistograms(prefix).entrySet())
+            summaries.put(entry.getKey(), new HistogramSummary(entry.getValue()));
+        return summaries;
+    }
+
+    /**
+     * Clear the histograms whose keys start with a prefix
+     * 
+     * @param prefix
+     * @return
+     */
+    @Secured({ "ROLE_USER" })
+    @POST
+    @Path("/histograms")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Object clearHistograms(@FormParam("prefix") @DefaultValue("") String prefix) {
+        store.clearHistograms(prefix);
+        return "OK";
+    }
+
+    /**
+     * Get the notes for a given key, such as "slowSearches"
+     * 
+     * @param key
+     * @return
+     */
+    @Secured({ "ROLE_USER" })
+    @GET
+    @Path("/notes")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Object getNotes(@QueryParam("key") String key) {
+        return store.getNotes(key);
+    }
+
 }
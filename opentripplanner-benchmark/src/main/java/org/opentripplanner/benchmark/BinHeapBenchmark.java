@@ -0,0 +1,67 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Filling a reused queue with random priorities and emptying it again. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BinHeapBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    private BinHeap<Integer> heap;
+
+    private double[] priorities;
+
+    private Integer[] elements;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        heap = new BinHeap<Integer>(size);
+        priorities = new double[size];
+        elements = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            priorities[i] = random.nextDouble() * 3600;
+            elements[i] = i;
+        }
+    }
+
+    @Benchmark
+    public int insertExtract() {
+        heap.reset();
+        for (int i = 0; i < size; ++i)
+            heap.insert(elements[i], priorities[i]);
+        int sum = 0;
+        while (!heap.empty())
+            sum += heap.extract_min();
+        return sum;
+    }
+
+}
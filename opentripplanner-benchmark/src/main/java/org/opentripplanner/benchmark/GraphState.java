@@ -0,0 +1,47 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.io.File;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The synthetic graph, built once per benchmark trial and shared by all benchmark threads. The
+ * saved copy of the graph is kept until the end of the trial so it can be loaded again.
+ */
+@State(Scope.Benchmark)
+public class GraphState {
+
+    public File graphFile;
+
+    public Graph graph;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        graphFile = File.createTempFile("otp-benchmark", ".obj");
+        graph = SyntheticGraph.buildAndReload(graphFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphFile.delete();
+    }
+
+}
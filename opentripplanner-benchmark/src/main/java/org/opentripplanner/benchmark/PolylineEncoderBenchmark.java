@@ -0,0 +1,71 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.util.PolylineEncoder;
+import org.opentripplanner.util.model.EncodedPolylineBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/** Encoding and decoding leg geometries the size of a typical itinerary leg. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PolylineEncoderBenchmark {
+
+    @Param({ "500" })
+    public int points;
+
+    private List<Coordinate> coordinates;
+
+    private EncodedPolylineBean encoded;
+
+    @Setup
+    public void setup() {
+        // a random walk through the synthetic grid
+        Random random = new Random(42);
+        coordinates = new ArrayList<Coordinate>(points);
+        double x = SyntheticGraph.LON0, y = SyntheticGraph.LAT0;
+        for (int i = 0; i < points; ++i) {
+            x += (random.nextDouble() - 0.5) * SyntheticGraph.SPACING;
+            y += (random.nextDouble() - 0.5) * SyntheticGraph.SPACING;
+            coordinates.add(new Coordinate(x, y));
+        }
+        encoded = PolylineEncoder.createEncodings(coordinates);
+    }
+
+    @Benchmark
+    public EncodedPolylineBean encode() {
+        return PolylineEncoder.createEncodings(coordinates);
+    }
+
+    @Benchmark
+    public List<Coordinate> decode() {
+        return PolylineEncoder.decode(encoded);
+    }
+
+}
@@ -0,0 +1,89 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Point to point searches between random intersections of the synthetic grid, set up the way
+ * the path service sets them up, including recycling of the shortest path tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    private static final int N_PAIRS = 64;
+
+    @Param({ "WALK", "BICYCLE", "TRANSIT,WALK" })
+    public String modes;
+
+    private Graph graph;
+
+    private GenericAStar aStar = new GenericAStar();
+
+    private Vertex[] origins = new Vertex[N_PAIRS];
+
+    private Vertex[] destinations = new Vertex[N_PAIRS];
+
+    private int pair = 0;
+
+    @Setup
+    public void setup(GraphState state) {
+        graph = state.graph;
+        Random random = new Random(42);
+        for (int i = 0; i < N_PAIRS; ++i) {
+            origins[i] = randomIntersection(random);
+            destinations[i] = randomIntersection(random);
+        }
+    }
+
+    private Vertex randomIntersection(Random random) {
+        int row = random.nextInt(SyntheticGraph.GRID_SIZE);
+        int col = random.nextInt(SyntheticGraph.GRID_SIZE);
+        return graph.getVertex(SyntheticGraph.intersectionLabel(row, col));
+    }
+
+    @Benchmark
+    public GraphPath search() {
+        int i = pair++ % N_PAIRS;
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(modes));
+        options.setDateTime(SyntheticGraph.departureTime());
+        options.setRoutingContext(graph, origins[i], destinations[i]);
+        ShortestPathTree spt = aStar.getShortestPathTree(options);
+        GraphPath path = spt.getPath(destinations[i], false);
+        SearchWorkspace.recycle(spt);
+        options.cleanup();
+        return path;
+    }
+
+}
@@ -0,0 +1,64 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl.CandidateEdgeBundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/** Snapping random points inside the synthetic grid to the nearest streets. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreetIndexBenchmark {
+
+    private static final int N_POINTS = 1024;
+
+    private StreetVertexIndexServiceImpl index;
+
+    private RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+
+    private Coordinate[] points = new Coordinate[N_POINTS];
+
+    private int point = 0;
+
+    @Setup
+    public void setup(GraphState state) {
+        index = new StreetVertexIndexServiceImpl(state.graph);
+        Random random = new Random(42);
+        double extent = SyntheticGraph.GRID_SIZE - 1;
+        for (int i = 0; i < N_POINTS; ++i)
+            points[i] = SyntheticGraph.coordinate(random.nextDouble() * extent,
+                    random.nextDouble() * extent);
+    }
+
+    @Benchmark
+    public CandidateEdgeBundle getClosestEdges() {
+        return index.getClosestEdges(points[point++ % N_POINTS], options, null, null);
+    }
+
+}
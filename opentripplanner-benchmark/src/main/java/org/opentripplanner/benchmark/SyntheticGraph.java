@@ -0,0 +1,273 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.PatternBoard;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Generates the small, deterministic graph used by all benchmarks: a square street grid with
+ * bus lines running along every few rows and columns. The transit part is written out as a GTFS
+ * feed and loaded through the same factories the graph builder uses, and the finished graph is
+ * saved and loaded again, so that the benchmarks see vertex numbering and adjacency arrays
+ * exactly as a server would.
+ */
+public class SyntheticGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyntheticGraph.class);
+
+    /** number of intersections along each side of the grid */
+    public static final int GRID_SIZE = 40;
+
+    /** distance between neighboring intersections, in degrees */
+    public static final double SPACING = 0.001;
+
+    public static final double LAT0 = 45.5;
+
+    public static final double LON0 = -122.7;
+
+    /** bus lines run along every LINE_SPACING rows and columns */
+    private static final int LINE_SPACING = 8;
+
+    /** bus stops are placed at every STOP_SPACING intersections along a line */
+    private static final int STOP_SPACING = 4;
+
+    private static final int FIRST_DEPARTURE = 5 * 3600;
+
+    private static final int LAST_DEPARTURE = 23 * 3600;
+
+    private static final int HEADWAY = 10 * 60;
+
+    private static final int HOP_TIME = 2 * 60;
+
+    private static final String TIMEZONE = "America/Los_Angeles";
+
+    private SyntheticGraph() {
+    }
+
+    public static String intersectionLabel(int row, int col) {
+        return "grid_" + row + "_" + col;
+    }
+
+    public static Coordinate coordinate(double row, double col) {
+        return new Coordinate(LON0 + col * SPACING, LAT0 + row * SPACING);
+    }
+
+    /** @return a weekday morning covered by the generated timetables. */
+    public static Date departureTime() {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(TIMEZONE));
+        calendar.clear();
+        calendar.set(2012, Calendar.JUNE, 5, 8, 0, 0);
+        return calendar.getTime();
+    }
+
+    /** @return all the boarding edges of the given graph, in vertex index order. */
+    public static List<PatternBoard> patternBoards(Graph graph) {
+        List<PatternBoard> boards = new ArrayList<PatternBoard>();
+        for (Vertex v : graph.getVertices()) {
+            for (PatternBoard board : IterableLibrary.filter(v.getOutgoing(), PatternBoard.class))
+                boards.add(board);
+        }
+        Collections.sort(boards, new Comparator<PatternBoard>() {
+            @Override
+            public int compare(PatternBoard b0, PatternBoard b1) {
+                return b0.getFromVertex().getIndex() - b1.getFromVertex().getIndex();
+            }
+        });
+        return boards;
+    }
+
+    /** Build the graph, save it to the given file and return the graph loaded back from it. */
+    public static Graph buildAndReload(File graphFile) throws IOException, ClassNotFoundException {
+        Graph graph = build();
+        graph.save(graphFile);
+        return Graph.load(graphFile, LoadLevel.FULL);
+    }
+
+    public static Graph build() throws IOException {
+        Graph graph = new Graph();
+        buildStreets(graph);
+        File gtfsDir = File.createTempFile("otp-benchmark-gtfs", "");
+        gtfsDir.delete();
+        gtfsDir.mkdir();
+        try {
+            writeGtfs(gtfsDir);
+            GtfsContext context = GtfsLibrary.readGtfs(gtfsDir);
+            new GTFSPatternHopFactory(context).run(graph);
+            CalendarServiceData data = GtfsLibrary.createCalendarServiceData(context.getDao());
+            graph.putService(CalendarServiceData.class, data);
+            graph.updateTransitFeedValidity(data);
+        } finally {
+            for (File f : gtfsDir.listFiles())
+                f.delete();
+            gtfsDir.delete();
+        }
+        linkStops(graph);
+        LOG.info("synthetic graph built. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+        return graph;
+    }
+
+    private static void buildStreets(Graph graph) {
+        IntersectionVertex[][] grid = new IntersectionVertex[GRID_SIZE][GRID_SIZE];
+        for (int row = 0; row < GRID_SIZE; ++row) {
+            for (int col = 0; col < GRID_SIZE; ++col) {
+                Coordinate c = coordinate(row, col);
+                grid[row][col] = new IntersectionVertex(graph, intersectionLabel(row, col), c.x,
+                        c.y);
+            }
+        }
+        for (int row = 0; row < GRID_SIZE; ++row) {
+            for (int col = 0; col < GRID_SIZE; ++col) {
+                if (col + 1 < GRID_SIZE)
+                    makeStreet(grid[row][col], grid[row][col + 1], "row " + row);
+                if (row + 1 < GRID_SIZE)
+                    makeStreet(grid[row][col], grid[row + 1][col], "column " + col);
+            }
+        }
+    }
+
+    private static void makeStreet(IntersectionVertex v0, IntersectionVertex v1, String name) {
+        Coordinate c0 = v0.getCoordinate();
+        Coordinate c1 = v1.getCoordinate();
+        double length = DistanceLibrary.distance(c0, c1);
+        LineString forward = GeometryUtils.makeLineString(c0.x, c0.y, c1.x, c1.y);
+        LineString back = GeometryUtils.makeLineString(c1.x, c1.y, c0.x, c0.y);
+        new PlainStreetEdge(v0, v1, forward, name, length, StreetTraversalPermission.ALL, false);
+        new PlainStreetEdge(v1, v0, back, name, length, StreetTraversalPermission.ALL, true);
+    }
+
+    /** Connect each stop to the intersection it was placed next to. */
+    private static void linkStops(Graph graph) {
+        List<TransitStop> stops = new ArrayList<TransitStop>();
+        for (TransitStop stop : IterableLibrary.filter(graph.getVertices(), TransitStop.class))
+            stops.add(stop);
+        for (TransitStop stop : stops) {
+            int row = (int) Math.round((stop.getY() - LAT0) / SPACING);
+            int col = (int) Math.round((stop.getX() - LON0) / SPACING);
+            StreetVertex street = (StreetVertex) graph.getVertex(intersectionLabel(row, col));
+            new StreetTransitLink(street, stop, true);
+            new StreetTransitLink(stop, street, true);
+        }
+    }
+
+    /* GTFS generation */
+
+    private static String stopId(int row, int col) {
+        return "s_" + row + "_" + col;
+    }
+
+    private static void writeGtfs(File dir) throws IOException {
+        PrintWriter agency = writer(dir, "agency.txt");
+        agency.println("agency_id,agency_name,agency_url,agency_timezone");
+        agency.println("bench,Synthetic Transit,http://www.opentripplanner.org/," + TIMEZONE);
+        agency.close();
+
+        PrintWriter calendar = writer(dir, "calendar.txt");
+        calendar.println("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,"
+                + "start_date,end_date");
+        calendar.println("daily,1,1,1,1,1,1,1,20120101,20301231");
+        calendar.close();
+
+        // stops are slightly offset from the intersections they are linked to
+        PrintWriter stops = writer(dir, "stops.txt");
+        stops.println("stop_id,stop_name,stop_lat,stop_lon");
+        for (int row = 0; row < GRID_SIZE; row += STOP_SPACING) {
+            for (int col = 0; col < GRID_SIZE; col += STOP_SPACING) {
+                if (row % LINE_SPACING != LINE_SPACING / 2 && col % LINE_SPACING != LINE_SPACING / 2)
+                    continue;
+                Coordinate c = coordinate(row + 0.1, col + 0.1);
+                stops.println(stopId(row, col) + "," + stopId(row, col) + "," + c.y + "," + c.x);
+            }
+        }
+        stops.close();
+
+        PrintWriter routes = writer(dir, "routes.txt");
+        PrintWriter trips = writer(dir, "trips.txt");
+        PrintWriter stopTimes = writer(dir, "stop_times.txt");
+        routes.println("route_id,agency_id,route_short_name,route_long_name,route_type");
+        trips.println("route_id,service_id,trip_id");
+        stopTimes.println("trip_id,arrival_time,departure_time,stop_id,stop_sequence");
+        for (int line = LINE_SPACING / 2; line < GRID_SIZE; line += LINE_SPACING) {
+            List<String> rowStops = new ArrayList<String>();
+            List<String> colStops = new ArrayList<String>();
+            for (int i = 0; i < GRID_SIZE; i += STOP_SPACING) {
+                rowStops.add(stopId(line, i));
+                colStops.add(stopId(i, line));
+            }
+            writeRoute(routes, trips, stopTimes, "row" + line, rowStops);
+            writeRoute(routes, trips, stopTimes, "col" + line, colStops);
+        }
+        routes.close();
+        trips.close();
+        stopTimes.close();
+    }
+
+    /** Write a bidirectional route serving the given stops at regular intervals. */
+    private static void writeRoute(PrintWriter routes, PrintWriter trips, PrintWriter stopTimes,
+            String routeId, List<String> stops) {
+        routes.println(routeId + ",bench," + routeId + ",," + 3);
+        for (int direction = 0; direction < 2; ++direction) {
+            for (int t = FIRST_DEPARTURE; t <= LAST_DEPARTURE; t += HEADWAY) {
+                String tripId = routeId + "_" + direction + "_" + t;
+                trips.println(routeId + ",daily," + tripId);
+                for (int s = 0; s < stops.size(); ++s) {
+                    String stop = stops.get(direction == 0 ? s : stops.size() - 1 - s);
+                    String time = formatTime(t + s * HOP_TIME);
+                    stopTimes.println(tripId + "," + time + "," + time + "," + stop + "," + s);
+                }
+            }
+        }
+    }
+
+    private static String formatTime(int seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static PrintWriter writer(File dir, String name) throws IOException {
+        return new PrintWriter(new FileWriter(new File(dir, name)));
+    }
+
+}
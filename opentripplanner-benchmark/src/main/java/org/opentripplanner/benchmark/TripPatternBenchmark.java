@@ -0,0 +1,82 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.PatternBoard;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Timetable lookups, on their own and as part of boarding. Every invocation uses a different
+ * boarding edge and time of day, so that lookups do not always hit the same trip.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TripPatternBenchmark {
+
+    private static final int N_SAMPLES = 1024;
+
+    private PatternBoard[] boards = new PatternBoard[N_SAMPLES];
+
+    private int[] times = new int[N_SAMPLES];
+
+    private State[] states = new State[N_SAMPLES];
+
+    private int sample = 0;
+
+    @Setup
+    public void setup(GraphState graphState) {
+        List<PatternBoard> allBoards = SyntheticGraph.patternBoards(graphState.graph);
+        Random random = new Random(42);
+        long startTime = SyntheticGraph.departureTime().getTime() / 1000;
+        for (int i = 0; i < N_SAMPLES; ++i) {
+            PatternBoard board = allBoards.get(random.nextInt(allBoards.size()));
+            boards[i] = board;
+            // from early morning until after the last departure
+            times[i] = 4 * 3600 + random.nextInt(20 * 3600);
+            RoutingRequest options = new RoutingRequest(new TraverseModeSet("TRANSIT,WALK"));
+            options.setDateTime(SyntheticGraph.departureTime());
+            options.setRoutingContext(graphState.graph, board.getFromVertex(), board.getToVertex());
+            states[i] = new State(board.getFromVertex(), startTime + random.nextInt(3600), options);
+        }
+    }
+
+    @Benchmark
+    public int getNextTrip() {
+        int i = sample++ % N_SAMPLES;
+        PatternBoard board = boards[i];
+        TableTripPattern pattern = board.getPattern();
+        return pattern.getNextTrip(board.getStopIndex(), times[i], false, false, true);
+    }
+
+    @Benchmark
+    public State patternBoardTraverse() {
+        int i = sample++ % N_SAMPLES;
+        return boards[i].traverse(states[i]);
+    }
+
+}
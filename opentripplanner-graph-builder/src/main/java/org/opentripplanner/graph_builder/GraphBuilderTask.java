@@ -136,6 +136,8 @@ public class GraphBuilderTask implements Runnable {
         
         if (_modeList != null) {
             ContractionHierarchySet chs = new ContractionHierarchySet(graph, _modeList, _contractionFactor);
+            // an interrupted build resumes contraction from the checkpoints next to the graph
+            chs.setCheckpointDirectory(graphFile.getParentFile());
             chs.build();
             graph.setHierarchies(chs);
         }
@@ -145,5 +147,7 @@ public class GraphBuilderTask implements Runnable {
         } catch (Exception ex) {
             throw new IllegalStateException(ex);
         }
+        if (graph.getHierarchies() != null)
+            graph.getHierarchies().deleteCheckpoints();
     }
 }
@@ -0,0 +1,64 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.routing.core.LandmarkTable;
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * {@link GraphBuilder} plugin that chooses landmark vertices and stores the network distances to
+ * and from them in the graph as a {@link LandmarkTable}. Servers configured with a
+ * LandmarkRemainingWeightHeuristicFactoryImpl then use the landmark heuristic for non-transit
+ * searches on the graph. Should be run after all edges that can be walked, biked or driven are in
+ * place, including the links between stops and streets.
+ */
+public class LandmarkGraphBuilderImpl implements GraphBuilder {
+
+    private int numLandmarks = 16;
+
+    public List<String> provides() {
+        return Arrays.asList("landmarks");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("linking");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        graph.putService(LandmarkTable.class, LandmarkTable.build(graph, numLandmarks));
+    }
+
+    /**
+     * The number of landmarks. More landmarks give tighter bounds, but each one takes two floats
+     * per vertex and is checked at every state the search visits.
+     */
+    public void setNumLandmarks(int numLandmarks) {
+        this.numLandmarks = numLandmarks;
+    }
+
+    public int getNumLandmarks() {
+        return numLandmarks;
+    }
+
+    @Override
+    public void checkInputs() {
+        //no inputs
+    }
+}
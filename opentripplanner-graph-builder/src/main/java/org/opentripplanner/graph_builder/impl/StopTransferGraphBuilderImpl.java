@@ -0,0 +1,75 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.raptor.StopTransferTable;
+
+/**
+ * {@link GraphBuilder} plugin that finds the walking transfers between all stops within some
+ * distance of each other and stores them in the graph as a {@link StopTransferTable}. Should be
+ * called after the stops are linked to the street network.
+ */
+public class StopTransferGraphBuilderImpl implements GraphBuilder {
+
+    private double maxTransferDistance = 500;
+
+    private boolean storeGeometry = false;
+
+    public List<String> provides() {
+        return Arrays.asList("transfers");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("linking");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        StopTransferTable table = StopTransferTable.build(graph, maxTransferDistance,
+                storeGeometry);
+        graph.putService(StopTransferTable.class, table);
+    }
+
+    /**
+     * The maximum length of the transfers stored, in meters. Searches allowing longer transfers
+     * will not use the stored ones.
+     */
+    public void setMaxTransferDistance(double maxTransferDistance) {
+        this.maxTransferDistance = maxTransferDistance;
+    }
+
+    public double getMaxTransferDistance() {
+        return maxTransferDistance;
+    }
+
+    /** Whether to store the path walked by each transfer along with its length and duration. */
+    public void setStoreGeometry(boolean storeGeometry) {
+        this.storeGeometry = storeGeometry;
+    }
+
+    public boolean isStoreGeometry() {
+        return storeGeometry;
+    }
+
+    @Override
+    public void checkInputs() {
+        //no inputs
+    }
+}
@@ -13,6 +13,7 @@
 
 package org.opentripplanner.graph_builder.impl;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -30,6 +31,7 @@ import org.opentripplanner.routing.graph.Graph;
 public class WeightTableGraphBuilderImpl implements GraphBuilder {
 	private Double maxWalkSpeed = null;
         private Double maxWalkDistance = null;
+	private File tableFile = null;
 
         public List<String> provides() {
             return Arrays.asList("weightTable");
@@ -48,6 +50,9 @@ public class WeightTableGraphBuilderImpl implements GraphBuilder {
 		if (maxWalkDistance != null) {
 		    wt.setMaxWalkDistance(maxWalkDistance);
 		}
+		if (tableFile != null) {
+			wt.setTableFile(tableFile);
+		}
 		wt.buildTable();
 		graph.putService(WeightTable.class, wt);
 	}
@@ -73,6 +78,15 @@ public class WeightTableGraphBuilderImpl implements GraphBuilder {
                 this.maxWalkDistance = maxWalkDistance;
         }
 
+	/**
+	 * A file to keep the weight table in, instead of storing it in the graph.  The
+	 * file is memory-mapped when the graph is loaded, so it must not be moved once the graph is built.
+	 * @param tableFile
+	 */
+	public void setTableFile(File tableFile) {
+		this.tableFile = tableFile;
+	}
+
         public double getMaxWalkSpeed() {
 		return maxWalkSpeed;
 	}
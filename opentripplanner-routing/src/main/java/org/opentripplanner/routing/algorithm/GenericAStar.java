@@ -18,14 +18,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
-import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.common.pqueue.OTPPriorityQueue;
-import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.core.OverlayGraph;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -90,21 +90,42 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             return null;
         }
 
-        ShortestPathTree spt = createShortestPathTree(options);
+        // reuse the priority queue and other scratch space of previous searches on this thread
+        SearchWorkspace workspace = SearchWorkspace.acquire();
+        try {
+            return search(options, abortTime, workspace);
+        } finally {
+            workspace.release();
+        }
+    }
+
+    private ShortestPathTree search(RoutingRequest options, long abortTime, 
+            SearchWorkspace workspace) {
+
+        RoutingContext rctx = options.getRoutingContext();
+        OverlayGraph temporaryEdges = rctx.getTemporaryEdges();
+        ShortestPathTree spt = createShortestPathTree(options, workspace);
 
         final RemainingWeightHeuristic heuristic = options.batch ? 
                 new TrivialRemainingWeightHeuristic() : rctx.remainingWeightHeuristic; 
 
+        SearchStatistics stats = new SearchStatistics(
+                store.isMonitoring(SearchStatistics.MONITORING_KEY));
+        rctx.searchStatistics = stats;
+
         // heuristic calc could actually be done when states are constructed, inside state
         State initialState = new State(options);
+        long h0 = stats.monitored ? System.nanoTime() : 0;
         double initialWeight = heuristic.computeInitialWeight(initialState, rctx.target);
+        if (stats.monitored)
+            stats.heuristicNanos += System.nanoTime() - h0;
         spt.add(initialState);
 
         // Priority Queue
-        OTPPriorityQueueFactory qFactory = BinHeap.FACTORY;
-        OTPPriorityQueue<State> pq = qFactory.create(rctx.graph.getVertices().size());
+        OTPPriorityQueue<State> pq = workspace.getQueue();
         // this would allow continuing a search from an existing state
         pq.insert(initialState, initialWeight);
+        stats.peakQueueSize = 1;
 
 //        options = options.clone();
 //        /** max walk distance cannot be less than distances to nearest transit stops */
@@ -112,8 +133,6 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 //                + target.getDistanceToNearestTransitStop();
 //        options.setMaxWalkDistance(Math.max(options.getMaxWalkDistance(), rctx.getMinWalkDistance()));
 
-        int nVisited = 0;
-
         /* the core of the A* algorithm */
         while (!pq.empty()) { // Until the priority queue is empty:
             if (_verbose) {
@@ -129,7 +148,7 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                 // Returning null indicates something went wrong and search should be aborted.
                 // This is distinct from the empty list of paths which implies that a result may still
                 // be found by retrying with altered options (e.g. max walk distance)
-                storeMemory();
+                finish(stats, rctx, spt, workspace);
                 return null; // throw timeout exception
             }
 
@@ -137,8 +156,10 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             State u = pq.extract_min();
             // check that this state has not been dominated
             // and mark vertex as visited
-            if (!spt.visit(u))
+            if (!spt.visit(u)) {
+                stats.statesDominated++;
                 continue;
+            }
 
             if (traverseVisitor != null) {
                 traverseVisitor.visitVertex(u);
@@ -163,21 +184,26 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                     break;
             // TODO AMB: Replace isFinal with bicycle conditions in BasicPathParser
             } else if (!options.batch && u_vertex == rctx.target && u.isFinal() && u.allPathParsersAccept()) {
-                LOG.debug("total vertices visited {}", nVisited);
-                storeMemory();
+                finish(stats, rctx, spt, workspace);
                 return spt;
             }
 
-            Collection<Edge> edges = options.isArriveBy() ? u_vertex.getIncoming() : u_vertex.getOutgoing();
+            List<Edge> edges = options.isArriveBy() ?
+                    edgeList(u_vertex.getIncoming(), temporaryEdges.getIncoming(u_vertex), workspace) :
+                    edgeList(u_vertex.getOutgoing(), temporaryEdges.getOutgoing(u_vertex), workspace);
 
-            nVisited += 1;
+            stats.verticesExpanded++;
 
-            for (Edge edge : edges) {
+            for (int i = 0, n = edges.size(); i < n; ++i) {
+                Edge edge = edges.get(i);
 
                 // Iterate over traversal results. When an edge leads nowhere (as indicated by
                 // returning NULL), the iteration is over.
                 for (State v = edge.traverse(u); v != null; v = v.getNextResult()) {
                     // Could be: for (State v : traverseEdge...)
+                    stats.statesCreated++;
+                    if (stats.monitored)
+                        stats.countEdge(edge);
 
                     if (traverseVisitor != null) {
                         traverseVisitor.visitEdge(edge, v);
@@ -195,7 +221,10 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                                     rctx.origin, rctx.target, u, v, spt, options))
                         continue;
 
+                    long h1 = stats.monitored ? System.nanoTime() : 0;
                     double remaining_w = computeRemainingWeight(heuristic, v, rctx.target, options);
+                    if (stats.monitored)
+                        stats.heuristicNanos += System.nanoTime() - h1;
                     if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
                         continue;
                     }
@@ -221,18 +250,48 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                             if (traverseVisitor != null)
                                 traverseVisitor.visitEnqueue(v);
                             pq.insert(v, estimate);
-                        } 
+                            if (pq.size() > stats.peakQueueSize)
+                                stats.peakQueueSize = pq.size();
+                        } else {
+                            stats.statesDominated++;
+                        }
                     }
                 }
             }
         }
-        storeMemory();
+        finish(stats, rctx, spt, workspace);
         return spt;
     }
 
+    private void finish(SearchStatistics stats, RoutingContext rctx, ShortestPathTree spt,
+            SearchWorkspace workspace) {
+        stats.finish();
+        LOG.debug("search {}", stats);
+        stats.record(store, rctx.origin, rctx.target);
+        storeMemory();
+        workspace.recordSearchSize(stats.peakQueueSize, spt.getVertexCount());
+    }
+
+    /**
+     * Compacted edge lists are random access views on the graph's adjacency arrays, which can be
+     * iterated over by index without allocating anything. Mutable edge sets, and the edge lists of 
+     * graph vertices linked to the request's temporary vertices, are copied into the workspace's 
+     * edge buffer instead.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Edge> edgeList(Collection<Edge> edges, List<Edge> temporaryEdges,
+            SearchWorkspace workspace) {
+        if (temporaryEdges.isEmpty() && edges instanceof RandomAccess && edges instanceof List)
+            return (List<Edge>) edges;
+        List<Edge> buffer = workspace.getEdgeBuffer();
+        buffer.addAll(edges);
+        buffer.addAll(temporaryEdges);
+        return buffer;
+    }
+
+    /* the heap in use including garbage, as collecting it first would stall the whole server */
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
-            System.gc();
             long memoryUsed = Runtime.getRuntime().totalMemory() -
                     Runtime.getRuntime().freeMemory();
             store.setLongMax("memoryUsed", memoryUsed);
@@ -256,7 +315,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             return v.getTime() > opt.worstTime;
     }
 
-    private ShortestPathTree createShortestPathTree(RoutingRequest opts) {
+    private ShortestPathTree createShortestPathTree(RoutingRequest opts, 
+            SearchWorkspace workspace) {
 
         // Return Tree
         ShortestPathTree spt = null;
@@ -265,12 +325,15 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             spt = _shortestPathTreeFactory.create(opts);
 
         if (spt == null) {
+            // Batch searches usually reach most of the graph, so store their states in arrays 
+            // indexed by vertex rather than in hash maps.
+            int capacity = opts.batch ? opts.rctx.graph.countVertices() : 0;
             // Use MultiShortestPathTree if transit OR bike rental.
             if (opts.getModes().isTransit() || 
                 opts.getModes().getWalk() && opts.getModes().getBicycle()) {
-                spt = new MultiShortestPathTree(opts);
+                spt = new MultiShortestPathTree(opts, workspace.multiStateTable(capacity));
             } else {
-                spt = new BasicShortestPathTree(opts);
+                spt = new BasicShortestPathTree(opts, workspace.basicStateTable(capacity));
             }
         }
 
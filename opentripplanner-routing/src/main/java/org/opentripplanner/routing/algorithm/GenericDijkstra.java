@@ -13,10 +13,13 @@
 
 package org.opentripplanner.routing.algorithm;
 
+import java.util.Collection;
+
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SkipEdgeStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrategy;
 import org.opentripplanner.routing.core.OverlayGraph;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Edge;
@@ -81,6 +84,8 @@ public class GenericDijkstra {
     public ShortestPathTree getShortestPathTree(State initialState) {
         ShortestPathTree spt = createShortestPathTree(options);
         OTPPriorityQueue<State> queue = createPriorityQueue();
+        // the temporary edges of the request are not in the edge lists of graph vertices
+        RoutingContext rctx = initialState.getContext();
 
         spt.add(initialState);
         queue.insert(initialState, initialState.getWeight());
@@ -99,7 +104,12 @@ public class GenericDijkstra {
                     null, u, spt, options))
                         break;
 
-            for (Edge edge : options.isArriveBy() ? u_vertex.getIncoming() : u_vertex.getOutgoing()) {
+            Collection<Edge> edges;
+            if (rctx == null)
+                edges = options.isArriveBy() ? u_vertex.getIncoming() : u_vertex.getOutgoing();
+            else
+                edges = options.isArriveBy() ? rctx.getIncoming(u_vertex) : rctx.getOutgoing(u_vertex);
+            for (Edge edge : edges) {
 
                 if (_skipEdgeStrategy != null
                         && _skipEdgeStrategy.shouldSkipEdge(initialState.getVertex(), null, u, edge, spt,
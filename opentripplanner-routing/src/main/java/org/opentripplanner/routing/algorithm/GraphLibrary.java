@@ -18,6 +18,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import org.opentripplanner.routing.core.OverlayGraph;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -49,4 +50,24 @@ public class GraphLibrary {
         }
     }
 
+    /** @return the incoming edges of the vertex together with those held in the overlay */
+    public static Collection<Edge> getIncomingEdges(Vertex tov, OverlayGraph overlay) {
+        List<Edge> extra = overlay.getIncoming(tov);
+        if (extra.isEmpty())
+            return tov.getIncoming();
+        Collection<Edge> ret = new ArrayList<Edge>(tov.getIncoming());
+        ret.addAll(extra);
+        return ret;
+    }
+
+    /** @return the outgoing edges of the vertex together with those held in the overlay */
+    public static Collection<Edge> getOutgoingEdges(Vertex fromv, OverlayGraph overlay) {
+        List<Edge> extra = overlay.getOutgoing(fromv);
+        if (extra.isEmpty())
+            return fromv.getOutgoing();
+        Collection<Edge> ret = new ArrayList<Edge>(fromv.getOutgoing());
+        ret.addAll(extra);
+        return ret;
+    }
+
 }
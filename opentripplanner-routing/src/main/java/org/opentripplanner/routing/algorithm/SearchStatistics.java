@@ -0,0 +1,149 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.algorithm;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+
+/**
+ * What one search did: how many states it made and discarded, how many vertices it expanded, how
+ * large its queue grew, and where its time went. The counters are always kept since they cost
+ * next to nothing. Edge traversals by class and the time spent in the heuristic are only kept
+ * when searches are monitored, since they need a map lookup or a clock read per state.
+ * 
+ * Monitored searches are recorded as histograms in the monitoring store, under keys starting with
+ * "search.", and the slow ones are described in the notes under "slowSearches" if that key is
+ * monitored too.
+ */
+public class SearchStatistics {
+
+    /** The monitoring key turning on the detailed statistics and their recording. */
+    public static final String MONITORING_KEY = "search";
+
+    public static final String SLOW_SEARCHES_KEY = "slowSearches";
+
+    /** Searches taking at least this long are described in the notes. */
+    public static final long SLOW_SEARCH_MILLIS = 1000;
+
+    final boolean monitored;
+
+    int statesCreated = 0;
+
+    int statesDominated = 0;
+
+    int verticesExpanded = 0;
+
+    int peakQueueSize = 0;
+
+    long heuristicNanos = 0;
+
+    private final long startNanos;
+
+    private long wallNanos = -1;
+
+    private final Map<Class<?>, int[]> edgesByClass;
+
+    /* the counter of the class of the last edge, since edges of one class tend to come together */
+    private Class<?> lastClass;
+
+    private int[] lastCount;
+
+    SearchStatistics(boolean monitored) {
+        this.monitored = monitored;
+        this.edgesByClass = monitored ? new IdentityHashMap<Class<?>, int[]>() : null;
+        this.startNanos = System.nanoTime();
+    }
+
+    void countEdge(Edge edge) {
+        Class<?> c = edge.getClass();
+        if (c != lastClass) {
+            int[] count = edgesByClass.get(c);
+            if (count == null) {
+                count = new int[1];
+                edgesByClass.put(c, count);
+            }
+            lastClass = c;
+            lastCount = count;
+        }
+        lastCount[0]++;
+    }
+
+    void finish() {
+        wallNanos = System.nanoTime() - startNanos;
+    }
+
+    public int getStatesCreated() {
+        return statesCreated;
+    }
+
+    public int getStatesDominated() {
+        return statesDominated;
+    }
+
+    public int getVerticesExpanded() {
+        return verticesExpanded;
+    }
+
+    public int getPeakQueueSize() {
+        return peakQueueSize;
+    }
+
+    /** @return the time spent computing remaining weights, or 0 for unmonitored searches */
+    public long getHeuristicMicros() {
+        return heuristicNanos / 1000;
+    }
+
+    public long getWallMicros() {
+        return wallNanos / 1000;
+    }
+
+    /** Record the statistics of a monitored search in the histograms of the store. */
+    void record(MonitoringStore store, Object origin, Object target) {
+        if (!monitored)
+            return;
+        store.addToHistogram("search.statesCreated", statesCreated);
+        store.addToHistogram("search.statesDominated", statesDominated);
+        store.addToHistogram("search.verticesExpanded", verticesExpanded);
+        store.addToHistogram("search.peakQueueSize", peakQueueSize);
+        store.addToHistogram("search.heuristicMicros", getHeuristicMicros());
+        store.addToHistogram("search.wallMicros", getWallMicros());
+        for (Map.Entry<Class<?>, int[]> entry : edgesByClass.entrySet())
+            store.addToHistogram("search.edges." + entry.getKey().getSimpleName(),
+                    entry.getValue()[0]);
+        if (getWallMicros() >= SLOW_SEARCH_MILLIS * 1000)
+            store.addNote(SLOW_SEARCHES_KEY, "from " + origin + " to " + target + ": " + this);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("states created ").append(statesCreated);
+        sb.append(", dominated ").append(statesDominated);
+        sb.append(", vertices expanded ").append(verticesExpanded);
+        sb.append(", peak queue ").append(peakQueueSize);
+        sb.append(", wall ").append(getWallMicros() / 1000).append(" msec");
+        if (monitored) {
+            sb.append(", heuristic ").append(getHeuristicMicros() / 1000).append(" msec");
+            sb.append(", edges");
+            for (Map.Entry<Class<?>, int[]> entry : edgesByClass.entrySet())
+                sb.append(' ').append(entry.getKey().getSimpleName()).append('=')
+                        .append(entry.getValue()[0]);
+        }
+        return sb.toString();
+    }
+}
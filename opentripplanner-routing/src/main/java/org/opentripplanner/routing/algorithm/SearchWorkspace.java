@@ -0,0 +1,160 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.MultiShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.spt.VertexStateTable;
+
+/**
+ * Per-thread scratch space for searches: a priority queue, shortest path tree storage and an edge
+ * list buffer, which are reused from one search to the next instead of being allocated anew.
+ * The queue is sized from the queue sizes actually reached by recent searches rather than from
+ * the size of the graph, and is shrunk again if it was grown by an exceptionally large search.
+ *
+ * Shortest path tree storage escapes into the tree returned to the caller, so it is only reused
+ * once the caller hands the tree back through {@link #recycle(ShortestPathTree)}.
+ */
+public class SearchWorkspace {
+
+    private static final ThreadLocal<SearchWorkspace> workspaces = 
+            new ThreadLocal<SearchWorkspace>() {
+        @Override
+        protected SearchWorkspace initialValue() {
+            return new SearchWorkspace();
+        }
+    };
+
+    private static final int MIN_QUEUE_CAPACITY = 1000;
+
+    private static final int MIN_TABLE_CAPACITY = 500;
+
+    /* weight given to the most recent search in the running averages of search sizes */
+    private static final double SMOOTHING = 0.1;
+
+    private BinHeap<State> queue;
+
+    private boolean inUse = false;
+
+    private double meanQueueSize = MIN_QUEUE_CAPACITY;
+
+    private double meanVertexCount = MIN_TABLE_CAPACITY;
+
+    private VertexStateTable<State> basicTable;
+
+    private VertexStateTable<List<State>> multiTable;
+
+    private final List<Edge> edgeBuffer = new ArrayList<Edge>();
+
+    private SearchWorkspace() {
+    }
+
+    /**
+     * @return the calling thread's workspace, which must be handed back with release() at the end
+     * of the search. Nested searches on the same thread get a new, temporary workspace.
+     */
+    public static SearchWorkspace acquire() {
+        SearchWorkspace workspace = workspaces.get();
+        if (workspace.inUse)
+            return new SearchWorkspace();
+        workspace.inUse = true;
+        return workspace;
+    }
+
+    /**
+     * End the search using this workspace. The states left in the queue are dropped, so that the
+     * tree they lead back to is not kept alive by an idle thread.
+     */
+    public void release() {
+        if (queue != null)
+            queue.reset();
+        edgeBuffer.clear();
+        inUse = false;
+    }
+
+    /**
+     * Hand a shortest path tree that is no longer needed back to the calling thread's workspace,
+     * so that its storage can be reused by the next search. Neither the tree nor any collection
+     * obtained from it may be used afterward, though paths and states extracted from it remain
+     * valid.
+     */
+    public static void recycle(ShortestPathTree spt) {
+        SearchWorkspace workspace = workspaces.get();
+        if (spt instanceof BasicShortestPathTree)
+            workspace.basicTable = ((BasicShortestPathTree) spt).getStateTable();
+        else if (spt instanceof MultiShortestPathTree)
+            workspace.multiTable = ((MultiShortestPathTree) spt).getStateTable();
+    }
+
+    /** @return an empty priority queue sized according to recent searches. */
+    BinHeap<State> getQueue() {
+        int expected = (int) (meanQueueSize * 2);
+        if (queue == null || queue.getCapacity() > expected * 4) {
+            // avoid holding on to a queue grown by an unusually large search
+            queue = new BinHeap<State>(expected);
+        } else {
+            queue.reset();
+        }
+        return queue;
+    }
+
+    /** 
+     * Record the largest number of elements held in the queue and the number of vertices reached
+     * by a search, to size the queue and hash-based tables of future searches.
+     */
+    void recordSearchSize(int peakQueueSize, int vertexCount) {
+        meanQueueSize = Math.max(MIN_QUEUE_CAPACITY,
+                (1 - SMOOTHING) * meanQueueSize + SMOOTHING * peakQueueSize);
+        meanVertexCount = Math.max(MIN_TABLE_CAPACITY,
+                (1 - SMOOTHING) * meanVertexCount + SMOOTHING * vertexCount);
+    }
+
+    /**
+     * @param capacity the number of vertex indices to store in arrays, zero for a table that is
+     *        entirely hash-based.
+     * @return a recycled table with the given capacity if there is one, otherwise a new table.
+     */
+    VertexStateTable<State> basicStateTable(int capacity) {
+        VertexStateTable<State> table = basicTable;
+        if (table != null && table.getCapacity() == capacity) {
+            basicTable = null;
+            return table;
+        }
+        return new VertexStateTable<State>(capacity, (int) meanVertexCount);
+    }
+
+    /** @see #basicStateTable(int) */
+    VertexStateTable<List<State>> multiStateTable(int capacity) {
+        VertexStateTable<List<State>> table = multiTable;
+        if (table != null && table.getCapacity() == capacity) {
+            multiTable = null;
+            return table;
+        }
+        return new VertexStateTable<List<State>>(capacity, (int) meanVertexCount);
+    }
+
+    /** @return an empty list to be used as scratch space when copying edge sets. */
+    List<Edge> getEdgeBuffer() {
+        edgeBuffer.clear();
+        return edgeBuffer;
+    }
+
+}
@@ -16,6 +16,7 @@ package org.opentripplanner.routing.algorithm.strategies;
 import java.util.Arrays;
 
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Edge;
@@ -96,6 +97,8 @@ public class BidirectionalRemainingWeightHeuristic implements
             weights = new double[nVertices];
             Arrays.fill(weights, Double.POSITIVE_INFINITY);
             BinHeap<Vertex> q = new BinHeap<Vertex>();
+            // the temporary edges of the request are not in the edge lists of graph vertices
+            RoutingContext rctx = options.rctx;
             long t0 = System.currentTimeMillis();
             if (target instanceof StreetLocation) {
                 for (Edge de : ((StreetLocation) target).getExtra()) {
@@ -131,9 +134,9 @@ public class BidirectionalRemainingWeightHeuristic implements
                     continue;
                 Iterable<Edge> edges;
                 if (options.isArriveBy())
-                    edges = u.getOutgoing();
+                    edges = rctx == null ? u.getOutgoing() : rctx.getOutgoing(u);
                 else
-                    edges = u.getIncoming();
+                    edges = rctx == null ? u.getIncoming() : rctx.getIncoming(u);
                 for (Edge e : edges) {
                     Vertex v = options.isArriveBy() ? 
                         e.getToVertex() : e.getFromVertex();
@@ -0,0 +1,138 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.opentripplanner.routing.core.LandmarkTable;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * A remaining weight heuristic for non-transit searches using the network distances precomputed in
+ * a {@link LandmarkTable}: the remaining distance is the largest of the Euclidean distance and the
+ * landmark bounds, and is turned into a weight the same way as in
+ * {@link DefaultRemainingWeightHeuristic}. Searches using transit get the default heuristic, since
+ * transit is not part of the landmark distances.
+ */
+public class LandmarkRemainingWeightHeuristic implements RemainingWeightHeuristic {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LandmarkTable table;
+
+    private final DefaultRemainingWeightHeuristic euclidean = new DefaultRemainingWeightHeuristic();
+
+    private boolean useLandmarks;
+
+    private double maxSpeed;
+
+    private double walkReluctance;
+
+    /* table positions of the graph vertices a path has to go through to reach the target */
+    private int[] targetPositions;
+
+    public LandmarkRemainingWeightHeuristic(LandmarkTable table) {
+        this.table = table;
+    }
+
+    @Override
+    public double computeInitialWeight(State s, Vertex target) {
+        double weight = euclidean.computeInitialWeight(s, target);
+        RoutingRequest options = s.getOptions();
+        useLandmarks = !options.getModes().isTransit();
+        if (!useLandmarks)
+            return weight;
+        maxSpeed = DefaultRemainingWeightHeuristic.getMaxSpeed(options);
+        walkReluctance = options.walkReluctance;
+        targetPositions = findTargetPositions(s.getContext(), target, options.isArriveBy());
+        return options.isArriveBy() ? computeReverseWeight(s, target)
+                : computeForwardWeight(s, target);
+    }
+
+    @Override
+    public double computeForwardWeight(State s, Vertex target) {
+        if (!useLandmarks)
+            return euclidean.computeForwardWeight(s, target);
+        return computeWeight(s.getVertex(), target, false);
+    }
+
+    @Override
+    public double computeReverseWeight(State s, Vertex target) {
+        if (!useLandmarks)
+            return euclidean.computeReverseWeight(s, target);
+        return computeWeight(s.getVertex(), target, true);
+    }
+
+    private double computeWeight(Vertex v, Vertex target, boolean reverse) {
+        double distance = v.fastDistance(target);
+        int position = table.getPosition(v);
+        if (position >= 0 && targetPositions.length > 0) {
+            double bound = Double.POSITIVE_INFINITY;
+            for (int t : targetPositions) {
+                bound = Math.min(bound, reverse ? table.lowerBound(t, position)
+                        : table.lowerBound(position, t));
+            }
+            distance = Math.max(distance, bound);
+        }
+        return walkReluctance * distance / maxSpeed;
+    }
+
+    /**
+     * A target in the table is its own position. A temporary target is reached through the graph
+     * vertices linked to it, possibly by way of other temporary vertices; the distance to it is at
+     * least the smallest distance to one of them. If any of them is not in the table, nothing is
+     * known and no positions are returned.
+     */
+    private int[] findTargetPositions(RoutingContext rctx, Vertex target, boolean reverse) {
+        int position = table.getPosition(target);
+        if (position >= 0)
+            return new int[] { position };
+        List<Integer> positions = new ArrayList<Integer>();
+        Set<Vertex> visited = Collections.newSetFromMap(new IdentityHashMap<Vertex, Boolean>());
+        LinkedList<Vertex> queue = new LinkedList<Vertex>();
+        visited.add(target);
+        queue.add(target);
+        while (!queue.isEmpty()) {
+            Vertex u = queue.removeFirst();
+            if (!u.isTemporary())
+                return new int[0];
+            for (Edge e : reverse ? rctx.getOutgoing(u) : rctx.getIncoming(u)) {
+                Vertex v = reverse ? e.getToVertex() : e.getFromVertex();
+                position = table.getPosition(v);
+                if (position >= 0)
+                    positions.add(position);
+                else if (visited.add(v))
+                    queue.add(v);
+            }
+        }
+        int[] result = new int[positions.size()];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = positions.get(i);
+        return result;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+}
@@ -13,9 +13,6 @@
 
 package org.opentripplanner.routing.algorithm.strategies;
 
-import java.util.HashMap;
-
-import org.opentripplanner.common.model.T2;
 import org.opentripplanner.routing.core.SimplifiedLowerBoundGraph;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -41,9 +38,6 @@ public class SLBGRemainingWeightHeuristic implements RemainingWeightHeuristic {
 
     private static Logger LOG = LoggerFactory.getLogger(SLBGRemainingWeightHeuristic.class);
 
-    private static HashMap<GraphAndDirection, SimplifiedLowerBoundGraph> 
-        lbgCache = new HashMap<GraphAndDirection, SimplifiedLowerBoundGraph>();
-
     SimplifiedLowerBoundGraph lbg;
 
     Vertex target;
@@ -51,20 +45,8 @@ public class SLBGRemainingWeightHeuristic implements RemainingWeightHeuristic {
     double[] weights;
 
     public SLBGRemainingWeightHeuristic(Graph g, RoutingRequest opt) {
-        GraphAndDirection key = new GraphAndDirection(g, opt.isArriveBy());
-        this.lbg = lbgCache.get(key);
-        if (this.lbg == null) {
-            LOG.debug("no lower bound graph found for: {}", key);
-            LOG.debug("BEGIN Making lower bound graph");
-            if (opt.isArriveBy())
-                this.lbg = new SimplifiedLowerBoundGraph(g); //, LowerBoundGraph.OUTGOING);
-            else 
-                this.lbg = new SimplifiedLowerBoundGraph(g); //, LowerBoundGraph.INCOMING);
-            LOG.debug("END Making lower bound graph");
-            lbgCache.put(key, this.lbg);
-        } else {
-            LOG.debug("reusing cached lower bound graph found for: {}", key);
-        }
+        // built once per graph, possibly in the background when the graph was loaded
+        this.lbg = g.getLowerBoundGraphs().getSimplifiedLowerBoundGraph();
     }
 
     @Override
@@ -103,11 +85,4 @@ public class SLBGRemainingWeightHeuristic implements RemainingWeightHeuristic {
     public void reset() {
     }
     
-    private static class GraphAndDirection extends T2<Graph, Boolean> {
-        private static final long serialVersionUID = 20110901L;
-        public GraphAndDirection(Graph g, Boolean i) {
-            super(g, i);
-        }
-    }
-    
 }
@@ -13,15 +13,26 @@
 
 package org.opentripplanner.routing.algorithm.strategies;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -38,6 +49,7 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IntBinHeap;
 import org.opentripplanner.routing.spt.BasicShortestPathTree;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
@@ -45,13 +57,35 @@ import org.slf4j.LoggerFactory;
 
 /*
  * WeightTable stores a table of lower bounds on shortest path weight between
- * all pairs of transit stops in a graph
+ * all pairs of transit stops in a graph.
+ * 
+ * Weights are stored as unsigned 16-bit whole numbers, rounded down so that they 
+ * remain lower bounds, in a single row-major array. The table can be kept in a
+ * separate file which is memory-mapped rather than serialized with the graph.
  */
 public class WeightTable implements Serializable {
-	private static final long serialVersionUID = 20110506L; // YYYYMMDD
+	private static final long serialVersionUID = 20121018L; // YYYYMMDD
 	private static final Logger LOG = LoggerFactory
 			.getLogger(WeightTable.class);
-	private float[][] table;
+
+	/* stored value of unreachable stops */
+	private static final char UNREACHABLE = Character.MAX_VALUE;
+
+	/* largest weight that can be stored, larger weights are stored as this lower bound */
+	private static final char MAX_STORED_WEIGHT = Character.MAX_VALUE - 1;
+
+	/* the table, when it is not kept in a separate file */
+	private char[] heapTable;
+
+	/* the separate file holding the table, if any */
+	private String tableFile;
+
+	private transient CharBuffer table;
+
+	/* the mapping of the separate file while the table is being built */
+	private transient MappedByteBuffer mappedTable;
+
+	private int nStops;
 	private Graph g;
 	Map<Vertex, Integer> stopIndices;
 	private double maxWalkSpeed;
@@ -68,21 +102,28 @@ public class WeightTable implements Serializable {
 	public double getWeight(Vertex from, Vertex to) {
 		int fi = stopIndices.get(from);
 		int ti = stopIndices.get(to);
-		return table[fi][ti];
+		char w = table.get(fi * nStops + ti);
+		return w == UNREACHABLE ? Double.POSITIVE_INFINITY : w;
 	}
 
+	/** @return whether the table has a weight for the vertex; false if the table file was lost */
 	public boolean includes(Vertex v) {
-		return stopIndices.containsKey(v);
+		return table != null && stopIndices.containsKey(v);
 	}
 
 	public synchronized void incrementCount() {
 		count += 1;
 		if (count % 1000 == 0)
-			LOG.debug("TransitStop " + count + "/" + table.length);
+			LOG.debug("TransitStop " + count + "/" + nStops);
 	}
 
-	// assignindices(Graph g)
-	// update(origin, dest, newval)
+	/**
+	 * Keep the table in the given file, mapped into memory, instead of in the graph. The graph
+	 * refers to the file by its absolute path, so it must not be moved independently of the graph.
+	 */
+	public void setTableFile(File tableFile) {
+		this.tableFile = tableFile.getAbsolutePath();
+	}
 
 	static class PoolableBinHeapFactory<T> implements PoolableObjectFactory {
 		private int size;
@@ -118,7 +159,13 @@ public class WeightTable implements Serializable {
 	}
 
 	/**
-	 * Build the weight table, parallelized according to the number of processors 
+	 * Build the weight table, parallelized according to the number of processors.
+	 * 
+	 * A first pass finds, for each stop, the weights of the stops reachable by 
+	 * walking or by a single transit ride, which are few. A second pass combines
+	 * these legs into the weights between all pairs of stops, with one search 
+	 * over the stops per origin stop. Each search fills in the row of its origin, 
+	 * so only the sparse legs and the final table are ever held at once.
 	 */
 	public void buildTable() {
 		ArrayList<TransitStop> stopVertices;
@@ -128,16 +175,20 @@ public class WeightTable implements Serializable {
 		for (Vertex gv : g.getVertices())
 			if (gv instanceof TransitStop)
 				stopVertices.add((TransitStop) gv);
-		int nStops = stopVertices.size();
+		nStops = stopVertices.size();
 
 		stopIndices = new IdentityHashMap<Vertex, Integer>(nStops);
 		for (int i = 0; i < nStops; i++)
 			stopIndices.put(stopVertices.get(i), i);
 		LOG.debug("Number of stops: " + nStops);
+		if ((long) nStops * nStops > Integer.MAX_VALUE)
+			throw new IllegalStateException("too many stops for a weight table: " + nStops);
+		// onboard vertices get the same index as their station, before any searches
+		// read the indices concurrently
+		for (int i = 0; i < nStops; i++)
+			indexBoardingVertices(stopVertices.get(i), i);
 
-		table = new float[nStops][nStops];
-		for (float[] row : table)
-			Arrays.fill(row, Float.POSITIVE_INFINITY);
+		table = allocateTable(nStops * nStops);
 
 		LOG.debug("Performing search at each transit stop.");
 
@@ -159,7 +210,7 @@ public class WeightTable implements Serializable {
 		final double OPTIMISTIC_BOARD_COST = options.getBoardCostLowerBound();
 
 		// create a task for each transit stop in the graph
-		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		ArrayList<SPTComputer> tasks = new ArrayList<SPTComputer>();
 		for (TransitStop origin : stopVertices) {
 			SPTComputer task = new SPTComputer(heapPool, options, MAX_WEIGHT,
 						OPTIMISTIC_BOARD_COST, origin);
@@ -167,21 +218,106 @@ public class WeightTable implements Serializable {
 		}
 		try {
 			//invoke all of tasks.
-			threadPool.invokeAll(tasks);
-			threadPool.shutdown();
+			Leg[] legs = new Leg[nStops];
+			List<Future<Leg>> results = threadPool.invokeAll(tasks);
+			for (int i = 0; i < nStops; i++)
+				legs[i] = results.get(i).get();
+			LOG.debug("Combining legs between stops.");
+			ArrayList<RowComputer> rows = new ArrayList<RowComputer>(nStops);
+			for (int i = 0; i < nStops; i++)
+				rows.add(new RowComputer(legs, i));
+			for (Future<Void> result : threadPool.invokeAll(rows))
+				result.get();
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			threadPool.shutdown();
+		}
+		if (mappedTable != null) {
+			mappedTable.force();
+			mappedTable = null;
+		}
+	}
+
+	/* Map the preboard and onboard vertices of a station to the index of the station */
+	private void indexBoardingVertices(TransitStop origin, int oi) {
+		Queue<Vertex> q = new ArrayDeque<Vertex>(100);
+		q.add(origin);
+		while (!q.isEmpty()) {
+			Vertex u = q.poll();
+			for (Edge e : u.getOutgoing()) {
+				if (e instanceof PatternBoard) {
+					stopIndices.put(e.getToVertex(), oi);
+				} else if (e instanceof FreeEdge) { // handle preboard
+					Vertex v = e.getToVertex();
+					stopIndices.put(v, oi);
+					q.add(v);
+				}
+			}
+		}
+	}
+
+	private CharBuffer allocateTable(int size) {
+		if (tableFile == null) {
+			heapTable = new char[size];
+			return CharBuffer.wrap(heapTable);
+		}
+		try {
+			RandomAccessFile file = new RandomAccessFile(tableFile, "rw");
+			try {
+				file.setLength(size * 2L);
+				// the mapping remains valid after the file is closed
+				mappedTable = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size * 2L);
+				return mappedTable.asCharBuffer();
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("cannot create weight table file " + tableFile, e);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (heapTable != null) {
+			table = CharBuffer.wrap(heapTable);
+			return;
+		}
+		File file = new File(tableFile);
+		if (!file.exists() || file.length() != nStops * nStops * 2L) {
+			LOG.warn("weight table file {} is missing or does not match the graph, "
+					+ "the weight table will not be used", tableFile);
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			table = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length())
+					.asCharBuffer();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/* The stops reachable from one stop by walking or riding a single vehicle */
+	static class Leg {
+		final int[] stops;
+		final float[] weights;
+
+		Leg(int[] stops, float[] weights) {
+			this.stops = stops;
+			this.weights = weights;
 		}
-		floyd();
 	}
 
 	/** 
-	 * A callable that computes the shortest path tree out to MAX_WEIGHT for one vertex, updating the weight
-	 * table as it goes.
+	 * A callable that computes the shortest path tree out to MAX_WEIGHT for one vertex, collecting
+	 * the weights of the stops reached by walking or by a single transit ride.
 	 * @author novalis
 	 *
 	 */
-	class SPTComputer implements Callable<Void> {
+	class SPTComputer implements Callable<Leg> {
 
 		private GenericObjectPool heapPool;
 		private RoutingRequest options;
@@ -200,9 +336,10 @@ public class WeightTable implements Serializable {
 		}
 		
 		@SuppressWarnings("unchecked")
-		public Void call() throws Exception {
+		public Leg call() throws Exception {
 			// LOG.debug("ORIGIN " + origin);
-			int oi = stopIndices.get(origin); // origin index
+			// the weight to each stop reached, by dest index
+			Map<Integer, Double> reached = new HashMap<Integer, Double>();
 			// first check for walking transfers
 			// LOG.debug("    Walk");
 
@@ -228,7 +365,7 @@ public class WeightTable implements Serializable {
 					break;
 				if (uVertex instanceof TransitStop) {
 					int di = stopIndices.get(uVertex); // dest index
-					table[oi][di] = (float) w;
+					reached.put(di, w);
 					// LOG.debug("    Dest " + u + " w=" + w);
 				}
 				for (Edge e : uVertex.getOutgoing()) {
@@ -250,10 +387,6 @@ public class WeightTable implements Serializable {
 				Vertex u = q.poll();
 				for (Edge e : u.getOutgoing()) {
 					if (e instanceof PatternBoard) {
-						Vertex v = ((PatternBoard) e).getToVertex();
-						// give onboard vertices same index as their
-						// corresponding station
-						stopIndices.put(v, oi);
 						StateEditor se = (new State(u, options)).edit(e);
 						se.incrementWeight(OPTIMISTIC_BOARD_COST);
 						s0 = se.makeState();
@@ -261,11 +394,7 @@ public class WeightTable implements Serializable {
 						heap.insert(s0, s0.getWeight());
 						// _log.debug("    board " + tov);
 					} else if (e instanceof FreeEdge) { // handle preboard
-						Vertex v = ((FreeEdge) e).getToVertex();
-						// give onboard vertices same index as their
-						// corresponding station
-						stopIndices.put(v, oi);
-						q.add(v);
+						q.add(((FreeEdge) e).getToVertex());
 					}
 				}
 			}
@@ -285,8 +414,9 @@ public class WeightTable implements Serializable {
 				Vertex uVertex = u.getVertex();
 				if (uVertex instanceof TransitStop) {
 					int di = stopIndices.get(uVertex); // dest index
-					if (table[oi][di] > w) {
-						table[oi][di] = (float) w;
+					Double old = reached.get(di);
+					if (old == null || old > w) {
+						reached.put(di, w);
 						// LOG.debug("    Dest " + u + "w=" + w);
 					}
 					continue;
@@ -301,31 +431,68 @@ public class WeightTable implements Serializable {
 			}
 			heapPool.returnObject(heap);
 			incrementCount();
-			return null;
+			int[] stops = new int[reached.size()];
+			float[] weights = new float[reached.size()];
+			int i = 0;
+			for (Map.Entry<Integer, Double> entry : reached.entrySet()) {
+				stops[i] = entry.getKey();
+				// round down, the legs are lower bounds
+				weights[i] = (float) Math.floor(entry.getValue());
+				++i;
+			}
+			return new Leg(stops, weights);
 		}
 	}
 
-	/* Find all pairs shortest paths */
-	private void floyd() {
-		LOG.debug("Floyd");
-		int n = table.length;
-		for (int k = 0; k < n; k++) {
-			for (int i = 0; i < n; i++) {
-				double ik = table[i][k];
-				if (ik == Float.POSITIVE_INFINITY)
+	/**
+	 * A callable that finds the weights from one stop to all others by combining legs, and stores
+	 * them in the row of the table for that stop. This replaces a Floyd-Warshall pass over the 
+	 * whole table, which takes time cubic in the number of stops.
+	 */
+	class RowComputer implements Callable<Void> {
+
+		private final Leg[] legs;
+		private final int origin;
+
+		RowComputer(Leg[] legs, int origin) {
+			this.legs = legs;
+			this.origin = origin;
+		}
+
+		public Void call() {
+			double[] weights = new double[nStops];
+			Arrays.fill(weights, Double.POSITIVE_INFINITY);
+			IntBinHeap heap = new IntBinHeap(100);
+			weights[origin] = 0;
+			heap.insert(origin, 0);
+			while (!heap.empty()) {
+				double uw = heap.peek_min_key();
+				int u = heap.p_extract_min();
+				if (uw > weights[u])
 					continue;
-				for (int j = 0; j < n; j++) {
-					double kj = table[k][j];
-					if (kj == Float.POSITIVE_INFINITY)
-						continue;
-					double ikj = ik + kj;
-					double ij = table[i][j];
-					if (ikj < ij)
-						table[i][j] = (float) ikj;
+				Leg leg = legs[u];
+				for (int i = 0; i < leg.stops.length; i++) {
+					int v = leg.stops[i];
+					double vw = uw + leg.weights[i];
+					if (vw < weights[v]) {
+						weights[v] = vw;
+						heap.insert(v, vw);
+					}
 				}
 			}
-			if (k % 50 == 0)
-				LOG.debug("k=" + k + "/" + n);
+			int offset = origin * nStops;
+			for (int i = 0; i < nStops; i++) {
+				double w = weights[i];
+				char stored;
+				if (w == Double.POSITIVE_INFINITY)
+					stored = UNREACHABLE;
+				else if (w >= MAX_STORED_WEIGHT)
+					stored = MAX_STORED_WEIGHT;
+				else
+					stored = (char) w; // weights are sums of whole numbers
+				table.put(offset + i, stored);
+			}
+			return null;
 		}
 	}
 
@@ -0,0 +1,573 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package org.opentripplanner.routing.contraction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opentripplanner.common.pqueue.IntBinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+
+/**
+ * A finished contraction hierarchy exported to flat arrays for fast queries. Vertices are numbered
+ * by rank, in the order they were contracted, followed by the uncontracted core. The upward graph
+ * holds, for each vertex, the edges leading to higher ranked vertices; the downward graph holds
+ * the edges coming from higher ranked vertices, stored at their lower ranked end. Edges between
+ * two core vertices are in both graphs, since the core is searched in full. Both are stored in
+ * compressed sparse row form, with weights and durations in seconds computed once for the options
+ * of the hierarchy.
+ *
+ * Searches only go upward from both ends, so they settle few vertices. They keep their state in a
+ * per-thread workspace that is reset by undoing only what the previous search touched, so that
+ * queries do not allocate. Shortcuts are only unpacked into graph edges for the path that is
+ * returned.
+ *
+ * Only the vertices of the hierarchy can be searched from and to: temporary vertices such as
+ * StreetLocations must be linked to a graph vertex by the caller.
+ */
+public class CompactHierarchy {
+
+    private final Vertex[] vertices;
+
+    /* rank of each vertex by vertex index, -1 for vertices not in the hierarchy */
+    private final int[] ranks;
+
+    private final Edge[] edges;
+
+    private final int[] upFirst, upTarget, upEdge;
+
+    private final float[] upWeight;
+
+    private final int[] upDuration;
+
+    private final int[] downFirst, downTarget, downEdge;
+
+    private final float[] downWeight;
+
+    private final int[] downDuration;
+
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace(vertices.length);
+        }
+    };
+
+    /**
+     * @return false for hierarchies saved before the contraction order was recorded, which cannot
+     *         be made compact
+     */
+    public static boolean hasContractionOrder(ContractionHierarchy hierarchy) {
+        return hierarchy.chv.isEmpty() || !hierarchy.getContractionOrder().isEmpty();
+    }
+
+    /**
+     * @param options - the options the hierarchy was built for, which give the weights of edges
+     * @throws IllegalArgumentException if the hierarchy was saved without its contraction order,
+     *         which the ranks of the contracted vertices are taken from
+     */
+    public CompactHierarchy(ContractionHierarchy hierarchy, RoutingRequest options) {
+        if (!hasContractionOrder(hierarchy))
+            throw new IllegalArgumentException("the hierarchy has no contraction order; "
+                    + "rebuild the graph to make a compact hierarchy from it");
+        List<Vertex> order = new ArrayList<Vertex>(hierarchy.getContractionOrder());
+        List<Vertex> core = new ArrayList<Vertex>(hierarchy.corev);
+        Collections.sort(core, new Comparator<Vertex>() {
+            public int compare(Vertex v1, Vertex v2) {
+                return v1.getLabel().compareTo(v2.getLabel());
+            }
+        });
+        int nContracted = order.size();
+        order.addAll(core);
+        vertices = order.toArray(new Vertex[order.size()]);
+        int n = vertices.length;
+        int maxIndex = -1;
+        for (Vertex v : vertices)
+            maxIndex = Math.max(maxIndex, v.getIndex());
+        ranks = new int[maxIndex + 1];
+        Arrays.fill(ranks, -1);
+        for (int r = 0; r < n; r++)
+            ranks[vertices[r].getIndex()] = r;
+
+        /* find the usable edges and their weights */
+        List<Edge> usable = new ArrayList<Edge>();
+        List<Float> weights = new ArrayList<Float>();
+        List<Integer> durations = new ArrayList<Integer>();
+        int[] upDegree = new int[n + 1];
+        int[] downDegree = new int[n + 1];
+        for (int r = 0; r < n; r++) {
+            State s0 = new State(vertices[r], options);
+            for (Edge e : vertices[r].getOutgoing()) {
+                int to = getRank(e.getToVertex());
+                if (to < 0 || to == r)
+                    continue;
+                State s1 = e.traverse(s0);
+                if (s1 == null)
+                    continue;
+                usable.add(e);
+                weights.add((float) (s1.getWeight() - s0.getWeight()));
+                durations.add((int) Math.abs(s1.getTime() - s0.getTime()));
+                boolean inCore = r >= nContracted && to >= nContracted;
+                if (to > r || inCore)
+                    upDegree[r]++;
+                if (to < r || inCore)
+                    downDegree[to]++;
+            }
+        }
+        edges = usable.toArray(new Edge[usable.size()]);
+
+        /* lay out the upward and downward graphs */
+        upFirst = cumulate(upDegree);
+        downFirst = cumulate(downDegree);
+        upTarget = new int[upFirst[n]];
+        upEdge = new int[upFirst[n]];
+        upWeight = new float[upFirst[n]];
+        upDuration = new int[upFirst[n]];
+        downTarget = new int[downFirst[n]];
+        downEdge = new int[downFirst[n]];
+        downWeight = new float[downFirst[n]];
+        downDuration = new int[downFirst[n]];
+        int[] upNext = Arrays.copyOf(upFirst, n);
+        int[] downNext = Arrays.copyOf(downFirst, n);
+        for (int ei = 0; ei < edges.length; ei++) {
+            int from = getRank(edges[ei].getFromVertex());
+            int to = getRank(edges[ei].getToVertex());
+            float weight = weights.get(ei);
+            int duration = durations.get(ei);
+            boolean inCore = from >= nContracted && to >= nContracted;
+            if (to > from || inCore) {
+                int a = upNext[from]++;
+                upTarget[a] = to;
+                upEdge[a] = ei;
+                upWeight[a] = weight;
+                upDuration[a] = duration;
+            }
+            if (to < from || inCore) {
+                int a = downNext[to]++;
+                downTarget[a] = from;
+                downEdge[a] = ei;
+                downWeight[a] = weight;
+                downDuration[a] = duration;
+            }
+        }
+    }
+
+    /* turn degrees into the index of the first arc of each vertex, plus the total at the end */
+    private static int[] cumulate(int[] degrees) {
+        int[] first = new int[degrees.length];
+        int total = 0;
+        for (int i = 0; i < degrees.length; i++) {
+            first[i] = total;
+            total += degrees[i];
+        }
+        return first;
+    }
+
+    /**
+     * @return the rank of the vertex in the hierarchy, or -1 if it is null or not in the hierarchy
+     */
+    public int getRank(Vertex v) {
+        if (v == null)
+            return -1;
+        int index = v.getIndex();
+        if (index < 0 || index >= ranks.length)
+            return -1;
+        int rank = ranks[index];
+        // temporary vertices may reuse the indices of vertices in other graphs
+        if (rank < 0 || vertices[rank] != v)
+            return -1;
+        return rank;
+    }
+
+    public int getVertexCount() {
+        return vertices.length;
+    }
+
+    /**
+     * @return the weight of the shortest path between two vertices of the hierarchy, or positive
+     *         infinity if there is none.
+     */
+    public double getWeight(Vertex from, Vertex to) {
+        int s = getRank(from);
+        int t = getRank(to);
+        if (s < 0 || t < 0)
+            return Double.POSITIVE_INFINITY;
+        Workspace w = workspaces.get();
+        search(w, s, t);
+        return w.best;
+    }
+
+    /**
+     * @return the shortest path between two vertices of the hierarchy, with shortcuts unpacked
+     *         and the edges traversed with the given options, or null if there is none.
+     */
+    public GraphPath getShortestPath(Vertex from, Vertex to, RoutingRequest options) {
+        int s = getRank(from);
+        int t = getRank(to);
+        if (s < 0 || t < 0)
+            return null;
+        Workspace w = workspaces.get();
+        search(w, s, t);
+        if (w.meeting < 0)
+            return null;
+
+        /* collect the arcs of the path, then unpack their shortcuts */
+        List<Edge> packed = new ArrayList<Edge>();
+        for (int r = w.meeting; r != s; r = arcSource(upFirst, w.forwardArc[r]))
+            packed.add(edges[upEdge[w.forwardArc[r]]]);
+        Collections.reverse(packed);
+        for (int r = w.meeting; r != t; r = arcSource(downFirst, w.backwardArc[r]))
+            packed.add(edges[downEdge[w.backwardArc[r]]]);
+        List<Edge> path = new ArrayList<Edge>();
+        for (Edge e : packed)
+            unpack(e, path);
+
+        State state;
+        if (options.isArriveBy()) {
+            state = new State(to, options);
+            for (int i = path.size() - 1; i >= 0 && state != null; i--)
+                state = path.get(i).traverse(state);
+        } else {
+            state = new State(from, options);
+            for (int i = 0; i < path.size() && state != null; i++)
+                state = path.get(i).traverse(state);
+        }
+        // traversals might exceed the limits of the request even if the weights did not
+        if (state == null)
+            return null;
+        return new GraphPath(state, false);
+    }
+
+    /* the vertex an arc is stored at, found by the position of the arc in the arc arrays */
+    private int arcSource(int[] first, int arc) {
+        int lo = 0, hi = vertices.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (first[mid] <= arc)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private static void unpack(Edge e, List<Edge> path) {
+        if (e instanceof Shortcut) {
+            unpack(((Shortcut) e).edge1, path);
+            unpack(((Shortcut) e).edge2, path);
+        } else {
+            path.add(e);
+        }
+    }
+
+    /**
+     * Bidirectional search going upward from both ends. Each direction stops once its queue holds
+     * nothing better than the best meeting found so far.
+     */
+    private void search(Workspace w, int s, int t) {
+        w.reset();
+        w.reach(w.forward, s, 0, -1);
+        w.forwardQueue.insert(s, 0);
+        w.reach(w.backward, t, 0, -1);
+        w.backwardQueue.insert(t, 0);
+        IntBinHeap fq = w.forwardQueue;
+        IntBinHeap bq = w.backwardQueue;
+        while (true) {
+            boolean forwardDone = fq.empty() || fq.peek_min_key() >= w.best;
+            boolean backwardDone = bq.empty() || bq.peek_min_key() >= w.best;
+            if (forwardDone && backwardDone)
+                break;
+            if (!forwardDone && (backwardDone || fq.peek_min_key() <= bq.peek_min_key())) {
+                double du = fq.peek_min_key();
+                int u = fq.p_extract_min();
+                if (du > w.forward[u])
+                    continue;
+                w.meet(u, du + w.backward[u]);
+                for (int a = upFirst[u]; a < upFirst[u + 1]; a++) {
+                    int v = upTarget[a];
+                    double dv = du + upWeight[a];
+                    if (dv < w.forward[v]) {
+                        w.reach(w.forward, v, dv, a);
+                        fq.insert(v, dv);
+                    }
+                }
+            } else {
+                double du = bq.peek_min_key();
+                int u = bq.p_extract_min();
+                if (du > w.backward[u])
+                    continue;
+                w.meet(u, du + w.forward[u]);
+                for (int a = downFirst[u]; a < downFirst[u + 1]; a++) {
+                    int v = downTarget[a];
+                    double dv = du + downWeight[a];
+                    if (dv < w.backward[v]) {
+                        w.reach(w.backward, v, dv, a);
+                        bq.insert(v, dv);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Weights of the shortest paths from each origin to each destination, by the bucket method:
+     * one upward search from each destination leaves its distances at the vertices it reaches,
+     * and one upward search from each origin combines them with its own distances. Vertices not
+     * in the hierarchy have no paths.
+     *
+     * @return - the weights by origin then destination, positive infinity where there is no path
+     */
+    public double[][] getWeights(List<Vertex> origins, List<Vertex> destinations) {
+        double[][] result = new double[origins.size()][destinations.size()];
+        double[] durations = new double[destinations.size()];
+        DestinationBuckets buckets = getBuckets(destinations);
+        for (int o = 0; o < origins.size(); o++)
+            getRow(buckets, origins.get(o), result[o], durations);
+        return result;
+    }
+
+    /**
+     * Run the searches from the destinations of a many-to-many query, so that rows can then be
+     * computed one origin at a time with {@link #getRow}. The buckets do not change once made and
+     * can be shared between threads.
+     */
+    public DestinationBuckets getBuckets(List<Vertex> destinations) {
+        Workspace w = workspaces.get();
+
+        /* fill the buckets: for each vertex, the destinations reached from it and their weights */
+        int n = vertices.length;
+        int[] bucketSizes = new int[n + 1];
+        BucketEntries entries = new BucketEntries();
+        for (int d = 0; d < destinations.size(); d++) {
+            int t = getRank(destinations.get(d));
+            if (t < 0)
+                continue;
+            searchAll(w, t, false);
+            for (int i = 0; i < w.touchedCount; i++) {
+                int v = w.touched[i];
+                entries.add(v, d, w.backward[v], w.backwardDuration[v]);
+                bucketSizes[v]++;
+            }
+        }
+        DestinationBuckets buckets = new DestinationBuckets(destinations.size(),
+                cumulate(bucketSizes), entries.size);
+        int[] next = Arrays.copyOf(buckets.first, n);
+        for (int i = 0; i < entries.size; i++) {
+            int e = next[entries.vertices[i]]++;
+            buckets.destinations[e] = entries.destinations[i];
+            buckets.weights[e] = entries.weights[i];
+            buckets.durations[e] = entries.durations[i];
+        }
+        return buckets;
+    }
+
+    /**
+     * Compute one row of a many-to-many query: the weights of the shortest paths from an origin to
+     * each destination of the buckets, and the durations in seconds of those same paths.
+     *
+     * @param weights - filled with the weights, positive infinity where there is no path
+     * @param durations - filled with the durations, positive infinity where there is no path
+     */
+    public void getRow(DestinationBuckets buckets, Vertex origin, double[] weights,
+            double[] durations) {
+        Arrays.fill(weights, 0, buckets.size, Double.POSITIVE_INFINITY);
+        Arrays.fill(durations, 0, buckets.size, Double.POSITIVE_INFINITY);
+        int s = getRank(origin);
+        if (s < 0)
+            return;
+        Workspace w = workspaces.get();
+        searchAll(w, s, true);
+        int[] first = buckets.first;
+        for (int i = 0; i < w.touchedCount; i++) {
+            int v = w.touched[i];
+            double dv = w.forward[v];
+            int tv = w.forwardDuration[v];
+            for (int e = first[v]; e < first[v + 1]; e++) {
+                int d = buckets.destinations[e];
+                double weight = dv + buckets.weights[e];
+                if (weight < weights[d]) {
+                    weights[d] = weight;
+                    durations[d] = tv + buckets.durations[e];
+                }
+            }
+        }
+    }
+
+    /** An upward search from one vertex that is not limited by any target. */
+    private void searchAll(Workspace w, int s, boolean forward) {
+        w.reset();
+        double[] dist = forward ? w.forward : w.backward;
+        IntBinHeap q = forward ? w.forwardQueue : w.backwardQueue;
+        int[] first = forward ? upFirst : downFirst;
+        int[] target = forward ? upTarget : downTarget;
+        float[] weight = forward ? upWeight : downWeight;
+        int[] duration = forward ? upDuration : downDuration;
+        int[] time = forward ? w.forwardDuration : w.backwardDuration;
+        w.reach(dist, s, 0, -1);
+        time[s] = 0;
+        q.insert(s, 0);
+        while (!q.empty()) {
+            double du = q.peek_min_key();
+            int u = q.p_extract_min();
+            if (du > dist[u])
+                continue;
+            for (int a = first[u]; a < first[u + 1]; a++) {
+                int v = target[a];
+                double dv = du + weight[a];
+                if (dv < dist[v]) {
+                    w.reach(dist, v, dv, a);
+                    time[v] = time[u] + duration[a];
+                    q.insert(v, dv);
+                }
+            }
+        }
+    }
+
+    /**
+     * The distances from the vertices of the hierarchy to a list of destinations, grouped by
+     * vertex, as left by the upward searches from the destinations.
+     */
+    public static class DestinationBuckets {
+        /* the number of destinations */
+        private final int size;
+
+        private final int[] first;
+
+        private final int[] destinations;
+
+        private final double[] weights;
+
+        private final int[] durations;
+
+        private DestinationBuckets(int size, int[] first, int nEntries) {
+            this.size = size;
+            this.first = first;
+            destinations = new int[nEntries];
+            weights = new double[nEntries];
+            durations = new int[nEntries];
+        }
+
+        public int getDestinationCount() {
+            return size;
+        }
+    }
+
+    /** Bucket entries in the order they are found, in growable arrays to avoid boxing. */
+    private static class BucketEntries {
+        int[] vertices = new int[16];
+
+        int[] destinations = new int[16];
+
+        double[] weights = new double[16];
+
+        int[] durations = new int[16];
+
+        int size = 0;
+
+        void add(int vertex, int destination, double weight, int duration) {
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, size * 2);
+                destinations = Arrays.copyOf(destinations, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+                durations = Arrays.copyOf(durations, size * 2);
+            }
+            vertices[size] = vertex;
+            destinations[size] = destination;
+            weights[size] = weight;
+            durations[size] = duration;
+            size++;
+        }
+    }
+
+    /**
+     * The state of the searches of one thread. Distances are kept for all vertices, and only the
+     * vertices touched by the previous search are reset before the next one.
+     */
+    private static class Workspace {
+        final double[] forward, backward;
+
+        final int[] forwardArc, backwardArc;
+
+        /* durations of the paths found by searches from a single vertex */
+        final int[] forwardDuration, backwardDuration;
+
+        final int[] touched;
+
+        int touchedCount = 0;
+
+        /* whether a vertex is already in the touched list */
+        final boolean[] isTouched;
+
+        final IntBinHeap forwardQueue = new IntBinHeap(1000);
+
+        final IntBinHeap backwardQueue = new IntBinHeap(1000);
+
+        double best;
+
+        int meeting;
+
+        Workspace(int n) {
+            forward = new double[n];
+            backward = new double[n];
+            Arrays.fill(forward, Double.POSITIVE_INFINITY);
+            Arrays.fill(backward, Double.POSITIVE_INFINITY);
+            forwardArc = new int[n];
+            backwardArc = new int[n];
+            forwardDuration = new int[n];
+            backwardDuration = new int[n];
+            touched = new int[n];
+            isTouched = new boolean[n];
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                int v = touched[i];
+                forward[v] = Double.POSITIVE_INFINITY;
+                backward[v] = Double.POSITIVE_INFINITY;
+                isTouched[v] = false;
+            }
+            touchedCount = 0;
+            forwardQueue.reset();
+            backwardQueue.reset();
+            best = Double.POSITIVE_INFINITY;
+            meeting = -1;
+        }
+
+        void reach(double[] dist, int v, double d, int arc) {
+            dist[v] = d;
+            if (dist == forward)
+                forwardArc[v] = arc;
+            else
+                backwardArc[v] = arc;
+            if (!isTouched[v]) {
+                isTouched[v] = true;
+                touched[touchedCount++] = v;
+            }
+        }
+
+        void meet(int v, double weight) {
+            if (weight < best) {
+                best = weight;
+                meeting = v;
+            }
+        }
+    }
+
+}
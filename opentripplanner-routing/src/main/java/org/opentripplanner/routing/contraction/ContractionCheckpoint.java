@@ -0,0 +1,200 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package org.opentripplanner.routing.contraction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The progress of a contraction hierarchy build: the vertices contracted so far in order, the
+ * shortcuts made, and the priorities of the vertices left in the core. It can be written to disk
+ * between contraction rounds, so that an interrupted build can be resumed where it stopped.
+ *
+ * Vertices and edges are stored by their position in the order the build visits them, which is
+ * the same for the same input. A fingerprint of the network is stored with them so that the
+ * checkpoint of another graph or mode is not used by mistake.
+ */
+class ContractionCheckpoint {
+
+    private static final Logger _log = LoggerFactory.getLogger(ContractionCheckpoint.class);
+
+    private static final int VERSION = 1;
+
+    private final TraverseMode mode;
+
+    private final List<Vertex> vertices;
+
+    private final Map<Vertex, Integer> vertexNumbers = new IdentityHashMap<Vertex, Integer>();
+
+    /* the edges out of the vertices before contraction, followed by the shortcuts */
+    private final List<Edge> edges = new ArrayList<Edge>();
+
+    private final Map<Edge, Integer> edgeNumbers = new IdentityHashMap<Edge, Integer>();
+
+    private final int nGraphEdges;
+
+    private final long fingerprint;
+
+    private final List<Vertex> contracted = new ArrayList<Vertex>();
+
+    /**
+     * @param vertices - the contractable vertices, in the order used by the build
+     */
+    ContractionCheckpoint(List<Vertex> vertices, TraverseMode mode) {
+        this.vertices = vertices;
+        this.mode = mode;
+        long h = mode.ordinal();
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex v = vertices.get(i);
+            vertexNumbers.put(v, i);
+            h = 31 * h + v.getLabel().hashCode();
+        }
+        for (Vertex v : vertices) {
+            for (Edge e : v.getOutgoing()) {
+                addEdge(e);
+                Integer to = vertexNumbers.get(e.getToVertex());
+                h = 31 * h + (to == null ? -1 : to);
+                h = 31 * h + Double.doubleToLongBits(e.getDistance());
+            }
+        }
+        nGraphEdges = edges.size();
+        fingerprint = h;
+    }
+
+    private void addEdge(Edge e) {
+        edgeNumbers.put(e, edges.size());
+        edges.add(e);
+    }
+
+    void addShortcut(Shortcut shortcut) {
+        addEdge(shortcut);
+    }
+
+    void addContracted(Vertex v) {
+        contracted.add(v);
+    }
+
+    /**
+     * Write the progress so far, along with the state of the core vertices. The file is replaced
+     * only once the new checkpoint is complete.
+     */
+    void write(File file, Set<Vertex> core, Map<Vertex, Integer> priorities,
+            Map<Vertex, Integer> deletedNeighbors) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(vertices.size());
+            out.writeInt(nGraphEdges);
+            out.writeInt(contracted.size());
+            for (Vertex v : contracted)
+                out.writeInt(vertexNumbers.get(v));
+            out.writeInt(edges.size() - nGraphEdges);
+            for (int i = nGraphEdges; i < edges.size(); i++) {
+                Shortcut s = (Shortcut) edges.get(i);
+                out.writeInt(edgeNumbers.get(s.edge1));
+                out.writeInt(edgeNumbers.get(s.edge2));
+                out.writeInt(s.time);
+                out.writeDouble(s.weight);
+                out.writeDouble(s.getWalkDistance());
+            }
+            for (Vertex v : vertices) {
+                if (core.contains(v)) {
+                    out.writeInt(priorities.get(v));
+                    Integer deleted = deletedNeighbors.get(v);
+                    out.writeInt(deleted == null ? 0 : deleted);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete())
+            throw new IOException("cannot replace checkpoint " + file);
+        if (!tmp.renameTo(file))
+            throw new IOException("cannot move checkpoint to " + file);
+    }
+
+    /**
+     * Restore the progress saved in a checkpoint: make the shortcuts again and move the contracted
+     * vertices from the core to the hierarchy.
+     *
+     * @return false, leaving everything untouched, if the file does not hold a checkpoint of this
+     *         network.
+     */
+    boolean read(File file, Set<Vertex> core, Set<Vertex> hierarchy,
+            Map<Vertex, Integer> priorities, Map<Vertex, Integer> deletedNeighbors)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            if (in.readInt() != VERSION || in.readLong() != fingerprint
+                    || in.readInt() != vertices.size() || in.readInt() != nGraphEdges) {
+                _log.warn("checkpoint {} is not for this graph and mode, ignoring it", file);
+                return false;
+            }
+            int nContracted = in.readInt();
+            for (int i = 0; i < nContracted; i++)
+                contracted.add(vertices.get(in.readInt()));
+            int nShortcuts = in.readInt();
+            for (int i = 0; i < nShortcuts; i++) {
+                Edge e1 = edges.get(in.readInt());
+                Edge e2 = edges.get(in.readInt());
+                int time = in.readInt();
+                double weight = in.readDouble();
+                double walkDistance = in.readDouble();
+                addShortcut(new Shortcut(e1, e2, time, weight, walkDistance, mode));
+            }
+            for (Vertex v : contracted) {
+                core.remove(v);
+                hierarchy.add(v);
+            }
+            for (Vertex v : vertices) {
+                if (core.contains(v)) {
+                    priorities.put(v, in.readInt());
+                    deletedNeighbors.put(v, in.readInt());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    int getContractedCount() {
+        return contracted.size();
+    }
+
+    List<Vertex> getContracted() {
+        return contracted;
+    }
+
+}
@@ -12,17 +12,22 @@
  along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package org.opentripplanner.routing.contraction;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -36,10 +41,8 @@ import org.opentripplanner.routing.edgetype.OutEdge;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.routing.location.StreetLocation;
 import org.opentripplanner.routing.spt.BasicShortestPathTree;
 import org.opentripplanner.routing.spt.GraphPath;
-import org.opentripplanner.routing.util.NullExtraEdges;
 import org.opentripplanner.routing.vertextype.StreetVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +63,9 @@ public class ContractionHierarchy implements Serializable {
     private static final int NODE_LIMIT_SIMULATE = 500;
     private static final int NODE_LIMIT_CONTRACT = 500; //Integer.MAX_VALUE;
 
+    /* how often to write a checkpoint during the build, in milliseconds */
+    private static final long CHECKPOINT_INTERVAL = 10 * 60 * 1000;
+
     private static final Logger _log = LoggerFactory.getLogger(ContractionHierarchy.class);
 
     private static final long serialVersionUID = 20111118L;
@@ -70,6 +76,9 @@ public class ContractionHierarchy implements Serializable {
     // fast set membership checking.
     public Set<Vertex> corev, chv;  
 
+    /* the contracted vertices, in the order they were contracted */
+    private ArrayList<Vertex> contractionOrder;
+
     private double contractionFactor;
 
     private transient RoutingRequest fwdOptions, backOptions;
@@ -78,6 +87,8 @@ public class ContractionHierarchy implements Serializable {
 
     private transient ThreadPoolExecutor threadPool;
 
+    private transient File checkpointFile;
+
 
     /**
      * Returns the set of shortcuts around a vertex, as well as the size of the space searched.
@@ -90,6 +101,14 @@ public class ContractionHierarchy implements Serializable {
      * @return - the necessary shortcuts and the search space of the witness search.
      */
     public WitnessSearchResult getShortcuts(Vertex u, boolean simulate) {
+        return getShortcuts(u, simulate, true);
+    }
+
+    /**
+     * @param parallel - If true, run the witness searches on the thread pool. Otherwise run them in
+     *                   the calling thread, which is then usually itself a thread of the pool.
+     */
+    private WitnessSearchResult getShortcuts(Vertex u, boolean simulate, boolean parallel) {
 
         /* Compute the cost from each vertex with an incoming edge to the target */
         State su = new State(u, backOptions); // search backward
@@ -139,6 +158,14 @@ public class ContractionHierarchy implements Serializable {
                     weightLimit, ws, v);
             tasks.add(task);
         }
+        if (!parallel) {
+            for (Callable<WitnessSearchResult> task : tasks) {
+                WitnessSearchResult wsresult = ((WitnessSearch) task).call();
+                searchSpace += wsresult.searchSpace;
+                shortcuts.addAll(wsresult.shortcuts);
+            }
+            return new WitnessSearchResult(shortcuts, null, null, searchSpace);
+        }
         if (threadPool == null) {
             createThreadPool();
         }
@@ -255,8 +282,8 @@ public class ContractionHierarchy implements Serializable {
             this.weight = weight;
             this.walk = walk;
         }
-        public void make () {
-            new Shortcut(e1, e2, time, weight, walk, mode);
+        public Shortcut make () {
+            return new Shortcut(e1, e2, time, weight, walk, mode);
         }
     }
     
@@ -275,27 +302,46 @@ public class ContractionHierarchy implements Serializable {
     }
 
     /**
-     * Initialize the priority queue for contracting, by computing the initial importance of every
-     * node. Also initializes the set of nodes to be contracted.
-     * 
-     * @return
+     * Compute the initial importance of every contractable vertex, in parallel. Also initializes
+     * the sets of core and contracted vertices.
      */
-    BinHeap<Vertex> initPriorityQueue(Graph g) {
-        BinHeap<Vertex> pq = new BinHeap<Vertex>(g.getVertices().size());
-        corev = new HashSet<Vertex>();
+    private void initPriorities(List<Vertex> vertices, Map<Vertex, Integer> priorities) {
+        corev = new HashSet<Vertex>(vertices);
         chv = new HashSet<Vertex>();
-        for (Vertex v : g.getVertices()) {
-            if (v instanceof StreetVertex)
-                corev.add(v);
+        List<WitnessSearchResult> results = getShortcuts(vertices, true);
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex v = vertices.get(i);
+            priorities.put(v, getImportance(v, results.get(i), 0));
         }
-        for (Vertex v : corev) {
-//            if (v.getDegreeIn() > 7 || v.getDegreeOut() > 7)
-//                continue;
-            WitnessSearchResult shortcuts = getShortcuts(v, true);
-            int imp = getImportance(v, shortcuts, 0);
-            pq.insert(v, imp);
+    }
+
+    /**
+     * Find the shortcuts around each of the given vertices, one vertex per task on the thread
+     * pool.
+     * 
+     * @return - the results in the order of the vertices
+     */
+    private List<WitnessSearchResult> getShortcuts(List<Vertex> vertices, final boolean simulate) {
+        List<Callable<WitnessSearchResult>> tasks = new ArrayList<Callable<WitnessSearchResult>>(
+                vertices.size());
+        for (final Vertex v : vertices) {
+            tasks.add(new Callable<WitnessSearchResult>() {
+                public WitnessSearchResult call() {
+                    return getShortcuts(v, simulate, false);
+                }
+            });
+        }
+        List<WitnessSearchResult> results = new ArrayList<WitnessSearchResult>(vertices.size());
+        try {
+            for (Future<WitnessSearchResult> future : threadPool.invokeAll(tasks))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
         }
-        return pq;
+        return results;
     }
 
     /**
@@ -307,6 +353,16 @@ public class ContractionHierarchy implements Serializable {
      *            A fraction from 0 to 1 of (the contractable portion of) the graph to contract
      */
     public ContractionHierarchy(Graph graph, RoutingRequest options, double contractionFactor) {
+        this(graph, options, contractionFactor, null);
+    }
+
+    /**
+     * Create a contraction hierarchy from a graph, saving the progress of the build to a
+     * checkpoint file from time to time. If the file already holds a checkpoint of a build for
+     * the same graph and mode, the build resumes from it.
+     */
+    public ContractionHierarchy(Graph graph, RoutingRequest options, double contractionFactor,
+            File checkpointFile) {
         
         this.graph = graph;
         fwdOptions = options;
@@ -315,6 +371,7 @@ public class ContractionHierarchy implements Serializable {
         backOptions = fwdOptions.clone();
         backOptions.setArriveBy(true);
         this.contractionFactor = contractionFactor;
+        this.checkpointFile = checkpointFile;
 
         // TODO LG Check this
         TraverseModeSet modes = this.fwdOptions.getModes(); 
@@ -326,181 +383,201 @@ public class ContractionHierarchy implements Serializable {
     /**
      * Does the work of construting the CH.
      * 
+     * Contraction proceeds in rounds. Each round contracts an independent set of vertices, each of
+     * which is less important than all of its neighbors in the core, so that no two of them are
+     * adjacent. Their witness searches run in parallel, avoiding all vertices contracted in the
+     * same round, and their shortcuts are added afterward in a fixed order. Ties in importance are
+     * broken by vertex label, so the same graph always gives the same hierarchy.
      */
     void build() {
 
         createThreadPool();
+        try {
+            contract();
+        } finally {
+            threadPool.shutdownNow();
+            threadPool = null;
+        }
+    }
 
+    private void contract() {
         long start = System.currentTimeMillis();
 
-        HashMap<Vertex, Integer> deletedNeighbors = new HashMap<Vertex, Integer>();
         _log.debug("Preparing contraction hierarchy -- this may take quite a while");
-        _log.debug("Initializing priority queue");
-
-        // initialize a priority queue containing only contractable vertices
-        BinHeap<Vertex> pq = initPriorityQueue(graph);
+        List<Vertex> vertices = new ArrayList<Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof StreetVertex)
+                vertices.add(v);
+        }
+        Collections.sort(vertices, new Comparator<Vertex>() {
+            public int compare(Vertex v1, Vertex v2) {
+                return v1.getLabel().compareTo(v2.getLabel());
+            }
+        });
+        final Map<Vertex, Integer> order = new HashMap<Vertex, Integer>();
+        for (int i = 0; i < vertices.size(); i++)
+            order.put(vertices.get(i), i);
+
+        final Map<Vertex, Integer> priorities = new HashMap<Vertex, Integer>();
+        Map<Vertex, Integer> deletedNeighbors = new HashMap<Vertex, Integer>();
+        ContractionCheckpoint checkpoint = new ContractionCheckpoint(vertices, mode);
+        boolean resumed = false;
+        if (checkpointFile != null && checkpointFile.exists()) {
+            corev = new HashSet<Vertex>(vertices);
+            chv = new HashSet<Vertex>();
+            try {
+                resumed = checkpoint.read(checkpointFile, corev, chv, priorities,
+                        deletedNeighbors);
+            } catch (IOException e) {
+                throw new RuntimeException("cannot read checkpoint " + checkpointFile, e);
+            }
+            if (resumed)
+                _log.info("Resuming contraction from checkpoint {}, {} vertices contracted",
+                        checkpointFile, checkpoint.getContractedCount());
+        }
+        if (!resumed) {
+            _log.debug("Initializing priorities");
+            initPriorities(vertices, priorities);
+        }
+        Comparator<Vertex> byPriority = new Comparator<Vertex>() {
+            public int compare(Vertex v1, Vertex v2) {
+                int c = priorities.get(v1).compareTo(priorities.get(v2));
+                return c != 0 ? c : order.get(v1).compareTo(order.get(v2));
+            }
+        };
 
         _log.debug("Contracting");
         long lastNotified = System.currentTimeMillis();
-        int i = 0;
-        int totalContractableVertices = pq.size(); // == corev.size()
+        long lastCheckpoint = lastNotified;
+        int totalContractableVertices = vertices.size();
         int nContractableEdges = countContractableEdges(graph);
-        boolean edgesRemoved = false;
-
-        while (!pq.empty()) {
-            // stop contracting once a core is reached
-            if (i > Math.ceil(totalContractableVertices * contractionFactor)) {
-                break;
+        int contracted = checkpoint.getContractedCount();
+        // stop contracting once a core is reached
+        int maxContracted = (int) Math.ceil(totalContractableVertices * contractionFactor) + 1;
+
+        while (!corev.isEmpty() && contracted < maxContracted) {
+            List<Vertex> independent = new ArrayList<Vertex>();
+            for (Vertex v : vertices) {
+                if (corev.contains(v) && isLocalMinimum(v, byPriority))
+                    independent.add(v);
             }
-            i += 1;
-
-/*         
- * "Keeping the cost of contraction up-to-date in the priority queue is quite costly. The 
- * contraction of a node in a search tree of the local search can aﬀect the cost of contraction. So 
- * after the contraction of a node w, it would be necessary to recalculate the priority of each node
- * that has w in their local search spaces. Most local search spaces are small but there are 
- * exceptions.
- * If there is an edge with a large edge weight, e.g. a long-distance ferry connection, the search
- * space can grow arbitrarily and with it the number of nodes that trigger a change in the cost of
- * contraction. A simpliﬁed example can be found in Figure 6.
- * In our implementation we will omit exakt updates for the sake of performance, update only
- * the neighbors of the contracted node and eventually use lazy updates to cope with drastic 
- * increases of search space sizes." Geisberger (2008)
- */
-            
-//            if (potentialLazyUpdates > 30 && lazyUpdates > 28) {
-//                rebuildPriorityQueue(hopLimit, deletedNeighbors);
-//                potentialLazyUpdates = 0;
-//                lazyUpdates = 0;
-//            }
-            
-            Vertex vertex = pq.extract_min();
-            _log.trace("contracting vertex " + vertex);
-            WitnessSearchResult shortcutsAndSearchSpace;
-            // make sure priority of current vertex
-            if (pq.empty()) {
-                shortcutsAndSearchSpace = getShortcuts(vertex, false);
-            } else {
-                // resort the priority queue as necessary (lazy updates)
-                while (true) {
-                    shortcutsAndSearchSpace = getShortcuts(vertex, true);
-                    int deleted = 0;
-                    if (deletedNeighbors.containsKey(vertex)) {
-                        deleted = deletedNeighbors.get(vertex);
-                    }
-                    double new_prio = getImportance(vertex, shortcutsAndSearchSpace, deleted);
-                    Double new_min = pq.peek_min_key();
-                    if (new_prio <= new_min) {
-                        break;
-                    } else {
-                        pq.insert(vertex, new_prio);
-                        vertex = pq.extract_min();
+            if (independent.size() > maxContracted - contracted) {
+                Collections.sort(independent, byPriority);
+                independent = new ArrayList<Vertex>(independent.subList(0, maxContracted
+                        - contracted));
+                Collections.sort(independent, new Comparator<Vertex>() {
+                    public int compare(Vertex v1, Vertex v2) {
+                        return order.get(v1).compareTo(order.get(v2));
                     }
-                }
+                });
+            }
+
+            /* effectively move vertices out of core, so that witness searches avoid them */
+            corev.removeAll(independent);
+            chv.addAll(independent);
+            List<WitnessSearchResult> results = getShortcuts(independent, false);
 
-                shortcutsAndSearchSpace = getShortcuts(vertex, false);
+            // need to explicitly add shortcuts to graph - they not added as they are found
+            // to void concurrency problems. 
+            for (int i = 0; i < independent.size(); i++) {
+                Vertex vertex = independent.get(i);
+                _log.trace("contracting vertex " + vertex);
+                checkpoint.addContracted(vertex);
+                for (PotentialShortcut ps : results.get(i).shortcuts) {
+                    checkpoint.addShortcut(ps.make());
+                    nContractableEdges += 1;
+                }
+                nContractableEdges -= vertex.getDegreeIn() + vertex.getDegreeOut();
+            }
+            contracted += independent.size();
+
+            /* update the deleted neighbors and priorities of the neighbors */
+            // as in Geisberger (2008), only the neighbors of contracted vertices are updated,
+            // rather than every vertex that has one in its local search space.
+            Set<Vertex> neighbors = new HashSet<Vertex>();
+            for (Vertex vertex : independent) {
+                for (Vertex n : getCoreNeighbors(vertex)) {
+                    Integer deleted = deletedNeighbors.get(n);
+                    deletedNeighbors.put(n, deleted == null ? 1 : deleted + 1);
+                    neighbors.add(n);
+                }
+            }
+            List<Vertex> updated = new ArrayList<Vertex>(neighbors);
+            List<WitnessSearchResult> nwsr = getShortcuts(updated, true);
+            for (int i = 0; i < updated.size(); i++) {
+                Vertex n = updated.get(i);
+                priorities.put(n, getImportance(n, nwsr.get(i), deletedNeighbors.get(n)));
             }
 
             long now = System.currentTimeMillis();
             if (now - lastNotified > 5000) {
-                _log.debug("contracted: " + i + " / " + totalContractableVertices 
-                        + " (" + i / (double)totalContractableVertices 
+                _log.debug("contracted: " + contracted + " / " + totalContractableVertices 
+                        + " (" + contracted / (double)totalContractableVertices 
                         + ") total time "
                         + (now - start) / 1000.0 + "sec, average degree "
                         + nContractableEdges / (corev.size() + 0.00001));
                 lastNotified = now;
             }
-
-            // move edges from main graph to up and down graphs
-            // vertices that are still in the graph are, by definition, of higher importance than
-            // the one currently being plucked from the graph. Edges that go out are upward edges.
-            // Edges that are coming in are downward edges.
-
-            HashSet<Vertex> neighbors = new HashSet<Vertex>();
-
-            // outgoing, therefore upward
-            for (Edge de : vertex.getOutgoing()) {
-                Vertex toVertex = de.getToVertex();
-                neighbors.add(toVertex);
-                nContractableEdges--;
+            if (checkpointFile != null && now - lastCheckpoint > CHECKPOINT_INTERVAL) {
+                writeCheckpoint(checkpoint, priorities, deletedNeighbors);
+                lastCheckpoint = now;
             }
+        }
+        contractionOrder = new ArrayList<Vertex>(checkpoint.getContracted());
+        if (checkpointFile != null)
+            writeCheckpoint(checkpoint, priorities, deletedNeighbors);
+    }
 
-            // incoming, therefore downward
-            for (Edge de : vertex.getIncoming()) {
-                Vertex fromVertex = de.getFromVertex();
-                neighbors.add(fromVertex);
-                nContractableEdges--;
-            }
+    /**
+     * @return the contracted vertices from least to most important, which is their rank in the
+     *         hierarchy. Hierarchies saved before this was recorded have an empty order.
+     */
+    public List<Vertex> getContractionOrder() {
+        if (contractionOrder == null)
+            return Collections.emptyList();
+        return contractionOrder;
+    }
 
-            /* update neighbors' priority and deleted neighbors */
-            for (Vertex n : neighbors) {
-                if (n == null) {
-                    _log.warn("a neighbor vertex of {} was null", vertex);
-                    continue;
-                }
-                int deleted = 0;
-                if (deletedNeighbors.containsKey(n)) {
-                    deleted = deletedNeighbors.get(n);
-                }
-                deleted += 1;
-                deletedNeighbors.put(n, deleted);
-                //update priority queue
-                WitnessSearchResult nwsr = getShortcuts(n, true);
-                double new_prio = getImportance(n, nwsr, deleted);
-                pq.rekey(n, new_prio);
-            }
+    private void writeCheckpoint(ContractionCheckpoint checkpoint, Map<Vertex, Integer> priorities,
+            Map<Vertex, Integer> deletedNeighbors) {
+        try {
+            checkpoint.write(checkpointFile, corev, priorities, deletedNeighbors);
+            _log.debug("wrote checkpoint {}", checkpointFile);
+        } catch (IOException e) {
+            // the build can go on without checkpoints
+            _log.warn("cannot write checkpoint " + checkpointFile, e);
+        }
+    }
 
-            // need to explicitly add shortcuts to graph - they not added as they are found
-            // to void concurrency problems. 
-            for (PotentialShortcut ps : shortcutsAndSearchSpace.shortcuts) {
-                ps.make();
-                nContractableEdges += 1;
-            }
-            
-            /* effectively move vertex out of core */
-            // if this was done before searching 
-            // this should replace the taboo vertex in Dijkstra.
-            if (corev.remove(vertex)) {
-                chv.add(vertex);
-            } else {
-                _log.warn("attempt to move vertex out of core when it was not still in core.");
-            }
-            if (corev.size() == 0) {
-                continue;
-            }
+    private Set<Vertex> getCoreNeighbors(Vertex v) {
+        Set<Vertex> neighbors = new HashSet<Vertex>();
+        for (Edge e : v.getOutgoing()) {
+            Vertex n = e.getToVertex();
+            if (corev.contains(n))
+                neighbors.add(n);
+        }
+        for (Edge e : v.getIncoming()) {
+            Vertex n = e.getFromVertex();
+            if (corev.contains(n))
+                neighbors.add(n);
+        }
+        return neighbors;
+    }
 
-//            float averageDegree = nEdges / nVertices;
-            
-//            int oldHopLimit = hopLimit;
-//            if (averageDegree > 10) {
-//                if (edgesRemoved) {
-//                    hopLimit = 5;
-//                } else {
-//                    hopLimit = 3;
-//                    int removed = removeNonoptimalEdges(5);
-//                    nEdges -= removed;
-//                    edgesRemoved = true;
-//                }
-//            } else {
-//                if (averageDegree > 3.3 && hopLimit == 1) {
-//                    hopLimit = 2;
-//                }
-//            }
-//
-//            // after a hop limit upgrade, rebuild the priority queue
-//            if (oldHopLimit != hopLimit) {
-//                pq = rebuildPriorityQueue(hopLimit, deletedNeighbors);
-//            }
+    /** @return true if the vertex comes before all of its neighbors in the core */
+    private boolean isLocalMinimum(Vertex v, Comparator<Vertex> byPriority) {
+        for (Vertex n : getCoreNeighbors(v)) {
+            if (n != v && byPriority.compare(n, v) < 0)
+                return false;
         }
-        threadPool.shutdownNow();
-        threadPool = null;
+        return true;
     }
 
     private void createThreadPool() {
         int nThreads = Runtime.getRuntime().availableProcessors();
-        //nThreads = 1; // temp fix for concurrent modification by shortcuts
         _log.debug("number of threads: " + nThreads);
-        ArrayBlockingQueue<Runnable> taskQueue = new ArrayBlockingQueue<Runnable>(1000);
+        // unbounded, since a contraction round submits one task per vertex contracted
+        LinkedBlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<Runnable>();
         threadPool = new ThreadPoolExecutor(nThreads, nThreads, 10, TimeUnit.SECONDS, taskQueue);
     }
 
@@ -587,7 +664,17 @@ public class ContractionHierarchy implements Serializable {
     	upOptions.setRoutingContext(graph, origin, target);
         downOptions.setArriveBy(true);
         downOptions.dateTime = time;
-        upOptions.setRoutingContext(graph, target, origin);
+        downOptions.setRoutingContext(graph, origin, target);
+        try {
+            return getShortestPath(origin, target, opt, upOptions, downOptions);
+        } finally {
+            upOptions.cleanup();
+            downOptions.cleanup();
+        }
+    }
+
+    private GraphPath getShortestPath(Vertex origin, Vertex target, RoutingRequest opt,
+            RoutingRequest upOptions, RoutingRequest downOptions) {
 
     	/** max walk distance cannot be less than distances to nearest transit stops */
     	double minWalkDistance = 
@@ -605,8 +692,6 @@ public class ContractionHierarchy implements Serializable {
         if (VERBOSE)
         	_log.debug("origin {} target {}", origin, target);
 
-        Map<Vertex, ArrayList<Edge>> extraEdges = getExtraEdges(origin, target);
-        
         BasicShortestPathTree upspt = new BasicShortestPathTree(upOptions);
         BasicShortestPathTree downspt = new BasicShortestPathTree(downOptions);
 
@@ -675,18 +760,10 @@ public class ContractionHierarchy implements Serializable {
                     // up path can only explore until core vertices on reverse paths
                     continue;
                 }
-                Collection<Edge> outgoing = u.getOutgoing();
+                // with the temporary edges linking the endpoints of the request
+                Collection<Edge> outgoing = upOptions.rctx.getOutgoing(u);
                 if (VERBOSE)
-                    _log.debug("        {} edges in core", outgoing.size());
-
-                if (extraEdges.containsKey(u)) {
-                    List<Edge> newOutgoing = new ArrayList<Edge>();
-                    newOutgoing.addAll(extraEdges.get(u));
-                    if (VERBOSE)
-                        _log.debug("        {} edges in extra", newOutgoing.size());
-                    newOutgoing.addAll(outgoing);
-                    outgoing = newOutgoing;
-                }
+                    _log.debug("        {} edges in core and extra", outgoing.size());
 
                 for (Edge edge : outgoing) {
                     if (VERBOSE)
@@ -760,16 +837,7 @@ public class ContractionHierarchy implements Serializable {
                     // down path can only explore until core vertices on forward paths
                     continue;
                 }
-                Collection<Edge> incoming = down_u.getIncoming();
-                if (VERBOSE)
-                    _log.debug("        {} edges in core", incoming.size());
-
-                if (extraEdges.containsKey(down_u)) {
-                    List<Edge> newIncoming = new ArrayList<Edge>();
-                    newIncoming.addAll(incoming);
-                    newIncoming.addAll(extraEdges.get(down_u));
-                    incoming = newIncoming;
-                }
+                Collection<Edge> incoming = downOptions.rctx.getIncoming(down_u);
                 if (VERBOSE)
                     _log.debug("        {} edges with overlay and extra", incoming.size());
 
@@ -857,41 +925,5 @@ public class ContractionHierarchy implements Serializable {
 
     }
 
-    private Map<Vertex, ArrayList<Edge>> getExtraEdges(Vertex origin, Vertex target) {
-        Map<Vertex, ArrayList<Edge>> extraEdges;
-        if (origin instanceof StreetLocation) {
-            extraEdges = new HashMap<Vertex, ArrayList<Edge>>();
-            Iterable<Edge> extra = ((StreetLocation)origin).getExtra();
-            for (Edge edge : extra) {
-                Vertex fromv = edge.getFromVertex();
-                ArrayList<Edge> edges = extraEdges.get(fromv);
-                if (edges == null) {
-                    edges = new ArrayList<Edge>(); 
-                    extraEdges.put(fromv, edges);
-                }
-                edges.add(edge);
-            }
-        } else {
-            extraEdges = new NullExtraEdges();
-        }
-        
-        if (target instanceof StreetLocation) {
-            if (extraEdges instanceof NullExtraEdges) {
-                extraEdges = new HashMap<Vertex, ArrayList<Edge>>();
-            }
-            Iterable<Edge> extra = ((StreetLocation) target).getExtra();
-            for (Edge edge : extra) {
-                Vertex tov = edge.getToVertex();
-                ArrayList<Edge> edges = extraEdges.get(tov);
-                if (edges == null) {
-                    edges = new ArrayList<Edge>(); 
-                    extraEdges.put(tov, edges);
-                }
-                edges.add(edge);
-            }
-        }
-        return extraEdges;
-    }
-
 
 }
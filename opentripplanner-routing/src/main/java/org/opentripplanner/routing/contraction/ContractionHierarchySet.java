@@ -12,10 +12,12 @@
  along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package org.opentripplanner.routing.contraction;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -27,14 +29,19 @@ import org.slf4j.LoggerFactory;
 public class ContractionHierarchySet implements Serializable {
     private static Logger _log = LoggerFactory.getLogger(ContractionHierarchySet.class); 
 
-    private static final long serialVersionUID = -8621085480392710082L;
+    private static final long serialVersionUID = 20121018L;
     
     private Graph graph;
-    private HashMap<RoutingRequest, ContractionHierarchy> hierarchiesByMode = new HashMap<RoutingRequest, ContractionHierarchy>();
+    /* keyed by the options in modeList themselves, which need not have endpoints to be hashed */
+    private IdentityHashMap<RoutingRequest, ContractionHierarchy> hierarchiesByMode = new IdentityHashMap<RoutingRequest, ContractionHierarchy>();
     private List<RoutingRequest> modeList;
 
     private double contractionFactor = 1.0;
 
+    private transient File checkpointDirectory;
+
+    private transient Map<RoutingRequest, CompactHierarchy> compactHierarchies;
+
     public ContractionHierarchySet() {
         modeList = new ArrayList<RoutingRequest>();
     }
@@ -58,6 +65,12 @@ public class ContractionHierarchySet implements Serializable {
     }
 
     public ContractionHierarchy getHierarchy(RoutingRequest options) {
+        RoutingRequest bestOptions = getBestOptions(options);
+        return bestOptions != null ? hierarchiesByMode.get(bestOptions) : null;
+    }
+
+    /** @return the options of the hierarchy best matching the given options */
+    private RoutingRequest getBestOptions(RoutingRequest options) {
         RoutingRequest bestOptions = null;
         int bestSimilarity = RoutingRequest.MIN_SIMILARITY; // A minimum score of 1000 is required
 
@@ -72,7 +85,34 @@ public class ContractionHierarchySet implements Serializable {
             }
         }
 
-        return bestOptions != null ? hierarchiesByMode.get(bestOptions) : null;
+        return bestOptions;
+    }
+
+    /**
+     * @return the hierarchy best matching the options, exported to arrays for fast queries, or
+     *         null if there is none or it was saved without its contraction order. The arrays are
+     *         made on first use and kept.
+     */
+    public synchronized CompactHierarchy getCompactHierarchy(RoutingRequest options) {
+        RoutingRequest bestOptions = getBestOptions(options);
+        if (bestOptions == null)
+            return null;
+        if (compactHierarchies == null)
+            compactHierarchies = new IdentityHashMap<RoutingRequest, CompactHierarchy>();
+        if (compactHierarchies.containsKey(bestOptions))
+            return compactHierarchies.get(bestOptions);
+        ContractionHierarchy hierarchy = hierarchiesByMode.get(bestOptions);
+        CompactHierarchy compact = null;
+        if (CompactHierarchy.hasContractionOrder(hierarchy)) {
+            _log.debug("Making compact hierarchy for " + bestOptions);
+            compact = new CompactHierarchy(hierarchy, bestOptions);
+        } else {
+            // remembered as null, so that this is only logged once
+            _log.warn("hierarchy for " + bestOptions + " has no contraction order, "
+                    + "rebuild the graph to use compact hierarchies");
+        }
+        compactHierarchies.put(bestOptions, compact);
+        return compact;
     }
     
     public void build() {
@@ -80,14 +120,41 @@ public class ContractionHierarchySet implements Serializable {
             return;
         }
         _log.debug("Building contraction hierarchies for " + modeList.size() + " modes");
-        for (RoutingRequest mo : modeList) {
+        for (int i = 0; i < modeList.size(); i++) {
+            RoutingRequest mo = modeList.get(i);
             _log.debug("Building contraction hierarchy for " + mo);
-            ContractionHierarchy ch = new ContractionHierarchy(getGraph(), mo, contractionFactor);
+            ContractionHierarchy ch = new ContractionHierarchy(getGraph(), mo, contractionFactor,
+                    getCheckpointFile(i));
             hierarchiesByMode.put(mo, ch);
         }
         /* TODO: cross-hierarchy Shortcut memory optimization */
     }
 
+    private File getCheckpointFile(int i) {
+        if (checkpointDirectory == null)
+            return null;
+        return new File(checkpointDirectory, "contraction-" + i + ".checkpoint");
+    }
+
+    /**
+     * Keep checkpoints of the hierarchy builds in the given directory, so that a build that was
+     * interrupted resumes where it stopped when run again on the same graph.
+     */
+    public void setCheckpointDirectory(File checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+    }
+
+    /** Delete the checkpoints, once the hierarchies are safely saved with the graph. */
+    public void deleteCheckpoints() {
+        if (checkpointDirectory == null || modeList == null)
+            return;
+        for (int i = 0; i < modeList.size(); i++) {
+            File file = getCheckpointFile(i);
+            if (file.exists() && !file.delete())
+                _log.warn("cannot delete checkpoint " + file);
+        }
+    }
+
     public void setContractionFactor(double factor) {
         contractionFactor = factor;
     }
@@ -106,6 +106,10 @@ public class Shortcut extends AbstractEdge {
         return ret.makeState();
     }
     
+    double getWalkDistance() {
+        return walkDistance;
+    }
+
     public String toString() {
         return "Shortcut(" + edge1 + "," + edge2 + ")";
     }
@@ -0,0 +1,243 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.opentripplanner.common.pqueue.IntBinHeap;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Network distances in meters from a few landmark vertices to every vertex of a graph and back,
+ * for the landmark (ALT) remaining weight heuristic. By the triangle inequality, the distance from
+ * a to b is at least d(L, b) - d(L, a) and at least d(a, L) - d(b, L) for any landmark L.
+ *
+ * Distances are measured over all edges that can be used without boarding a transit vehicle,
+ * whatever their permissions, so the bounds hold for walking, biking and driving alike. They are
+ * stored as floats, in one array per landmark and direction indexed by the position of each vertex
+ * in the table; unreachable vertices are at positive infinity.
+ */
+public class LandmarkTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkTable.class);
+
+    /* the vertex at each position of the distance arrays */
+    private final Vertex[] vertices;
+
+    /* the positions of the landmarks */
+    private final int[] landmarks;
+
+    /* distance from each landmark to each vertex */
+    private final float[][] fromLandmark;
+
+    /* distance from each vertex to each landmark */
+    private final float[][] toLandmark;
+
+    /* position of each vertex by vertex index, -1 for vertices not in the table */
+    private transient int[] positions;
+
+    private LandmarkTable(Vertex[] vertices, int nLandmarks) {
+        this.vertices = vertices;
+        this.landmarks = new int[nLandmarks];
+        this.fromLandmark = new float[nLandmarks][];
+        this.toLandmark = new float[nLandmarks][];
+        reindex();
+    }
+
+    /**
+     * Choose landmarks on the edges of the graph, each as far as possible from the previous ones,
+     * and find the distances between them and all vertices.
+     */
+    public static LandmarkTable build(Graph graph, int nLandmarks) {
+        Collection<Vertex> graphVertices = graph.getVertices();
+        Vertex[] vertices = graphVertices.toArray(new Vertex[graphVertices.size()]);
+        int n = vertices.length;
+        nLandmarks = Math.min(nLandmarks, n);
+        LandmarkTable table = new LandmarkTable(vertices, nLandmarks);
+        if (n == 0)
+            return table;
+
+        LOG.info("Making compact street network for {} vertices...", n);
+        int[][] outTargets = new int[n][];
+        float[][] outLengths = new float[n][];
+        int[][] inTargets = new int[n][];
+        float[][] inLengths = new float[n][];
+        for (int i = 0; i < n; ++i) {
+            Vertex v = vertices[i];
+            packEdges(table, v.getOutgoing(), true, i, outTargets, outLengths);
+            packEdges(table, v.getIncoming(), false, i, inTargets, inLengths);
+        }
+
+        // the distance from the closest landmark chosen so far, in either direction
+        float[] closest = new float[n];
+        Arrays.fill(closest, Float.POSITIVE_INFINITY);
+        // the first landmark is the vertex farthest from an arbitrary one
+        int next = farthest(distances(0, outTargets, outLengths), null);
+        for (int k = 0; k < nLandmarks; ++k) {
+            LOG.info("Finding distances to and from landmark {} of {}", k + 1, nLandmarks);
+            table.landmarks[k] = next;
+            table.fromLandmark[k] = distances(next, outTargets, outLengths);
+            table.toLandmark[k] = distances(next, inTargets, inLengths);
+            for (int i = 0; i < n; ++i)
+                closest[i] = Math.min(closest[i],
+                        Math.min(table.fromLandmark[k][i], table.toLandmark[k][i]));
+            next = farthest(closest, table.fromLandmark[0]);
+        }
+        return table;
+    }
+
+    /* the edges usable without boarding, as positions in the table and lengths */
+    private static void packEdges(LandmarkTable table, Collection<Edge> edges, boolean outgoing,
+            int i, int[][] targets, float[][] lengths) {
+        int[] t = new int[edges.size()];
+        float[] l = new float[edges.size()];
+        int ne = 0;
+        for (Edge e : edges) {
+            TraverseMode mode = e.getMode();
+            if (mode != null && (mode.isTransit() || mode == TraverseMode.BOARDING
+                    || mode == TraverseMode.ALIGHTING))
+                continue;
+            int position = table.getPosition(outgoing ? e.getToVertex() : e.getFromVertex());
+            if (position < 0)
+                continue;
+            t[ne] = position;
+            l[ne] = (float) Math.max(e.getDistance(), 0);
+            ++ne;
+        }
+        targets[i] = Arrays.copyOf(t, ne);
+        lengths[i] = Arrays.copyOf(l, ne);
+    }
+
+    /*
+     * single-source shortest path lengths over the compact network, summed in double precision
+     * so that long paths do not accumulate rounding errors
+     */
+    private static float[] distances(int origin, int[][] targets, float[][] lengths) {
+        double[] weights = new double[targets.length];
+        Arrays.fill(weights, Double.POSITIVE_INFINITY);
+        IntBinHeap q = new IntBinHeap(1000);
+        weights[origin] = 0;
+        q.insert(origin, 0);
+        while (!q.empty()) {
+            double uw = q.peek_min_key();
+            int u = q.p_extract_min();
+            if (uw > weights[u])
+                continue;
+            int[] vs = targets[u];
+            float[] ws = lengths[u];
+            for (int ei = 0; ei < vs.length; ++ei) {
+                double vw = uw + ws[ei];
+                if (vw < weights[vs[ei]]) {
+                    weights[vs[ei]] = vw;
+                    q.insert(vs[ei], vw);
+                }
+            }
+        }
+        float[] result = new float[weights.length];
+        for (int i = 0; i < weights.length; ++i)
+            result[i] = (float) weights[i];
+        return result;
+    }
+
+    /*
+     * the position with the greatest finite distance, only considering positions reachable from
+     * the first landmark if any
+     */
+    private static int farthest(float[] distances, float[] reachable) {
+        int farthest = 0;
+        float max = -1;
+        for (int i = 0; i < distances.length; ++i) {
+            if (reachable != null && reachable[i] == Float.POSITIVE_INFINITY)
+                continue;
+            if (distances[i] > max && distances[i] != Float.POSITIVE_INFINITY) {
+                max = distances[i];
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * Rebuild the lookup table from vertex indices to table positions. Must be called whenever the
+     * graph vertices are renumbered.
+     */
+    public synchronized void reindex() {
+        int maxIndex = -1;
+        for (Vertex v : vertices)
+            maxIndex = Math.max(maxIndex, v.getIndex());
+        int[] positions = new int[maxIndex + 1];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < vertices.length; ++i)
+            positions[vertices[i].getIndex()] = i;
+        this.positions = positions;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        reindex();
+    }
+
+    /** @return the position of the vertex in the table, or -1 if it is not in the table */
+    public int getPosition(Vertex v) {
+        int index = v.getIndex();
+        if (index < 0 || index >= positions.length)
+            return -1;
+        int position = positions[index];
+        // temporary vertices may reuse the indices of vertices in other graphs
+        if (position < 0 || vertices[position] != v)
+            return -1;
+        return position;
+    }
+
+    /**
+     * @return a lower bound on the network distance in meters from the vertex at position a to
+     *         the vertex at position b.
+     */
+    public double lowerBound(int a, int b) {
+        float bound = 0;
+        for (int k = 0; k < landmarks.length; ++k) {
+            float[] from = fromLandmark[k];
+            float[] to = toLandmark[k];
+            // infinite distances say nothing about the vertices being connected
+            if (from[a] != Float.POSITIVE_INFINITY && from[b] != Float.POSITIVE_INFINITY)
+                bound = Math.max(bound, from[b] - from[a]);
+            if (to[a] != Float.POSITIVE_INFINITY && to[b] != Float.POSITIVE_INFINITY)
+                bound = Math.max(bound, to[a] - to[b]);
+        }
+        return bound;
+    }
+
+    public int countLandmarks() {
+        return landmarks.length;
+    }
+
+    public Vertex getLandmark(int k) {
+        return vertices[landmarks[k]];
+    }
+
+    public int countVertices() {
+        return vertices.length;
+    }
+
+}
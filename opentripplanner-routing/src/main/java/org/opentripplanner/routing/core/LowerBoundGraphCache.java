@@ -0,0 +1,147 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the lower bound graphs of one Graph, used by the LBG and SLBG heuristics. Each of them is
+ * built at most once: either in the background by precompute(), or by the first request that
+ * needs it. Concurrent requests for a lower bound graph that is being built wait for it rather
+ * than building their own copy.
+ *
+ * The cache belongs to its Graph and goes away with it; release() drops the lower bound graphs
+ * early, when a graph is evicted while requests may still refer to it.
+ */
+public class LowerBoundGraphCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LowerBoundGraphCache.class);
+
+    private final Graph graph;
+
+    private FutureTask<LowerBoundGraph> incoming;
+
+    private FutureTask<LowerBoundGraph> outgoing;
+
+    private FutureTask<SimplifiedLowerBoundGraph> simplified;
+
+    public LowerBoundGraphCache(Graph graph) {
+        this.graph = graph;
+        reset();
+    }
+
+    private synchronized void reset() {
+        incoming = new FutureTask<LowerBoundGraph>(new Callable<LowerBoundGraph>() {
+            public LowerBoundGraph call() {
+                return makeLowerBoundGraph(LowerBoundGraph.INCOMING);
+            }
+        });
+        outgoing = new FutureTask<LowerBoundGraph>(new Callable<LowerBoundGraph>() {
+            public LowerBoundGraph call() {
+                return makeLowerBoundGraph(LowerBoundGraph.OUTGOING);
+            }
+        });
+        simplified = new FutureTask<SimplifiedLowerBoundGraph>(
+                new Callable<SimplifiedLowerBoundGraph>() {
+                    public SimplifiedLowerBoundGraph call() {
+                        LOG.debug("BEGIN Making simplified lower bound graph");
+                        SimplifiedLowerBoundGraph slbg = new SimplifiedLowerBoundGraph(graph);
+                        LOG.debug("END Making simplified lower bound graph");
+                        return slbg;
+                    }
+                });
+    }
+
+    private LowerBoundGraph makeLowerBoundGraph(int kind) {
+        LOG.debug("BEGIN Making lower bound graph ({})", kind);
+        LowerBoundGraph lbg = new LowerBoundGraph(graph, kind);
+        LOG.debug("END Making lower bound graph ({})", kind);
+        return lbg;
+    }
+
+    /**
+     * Start building all lower bound graphs on the given executor. Requests arriving before they
+     * are complete wait for them.
+     */
+    public synchronized void precompute(Executor executor) {
+        executor.execute(incoming);
+        executor.execute(outgoing);
+        executor.execute(simplified);
+    }
+
+    /**
+     * @return the lower bound graph searched backward from the target of a search in the given
+     *         direction, building it in the calling thread if nobody has started it yet.
+     */
+    public LowerBoundGraph getLowerBoundGraph(boolean arriveBy) {
+        LowerBoundGraph lbg = null;
+        while (lbg == null) {
+            FutureTask<LowerBoundGraph> task;
+            synchronized (this) {
+                task = arriveBy ? outgoing : incoming;
+            }
+            lbg = await(task);
+        }
+        return lbg;
+    }
+
+    /** @return the simplified lower bound graph, building it if nobody has started it yet. */
+    public SimplifiedLowerBoundGraph getSimplifiedLowerBoundGraph() {
+        SimplifiedLowerBoundGraph slbg = null;
+        while (slbg == null) {
+            FutureTask<SimplifiedLowerBoundGraph> task;
+            synchronized (this) {
+                task = simplified;
+            }
+            slbg = await(task);
+        }
+        return slbg;
+    }
+
+    /** @return the result of the task, or null if it was cancelled by release() */
+    private static <T> T await(FutureTask<T> task) {
+        // does nothing if the task was already started, in which case we wait for the result
+        task.run();
+        try {
+            return task.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for a lower bound graph", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("error building a lower bound graph", e.getCause());
+        }
+    }
+
+    /**
+     * Cancel any precomputation that has not started and drop the lower bound graphs. They are
+     * rebuilt if requested again.
+     */
+    public synchronized void release() {
+        incoming.cancel(false);
+        outgoing.cancel(false);
+        simplified.cancel(false);
+        reset();
+    }
+
+}
@@ -1,7 +1,9 @@
 package org.opentripplanner.routing.core;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -9,11 +11,13 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.opentripplanner.common.model.NamedPlace;
+import org.opentripplanner.routing.algorithm.SearchStatistics;
 import org.opentripplanner.routing.algorithm.strategies.GenericAStarFactory;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
 import org.opentripplanner.routing.error.TransitTimesException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.impl.DefaultRemainingWeightHeuristicFactoryImpl;
@@ -74,6 +78,22 @@ public class RoutingContext implements Cloneable {
     public long searchAbortTime = 0;
     
     public PathParser[] pathParsers = new PathParser[]{}; // { new BasicPathParser() };
+
+    /** What the last search made with this context did, for diagnosing slow requests. */
+    public SearchStatistics searchStatistics;
+
+    /** false for contexts sharing the endpoints of another context, see forConcurrentSearch */
+    private final boolean ownsTemporaryEdges;
+
+    /* whether this context counts as a user of its graph, see Graph.acquire */
+    private boolean holdsGraph;
+
+    /**
+     * The edges linking the temporary endpoint vertices of this request to graph vertices, indexed
+     * by their graph vertex. They are not in the edge lists of the graph vertices, which are shared
+     * between concurrent requests, so searches have to look for them here.
+     */
+    private OverlayGraph temporaryEdges;
     
     /* CONSTRUCTORS */
     
@@ -84,6 +104,7 @@ public class RoutingContext implements Cloneable {
     public RoutingContext(RoutingRequest traverseOptions, Graph graph, Vertex from, Vertex to) {
         this.opt = traverseOptions;
         this.graph = graph;
+        this.ownsTemporaryEdges = true;
         if (from == null && to == null) {
             // normal mode, search for vertices based on fromPlace and toPlace
             fromVertex = graph.streetIndex.getVertexForPlace(opt.getFromPlace(), opt);
@@ -101,17 +122,117 @@ public class RoutingContext implements Cloneable {
         }
         origin = opt.arriveBy ? toVertex : fromVertex;
         target = opt.arriveBy ? fromVertex : toVertex;
+        temporaryEdges = linkTemporaryVertices();
         calendarService = graph.getCalendarService();
         transferTable = graph.getTransferTable();
         setServiceDays();
-        if (opt.batch)
-            remainingWeightHeuristic = new TrivialRemainingWeightHeuristic();
-        else
-            remainingWeightHeuristic = heuristicFactory.getInstanceForSearch(opt);
+        remainingWeightHeuristic = makeRemainingWeightHeuristic();
+        graph.acquire();
+        holdsGraph = true;
     }
+
+    private RoutingContext(RoutingContext parent, RoutingRequest traverseOptions) {
+        this.opt = traverseOptions;
+        this.graph = parent.graph;
+        this.ownsTemporaryEdges = false;
+        fromVertex = parent.fromVertex;
+        toVertex = parent.toVertex;
+        intermediateVertices.addAll(parent.intermediateVertices);
+        // the options may search in the other direction than the parent's
+        origin = opt.arriveBy ? toVertex : fromVertex;
+        target = opt.arriveBy ? fromVertex : toVertex;
+        temporaryEdges = parent.temporaryEdges;
+        calendarService = parent.calendarService;
+        transferTable = parent.transferTable;
+        serviceDays = parent.serviceDays;
+        searchAbortTime = parent.searchAbortTime;
+        pathParsers = parent.pathParsers;
+        remainingWeightHeuristic = makeRemainingWeightHeuristic();
+    }
+    
     
     
+    /* STATIC METHODS */
+
+    /**
+     * Sets the factory making the remaining weight heuristics of the searches that are not batch
+     * searches. Contexts made before the call keep their heuristic.
+     */
+    public static void setHeuristicFactory(RemainingWeightHeuristicFactory factory) {
+        heuristicFactory = factory;
+    }
+
     /* INSTANCE METHODS */
+
+    private RemainingWeightHeuristic makeRemainingWeightHeuristic() {
+        if (opt.batch)
+            return new TrivialRemainingWeightHeuristic();
+        return heuristicFactory.getInstanceForSearch(opt);
+    }
+
+    private OverlayGraph linkTemporaryVertices() {
+        OverlayGraph overlay = new OverlayGraph();
+        ArrayList<Vertex> endpoints = new ArrayList<Vertex>(intermediateVertices);
+        endpoints.add(fromVertex);
+        endpoints.add(toVertex);
+        for (Vertex v : endpoints) {
+            if (!(v instanceof StreetLocation))
+                continue;
+            for (Edge e : ((StreetLocation) v).getExtra()) {
+                Vertex fromv = e.getFromVertex();
+                Vertex tov = e.getToVertex();
+                if (fromv != null && !fromv.isTemporary())
+                    overlay.addOutgoing(fromv, e);
+                if (tov != null && !tov.isTemporary())
+                    overlay.addIncoming(tov, e);
+            }
+        }
+        return overlay;
+    }
+
+    /**
+     * @return the edges linking the temporary vertices of this request to graph vertices, which
+     *         must be traversed along with the graph vertices' own edges.
+     */
+    public OverlayGraph getTemporaryEdges() {
+        return temporaryEdges;
+    }
+
+    /**
+     * @return the edges leaving the given vertex in this request: its own edges, and the temporary
+     *         edges linking it to the request's temporary vertices, if there are any.
+     */
+    public Collection<Edge> getOutgoing(Vertex v) {
+        return withTemporaryEdges(v.getOutgoing(), temporaryEdges.getOutgoing(v));
+    }
+
+    /**
+     * @return the edges arriving at the given vertex in this request: its own edges, and the
+     *         temporary edges linking the request's temporary vertices to it, if there are any.
+     */
+    public Collection<Edge> getIncoming(Vertex v) {
+        return withTemporaryEdges(v.getIncoming(), temporaryEdges.getIncoming(v));
+    }
+
+    private static Collection<Edge> withTemporaryEdges(Collection<Edge> edges,
+            List<Edge> temporary) {
+        if (temporary.isEmpty())
+            return edges;
+        List<Edge> result = new ArrayList<Edge>(edges.size() + temporary.size());
+        result.addAll(edges);
+        result.addAll(temporary);
+        return result;
+    }
+
+    /**
+     * Create a context for the given options that can be used concurrently with this one. The
+     * endpoints, their temporary edges and the service days are shared, while the heuristic and the
+     * service date cache, which are modified during searches, are not. The new context does not own
+     * the temporary edges of its endpoints; they are only released when this context is destroyed.
+     */
+    public RoutingContext forConcurrentSearch(RoutingRequest traverseOptions) {
+        return new RoutingContext(this, traverseOptions);
+    }
     
     public void check() {
         ArrayList<String> notFound = new ArrayList<String>();
@@ -141,6 +262,7 @@ public class RoutingContext implements Cloneable {
      *  Cache ServiceDay objects representing which services are running yesterday, today, and tomorrow relative
      *  to the search time. This information is very heavily used (at every transit boarding) and Date operations were
      *  identified as a performance bottleneck. Must be called after the TraverseOptions already has a CalendarService set. 
+     *  The ServiceDays themselves are made once per agency and date by the graph and shared between requests.
      */
     public void setServiceDays() {
         final long SEC_IN_DAY = 60 * 60 * 24;
@@ -154,9 +276,9 @@ public class RoutingContext implements Cloneable {
         // since DST changes more than one hour after midnight in US/EU.
         // But is this true everywhere?
         for (String agency : graph.getAgencyIds()) {
-            addIfNotExists(this.serviceDays, new ServiceDay(time - SEC_IN_DAY, calendarService, agency));
-            addIfNotExists(this.serviceDays, new ServiceDay(time, calendarService, agency));
-            addIfNotExists(this.serviceDays, new ServiceDay(time + SEC_IN_DAY, calendarService, agency));
+            addIfNotExists(this.serviceDays, graph.getServiceDay(time - SEC_IN_DAY, agency));
+            addIfNotExists(this.serviceDays, graph.getServiceDay(time, agency));
+            addIfNotExists(this.serviceDays, graph.getServiceDay(time + SEC_IN_DAY, agency));
         }
     }
 
@@ -197,29 +319,20 @@ public class RoutingContext implements Cloneable {
     }
     
     /** 
-     * When a routing context is garbage collected, there should be no more references
-     * to the temporary vertices it created. We need to detach its edges from the permanent graph.
-     */
-    @Override public void finalize() {
-        int nRemoved = this.destroy();
-        if (nRemoved > 0) {
-            LOG.warn("Temporary edges were removed during garbage collection. " +
-                     "This is probably because a routing context was not properly destroyed.");
-        }
-    }
-    
-    /** 
-     * Tear down this routing context, removing any temporary edges. 
-     * @returns the number of edges removed. 
+     * Tear down this routing context, releasing its temporary edges. They were never added to the
+     * edge lists of graph vertices, so the graph itself does not need any cleanup, other than
+     * no longer counting this context as one of its users.
+     * @returns the number of edges released. 
      */
     public int destroy() {
-        int nRemoved = 0;
-        if (origin != null) 
-            nRemoved += origin.removeTemporaryEdges();
-        if (target != null)
-            nRemoved += target.removeTemporaryEdges();
-        for (Vertex v : intermediateVertices)
-            nRemoved += v.removeTemporaryEdges();
+        if ( ! ownsTemporaryEdges)
+            return 0;
+        if (holdsGraph) {
+            holdsGraph = false;
+            graph.release();
+        }
+        int nRemoved = temporaryEdges.countEdges();
+        temporaryEdges = new OverlayGraph();
         return nRemoved;
     }
 
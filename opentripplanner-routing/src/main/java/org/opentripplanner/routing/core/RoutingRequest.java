@@ -720,13 +720,14 @@ public class RoutingRequest implements Cloneable, Serializable {
         }
     }
     
-    /** For use in tests. Force RoutingContext to specific vertices rather than making temp edges. */
+    /** 
+     * For use in tests. Force RoutingContext to specific vertices rather than making temp edges. 
+     * A context made for this request is torn down first; one inherited from the request this
+     * was cloned from still belongs to that request.
+     */
     public void setRoutingContext (Graph graph, Vertex from, Vertex to) {
-        // normally you would want to tear down the routing context...
-        // but this method is mostly used in tests, and teardown interferes with testHalfEdges
-        // FIXME here, or in test, and/or in other places like TSP that use this method
-        // if (rctx != null)
-        //    this.rctx.destroy();
+        if (rctx != null && rctx.opt == this)
+            this.rctx.destroy();
         this.rctx = new RoutingContext(this, graph, from, to);
     }
 
@@ -826,13 +827,13 @@ public class RoutingRequest implements Cloneable, Serializable {
         return hashCode;
     }
 
-    /** Tear down any routing context (remove temporary edges from edge lists) */
+    /** Tear down any routing context (release the temporary edges of its endpoints) */
     public void cleanup() {
         if (this.rctx == null)
             LOG.warn("routing context was not set, cannot destroy it.");
         else {
             int nRemoved = this.rctx.destroy();
-            LOG.debug("routing context destroyed ({} temporary edges removed)", nRemoved);
+            LOG.debug("routing context destroyed ({} temporary edges released)", nRemoved);
         }        
     }
     
@@ -14,74 +14,103 @@
 package org.opentripplanner.routing.core;
 
 import java.io.Serializable;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
-import org.onebusaway.gtfs.services.calendar.CalendarService;
 
 /**
- * Represents a day of transit services. 
- * Intended for quickly checking whether a service is running during path searches.
- * 
+ * Represents a day of transit services.
+ * Intended for quickly checking whether a service is running during path searches: services are
+ * identified by the integer codes the graph assigns to their service ids, and the services running
+ * on the day are kept in a bitset.
+ *
  * @author andrewbyrd
  *
  */
 public class ServiceDay implements Serializable {
-    private static final long serialVersionUID = -1206371243806996680L;
+    private static final long serialVersionUID = -1206371243806996681L;
 
     protected long midnight;
-    protected Set<AgencyAndId> serviceIdsRunning;
-    
-    /* 
-     * make a ServiceDay including the given time's day's starting second and a set of 
-     * serviceIds running on that day.
+    protected BitSet serviceIdsRunning;
+
+    /*
+     * make a ServiceDay starting at the given date's first second, with the services of the given
+     * serviceIds running. Service ids without a code are not used by any pattern and are left out.
      */
-    public ServiceDay(long time, CalendarService cs, String agencyId) {
-        TimeZone timeZone = cs.getTimeZoneForAgencyId(agencyId);
+    public ServiceDay(ServiceDate date, TimeZone timeZone, Set<AgencyAndId> serviceIds,
+            Map<AgencyAndId, Integer> serviceCodes) {
+        Date d = date.getAsDate(timeZone);
+        this.midnight = d.getTime() / 1000;
+        this.serviceIdsRunning = new BitSet(serviceCodes.size());
+        for (AgencyAndId serviceId : serviceIds) {
+            Integer code = serviceCodes.get(serviceId);
+            if (code != null)
+                serviceIdsRunning.set(code);
+        }
+    }
+
+    /** @return a calendar set to the given time, in seconds since the epoch */
+    public static GregorianCalendar calendarFor(long time, TimeZone timeZone) {
         GregorianCalendar calendar = new GregorianCalendar(timeZone);
         calendar.setTime(new Date(time * 1000));
-
-        ServiceDate sd = new ServiceDate(calendar);
-        Date d = sd.getAsDate(timeZone);
-        this.midnight = d.getTime() / 1000;
-        this.serviceIdsRunning = cs.getServiceIdsOnDate(sd);
+        return calendar;
     }
 
-    /* 
-     * Does the given serviceId run on this ServiceDay?
+    /*
+     * Does the service with the given code run on this ServiceDay? Patterns and hops that were
+     * never given a code by the graph have a negative one, and never run.
      */
-    public boolean serviceIdRunning(AgencyAndId serviceId) {
-        return this.serviceIdsRunning.contains(serviceId);
+    public boolean serviceIdRunning(int serviceCode) {
+        if (serviceCode < 0)
+            return false;
+        return this.serviceIdsRunning.get(serviceCode);
     }
 
-    /* 
+    /*
      * Return number of seconds after midnight on this ServiceDay
      * for the given time.
-     * 
+     *
      * Note that the parameter and the return value are in seconds since the epoch
-     * 
-     * Return value may be negative, indicating that the time is 
+     *
+     * Return value may be negative, indicating that the time is
      * before this ServiceDay.
      */
     public int secondsSinceMidnight(long time) {
         return (int) (time - this.midnight);
     }
-    
-    /* 
+
+    /*
      * Return number of seconds since the epoch
      * based on the given number of seconds after midnight on this ServiceDay
-     * 
-     * Input value may be negative, indicating that the time is 
+     *
+     * Input value may be negative, indicating that the time is
      * before this ServiceDay.
      */
     public long time(int secondsSinceMidnight) {
         return this.midnight + secondsSinceMidnight;
     }
-    
+
+    /*
+     * Days of agencies sharing a time zone and running the same services are interchangeable,
+     * so that searches only check one of them.
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof ServiceDay))
+            return false;
+        ServiceDay other = (ServiceDay) o;
+        return midnight == other.midnight && serviceIdsRunning.equals(other.serviceIdsRunning);
+    }
+
+    public int hashCode() {
+        return (int) (midnight ^ (midnight >>> 32)) * 31 + serviceIdsRunning.hashCode();
+    }
+
     public String toString() {
         return Long.toString(this.midnight) + serviceIdsRunning;
     }
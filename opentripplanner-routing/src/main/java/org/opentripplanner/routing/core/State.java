@@ -14,6 +14,7 @@
 package org.opentripplanner.routing.core;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -57,7 +58,19 @@ public class State implements Cloneable {
     protected double walkDistance;
 
     // track the states of all path parsers -- probably changes frequently
+    // the states of up to two parsers are packed into an int, 16 bits each
+    protected int packedParserStates;
+
+    // only used when the parser states cannot be packed into an int, otherwise null
     protected int[] pathParserStates;
+
+    static final int PACKED_PARSERS = 2;
+
+    private static final int PACKED_BITS = 16;
+
+    private static final int PACKED_MASK = 0xFFFF;
+
+    private static final int PACKED_REJECT = 0xFFFF;
     
     /* CONSTRUCTORS */
 
@@ -97,9 +110,12 @@ public class State implements Cloneable {
         this.stateData.tripSeqHash = 0;
         this.stateData.usingRentedBike = false;
         this.time = time;
-        if (options.rctx != null) {
+        if (options.rctx != null && options.rctx.pathParsers.length > PACKED_PARSERS) {
         	this.pathParserStates = new int[options.rctx.pathParsers.length];
         	Arrays.fill(this.pathParserStates, AutomatonState.START);
+        } else {
+            // AutomatonState.START is zero
+            this.packedParserStates = 0;
         }
     }
 
@@ -405,7 +421,7 @@ public class State implements Cloneable {
     public boolean multipleOptionsBefore() {
         boolean foundAlternatePaths = false;
         TraverseMode requestedMode = getNonTransitMode(getOptions());
-        for (Edge out : backState.vertex.getOutgoing()) {
+        for (Edge out : getOutgoing(backState.vertex)) {
             if (out == backEdge) {
                 continue;
             }
@@ -427,7 +443,7 @@ public class State implements Cloneable {
             //now, from here, try a continuing path.
             Vertex tov = outState.getVertex();
             boolean found = false;
-            for (Edge out2 : tov.getOutgoing()) {
+            for (Edge out2 : getOutgoing(tov)) {
                 State outState2 = out2.traverse(outState);
                 if (outState2 != null && !outState2.getBackEdgeNarrative().getMode().equals(requestedMode)) {
                     // walking a bike, so, not really an exit
@@ -446,20 +462,51 @@ public class State implements Cloneable {
         }
         return foundAlternatePaths;
     }
+
+    /* the edges leaving v, including the temporary edges of the request */
+    private Collection<Edge> getOutgoing(Vertex v) {
+        RoutingContext rctx = getContext();
+        return rctx == null ? v.getOutgoing() : rctx.getOutgoing(v);
+    }
     
     public boolean allPathParsersAccept() {
     	PathParser[] parsers = this.stateData.opt.rctx.pathParsers;
     	for (int i = 0; i < parsers.length; i++)
-    		if ( ! parsers[i].accepts(pathParserStates[i]))
+    		if ( ! parsers[i].accepts(getPathParserState(i)))
     			return false;
     	return true;
 	}
-    		
+
+    /** @return the state of the i-th path parser of the routing context. */
+    public int getPathParserState(int i) {
+        if (pathParserStates != null)
+            return pathParserStates[i];
+        if (i >= PACKED_PARSERS)
+            return AutomatonState.START;
+        int packed = (packedParserStates >>> (i * PACKED_BITS)) & PACKED_MASK;
+        return packed == PACKED_REJECT ? AutomatonState.REJECT : packed;
+    }
+
+    /** @return true if the given parser state can be stored in packedParserStates. */
+    static boolean isPackable(int parserState) {
+        return parserState == AutomatonState.REJECT ||
+                (parserState >= 0 && parserState < PACKED_REJECT);
+    }
+
+    /** @return the given packed parser states with that of the i-th parser replaced. */
+    static int pack(int packedStates, int i, int parserState) {
+        int packed = parserState == AutomatonState.REJECT ? PACKED_REJECT : parserState;
+        int shift = i * PACKED_BITS;
+        return (packedStates & ~(PACKED_MASK << shift)) | (packed << shift);
+    }
+
 	public String getPathParserStates() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("( ");
-		for (int i : pathParserStates)
-			sb.append(String.format("%02d ", i));
+		RoutingContext rctx = this.stateData.opt.rctx;
+		int nParsers = rctx == null ? 0 : rctx.pathParsers.length;
+		for (int i = 0; i < nParsers; i++)
+			sb.append(String.format("%02d ", getPathParserState(i)));
 		sb.append(")");
 		return sb.toString();
 	}
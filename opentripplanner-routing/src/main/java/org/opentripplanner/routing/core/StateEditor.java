@@ -249,7 +249,14 @@ public class StateEditor {
 
     /* Basic Setters */
 
+    /* 
+     * Setters return early when a value does not change, so that the child state can keep 
+     * sharing its parent's StateData rather than cloning it.
+     */
+
     public void setTrip(int trip) {
+        if (child.stateData.trip == trip)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.trip = trip;
     }
@@ -257,6 +264,8 @@ public class StateEditor {
     public void setTripId(AgencyAndId tripId) {
         final int SMALL_PRIME = 31;
         final int LARGE_PRIME = 24421;
+        if (tripId == null && child.stateData.tripId == null)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.tripId = tripId;
         // tripId is set to null when alighting.
@@ -296,36 +305,50 @@ public class StateEditor {
     }
 
     public void setNumBoardings(int numBoardings) {
+        if (child.stateData.numBoardings == numBoardings)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.numBoardings = numBoardings;
     }
 
     public void setAlightedLocal(boolean alightedLocal) {
+        if (child.stateData.alightedLocal == alightedLocal)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.alightedLocal = alightedLocal;
     }
 
     public void setEverBoarded(boolean everBoarded) {
+        if (child.stateData.everBoarded == everBoarded)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.everBoarded = everBoarded;
     }
 
     public void setBikeRenting(boolean bikeRenting) {
+        if (child.stateData.usingRentedBike == bikeRenting)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.usingRentedBike = bikeRenting;
     }
 
     public void setPreviousStop(Vertex previousStop) {
+        if (child.stateData.previousStop == previousStop)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.previousStop = previousStop;
     }
 
     public void setLastAlightedTime(long lastAlightedTime) {
+        if (child.stateData.lastAlightedTime == lastAlightedTime)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.lastAlightedTime = lastAlightedTime;
     }
 
     public void setNoThruTrafficState(NoThruTrafficState noThruTrafficState) {
+        if (child.stateData.noThruTrafficState == noThruTrafficState)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.noThruTrafficState = noThruTrafficState;
     }
@@ -335,6 +358,8 @@ public class StateEditor {
     }
 
     public void setStartTime(long t) {
+        if (child.stateData.startTime == t)
+            return;
         cloneStateDataAsNeeded();
         child.stateData.startTime = t;
     }
@@ -476,25 +501,38 @@ public class StateEditor {
             return true; // a lot of tests don't set a routing context
         PathParser[] parsers = state.stateData.opt.rctx.pathParsers;
         int[] parserStates = state.pathParserStates;
+        int packedStates = state.packedParserStates;
         boolean accept = true;
         boolean modified = false;
         int i = 0;
         for (PathParser parser : parsers) {
             int terminal = parser.terminalFor(state);
-            int oldState = parserStates[i];
+            int oldState = state.getPathParserState(i);
             int newState = parser.transition(oldState, terminal);
             if (newState != oldState) {
-                if (!modified) {
+                if (parserStates == null && (parsers.length > State.PACKED_PARSERS
+                        || ! State.isPackable(newState))) {
+                    // switch to an array for the rest of this path
+                    parserStates = new int[parsers.length];
+                    for (int j = 0; j < parsers.length; j++)
+                        parserStates[j] = state.getPathParserState(j);
+                    modified = true;
+                } else if (parserStates != null && !modified) {
                     // clone the state array so only the new state will see modifications
                     parserStates = parserStates.clone();
                     modified = true;
                 }
-                parserStates[i] = newState;
+                if (parserStates != null)
+                    parserStates[i] = newState;
+                else
+                    packedStates = State.pack(packedStates, i, newState);
                 if (newState == AutomatonState.REJECT)
                     accept = false;
             }
             i++;
         }
+        // packed states are a value, the array is never shared after modification
+        state.packedParserStates = packedStates;
         if (modified)
             state.pathParserStates = parserStates;
         return accept;
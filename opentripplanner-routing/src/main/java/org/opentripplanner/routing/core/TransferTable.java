@@ -13,17 +13,23 @@
 
 package org.opentripplanner.routing.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
-import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.graph.Vertex;
 
+/**
+ * Transfer rules between pairs of stops. Lookups happen every time a vehicle is boarded, so the
+ * rules are found through an open-addressing hash table keyed on the indices of the two vertices,
+ * without allocating anything. The table has to be rebuilt with {@link #reindex()} whenever the
+ * vertices are renumbered.
+ */
 public class TransferTable implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     public static final int UNKNOWN_TRANSFER = -999;
 
@@ -37,10 +43,28 @@ public class TransferTable implements Serializable {
                                                  * the minimum transfer time is effectively zero
                                                  */
 
+    private static final long EMPTY = -1L;
+
+    /* the transfers themselves, in the order they were added */
+    private Vertex[] fromStops = new Vertex[8];
+
+    private Vertex[] toStops = new Vertex[8];
+
+    private int[] times = new int[8];
+
+    private int size = 0;
+
+    /* hash slots holding the vertex index pair of a transfer and its position in the arrays above */
+    private transient long[] keys;
+
+    private transient int[] positions;
 
-    protected HashMap<P2<Vertex>, Integer> table = new HashMap<P2<Vertex>, Integer>();
     protected boolean preferredTransfers = false;
     
+    public TransferTable() {
+        reindex();
+    }
+
     public void setPreferredTransfers(boolean preferredTransfers) {
         this.preferredTransfers = preferredTransfers;
     }
@@ -50,20 +74,82 @@ public class TransferTable implements Serializable {
     }    
     /** Get the transfer time, in seconds, between the stops */
     public int getTransferTime(Vertex previousStop, Vertex vertex) {
-        Integer result = table.get(new P2<Vertex>(previousStop, vertex));
-        if (result == null) {
+        if (previousStop == null || vertex == null)
             return UNKNOWN_TRANSFER;
-        }
-        return result;
+        int slot = findSlot(key(previousStop, vertex));
+        if (slot < 0)
+            return UNKNOWN_TRANSFER;
+        return times[positions[slot]];
     }
     
-    public void setTransferTime(Vertex fromStop, Vertex toStop, int transferTime) {
-        table.put(new P2<Vertex>(fromStop, toStop), transferTime);
+    public synchronized void setTransferTime(Vertex fromStop, Vertex toStop, int transferTime) {
+        long key = key(fromStop, toStop);
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            times[positions[slot]] = transferTime;
+        } else {
+            if (size == times.length) {
+                fromStops = Arrays.copyOf(fromStops, size * 2);
+                toStops = Arrays.copyOf(toStops, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            fromStops[size] = fromStop;
+            toStops[size] = toStop;
+            times[size] = transferTime;
+            ++size;
+            if (size * 2 > keys.length)
+                reindex();
+            else
+                insert(key, size - 1);
+        }
         if (transferTime == PREFERRED_TRANSFER) {
             setPreferredTransfers(true);
         }
     }
-    
+
+    /** Rebuild the hash table from the current vertex indices, e.g. after renumbering vertices. */
+    public synchronized void reindex() {
+        int capacity = 16;
+        while (capacity < size * 2)
+            capacity *= 2;
+        long[] newKeys = new long[capacity];
+        Arrays.fill(newKeys, EMPTY);
+        keys = newKeys;
+        positions = new int[capacity];
+        for (int i = 0; i < size; ++i)
+            insert(key(fromStops[i], toStops[i]), i);
+    }
+
+    private static long key(Vertex from, Vertex to) {
+        return ((long) from.getIndex() << 32) | (to.getIndex() & 0xffffffffL);
+    }
+
+    private static int hash(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /** @return the slot holding the given key, or -1 if there is none */
+    private int findSlot(long key) {
+        long[] keys = this.keys;
+        int mask = keys.length - 1;
+        for (int slot = hash(key, mask);; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return slot;
+            if (keys[slot] == EMPTY)
+                return -1;
+        }
+    }
+
+    private void insert(long key, int position) {
+        int mask = keys.length - 1;
+        int slot = hash(key, mask);
+        while (keys[slot] != EMPTY)
+            slot = (slot + 1) & mask;
+        positions[slot] = position;
+        keys[slot] = key;
+    }
+
     public static class Transfer {
         public Vertex from, to;
         public int seconds;
@@ -75,11 +161,15 @@ public class TransferTable implements Serializable {
     }
     
     public Iterable<Transfer> getAllTransfers() {
-        ArrayList<Transfer> transfers = new ArrayList<Transfer>(table.size());
-        for (Entry<P2<Vertex>, Integer> entry : table.entrySet()) {
-            P2<Vertex> p2 = entry.getKey();
-            transfers.add(new Transfer(p2.getFirst(), p2.getSecond(), entry.getValue()));
+        ArrayList<Transfer> transfers = new ArrayList<Transfer>(size);
+        for (int i = 0; i < size; ++i) {
+            transfers.add(new Transfer(fromStops[i], toStops[i], times[i]));
         }
         return transfers;
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        reindex();
+    }
 }
@@ -72,6 +72,8 @@ public class ArrayTripPattern implements TableTripPattern, Serializable {
      */
     private Trip exemplar;
 
+    private int serviceCode = -1;
+
     @XmlElement
     private int[][] departureTimes;
 
@@ -313,6 +315,15 @@ public class ArrayTripPattern implements TableTripPattern, Serializable {
         return zones[stopIndex];
     }
 
+    @Override
+    public int getServiceCode() {
+        return serviceCode;
+    }
+
+    public void setServiceCode(int serviceCode) {
+        this.serviceCode = serviceCode;
+    }
+
     @Override
     public Trip getExemplar() {
         return exemplar;
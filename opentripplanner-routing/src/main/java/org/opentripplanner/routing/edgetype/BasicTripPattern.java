@@ -37,6 +37,8 @@ public final class BasicTripPattern implements Serializable, TableTripPattern {
 
     public Trip exemplar;
 
+    private int serviceCode = -1;
+
     /** This field, and the following three fields, are one arraylist of departure times for each stop 
      */
     private ArrayList<Integer>[] departureTimes;
@@ -367,6 +369,7 @@ public final class BasicTripPattern implements Serializable, TableTripPattern {
     public ArrayTripPattern convertToArrayTripPattern() {
         if (arrayPattern == null) {
             arrayPattern = new ArrayTripPattern(exemplar, departureTimes, runningTimes, arrivalTimes, dwellTimes, headsigns, zones, perTripFlags, perStopFlags, trips);
+            arrayPattern.setServiceCode(serviceCode);
             departureTimes = runningTimes = arrivalTimes = dwellTimes = null;
             zones = null;
             perTripFlags = null;
@@ -376,6 +379,15 @@ public final class BasicTripPattern implements Serializable, TableTripPattern {
         return arrayPattern;
     }
 
+    @Override
+    public int getServiceCode() {
+        return serviceCode;
+    }
+
+    public void setServiceCode(int serviceCode) {
+        this.serviceCode = serviceCode;
+    }
+
     @Override
     public Trip getExemplar() {
         return exemplar;
@@ -13,7 +13,6 @@
 
 package org.opentripplanner.routing.edgetype;
 
-import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.ServiceDay;
@@ -118,7 +117,7 @@ public class Board extends AbstractEdge implements OnBoardForwardEdge {
             long current_time = state0.getTime();
 
             /* check if this trip is running or not */
-            AgencyAndId serviceId = hop.getServiceId();
+            int serviceId = hop.getServiceCode();
             int wait = -1;
             for (ServiceDay sd : rctx.serviceDays) {
                 int secondsSinceMidnight = sd.secondsSinceMidnight(current_time);
@@ -30,6 +30,8 @@ public class FrequencyBasedTripPattern implements Serializable, TripPattern {
 
     private Trip exemplar;
 
+    private int serviceCode = -1;
+
     // sorted by start time
     @XmlElement
     int[] timeRangeStart;
@@ -282,6 +284,15 @@ public class FrequencyBasedTripPattern implements Serializable, TripPattern {
         this.tripFlags = tripFlags;
     }
 
+    @Override
+    public int getServiceCode() {
+        return serviceCode;
+    }
+
+    public void setServiceCode(int serviceCode) {
+        this.serviceCode = serviceCode;
+    }
+
     public Trip getTrip() {
         return exemplar;
     }
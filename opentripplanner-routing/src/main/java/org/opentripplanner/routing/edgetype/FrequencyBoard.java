@@ -13,7 +13,6 @@
 
 package org.opentripplanner.routing.edgetype;
 
-import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.gtfs.GtfsLibrary;
@@ -114,7 +113,7 @@ public class FrequencyBoard extends AbstractEdge  implements OnBoardForwardEdge
                 //we used to use route banning and that was not so bad.
                 return null;
             }
-            AgencyAndId serviceId = trip.getServiceId();
+            int serviceId = pattern.getServiceCode();
             for (ServiceDay sd : rctx.serviceDays) {
                 int secondsSinceMidnight = sd.secondsSinceMidnight(currentTime);
                 // only check for service on days that are not in the future
@@ -209,7 +208,7 @@ public class FrequencyBoard extends AbstractEdge  implements OnBoardForwardEdge
             if (! rctx.opt.getModes().get(modeMask)) {
                 return Double.POSITIVE_INFINITY;
             }
-            AgencyAndId serviceId = pattern.getTrip().getServiceId();
+            int serviceId = pattern.getServiceCode();
             for (ServiceDay sd : rctx.serviceDays)
                 if (sd.serviceIdRunning(serviceId))
                     return 0;
@@ -43,12 +43,22 @@ public class Hop extends AbstractEdge implements OnBoardForwardEdge, OnBoardReve
     
     private AgencyAndId _serviceId;
 
+    private int serviceCode = -1;
+
     private int elapsed;
     
     public AgencyAndId getServiceId() {
         return _serviceId;
     }
 
+    public int getServiceCode() {
+        return serviceCode;
+    }
+
+    public void setServiceCode(int serviceCode) {
+        this.serviceCode = serviceCode;
+    }
+
     public Hop(Vertex startJourney, Vertex endJourney, StopTime start, StopTime end, Trip trip) {
         super(startJourney, endJourney);
         this.start = start;
@@ -13,7 +13,6 @@
 
 package org.opentripplanner.routing.edgetype;
 
-import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.gtfs.GtfsLibrary;
@@ -95,7 +94,7 @@ public class PatternAlight extends PatternEdge implements OnBoardReverseEdge {
             long current_time = state0.getTime();
             int bestWait = -1;
             int bestPatternIndex = -1;
-            AgencyAndId serviceId = getPattern().getExemplar().getServiceId();
+            int serviceId = getPattern().getServiceCode();
             TraverseMode mode = state0.getNonTransitMode(options);
             SD: for (ServiceDay sd : rctx.serviceDays) {
                 int secondsSinceMidnight = sd.secondsSinceMidnight(current_time);
@@ -229,7 +228,7 @@ public class PatternAlight extends PatternEdge implements OnBoardReverseEdge {
         else if (! rctx.opt.getModes().get(modeMask)) {
             return Double.POSITIVE_INFINITY;
         }
-        AgencyAndId serviceId = getPattern().getExemplar().getServiceId();
+        int serviceId = getPattern().getServiceCode();
         for (ServiceDay sd : rctx.serviceDays)
             if (sd.serviceIdRunning(serviceId))
                 return 0;
@@ -119,6 +119,10 @@ public class PatternHop extends PatternEdge implements OnBoardForwardEdge, OnBoa
         return start;
     }
 
+    public int getStopIndex() {
+        return stopIndex;
+    }
+
     public String toString() {
     	return "PatternHop(" + getFromVertex() + ", " + getToVertex() + ")";
     }
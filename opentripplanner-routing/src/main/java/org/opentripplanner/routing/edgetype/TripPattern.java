@@ -7,4 +7,7 @@ import org.onebusaway.gtfs.model.Stop;
 /* simple interface for trip patterns */
 public interface TripPattern {
     List<Stop> getStops();
+
+    /** Gets the code the graph assigned to the service id of this pattern's trips */
+    int getServiceCode();
 }
@@ -498,6 +498,7 @@ public class GTFSPatternHopFactory {
             List<StopTime> stopTimes) {
         
         FrequencyBasedTripPattern pattern = new FrequencyBasedTripPattern(trip, stopTimes.size());
+        pattern.setServiceCode(graph.getServiceCode(trip.getServiceId()));
         TraverseMode mode = GtfsLibrary.getTraverseMode(trip.getRoute());
         int lastStop = stopTimes.size() - 1;
 
@@ -835,6 +836,7 @@ public class GTFSPatternHopFactory {
 
     private BasicTripPattern makeTripPattern(Graph graph, Trip trip, List<StopTime> stopTimes) {
         BasicTripPattern tripPattern = new BasicTripPattern(trip, stopTimes);
+        tripPattern.setServiceCode(graph.getServiceCode(trip.getServiceId()));
 
         TraverseMode mode = GtfsLibrary.getTraverseMode(trip.getRoute());
         int lastStop = stopTimes.size() - 1;
@@ -1004,6 +1006,7 @@ public class GTFSPatternHopFactory {
 
             new Dwell(psv0arrive, psv0depart, st0);
             Hop hop = new Hop(psv0depart, psv1arrive, st0, st1, trip);
+            hop.setServiceCode(graph.getServiceCode(trip.getServiceId()));
             created.add(hop);
             hop.setGeometry(getHopGeometry(graph, trip.getShapeId(), st0, st1, psv0depart,
                     psv1arrive));
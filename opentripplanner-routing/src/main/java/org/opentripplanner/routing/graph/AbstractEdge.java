@@ -56,8 +56,12 @@ public abstract class AbstractEdge implements Edge {
 //            throw new IllegalStateException(this.getClass() + " constructed with bad vertex types");
 //        }
 
-        fromv.addOutgoing(this);
-        tov.addIncoming(this);
+        // edges linking temporary vertices to the graph are left out of the edge lists of graph
+        // vertices, searches find them in the overlay of their RoutingContext instead
+        if (fromv.isTemporary() || !tov.isTemporary())
+            fromv.addOutgoing(this);
+        if (tov.isTemporary() || !fromv.isTemporary())
+            tov.addIncoming(this);
     }
 
     @Override
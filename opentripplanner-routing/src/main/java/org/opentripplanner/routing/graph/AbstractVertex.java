@@ -19,8 +19,8 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -42,12 +42,15 @@ public abstract class AbstractVertex implements Vertex {
     
     private static final Logger LOG = LoggerFactory.getLogger(AbstractVertex.class);
 
-    private static int maxIndex = 0;
+    private static final AtomicInteger maxIndex = new AtomicInteger(0);
 
     private int index;
     
     private transient int groupIndex = -1;
 
+    /* vertices made without a graph only exist for the duration of a request */
+    private transient boolean temporary = false;
+
     /* short debugging name */
     private final String label;
     
@@ -60,9 +63,14 @@ public abstract class AbstractVertex implements Vertex {
     
     private double distanceToNearestTransitStop = 0;
 
-    private transient Set<Edge> incoming = new CopyOnWriteArraySet<Edge>();
+    /* 
+     * Edge lists are mutable copy-on-write sets while the graph is being built. Once a graph is
+     * loaded they are replaced with views on the graph's compact adjacency arrays, which are 
+     * switched back to sets if any edges are added or removed later on.
+     */
+    private transient volatile Collection<Edge> incoming = new CopyOnWriteArraySet<Edge>();
 
-    private transient Set<Edge> outgoing = new CopyOnWriteArraySet<Edge>();
+    private transient volatile Collection<Edge> outgoing = new CopyOnWriteArraySet<Edge>();
 
     
     /* PUBLIC CONSTRUCTORS */
@@ -71,10 +79,12 @@ public abstract class AbstractVertex implements Vertex {
         this.label = label;
         this.x = x;
         this.y = y;
-        this.index = maxIndex  ++;
+        this.index = maxIndex.getAndIncrement();
         // null graph means temporary vertex
         if (g != null)
             g.addVertex(this);
+        else
+            temporary = true;
         this.name = "(no name provided)";
     }
 
@@ -117,7 +127,8 @@ public abstract class AbstractVertex implements Vertex {
     /* FIELD ACCESSOR METHODS : READ/WRITE */
 
     @Override
-    public void addOutgoing(Edge ee) {
+    public synchronized void addOutgoing(Edge ee) {
+        Collection<Edge> outgoing = mutableOutgoing();
         if (outgoing.contains(ee)) {
             LOG.error("repeatedly added edge {} to vertex {}", ee, this);
         } else {
@@ -126,7 +137,11 @@ public abstract class AbstractVertex implements Vertex {
     }
     
     @Override
-    public boolean removeOutgoing(Edge ee) {
+    public synchronized boolean removeOutgoing(Edge ee) {
+        // do not unpack a compacted edge list for nothing
+        if (!this.outgoing.contains(ee))
+            return false;
+        Collection<Edge> outgoing = mutableOutgoing();
         boolean removed = outgoing.remove(ee);
         if (outgoing.contains(ee)) {
             LOG.error("edge {} still in edgelist of {} after removed. there must have been multiple copies.");
@@ -141,7 +156,8 @@ public abstract class AbstractVertex implements Vertex {
     }
 
     @Override
-    public void addIncoming(Edge ee) {
+    public synchronized void addIncoming(Edge ee) {
+        Collection<Edge> incoming = mutableIncoming();
         if (incoming.contains(ee)) {
             LOG.error("repeatedly added edge {} to vertex {}", ee, this);
         } else {        
@@ -150,7 +166,10 @@ public abstract class AbstractVertex implements Vertex {
     }
     
     @Override
-    public boolean removeIncoming(Edge ee) {
+    public synchronized boolean removeIncoming(Edge ee) {
+        if (!this.incoming.contains(ee))
+            return false;
+        Collection<Edge> incoming = mutableIncoming();
         boolean removed = incoming.remove(ee);
         if (incoming.contains(ee)) {
             LOG.error("edge {} still in edgelist of {} after removed. there must have been multiple copies.");
@@ -252,7 +271,20 @@ public abstract class AbstractVertex implements Vertex {
     }
     
     public static int getMaxIndex() {
-        return maxIndex;
+        return maxIndex.get();
+    }
+
+    /**
+     * Make sure that indices handed out to newly created vertices do not collide with the
+     * given index, which was assigned elsewhere (typically read back from a saved graph).
+     */
+    private static void reserveIndex(int index) {
+        int max = maxIndex.get();
+        while (index >= max) {
+            if (maxIndex.compareAndSet(max, index + 1))
+                break;
+            max = maxIndex.get();
+        }
     }
     
     
@@ -267,7 +299,33 @@ public abstract class AbstractVertex implements Vertex {
         in.defaultReadObject();
         this.incoming = new CopyOnWriteArraySet<Edge>();
         this.outgoing = new CopyOnWriteArraySet<Edge>();
-        index = maxIndex++;
+        // keep the index assigned by Graph.save() so that saved graphs have a stable numbering
+        reserveIndex(index);
+    }
+
+    /* must be called while holding this vertex's lock */
+    private Collection<Edge> mutableOutgoing() {
+        if (outgoing instanceof CompactEdgeList)
+            outgoing = new CopyOnWriteArraySet<Edge>(outgoing);
+        return outgoing;
+    }
+
+    /* must be called while holding this vertex's lock */
+    private Collection<Edge> mutableIncoming() {
+        if (incoming instanceof CompactEdgeList)
+            incoming = new CopyOnWriteArraySet<Edge>(incoming);
+        return incoming;
+    }
+
+    /**
+     * Replace this vertex's edge lists with read-only views on the graph's adjacency arrays.
+     * The views must contain exactly the same edges as the current lists.
+     */
+    synchronized void setCompactEdgeLists(CompactEdgeList outgoing, CompactEdgeList incoming) {
+        if (outgoing != null)
+            this.outgoing = outgoing;
+        if (incoming != null)
+            this.incoming = incoming;
     }
 
     @Override
@@ -392,4 +450,9 @@ public abstract class AbstractVertex implements Vertex {
         return 0;
     }
 
+    @Override
+    public boolean isTemporary() {
+        return temporary;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view of one vertex's slice of the compressed sparse row adjacency arrays built by
+ * {@link Graph#compactAdjacency()}. Outgoing edge lists index directly into the graph's edge
+ * array, while incoming edge lists go through an array of edge indices.
+ *
+ * Vertices replace these views with mutable sets as soon as an edge is added or removed.
+ */
+final class CompactEdgeList extends AbstractList<Edge> implements RandomAccess {
+
+    private final Edge[] edges;
+
+    /** indices into the edge array, or null if this slice of the edge array is used directly */
+    private final int[] edgeIndices;
+
+    private final int start;
+
+    private final int size;
+
+    CompactEdgeList(Edge[] edges, int[] edgeIndices, int start, int end) {
+        this.edges = edges;
+        this.edgeIndices = edgeIndices;
+        this.start = start;
+        this.size = end - start;
+    }
+
+    @Override
+    public Edge get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("index " + i + " size " + size);
+        if (edgeIndices == null)
+            return edges[start + i];
+        return edges[edgeIndices[start + i]];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+}
@@ -25,17 +25,26 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.onebusaway.gtfs.impl.calendar.CalendarServiceImpl;
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -45,12 +54,16 @@ import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.routing.contraction.ContractionHierarchySet;
 import org.opentripplanner.routing.core.GraphBuilderAnnotation;
+import org.opentripplanner.routing.core.LandmarkTable;
+import org.opentripplanner.routing.core.LowerBoundGraphCache;
 import org.opentripplanner.routing.core.MortonVertexComparator;
+import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.core.GraphBuilderAnnotation.Variety;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 import org.opentripplanner.routing.services.StreetVertexIndexService;
 import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.common.model.T2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +80,15 @@ public class Graph implements Serializable {
     private final MavenVersion mavenVersion = MavenVersion.VERSION;
 
     private static final Logger LOG = LoggerFactory.getLogger(Graph.class);
+
+    private static final Comparator<Vertex> VERTEX_INDEX_ORDER = new Comparator<Vertex>() {
+        @Override
+        public int compare(Vertex v0, Vertex v1) {
+            int i0 = v0.getIndex();
+            int i1 = v1.getIndex();
+            return i0 < i1 ? -1 : (i0 == i1 ? 0 : 1);
+        }
+    };
     
     // transit feed validity information in seconds since epoch
     private long transitServiceStarts = Long.MAX_VALUE;
@@ -78,6 +100,12 @@ public class Graph implements Serializable {
     private TransferTable transferTable = new TransferTable();
 
     private GraphBundle bundle;
+
+    /* 
+     * identifies this numbering of the vertices, for caches kept outside the graph that store 
+     * vertex indices. It is replaced whenever the graph is saved, since saving renumbers vertices.
+     */
+    private String buildId;
     
     /* vertex index by name is reconstructed from edges */
     private transient Map<String, Vertex> vertices;
@@ -100,6 +128,23 @@ public class Graph implements Serializable {
 
     private transient Set<Edge> temporaryEdges;
 
+    /* dense integer codes for the service ids of the trip patterns, see ServiceDay */
+    private HashMap<AgencyAndId, Integer> serviceCodes = new HashMap<AgencyAndId, Integer>();
+
+    /* the service days already made for each agency and date, shared between requests */
+    private transient Map<T2<String, ServiceDate>, ServiceDay> serviceDays;
+
+    /* lower bound graphs for the LBG heuristics, made on demand since they are not serialized */
+    private transient LowerBoundGraphCache lowerBoundGraphs;
+
+    /* the routing contexts using this graph, so that a retired graph is released once unused */
+    private transient AtomicInteger users;
+
+    private transient volatile boolean retired;
+
+    private transient AtomicBoolean released;
+
+
     public Graph(Graph basedOn) {
         this();
         this.bundle = basedOn.getBundle();
@@ -108,6 +153,10 @@ public class Graph implements Serializable {
     public Graph() {
         this.vertices = new ConcurrentHashMap<String, Vertex>();
         temporaryEdges = Collections.newSetFromMap(new ConcurrentHashMap<Edge, Boolean>());
+        serviceDays = new ConcurrentHashMap<T2<String, ServiceDate>, ServiceDay>();
+        users = new AtomicInteger();
+        released = new AtomicBoolean();
+        buildId = UUID.randomUUID().toString();
     }
 
     /**
@@ -151,6 +200,10 @@ public class Graph implements Serializable {
 
     @SuppressWarnings("unchecked")
     public <T> T putService(Class<T> serviceType, T service) {
+        if (serviceType == CalendarServiceData.class) {
+            calendarService = null;
+            serviceDays.clear();
+        }
         return (T) _services.put(serviceType, service);
     }
 
@@ -193,6 +246,48 @@ public class Graph implements Serializable {
         return transferTable;
     }
 
+    /** @return the lower bound graphs of this graph, shared between all requests routing on it */
+    public synchronized LowerBoundGraphCache getLowerBoundGraphs() {
+        if (lowerBoundGraphs == null)
+            lowerBoundGraphs = new LowerBoundGraphCache(this);
+        return lowerBoundGraphs;
+    }
+
+    /** Count a search using this graph, until the matching call to {@link #release}. */
+    public void acquire() {
+        users.incrementAndGet();
+    }
+
+    /** End a search counted by {@link #acquire}. */
+    public void release() {
+        if (users.decrementAndGet() == 0 && retired)
+            releaseCaches();
+    }
+
+    /**
+     * Mark this graph as replaced by another one. The caches it holds are dropped as soon as the
+     * searches using it are finished; a search that still starts on it afterwards rebuilds what it
+     * needs.
+     */
+    public void retire() {
+        retired = true;
+        if (users.get() == 0)
+            releaseCaches();
+    }
+
+    /** @return whether the graph was retired and its caches dropped */
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    private void releaseCaches() {
+        if (released.compareAndSet(false, true)) {
+            LOG.info("releasing retired graph {}", this);
+            getLowerBoundGraphs().release();
+            serviceDays.clear();
+        }
+    }
+
     // Infer the time period covered by the transit feed
     public void updateTransitFeedValidity(CalendarServiceData data) {
         long now = new Date().getTime() / 1000;
@@ -255,11 +350,28 @@ public class Graph implements Serializable {
     private void renumberVerticesAndEdges() {
         this.vertexById = new ArrayList<Vertex>(getVertices());
         Collections.sort(this.vertexById, new MortonVertexComparator(this.vertexById));
-        this.edgeById = new HashMap<Integer, Edge>();
-        this.idForEdge = new HashMap<Edge, Integer>();
         int i = 0;
         for (Vertex v : this.vertexById) {
             v.setIndex(i);
+            ++i;
+        }
+        this.indexEdges();
+        this.transferTable.reindex();
+        LandmarkTable landmarks = getService(LandmarkTable.class);
+        if (landmarks != null)
+            landmarks.reindex();
+    }
+
+    /**
+     * Derive edge ID numbers from the vertex numbering: the j-th outgoing edge of vertex i has ID
+     * (i * 100) + j. Since vertex indices survive serialization, these maps do not need to be
+     * stored in the graph file and can be rebuilt on demand.
+     */
+    private void indexEdges() {
+        this.edgeById = new HashMap<Integer, Edge>();
+        this.idForEdge = new HashMap<Edge, Integer>();
+        for (Vertex v : this.vertexById) {
+            int i = v.getIndex();
             int j = 0;
             for (Edge e : v.getOutgoing()) {
                 int eid = (i*100) + j;
@@ -268,15 +380,112 @@ public class Graph implements Serializable {
                 this.idForEdge.put(e, eid);
                 ++j;
             }
-            ++i;
         }
     }
 
+    /** Rebuild the debug vertex/edge ID tables of a loaded graph from the saved vertex indices. */
+    private void rebuildDebugTables() {
+        this.vertexById = new ArrayList<Vertex>(getVertices());
+        Collections.sort(this.vertexById, VERTEX_INDEX_ORDER);
+        this.indexEdges();
+    }
+
     private void readObject(ObjectInputStream inputStream) throws ClassNotFoundException,
             IOException {
         inputStream.defaultReadObject();
 
         temporaryEdges = Collections.newSetFromMap(new ConcurrentHashMap<Edge, Boolean>()); 
+        serviceDays = new ConcurrentHashMap<T2<String, ServiceDate>, ServiceDay>();
+        users = new AtomicInteger();
+        released = new AtomicBoolean();
+        if (buildId == null) {
+            // saved before build ids were recorded, so nothing can be matched against it
+            buildId = UUID.randomUUID().toString();
+        }
+    }
+
+    /**
+     * @return an identifier of this graph and the numbering of its vertices, the same each time
+     *         the same saved graph is loaded, and different for every graph built or saved.
+     */
+    public String getBuildId() {
+        return buildId;
+    }
+
+    /**
+     * Pack the edge lists of all vertices into compressed sparse row arrays owned by this graph,
+     * and replace each vertex's edge lists with read-only views on those arrays. Vertices are 
+     * taken in index order and edges are grouped by their from-vertex, so the outgoing edges of
+     * the i-th vertex are a contiguous slice of a single edge array, and its incoming edges are a
+     * slice of an array of indices into that edge array. This removes the per-vertex copy-on-write
+     * sets and keeps the edges of neighboring vertices close together in memory. It should be
+     * called once the graph is complete, e.g. after loading; vertices whose edge lists are
+     * modified afterward simply switch back to individual mutable sets.
+     */
+    public void compactAdjacency() {
+        List<Vertex> sorted = new ArrayList<Vertex>(getVertices());
+        Collections.sort(sorted, VERTEX_INDEX_ORDER);
+        int nVertices = sorted.size();
+        int[] outOffsets = new int[nVertices + 1];
+        int nEdges = 0;
+        for (int i = 0; i < nVertices; ++i) {
+            outOffsets[i] = nEdges;
+            nEdges += sorted.get(i).getDegreeOut();
+        }
+        outOffsets[nVertices] = nEdges;
+        Edge[] edgeArray = new Edge[nEdges];
+        Map<Edge, Integer> edgeIndex = new IdentityHashMap<Edge, Integer>(nEdges);
+        Edge[][] outgoing = new Edge[nVertices][];
+        int ei = 0;
+        for (int i = 0; i < nVertices; ++i) {
+            // copy-on-write lists give a consistent snapshot
+            outgoing[i] = sorted.get(i).getOutgoing().toArray(new Edge[0]);
+            if (outgoing[i].length != outOffsets[i + 1] - outOffsets[i]) {
+                LOG.warn("edge list of {} changed during compaction, not compacting adjacency.",
+                        sorted.get(i));
+                return;
+            }
+            for (Edge e : outgoing[i]) {
+                edgeIndex.put(e, ei);
+                edgeArray[ei++] = e;
+            }
+        }
+        int[] inOffsets = new int[nVertices + 1];
+        int nIncoming = 0;
+        Edge[][] incoming = new Edge[nVertices][];
+        for (int i = 0; i < nVertices; ++i) {
+            inOffsets[i] = nIncoming;
+            incoming[i] = sorted.get(i).getIncoming().toArray(new Edge[0]);
+            nIncoming += incoming[i].length;
+        }
+        inOffsets[nVertices] = nIncoming;
+        int[] inEdgeIndices = new int[nIncoming];
+        boolean[] incomingIndexed = new boolean[nVertices];
+        for (int i = 0; i < nVertices; ++i) {
+            int k = inOffsets[i];
+            incomingIndexed[i] = true;
+            for (Edge e : incoming[i]) {
+                Integer index = edgeIndex.get(e);
+                if (index == null) {
+                    // incoming edge that is not in any outgoing list, keep the mutable set
+                    incomingIndexed[i] = false;
+                    break;
+                }
+                inEdgeIndices[k++] = index;
+            }
+        }
+        for (int i = 0; i < nVertices; ++i) {
+            Vertex v = sorted.get(i);
+            if ( ! (v instanceof AbstractVertex))
+                continue;
+            CompactEdgeList out = new CompactEdgeList(edgeArray, null, 
+                    outOffsets[i], outOffsets[i + 1]);
+            CompactEdgeList in = null;
+            if (incomingIndexed[i])
+                in = new CompactEdgeList(edgeArray, inEdgeIndices, inOffsets[i], inOffsets[i + 1]);
+            ((AbstractVertex) v).setCompactEdgeLists(out, in);
+        }
+        LOG.debug("compacted adjacency of {} vertices and {} edges", nVertices, nEdges);
     }
 
     public void addBuilderAnnotation(GraphBuilderAnnotation gba) {
@@ -301,25 +510,50 @@ public class Graph implements Serializable {
         BASIC, FULL, NO_HIERARCHIES, DEBUG;
     }
     
+    /**
+     * Load a graph from a file. The file is memory-mapped rather than read through a stream, so
+     * only the pages belonging to the sections requested by the given LoadLevel are ever touched,
+     * and several processes loading the same graph file share the operating system page cache.
+     */
     public static Graph load(File file, LoadLevel level) 
         throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream (new FileInputStream(file));
+        ObjectInputStream in = new ObjectInputStream(openGraphFile(file));
         return load(in, level);
     }
     
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level) 
         throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " with alternate classloader ...");
-        ObjectInputStream in = new GraphObjectInputStream(
-                new BufferedInputStream (new FileInputStream(file)), classLoader);
+        ObjectInputStream in = new GraphObjectInputStream(openGraphFile(file), classLoader);
         return load(in, level);
     }
 
+    /** 
+     * Map the given graph file into memory, falling back on a buffered stream for files that
+     * are too large to fit in a single mapping. 
+     */
+    private static InputStream openGraphFile(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        FileChannel channel = fis.getChannel();
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            LOG.debug("graph file is larger than 2GB, not mapping it into memory.");
+            return new BufferedInputStream(fis, 1 << 16);
+        }
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedInputStream(buffer);
+        } finally {
+            // the mapping remains valid after the channel is closed
+            fis.close();
+        }
+    }
+
     public static Graph load(InputStream is, LoadLevel level) 
     	throws ClassNotFoundException, IOException {
-    	return load(new ObjectInputStream(is), level);
+    	return load(new ObjectInputStream(new BufferedInputStream(is, 1 << 16)), level);
     }
 
     @SuppressWarnings("unchecked")
@@ -336,7 +570,8 @@ public class Graph implements Serializable {
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
             List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();;
+            // most vertices have more than one outgoing edge, so this should avoid rehashing
+            graph.vertices = new ConcurrentHashMap<String, Vertex>(edges.size());
             for (Edge e : edges) {
                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
                graph.vertices.put(e.getToVertex().getLabel(),   e.getToVertex());
@@ -347,17 +582,20 @@ public class Graph implements Serializable {
             LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
             graph.streetIndex = new StreetVertexIndexServiceImpl(graph);
             LOG.debug("street index built.");
-            if (level == LoadLevel.NO_HIERARCHIES)
-                return graph;
-            graph.hierarchies = (ContractionHierarchySet) in.readObject();
-            if (graph.hierarchies != null)
-                LOG.debug("Contraction hierarchies read.");
-            if (level == LoadLevel.FULL)
+            edges = null;
+            if (level != LoadLevel.NO_HIERARCHIES) {
+                graph.hierarchies = (ContractionHierarchySet) in.readObject();
+                if (graph.hierarchies != null)
+                    LOG.debug("Contraction hierarchies read.");
+            }
+            // deserializing shortcuts adds them to vertices, so this must come after hierarchies
+            graph.compactAdjacency();
+            LOG.debug("Adjacency arrays built.");
+            if (level != LoadLevel.DEBUG)
                 return graph;
-            graph.vertexById = (List<Vertex>) in.readObject();
-            graph.edgeById = (Map<Integer, Edge>) in.readObject();
-            graph.idForEdge = (Map<Edge, Integer>) in.readObject();
-            LOG.debug("Debug info read.");
+            // vertex indices are saved with the graph, the debug tables are derived from them
+            graph.rebuildDebugTables();
+            LOG.debug("Debug info rebuilt.");
             return graph;
         } catch (InvalidClassException ex) {
             LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
@@ -404,26 +642,26 @@ public class Graph implements Serializable {
         ObjectOutputStream out = new ObjectOutputStream(
                 new BufferedOutputStream(new FileOutputStream(file)));
         try {
+            LOG.debug("Assigning vertex/edge ID numbers...");
+            this.renumberVerticesAndEdges();
+            this.buildId = UUID.randomUUID().toString();
             LOG.debug("Consolidating edges...");
             // this is not space efficient
             List<Edge> edges = new ArrayList<Edge>(this.countEdges());
-            for (Vertex v : getVertices()) {
+            // write out edges in vertex index order, so that spatially close vertices and edges
+            // also end up close to one another in the file and in memory once loaded
+            for (Vertex v : this.vertexById) {
                 // there are assumed to be no edges in an incoming list that are not in an outgoing
                 // list
                 edges.addAll(v.getOutgoing());
                 if (v.getDegreeOut() + v.getDegreeIn() == 0)
                     LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
             }
-            LOG.debug("Assigning vertex/edge ID numbers...");
-            this.renumberVerticesAndEdges();
             LOG.debug("Writing edges...");
             out.writeObject(this);
             out.writeObject(edges);
             out.writeObject(this.hierarchies);
-            LOG.debug("Writing debug data...");
-            out.writeObject(this.vertexById);
-            out.writeObject(this.edgeById);
-            out.writeObject(this.idForEdge);
+            // no debug data is written: vertex/edge ID tables are rebuilt from vertex indices
             out.close();
         } catch (RuntimeException e) {
             out.close();
@@ -450,6 +688,42 @@ public class Graph implements Serializable {
         }
     }
 
+    /** An InputStream reading from a memory-mapped graph file. */
+    private static class MappedInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        public MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        @Override
+        public int read() {
+            if ( ! buffer.hasRemaining())
+                return -1;
+            return buffer.get() & 0xFF;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            int remaining = buffer.remaining();
+            if (remaining == 0)
+                return -1;
+            if (len > remaining)
+                len = remaining;
+            buffer.get(b, off, len);
+            return len;
+        }
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
     public Integer getIdForEdge(Edge edge) {
         return idForEdge.get(edge);
     }
@@ -489,6 +763,48 @@ public class Graph implements Serializable {
         return agencies;
     }
 
+    /**
+     * Get the integer code of a service id, assigning it a new one if it has none yet. Codes are
+     * numbered densely from zero, so that the services running on a day can be kept in a bitset.
+     */
+    public synchronized int getServiceCode(AgencyAndId serviceId) {
+        Integer code = serviceCodes.get(serviceId);
+        if (code == null) {
+            code = serviceCodes.size();
+            serviceCodes.put(serviceId, code);
+            // service days made earlier do not know about the new code
+            serviceDays.clear();
+        }
+        return code;
+    }
+
+    /** @return the integer codes of all service ids, indexed by service id */
+    public synchronized Map<AgencyAndId, Integer> getServiceCodes() {
+        return new HashMap<AgencyAndId, Integer>(serviceCodes);
+    }
+
+    /**
+     * Get the service day of the given agency containing the given time, reusing the one made for
+     * an earlier request on the same date when there is one.
+     * 
+     * @param time in seconds since the epoch
+     */
+    public ServiceDay getServiceDay(long time, String agencyId) {
+        CalendarService cs = getCalendarService();
+        TimeZone timeZone = cs.getTimeZoneForAgencyId(agencyId);
+        ServiceDate date = new ServiceDate(ServiceDay.calendarFor(time, timeZone));
+        T2<String, ServiceDate> key = new T2<String, ServiceDate>(agencyId, date);
+        ServiceDay serviceDay = serviceDays.get(key);
+        if (serviceDay == null) {
+            Set<AgencyAndId> serviceIds = cs.getServiceIdsOnDate(date);
+            synchronized (this) {
+                serviceDay = new ServiceDay(date, timeZone, serviceIds, serviceCodes);
+                serviceDays.put(key, serviceDay);
+            }
+        }
+        return serviceDay;
+    }
+
     public void addAgencyId(String agency) {
         agencies.add(agency);
     }
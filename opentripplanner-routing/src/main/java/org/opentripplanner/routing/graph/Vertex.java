@@ -97,6 +97,13 @@ public interface Vertex extends Serializable, Cloneable, Pointlike {
      */
     public abstract int removeTemporaryEdges();
 
+    /**
+     * @return whether this vertex was made for a single request rather than being part of a graph.
+     *         Edges between a temporary vertex and a graph vertex are only added to the edge lists 
+     *         of the temporary vertex, so that the graph is never modified by requests.
+     */
+    public abstract boolean isTemporary();
+
     /** Trim edge lists */
     public abstract void compact();
 
@@ -13,10 +13,19 @@
 
 package org.opentripplanner.routing.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
 import javax.annotation.PostConstruct;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
@@ -28,6 +37,12 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
 
+/**
+ * Loads graphs from files on first request, and reloads them in the background when refreshed.
+ * Requests find their graph in a map that is never modified once published, so they do not lock;
+ * loading or replacing a graph publishes a modified copy of it. A replaced graph keeps serving the
+ * searches already using it, and drops its caches once they are finished.
+ */
 @Scope("singleton")
 public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
 
@@ -35,7 +50,11 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
 
     private String resourcePattern;
 
-    private Map<String, Graph> graphs = new HashMap<String, Graph>();
+    /* the loaded graphs by resource name, replaced whole rather than modified */
+    private volatile Map<String, Graph> graphs = Collections.emptyMap();
+
+    /* held while loading a graph that is not loaded yet, so that it is only loaded once */
+    private final Object loadLock = new Object();
 
     private LoadLevel loadLevel;
     
@@ -45,6 +64,12 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
 
     private boolean preloadGraphs = true;
 
+    private boolean precomputeLowerBounds = false;
+
+    private ExecutorService lowerBoundExecutor;
+
+    private ExecutorService reloadExecutor;
+
     public void setPath(String path) {
         this.resourcePattern = "file:".concat(path);
     }
@@ -65,9 +90,50 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
 		this.resourcePattern = resource;
 	}
 
+    /**
+     * Build the lower bound graphs used by the LBG heuristics in the background as soon as a graph
+     * is loaded, rather than during the first request that needs them. Only worth enabling when
+     * one of the LBG heuristics is configured, since they take a lot of memory.
+     */
+    public void setPrecomputeLowerBounds(boolean precomputeLowerBounds) {
+        this.precomputeLowerBounds = precomputeLowerBounds;
+    }
+
+    /**
+     * Reload all loaded graphs from their files in the background. Each graph keeps serving
+     * requests until its replacement is loaded, and a graph that fails to load is kept.
+     */
     @Override
     public void refreshGraphs() {
-        //////////////////
+        reloadGraphs();
+    }
+
+    /**
+     * Start reloading all loaded graphs in the background, as {@link #refreshGraphs} does.
+     * 
+     * @return the reloads, each giving the new graph, or null if it could not be loaded
+     */
+    public List<Future<Graph>> reloadGraphs() {
+        List<Future<Graph>> reloads = new ArrayList<Future<Graph>>();
+        for (final String resourceName : graphs.keySet()) {
+            reloads.add(getReloadExecutor().submit(new Callable<Graph>() {
+                @Override
+                public Graph call() {
+                    try {
+                        LOG.info("reloading graph from {}", resourceName);
+                        Graph graph = loadGraph(openGraph(resourceName), resourceName);
+                        putGraph(resourceName, graph);
+                        LOG.info("reloaded graph from {}", resourceName);
+                        return graph;
+                    } catch (Exception e) {
+                        LOG.error("error reloading graph from " + resourceName
+                                + ", keeping the loaded graph", e);
+                        return null;
+                    }
+                }
+            }));
+        }
+        return reloads;
     }
 
     @PostConstruct // This means it will run on startup
@@ -83,7 +149,7 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
     }
 
     @Override
-    public synchronized Graph getGraph(String routerId) {
+    public Graph getGraph(String routerId) {
     	if (routerId == null || routerId.isEmpty()) {
     		routerId = defaultRouterId;    		
     		LOG.debug("routerId not specified, set to default of '{}'", routerId);
@@ -98,12 +164,19 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
         }
         LOG.debug("graph for routerId '{}' is at {}", routerId, resourceName);
         graph = graphs.get(resourceName);
-        if (graph == null) {
+        if (graph != null) {
+            LOG.debug("returning cached graph {} for routerId '{}'", graph, routerId);
+            return graph;
+        }
+        synchronized (loadLock) {
+            // another request may have loaded it while this one was waiting
+            graph = graphs.get(resourceName);
+            if (graph != null)
+                return graph;
             LOG.debug("this graph was not yet loaded");
             InputStream is;
             try {
-                Resource resource = resourceLoader.getResource(resourceName.concat("/Graph.obj"));
-                is = resource.getInputStream();
+                is = openGraph(resourceName);
             } catch (Exception e) {
                 LOG.warn("graph file not found or not openable at {}", resourceName);
                 if (routerId.equals(defaultRouterId)) {
@@ -114,20 +187,39 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
                 }
                 return getGraph(null); // fall back on default if graph does not exist
             }
-            try {
-            	graph = Graph.load(is, LoadLevel.FULL);
-            	// key on resource name instead of routerId so fallbacks to defaultRouterId will all yield the same Graph
-                graphs.put(resourceName, graph);
-            } catch (Exception ex) {
-                LOG.error("Exception while loading graph from {}.", resourceName);
-                throw new RuntimeException("error loading graph from " + resourceName, ex);
-            }
-        } else {
-            LOG.debug("returning cached graph {} for routerId '{}'", graph, routerId);
+            graph = loadGraph(is, resourceName);
+            // key on resource name instead of routerId so fallbacks to defaultRouterId will all yield the same Graph
+            putGraph(resourceName, graph);
         }
         return graph;
     }
 
+    private InputStream openGraph(String resourceName) throws Exception {
+        Resource resource = resourceLoader.getResource(resourceName.concat("/Graph.obj"));
+        return resource.getInputStream();
+    }
+
+    private Graph loadGraph(InputStream is, String resourceName) {
+        try {
+            Graph graph = Graph.load(is, LoadLevel.FULL);
+            if (precomputeLowerBounds)
+                graph.getLowerBoundGraphs().precompute(getLowerBoundExecutor());
+            return graph;
+        } catch (Exception ex) {
+            LOG.error("Exception while loading graph from {}.", resourceName);
+            throw new RuntimeException("error loading graph from " + resourceName, ex);
+        }
+    }
+
+    /* publish a copy of the graphs with this one added, retiring the graph it replaces */
+    private synchronized void putGraph(String resourceName, Graph graph) {
+        Map<String, Graph> newGraphs = new HashMap<String, Graph>(graphs);
+        Graph old = newGraphs.put(resourceName, graph);
+        graphs = Collections.unmodifiableMap(newGraphs);
+        if (old != null && old != graph)
+            old.retire();
+    }
+
     @Override
     public void setLoadLevel(LoadLevel level) {
         if (level != loadLevel) {
@@ -145,6 +237,31 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
         return graphs.keySet();
     }
 
+    private synchronized ExecutorService getLowerBoundExecutor() {
+        if (lowerBoundExecutor == null)
+            lowerBoundExecutor = makeBackgroundExecutor("lower-bound-graphs");
+        return lowerBoundExecutor;
+    }
+
+    private synchronized ExecutorService getReloadExecutor() {
+        if (reloadExecutor == null)
+            reloadExecutor = makeBackgroundExecutor("graph-reload");
+        return reloadExecutor;
+    }
+
+    /* a single background thread, which does not keep the JVM alive */
+    private static ExecutorService makeBackgroundExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
 	@Override
 	public void setResourceLoader(ResourceLoader rl) {
 		this.resourceLoader = rl;
@@ -17,7 +17,6 @@ import org.opentripplanner.routing.algorithm.strategies.DefaultRemainingWeightHe
 import org.opentripplanner.routing.algorithm.strategies.LBGRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.core.RoutingRequest;
-import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.RemainingWeightHeuristicFactory;
 import org.slf4j.Logger;
@@ -46,10 +45,11 @@ public class LBGRemainingWeightHeuristicFactoryImpl implements
 
 	@Override
 	public RemainingWeightHeuristic getInstanceForSearch(RoutingRequest opt) {
-	        Vertex target = opt.rctx.target;
 		if (opt.getModes().isTransit()) {
 			LOG.debug("Transit itinerary requested.");
-			return new LBGRemainingWeightHeuristic(_graphService.getGraph(), opt);
+			// the routing context of the request is still being made
+			return new LBGRemainingWeightHeuristic(
+			        _graphService.getGraph(opt.getRouterId()), opt);
 		} else {
 			LOG.debug("Non-transit itinerary requested.");
 			return new DefaultRemainingWeightHeuristic();
@@ -0,0 +1,53 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.routing.algorithm.strategies.DefaultRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
+import org.opentripplanner.routing.core.LandmarkTable;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.RemainingWeightHeuristicFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * This RemainingWeightHeuristicFactory returns a landmark (ALT) heuristic instance for non-transit
+ * searches on graphs built with a LandmarkTable, and a Euclidean heuristic instance otherwise.
+ * Transit searches keep the Euclidean heuristic because transit edges are not part of the landmark
+ * distances.
+ */
+public class LandmarkRemainingWeightHeuristicFactoryImpl implements
+        RemainingWeightHeuristicFactory {
+
+    private GraphService _graphService;
+
+    @Autowired
+    public LandmarkRemainingWeightHeuristicFactoryImpl(GraphService gs) {
+        _graphService = gs;
+    }
+
+    @Override
+    public RemainingWeightHeuristic getInstanceForSearch(RoutingRequest opt) {
+        if (!opt.getModes().isTransit()) {
+            Graph graph = _graphService.getGraph(opt.getRouterId());
+            LandmarkTable landmarks = graph == null ? null : graph.getService(LandmarkTable.class);
+            if (landmarks != null)
+                return new LandmarkRemainingWeightHeuristic(landmarks);
+        }
+        return new DefaultRemainingWeightHeuristic();
+    }
+
+}
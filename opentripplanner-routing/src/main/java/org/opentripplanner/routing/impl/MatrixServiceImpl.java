@@ -0,0 +1,249 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.routing.contraction.CompactHierarchy;
+import org.opentripplanner.routing.contraction.CompactHierarchy.DestinationBuckets;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.location.StreetLocation;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.MatrixService;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Computes travel time matrices with the contraction hierarchy of the graph when there is one for
+ * the request, using the bucket method: one upward search per destination and one per origin,
+ * rather than a search per pair. Otherwise, and for transit, it runs one batch search per origin
+ * and reads the destinations off its shortest path tree. These searches run on a pool of worker
+ * threads, but each one still explores the whole reachable graph, so only the hierarchy is fast
+ * for large matrices.
+ *
+ * Places are snapped to the nearest end of the closest street rather than to a temporary vertex
+ * splitting it, so that both methods search between the same permanent vertices.
+ */
+@Component
+public class MatrixServiceImpl implements MatrixService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MatrixServiceImpl.class);
+
+    private GraphService graphService;
+
+    private SPTService sptService;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "matrix-search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    @Autowired
+    public void setGraphService(GraphService graphService) {
+        this.graphService = graphService;
+    }
+
+    @Autowired
+    public void setSptService(SPTService sptService) {
+        this.sptService = sptService;
+    }
+
+    @Override
+    public void getMatrix(RoutingRequest options, List<Coordinate> origins,
+            List<Coordinate> destinations, RowHandler handler) {
+        Graph graph = graphService.getGraph(options.getRouterId());
+        List<Vertex> originVertices = snap(graph, origins, options);
+        List<Vertex> destinationVertices = snap(graph, destinations, options);
+        long t0 = System.currentTimeMillis();
+        CompactHierarchy compact = getCompactHierarchy(graph, options);
+        if (compact != null)
+            getMatrix(compact, originVertices, destinationVertices, handler);
+        else
+            getMatrix(graph, options, originVertices, destinationVertices, handler);
+        LOG.debug("computed {}x{} matrix in {} msec", new Object[] { origins.size(),
+                destinations.size(), System.currentTimeMillis() - t0 });
+    }
+
+    private CompactHierarchy getCompactHierarchy(Graph graph, RoutingRequest options) {
+        ContractionHierarchySet hierarchies = graph.getHierarchies();
+        if (hierarchies == null || options.getModes().isTransit())
+            return null;
+        return hierarchies.getCompactHierarchy(options);
+    }
+
+    /** Many-to-many queries on the hierarchy, one row per upward search from an origin. */
+    private void getMatrix(CompactHierarchy compact, List<Vertex> origins,
+            List<Vertex> destinations, RowHandler handler) {
+        // destinations that could not be snapped are not in the hierarchy, and are never reached
+        DestinationBuckets buckets = compact.getBuckets(destinations);
+        double[] weights = new double[destinations.size()];
+        double[] durations = new double[destinations.size()];
+        for (int o = 0; o < origins.size(); o++) {
+            compact.getRow(buckets, origins.get(o), weights, durations);
+            handler.handleRow(o, weights, durations);
+        }
+    }
+
+    /**
+     * One batch search per origin, departing at the time of the request. The searches run on the
+     * executor, a few origins ahead of the row being handed to the handler.
+     */
+    private void getMatrix(final Graph graph, final RoutingRequest options,
+            final List<Vertex> origins, final List<Vertex> destinations, RowHandler handler) {
+        int ahead = 2 * Runtime.getRuntime().availableProcessors();
+        LinkedList<Future<double[][]>> rows = new LinkedList<Future<double[][]>>();
+        int next = 0;
+        try {
+            for (int o = 0; o < origins.size(); o++) {
+                while (next < origins.size() && next < o + ahead) {
+                    final Vertex origin = origins.get(next++);
+                    rows.add(executor.submit(new Callable<double[][]>() {
+                        public double[][] call() {
+                            return getRow(graph, options, origin, destinations);
+                        }
+                    }));
+                }
+                double[][] row = getResult(rows.removeFirst());
+                handler.handleRow(o, row[0], row[1]);
+            }
+        } finally {
+            for (Future<double[][]> row : rows)
+                row.cancel(true);
+        }
+    }
+
+    /** @return the weights and durations from one origin to each destination */
+    private double[][] getRow(Graph graph, RoutingRequest options, Vertex origin,
+            List<Vertex> destinations) {
+        double[] weights = new double[destinations.size()];
+        double[] durations = new double[destinations.size()];
+        fillUnreachable(weights, durations);
+        if (origin != null) {
+            RoutingRequest req = options.clone();
+            req.setArriveBy(false);
+            req.setBatch(true);
+            req.setRoutingContext(graph, origin, origin);
+            ShortestPathTree spt;
+            try {
+                spt = sptService.getShortestPathTree(req);
+            } finally {
+                req.cleanup();
+            }
+            if (spt != null) {
+                for (int d = 0; d < destinations.size(); d++) {
+                    Vertex destination = destinations.get(d);
+                    State state = destination == null ? null : spt.getState(destination);
+                    if (state != null) {
+                        weights[d] = state.getWeight();
+                        durations[d] = state.getElapsedTime();
+                    }
+                }
+            }
+        }
+        return new double[][] { weights, durations };
+    }
+
+    private static double[][] getResult(Future<double[][]> row) {
+        try {
+            return row.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while computing matrix", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void fillUnreachable(double[] weights, double[] durations) {
+        for (int d = 0; d < weights.length; d++) {
+            weights[d] = Double.POSITIVE_INFINITY;
+            durations[d] = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /** @return the vertex for each coordinate, or null for coordinates away from any street */
+    private List<Vertex> snap(Graph graph, List<Coordinate> coordinates, RoutingRequest options) {
+        List<Vertex> vertices = new ArrayList<Vertex>(coordinates.size());
+        for (Coordinate c : coordinates) {
+            Vertex v = graph.streetIndex.getClosestVertex(c, null, options);
+            if (v instanceof StreetLocation) {
+                StreetLocation location = (StreetLocation) v;
+                v = getNearestPermanentVertex(graph, location, c);
+                location.removeTemporaryEdges();
+            }
+            if (v == null)
+                LOG.warn("no street near {}", c);
+            vertices.add(v);
+        }
+        return vertices;
+    }
+
+    /* the closest of the graph vertices a street location links to, or of the ends of its streets */
+    private static Vertex getNearestPermanentVertex(Graph graph, StreetLocation location,
+            Coordinate c) {
+        List<Vertex> candidates = new ArrayList<Vertex>();
+        for (Edge e : location.getExtra()) {
+            candidates.add(e.getFromVertex());
+            candidates.add(e.getToVertex());
+        }
+        if (location.getSourceEdges() != null) {
+            for (StreetEdge e : location.getSourceEdges()) {
+                candidates.add(e.getFromVertex());
+                candidates.add(e.getToVertex());
+            }
+        }
+        Vertex best = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (Vertex v : candidates) {
+            // skip the temporary vertices splitting streets
+            if (graph.getVertex(v.getLabel()) != v)
+                continue;
+            double distance = DistanceLibrary.fastDistance(c, v.getCoordinate());
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = v;
+            }
+        }
+        return best;
+    }
+
+}
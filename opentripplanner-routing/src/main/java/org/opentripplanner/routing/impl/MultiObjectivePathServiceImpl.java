@@ -18,6 +18,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.opentripplanner.routing.algorithm.GraphLibrary;
 import org.opentripplanner.routing.algorithm.TraverseVisitor;
 import org.opentripplanner.routing.algorithm.strategies.BidirectionalRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
@@ -184,7 +185,9 @@ public class MultiObjectivePathServiceImpl implements PathService {
                     continue QUEUE;
                 }
                 
-                for (Edge e : options.isArriveBy() ? u.getIncoming() : u.getOutgoing()) {
+                for (Edge e : options.isArriveBy() ? 
+                        GraphLibrary.getIncomingEdges(u, options.rctx.getTemporaryEdges()) :
+                        GraphLibrary.getOutgoingEdges(u, options.rctx.getTemporaryEdges())) {
                     STATE: for (State new_sv = e.traverse(su); new_sv != null; new_sv = new_sv.getNextResult()) {
                         if (traverseVisitor != null) {
                             traverseVisitor.visitEdge(e, new_sv);
@@ -237,9 +240,9 @@ public class MultiObjectivePathServiceImpl implements PathService {
         return paths;
     }
 
+    /* the heap in use including garbage, as collecting it first would stall the whole server */
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
-            System.gc();
             long memoryUsed = Runtime.getRuntime().totalMemory() -
                     Runtime.getRuntime().freeMemory();
             store.setLongMax("memoryUsed", memoryUsed);
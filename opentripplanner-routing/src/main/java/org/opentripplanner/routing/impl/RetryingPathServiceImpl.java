@@ -17,12 +17,26 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.common.model.NamedPlace;
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.StateEditor;
@@ -55,6 +69,10 @@ public class RetryingPathServiceImpl implements PathService {
 
     private double firstPathTimeout = 0; // seconds
     private double multiPathTimeout = 0; // seconds
+
+    private int parallelSearchThreads = 0;
+
+    private ExecutorService searchExecutor;
     
     /** Give up on searching for itineraries after this many seconds have elapsed. */
     public void setTimeout (double seconds) {
@@ -82,6 +100,17 @@ public class RetryingPathServiceImpl implements PathService {
         multiPathTimeout = seconds;
     }
 
+    /**
+     * Search for itineraries beyond the first one several at a time, on a pool of this many 
+     * threads. The same searches are run as one at a time, but all of them share a single
+     * multiPathTimeout, counted from the end of the search for the first itinerary. 
+     * The first itinerary yields one retry per trip it uses, which can all run at once.
+     * Zero (the default) means searching for one itinerary at a time on the calling thread.
+     */
+    public void setParallelSearchThreads (int threads) {
+        parallelSearchThreads = threads;
+    }
+
     @Override
     public List<GraphPath> getPaths(RoutingRequest options) {
 
@@ -110,80 +139,108 @@ public class RetryingPathServiceImpl implements PathService {
         double maxWeight = Double.MAX_VALUE;
         double maxWalk = options.getMaxWalkDistance();
         long maxTime = options.isArriveBy() ? 0 : Long.MAX_VALUE;
-        RoutingRequest currOptions;
+        long parallelDeadline = Long.MAX_VALUE;
         while (paths.size() < options.numItineraries) {
-            currOptions = optionQueue.poll();
-            if (currOptions == null) {
+            // the first search is always run alone, since it determines the limits for the others
+            int batchSize = paths.isEmpty() ? 1 : Math.max(1, parallelSearchThreads);
+            List<RoutingRequest> batch = new ArrayList<RoutingRequest>(batchSize);
+            while (batch.size() < batchSize && !optionQueue.isEmpty())
+                batch.add(optionQueue.poll());
+            if (batch.isEmpty()) {
                 LOG.debug("Ran out of options to try.");
                 break;
             }
-            currOptions.setMaxWalkDistance(maxWalk);
-            
-            // apply appropriate timeout
-            double timeout = paths.isEmpty() ? firstPathTimeout : multiPathTimeout;
+            for (RoutingRequest currOptions : batch)
+                currOptions.setMaxWalkDistance(maxWalk);
             
             // options.worstTime = maxTime;
             //options.maxWeight = maxWeight;
             long subsearchBeginTime = System.currentTimeMillis();
             
             LOG.debug("BEGIN SUBSEARCH");
-            ShortestPathTree spt = sptService.getShortestPathTree(currOptions, timeout);
-            if (spt == null) // timeout or other fail
-                break;
-            List<GraphPath> somePaths = spt.getPaths();
-            LOG.debug("END SUBSEARCH ({} msec of {} msec total)", 
-                    System.currentTimeMillis() - subsearchBeginTime,
-                    System.currentTimeMillis() - searchBeginTime);
-            if (somePaths == null) {
-                // search failed, likely due to timeout
-                // this could be signaled with an exception
-                LOG.warn("Aborting search. {} paths found, elapsed time {} sec", 
-                        paths.size(), (System.currentTimeMillis() - searchBeginTime) / 1000.0);
-                break;
+            List<List<GraphPath>> results;
+            if (parallelSearchThreads > 0 && !paths.isEmpty()) {
+                results = searchConcurrently(batch, parallelDeadline);
+            } else {
+                // apply appropriate timeout
+                double timeout = paths.isEmpty() ? firstPathTimeout : multiPathTimeout;
+                results = Collections.singletonList(search(batch.get(0), timeout));
             }
-            if (maxWeight == Double.MAX_VALUE) {
-                /* the worst trip we are willing to accept is at most twice as bad or twice as long */
-                if (somePaths.isEmpty()) {
-                    // if there is no first path, there won't be any other paths
-                    return null;
-                }
-                GraphPath path = somePaths.get(0);
-                long duration = path.getDuration();
-                LOG.debug("Setting max time and weight for subsequent searches.");
-                LOG.debug("First path start time:  {}", path.getStartTime());
-                maxTime = path.getStartTime() + 
-                		  MAX_TIME_FACTOR * (currOptions.isArriveBy() ? -duration : duration);
-                LOG.debug("First path duration:  {}", duration);
-                LOG.debug("Max time set to:  {}", maxTime);
-                maxWeight = path.getWeight() * MAX_WEIGHT_FACTOR;
-                LOG.debug("Max weight set to:  {}", maxWeight);
-                if (path.getWalkDistance() > maxWalk) {
-                    maxWalk = path.getWalkDistance() * 1.25;
+            LOG.debug("END SUBSEARCH ({} searches, {} msec of {} msec total)", new Object[] {
+                    batch.size(), System.currentTimeMillis() - subsearchBeginTime,
+                    System.currentTimeMillis() - searchBeginTime });
+            // merge results in the order the options were queued, as a sequential search would
+            boolean aborted = false;
+            for (int i = 0; i < batch.size() && paths.size() < options.numItineraries; ++i) {
+                RoutingRequest currOptions = batch.get(i);
+                List<GraphPath> somePaths = results.get(i);
+                if (somePaths == null) {
+                    // search failed, likely due to timeout
+                    // this could be signaled with an exception
+                    LOG.warn("Aborting search. {} paths found, elapsed time {} sec", 
+                            paths.size(), (System.currentTimeMillis() - searchBeginTime) / 1000.0);
+                    aborted = true;
+                    break;
                 }
-            }
-            if (somePaths.isEmpty()) {
-                LOG.debug("No paths were found.");
-                continue;
-            }
-            for (GraphPath path : somePaths) {
-                if (!paths.contains(path)) {
+                if (maxWeight == Double.MAX_VALUE) {
+                    /* the worst trip we are willing to accept is at most twice as bad or twice as long */
+                    if (somePaths.isEmpty()) {
+                        // if there is no first path, there won't be any other paths
+                        return null;
+                    }
+                    GraphPath path = somePaths.get(0);
+                    long duration = path.getDuration();
+                    LOG.debug("Setting max time and weight for subsequent searches.");
+                    LOG.debug("First path start time:  {}", path.getStartTime());
+                    maxTime = path.getStartTime() + 
+                    		  MAX_TIME_FACTOR * (currOptions.isArriveBy() ? -duration : duration);
+                    LOG.debug("First path duration:  {}", duration);
+                    LOG.debug("Max time set to:  {}", maxTime);
+                    maxWeight = path.getWeight() * MAX_WEIGHT_FACTOR;
+                    LOG.debug("Max weight set to:  {}", maxWeight);
                     if (path.getWalkDistance() > maxWalk) {
                         maxWalk = path.getWalkDistance() * 1.25;
                     }
-                    paths.add(path);
-                    // now, create a list of options, one with each trip in this journey banned.
+                    parallelDeadline = DateUtils.absoluteTimeout(multiPathTimeout);
+                }
+                if (somePaths.isEmpty()) {
+                    LOG.debug("No paths were found.");
+                    continue;
+                }
+                for (GraphPath path : somePaths) {
+                    if (!paths.contains(path)) {
+                        if (path.getWalkDistance() > maxWalk) {
+                            maxWalk = path.getWalkDistance() * 1.25;
+                        }
+                        paths.add(path);
+                        // now, create a list of options, one with each trip in this journey banned.
 
-                    LOG.debug("New trips: {}", path.getTrips());
-                    RoutingRequest newOptions = currOptions.clone();
-                    for (AgencyAndId trip : path.getTrips()) {
-                        newOptions.bannedTrips.add(trip);
-                    }
-                    if (!optionQueue.contains(newOptions)) {
-                        optionQueue.add(newOptions);
+                        List<AgencyAndId> trips = path.getTrips();
+                        LOG.debug("New trips: {}", trips);
+                        RoutingRequest newOptions = currOptions.clone();
+                        for (AgencyAndId trip : trips) {
+                            newOptions.bannedTrips.add(trip);
+                        }
+                        if (!optionQueue.contains(newOptions)) {
+                            optionQueue.add(newOptions);
+                        }
+                        if (paths.size() == 1) {
+                            // also ban each trip of the first itinerary on its own, so that
+                            // there are several retries which do not depend on each other
+                            for (AgencyAndId trip : new LinkedHashSet<AgencyAndId>(trips)) {
+                                newOptions = currOptions.clone();
+                                newOptions.bannedTrips.add(trip);
+                                if (!optionQueue.contains(newOptions)) {
+                                    optionQueue.add(newOptions);
+                                }
+                            }
+                        }
                     }
                 }
+                LOG.debug("{} / {} itineraries", paths.size(), currOptions.numItineraries);
             }
-            LOG.debug("{} / {} itineraries", paths.size(), currOptions.numItineraries);
+            if (aborted)
+                break;
         }
         if (paths.size() == 0) {
             return null;
@@ -193,4 +250,96 @@ public class RetryingPathServiceImpl implements PathService {
         return paths;
     }
 
+    /** @return the paths found by a search, or null if it failed or timed out. */
+    private List<GraphPath> search(RoutingRequest currOptions, double timeout) {
+        ShortestPathTree spt = sptService.getShortestPathTree(currOptions, timeout);
+        if (spt == null) // timeout or other fail
+            return null;
+        List<GraphPath> somePaths = spt.getPaths();
+        // paths hold on to their own states, the tree's storage can be reused
+        SearchWorkspace.recycle(spt);
+        return somePaths;
+    }
+
+    /**
+     * Run one search for each of the given options on the search executor, all of which must be
+     * finished by the given deadline (in milliseconds since the epoch).
+     * 
+     * @return the paths found by each search, in the order of the options, with null for the
+     *         searches that failed or did not finish in time.
+     */
+    private List<List<GraphPath>> searchConcurrently(List<RoutingRequest> batch, 
+            final long deadline) {
+        ExecutorService executor = getSearchExecutor();
+        List<Future<List<GraphPath>>> futures = 
+                new ArrayList<Future<List<GraphPath>>>(batch.size());
+        for (final RoutingRequest currOptions : batch) {
+            // routing contexts hold per-search caches and cannot be shared between threads
+            currOptions.rctx = currOptions.rctx.forConcurrentSearch(currOptions);
+            futures.add(executor.submit(new Callable<List<GraphPath>>() {
+                @Override
+                public List<GraphPath> call() {
+                    // the search may have been queued for a while, so the timeout is set here
+                    double timeout = 0;
+                    if (deadline != Long.MAX_VALUE) {
+                        timeout = (deadline - System.currentTimeMillis()) / 1000.0;
+                        if (timeout <= 0)
+                            return null;
+                    }
+                    return search(currOptions, timeout);
+                }
+            }));
+        }
+        List<List<GraphPath>> results = new ArrayList<List<GraphPath>>(batch.size());
+        for (Future<List<GraphPath>> future : futures) {
+            List<GraphPath> somePaths = null;
+            try {
+                if (deadline == Long.MAX_VALUE) {
+                    somePaths = future.get();
+                } else {
+                    long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                    somePaths = future.get(remaining, TimeUnit.MILLISECONDS);
+                }
+            } catch (TimeoutException e) {
+                future.cancel(true);
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOG.warn("Search for an additional itinerary failed.", e.getCause());
+            }
+            results.add(somePaths);
+        }
+        return results;
+    }
+
+    /** Stop the threads of the parallel searches, if any were started. */
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (searchExecutor != null) {
+            searchExecutor.shutdownNow();
+            searchExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService getSearchExecutor() {
+        if (searchExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelSearchThreads, 
+                    parallelSearchThreads, 60, TimeUnit.SECONDS, 
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadCount = new AtomicInteger();
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, 
+                                    "path-search-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            searchExecutor = executor;
+        }
+        return searchExecutor;
+    }
+
 }
@@ -0,0 +1,193 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.raptor;
+
+import java.util.Arrays;
+
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.raptor.RaptorSearch.DepartureListener;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Travel times from one origin to every street vertex over a window of departure times, such as
+ * every minute between 7 and 9 in the morning, for accessibility analysis. Since transit travel
+ * times depend on when one leaves, a single departure time says little about how well a place is
+ * served; this summarizes all of them as percentiles.
+ *
+ * Rather than searching from each departure time separately, the round-based search is swept over
+ * the window latest first, reusing the labels of later departures (see RaptorSearch.sweep). The
+ * arrivals at stops for each departure are then spread onto the streets around the stops, which
+ * are found once for all origins.
+ */
+public class DepartureSweep {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepartureSweep.class);
+
+    public static final int UNREACHED = RaptorSearch.UNREACHED;
+
+    private final RaptorData data;
+
+    private final double maxAccessDistance;
+
+    private StopTrees stopTrees;
+
+    /**
+     * @param maxAccessDistance the maximum distance walked to the first stop and from the last
+     *        one, in meters.
+     */
+    public DepartureSweep(RaptorData data, double maxAccessDistance) {
+        this.data = data;
+        this.maxAccessDistance = maxAccessDistance;
+    }
+
+    /* 
+     * The graph is passed in rather than kept, so that a sweep held in a map keyed by its graph
+     * does not keep that graph alive. 
+     */
+    private synchronized StopTrees getStopTrees(Graph graph) {
+        if (stopTrees == null)
+            stopTrees = new StopTrees(data, graph, maxAccessDistance);
+        return stopTrees;
+    }
+
+    /**
+     * Find the travel times from the origin of the request, for departures every step seconds from
+     * the requested time to the end of the window, and summarize them at each vertex by the given
+     * percentiles: 0 gives the shortest travel time over the window, 0.5 the median and 1 the
+     * longest. A departure from which a vertex cannot be reached counts as infinitely long.
+     *
+     * The request must be a depart-after transit request with its routing context set.
+     *
+     * @return for each percentile, the travel times in seconds indexed by vertex index, UNREACHED
+     *         where they are not finite.
+     */
+    public int[][] getPercentileSurfaces(RoutingRequest options, int window, int step,
+            double[] percentiles) {
+        if (options.isArriveBy() || !options.getModes().isTransit())
+            throw new IllegalArgumentException("only depart-after transit requests are supported");
+        if (step <= 0 || window < 0)
+            throw new IllegalArgumentException("the departure step must be positive");
+        long searchBeginTime = System.currentTimeMillis();
+        StopTrees trees = getStopTrees(options.rctx.graph);
+        int nVertices = trees.countVertices();
+        int nStops = data.countStops();
+
+        int[] directTimes = new int[nVertices];
+        int[] accessTimes = new int[nStops];
+        double[] accessDistances = new double[nStops];
+        accessSearch(options, directTimes, accessTimes, accessDistances);
+
+        // there is no destination; the search only labels stops
+        int[] egressTimes = new int[nStops];
+        Arrays.fill(egressTimes, UNREACHED);
+        RaptorSearch search = new RaptorSearch(data, options, accessTimes, accessDistances,
+                egressTimes, new double[nStops], UNREACHED);
+        final int nDepartures = window / step + 1;
+        final int[][] stopTimes = new int[nDepartures][];
+        search.sweep(window, step, new DepartureListener() {
+            int d = 0;
+
+            @Override
+            public void departure(int departure, int[] stopArrivals) {
+                int[] times = new int[stopArrivals.length];
+                for (int stop = 0; stop < times.length; ++stop) {
+                    int t = stopArrivals[stop];
+                    times[stop] = t == UNREACHED ? UNREACHED : t - departure;
+                }
+                stopTimes[d++] = times;
+            }
+        });
+
+        int[][] surfaces = new int[percentiles.length][nVertices];
+        int[] ranks = new int[percentiles.length];
+        for (int p = 0; p < percentiles.length; ++p) {
+            // the nearest rank, counting from the shortest
+            int rank = (int) Math.ceil(percentiles[p] * nDepartures) - 1;
+            ranks[p] = Math.max(0, Math.min(nDepartures - 1, rank));
+        }
+        double walkSpeed = options.getSpeed(TraverseMode.WALK);
+        int[] times = new int[nDepartures];
+        for (int v = 0; v < nVertices; ++v) {
+            int start = trees.getStart(v);
+            int end = trees.getEnd(v);
+            if (start == end && directTimes[v] == UNREACHED) {
+                for (int[] surface : surfaces)
+                    surface[v] = UNREACHED;
+                continue;
+            }
+            for (int d = 0; d < nDepartures; ++d) {
+                int best = directTimes[v];
+                int[] stopTime = stopTimes[d];
+                for (int e = start; e < end; ++e) {
+                    int t = stopTime[trees.stops[e]];
+                    if (t == UNREACHED)
+                        continue;
+                    t += (int) (trees.distances[e] / walkSpeed);
+                    if (t < best)
+                        best = t;
+                }
+                times[d] = best;
+            }
+            Arrays.sort(times);
+            for (int p = 0; p < ranks.length; ++p)
+                surfaces[p][v] = times[ranks[p]];
+        }
+        LOG.debug("swept {} departures in {} msec", nDepartures, 
+                System.currentTimeMillis() - searchBeginTime);
+        return surfaces;
+    }
+
+    /**
+     * Walk from the origin of the request, recording the time needed to reach each stop and
+     * vertex and the distance walked to each stop.
+     */
+    private void accessSearch(RoutingRequest options, int[] directTimes, int[] accessTimes,
+            double[] accessDistances) {
+        Arrays.fill(directTimes, UNREACHED);
+        Arrays.fill(accessTimes, UNREACHED);
+        RoutingRequest streetOptions = options.clone();
+        streetOptions.setBatch(true);
+        streetOptions.setMaxWalkDistance(Math.min(options.maxWalkDistance, maxAccessDistance));
+        streetOptions.rctx = options.rctx.forConcurrentSearch(streetOptions);
+        ShortestPathTree spt = StreetSearch.search(streetOptions);
+        if (spt == null)
+            return;
+        long t0 = options.getSecondsSinceEpoch();
+        for (State s : spt.getAllStates()) {
+            int duration = (int) Math.abs(s.getTime() - t0);
+            int v = s.getVertex().getIndex();
+            // temporary vertices, such as an origin linked to the streets, have no surface entry
+            if (!s.getVertex().isTemporary() && v < directTimes.length
+                    && duration < directTimes[v])
+                directTimes[v] = duration;
+            if (!(s.getVertex() instanceof TransitStop))
+                continue;
+            int stop = data.getStopIndex(s.getVertex());
+            if (stop >= 0 && duration < accessTimes[stop]) {
+                accessTimes[stop] = duration;
+                accessDistances[stop] = s.getWalkDistance();
+            }
+        }
+        SearchWorkspace.recycle(spt);
+    }
+
+}
@@ -0,0 +1,285 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.raptor;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PatternAlight;
+import org.opentripplanner.routing.edgetype.PatternBoard;
+import org.opentripplanner.routing.edgetype.PreAlightEdge;
+import org.opentripplanner.routing.edgetype.PreBoardEdge;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The transit part of a graph rearranged for the round-based search: stops and trip patterns are
+ * numbered, and each stop knows the patterns serving it and the stops within walking distance.
+ * Walking transfers are taken from the graph's StopTransferTable when it has one, and otherwise
+ * found by street searches the first time a stop is transferred from.
+ *
+ * The data does not refer to its graph, so that it can be cached in a map weakly keyed by the
+ * graph and dropped along with it.
+ */
+public class RaptorData {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorData.class);
+
+    final TransitStop[] stops;
+
+    /** the edge boarding from each stop, or null if vehicles never depart there */
+    final PreBoardEdge[] preBoards;
+
+    /** the edge alighting at each stop, or null if vehicles never arrive there */
+    final PreAlightEdge[] preAlights;
+
+    final RaptorRoute[] routes;
+
+    /** the routes serving each stop, and the position of the stop along each of them */
+    final int[][] stopRoutes;
+
+    final int[][] stopRoutePositions;
+
+    /** the maximum length of a walking transfer between stops, in meters */
+    final double maxTransferDistance;
+
+    /** the walk speed transfer times are computed at, in meters per second */
+    final double transferWalkSpeed;
+
+    private final Map<Vertex, Integer> stopIndices = new IdentityHashMap<Vertex, Integer>();
+
+    private final AtomicReferenceArray<Transfers> transfers;
+
+    public RaptorData(Graph graph, double maxTransferDistance) {
+        this.maxTransferDistance = maxTransferDistance;
+        this.transferWalkSpeed = new RoutingRequest(TraverseMode.WALK).getSpeed(TraverseMode.WALK);
+        List<TransitStop> stopList = new ArrayList<TransitStop>();
+        for (TransitStop stop : IterableLibrary.filter(graph.getVertices(), TransitStop.class))
+            stopList.add(stop);
+        int nStops = stopList.size();
+        stops = stopList.toArray(new TransitStop[nStops]);
+        preBoards = new PreBoardEdge[nStops];
+        preAlights = new PreAlightEdge[nStops];
+        for (int i = 0; i < nStops; ++i) {
+            stopIndices.put(stops[i], i);
+            for (PreBoardEdge e : IterableLibrary.filter(stops[i].getOutgoing(), PreBoardEdge.class)) {
+                preBoards[i] = e;
+                stopIndices.put(e.getToVertex(), i);
+            }
+            for (PreAlightEdge e : IterableLibrary.filter(stops[i].getIncoming(), PreAlightEdge.class)) {
+                preAlights[i] = e;
+                stopIndices.put(e.getFromVertex(), i);
+            }
+        }
+
+        // patterns do not override equals, and are numbered in the order they are first seen
+        Map<TableTripPattern, RaptorRoute> routeForPattern =
+                new LinkedHashMap<TableTripPattern, RaptorRoute>();
+        for (int i = 0; i < nStops; ++i) {
+            if (preBoards[i] != null) {
+                Vertex depart = preBoards[i].getToVertex();
+                for (PatternBoard board : IterableLibrary.filter(depart.getOutgoing(), PatternBoard.class)) {
+                    RaptorRoute route = getRoute(routeForPattern, board.getPattern());
+                    route.boards[board.getStopIndex()] = board;
+                    route.stops[board.getStopIndex()] = i;
+                }
+            }
+            if (preAlights[i] != null) {
+                Vertex arrive = preAlights[i].getFromVertex();
+                for (PatternAlight alight : IterableLibrary.filter(arrive.getIncoming(), PatternAlight.class)) {
+                    RaptorRoute route = getRoute(routeForPattern, alight.getPattern());
+                    route.alights[alight.getStopIndex() + 1] = alight;
+                    route.stops[alight.getStopIndex() + 1] = i;
+                }
+            }
+        }
+        routes = routeForPattern.values().toArray(new RaptorRoute[routeForPattern.size()]);
+
+        int[] routeCount = new int[nStops];
+        for (RaptorRoute route : routes) {
+            for (int stop : route.stops) {
+                if (stop >= 0)
+                    ++routeCount[stop];
+            }
+        }
+        stopRoutes = new int[nStops][];
+        stopRoutePositions = new int[nStops][];
+        for (int i = 0; i < nStops; ++i) {
+            stopRoutes[i] = new int[routeCount[i]];
+            stopRoutePositions[i] = new int[routeCount[i]];
+            routeCount[i] = 0;
+        }
+        for (int r = 0; r < routes.length; ++r) {
+            int[] routeStops = routes[r].stops;
+            for (int p = 0; p < routeStops.length; ++p) {
+                int stop = routeStops[p];
+                if (stop < 0)
+                    continue;
+                stopRoutes[stop][routeCount[stop]] = r;
+                stopRoutePositions[stop][routeCount[stop]] = p;
+                ++routeCount[stop];
+            }
+        }
+        transfers = new AtomicReferenceArray<Transfers>(nStops);
+        StopTransferTable table = graph.getService(StopTransferTable.class);
+        if (table != null) {
+            if (table.getMaxDistance() >= maxTransferDistance)
+                loadTransfers(table);
+            else
+                LOG.warn("stop transfer table is limited to {} meters, searching for transfers "
+                        + "up to {} meters instead", table.getMaxDistance(), maxTransferDistance);
+        }
+        LOG.info("prepared {} stops and {} patterns for round-based searches", nStops, routes.length);
+    }
+
+    private static RaptorRoute getRoute(Map<TableTripPattern, RaptorRoute> routeForPattern,
+            TableTripPattern pattern) {
+        RaptorRoute route = routeForPattern.get(pattern);
+        if (route == null) {
+            TraverseMode mode = GtfsLibrary.getTraverseMode(pattern.getExemplar().getRoute());
+            route = new RaptorRoute(pattern, mode);
+            routeForPattern.put(pattern, route);
+        }
+        return route;
+    }
+
+    public int countStops() {
+        return stops.length;
+    }
+
+    public int countRoutes() {
+        return routes.length;
+    }
+
+    /**
+     * @return the index of the stop the given vertex belongs to (the stop itself, or its arrive or
+     *         depart vertex), or -1 if it is not part of any stop
+     */
+    public int getStopIndex(Vertex vertex) {
+        Integer index = stopIndices.get(vertex);
+        return index == null ? -1 : index;
+    }
+
+    /** Take the transfers found when the graph was built rather than searching for them. */
+    private void loadTransfers(StopTransferTable table) {
+        double timeFactor = table.getWalkSpeed() / transferWalkSpeed;
+        List<Integer> kept = new ArrayList<Integer>();
+        for (int i = 0; i < table.countStops(); ++i) {
+            int stop = getStopIndex(table.getStop(i));
+            if (stop < 0)
+                continue;
+            for (int t = table.getFirstTransfer(i); t < table.getLastTransfer(i); ++t) {
+                if (table.getDistance(t) <= maxTransferDistance
+                        && getStopIndex(table.getStop(table.getTarget(t))) >= 0)
+                    kept.add(t);
+            }
+            Transfers result = new Transfers(kept.size());
+            for (int j = 0; j < kept.size(); ++j) {
+                int t = kept.get(j);
+                result.stops[j] = getStopIndex(table.getStop(table.getTarget(t)));
+                result.times[j] = (int) Math.round(table.getTime(t) * timeFactor);
+                result.distances[j] = table.getDistance(t);
+            }
+            transfers.set(stop, result);
+            kept.clear();
+        }
+    }
+
+    /** 
+     * @return the walking transfers leaving the given stop, searching for them on the given
+     *         graph, the one this data was made from, if needed.
+     */
+    Transfers getTransfers(Graph graph, int stop) {
+        Transfers result = transfers.get(stop);
+        if (result == null) {
+            // concurrent searches may both compute the same transfers, which is harmless
+            result = findTransfers(graph, stop);
+            transfers.set(stop, result);
+        }
+        return result;
+    }
+
+    private Transfers findTransfers(Graph graph, int stop) {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.setWalkSpeed(transferWalkSpeed);
+        options.setMaxWalkDistance(maxTransferDistance);
+        options.setBatch(true);
+        options.setRoutingContext(graph, stops[stop], stops[stop]);
+        ShortestPathTree spt;
+        try {
+            spt = StreetSearch.search(options);
+        } finally {
+            options.cleanup();
+        }
+        State[] best = new State[stops.length];
+        List<Integer> targets = new ArrayList<Integer>();
+        for (State s : spt.getAllStates()) {
+            if (!(s.getVertex() instanceof TransitStop))
+                continue;
+            int target = getStopIndex(s.getVertex());
+            if (target == stop || target < 0)
+                continue;
+            if (best[target] == null)
+                targets.add(target);
+            else if (best[target].getTime() <= s.getTime())
+                continue;
+            best[target] = s;
+        }
+        SearchWorkspace.recycle(spt);
+        long t0 = options.getSecondsSinceEpoch();
+        Transfers result = new Transfers(targets.size());
+        for (int i = 0; i < result.stops.length; ++i) {
+            State s = best[targets.get(i)];
+            result.stops[i] = targets.get(i);
+            result.times[i] = (int) (s.getTime() - t0);
+            result.distances[i] = s.getWalkDistance();
+        }
+        return result;
+    }
+
+    /** The stops within walking distance of one stop, and how long the walk to each is. */
+    static final class Transfers {
+
+        final int[] stops;
+
+        /** walking times in seconds at RaptorData.transferWalkSpeed */
+        final int[] times;
+
+        /** walking distances in meters */
+        final double[] distances;
+
+        Transfers(int n) {
+            stops = new int[n];
+            times = new int[n];
+            distances = new double[n];
+        }
+
+    }
+
+}
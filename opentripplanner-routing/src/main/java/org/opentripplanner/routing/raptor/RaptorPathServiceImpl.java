@@ -0,0 +1,448 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.raptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PatternDwell;
+import org.opentripplanner.routing.edgetype.PatternEdge;
+import org.opentripplanner.routing.edgetype.PatternHop;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.PathComparator;
+import org.opentripplanner.routing.impl.RetryingPathServiceImpl;
+import org.opentripplanner.routing.raptor.RaptorSearch.Journey;
+import org.opentripplanner.routing.raptor.RaptorSearch.Leg;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.PathService;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * A path service answering depart-after transit requests with a round-based search over the
+ * timetables (see RaptorSearch) rather than a search over the graph. Street searches are only used
+ * to reach stops from the origin and the destination from stops, and the journeys found are then
+ * replayed edge by edge on the graph, so that the paths returned are the same kind of GraphPath the
+ * other path services return.
+ *
+ * With a search window, all the Pareto-optimal journeys (later departure, earlier arrival, fewer
+ * vehicles) leaving within the window are found in one search. Requests this service does not
+ * handle (arrive-by, intermediate places, or no transit) go to the fallback path service.
+ */
+public class RaptorPathServiceImpl implements PathService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorPathServiceImpl.class);
+
+    private static final int MIN_WINDOW = 30 * 60;
+
+    private static final int MAX_WINDOW = 4 * 60 * 60;
+
+    @Autowired public GraphService graphService;
+
+    @Autowired public SPTService sptService;
+
+    private PathService fallbackPathService;
+
+    private int searchWindow = 0; // seconds
+
+    private double maxTransferDistance = 500; // meters
+
+    private double maxAccessDistance = 2000; // meters
+
+    /* neither kind of value refers to its graph, so entries go away with replaced graphs */
+    private final Map<Graph, RaptorData> dataForGraph = new WeakHashMap<Graph, RaptorData>();
+
+    private final Map<Graph, DepartureSweep> sweepForGraph = new WeakHashMap<Graph, DepartureSweep>();
+
+    /**
+     * Return all the Pareto-optimal itineraries leaving within this many seconds of the requested
+     * departure time, rather than the numItineraries earliest arrivals. With no window (the
+     * default), the window is widened from half an hour up to four hours until numItineraries
+     * itineraries are found.
+     */
+    public void setSearchWindow(int seconds) {
+        searchWindow = seconds;
+    }
+
+    /** The maximum length of a walk between two stops, in meters. */
+    public void setMaxTransferDistance(double meters) {
+        maxTransferDistance = meters;
+    }
+
+    /** The maximum distance walked to the first stop and from the last one, when the request does
+     * not set a smaller maxWalkDistance. */
+    public void setMaxAccessDistance(double meters) {
+        maxAccessDistance = meters;
+    }
+
+    /**
+     * The path service used for the requests the round-based search cannot answer. By default a
+     * RetryingPathServiceImpl using the same graph and SPT services.
+     */
+    public void setFallbackPathService(PathService fallbackPathService) {
+        this.fallbackPathService = fallbackPathService;
+    }
+
+    @Override
+    public List<GraphPath> getPaths(RoutingRequest options) {
+        if (!canSearch(options))
+            return getFallbackPathService().getPaths(options);
+        Graph graph = graphService.getGraph(options.getRouterId());
+        options.setRoutingContext(graph);
+        RaptorData data = getData(graph);
+        Endpoints endpoints = new Endpoints(data, options);
+        if (searchWindow > 0) {
+            List<GraphPath> paths = getRangePaths(data, options, endpoints, searchWindow);
+            Collections.sort(paths, new PathComparator(false));
+            return paths;
+        }
+        // without a configured window, widen it until enough itineraries are found
+        List<GraphPath> paths = getRangePaths(data, options, endpoints, 0);
+        for (int window = MIN_WINDOW; paths.size() < options.numItineraries
+                && window <= MAX_WINDOW; window *= 2)
+            paths = getRangePaths(data, options, endpoints, window);
+        Collections.sort(paths, new PathComparator(false));
+        if (paths.size() > options.numItineraries)
+            paths = paths.subList(0, options.numItineraries);
+        return paths;
+    }
+
+    private boolean canSearch(RoutingRequest options) {
+        return !options.isArriveBy() && options.getModes().isTransit()
+                && (options.intermediatePlaces == null || options.intermediatePlaces.isEmpty());
+    }
+
+    private synchronized PathService getFallbackPathService() {
+        if (fallbackPathService == null) {
+            RetryingPathServiceImpl retrying = new RetryingPathServiceImpl();
+            retrying.graphService = graphService;
+            retrying.sptService = sptService;
+            fallbackPathService = retrying;
+        }
+        return fallbackPathService;
+    }
+
+    /** @return the prepared timetables for the given graph, building them on first use */
+    public RaptorData getData(Graph graph) {
+        synchronized (dataForGraph) {
+            RaptorData data = dataForGraph.get(graph);
+            if (data == null) {
+                data = new RaptorData(graph, maxTransferDistance);
+                dataForGraph.put(graph, data);
+            }
+            return data;
+        }
+    }
+
+    /**
+     * @return a departure time sweep over the timetables of the given graph, walking up to the
+     *         maximum access distance at either end
+     */
+    public DepartureSweep getDepartureSweep(Graph graph) {
+        synchronized (sweepForGraph) {
+            DepartureSweep sweep = sweepForGraph.get(graph);
+            if (sweep == null) {
+                sweep = new DepartureSweep(getData(graph), maxAccessDistance);
+                sweepForGraph.put(graph, sweep);
+            }
+            return sweep;
+        }
+    }
+
+    /**
+     * @return all the Pareto-optimal paths leaving at most window seconds after the requested
+     *         departure time, in no particular order. The request must be a depart-after transit
+     *         request.
+     */
+    public List<GraphPath> getRangePaths(RoutingRequest options, int window) {
+        if (!canSearch(options))
+            throw new IllegalArgumentException("only depart-after transit requests are supported");
+        Graph graph = graphService.getGraph(options.getRouterId());
+        options.setRoutingContext(graph);
+        RaptorData data = getData(graph);
+        return getRangePaths(data, options, new Endpoints(data, options), window);
+    }
+
+    private List<GraphPath> getRangePaths(RaptorData data, RoutingRequest options,
+            Endpoints endpoints, int window) {
+        long searchBeginTime = System.currentTimeMillis();
+        RaptorSearch search = new RaptorSearch(data, options, endpoints.accessTimes,
+                endpoints.accessDistances, endpoints.egressTimes, endpoints.egressDistances,
+                endpoints.directTime);
+        List<Journey> journeys = search.run(window);
+
+        List<GraphPath> paths = new ArrayList<GraphPath>();
+        for (Journey journey : journeys) {
+            State state = replay(data, options.rctx, journey, endpoints);
+            if (state == null) {
+                LOG.warn("could not follow journey found by round-based search on the graph");
+                continue;
+            }
+            GraphPath path = new GraphPath(state, true);
+            if (!paths.contains(path))
+                paths.add(path);
+        }
+        paths = paretoFilter(paths);
+        LOG.debug("round-based search found {} paths from {} journeys in {} msec", new Object[] {
+                paths.size(), journeys.size(), System.currentTimeMillis() - searchBeginTime });
+        return paths;
+    }
+
+    /**
+     * The street searches around the origin and the destination of a request, which do not depend
+     * on the search window and are shared by the searches over each window tried.
+     */
+    private final class Endpoints {
+
+        final State[] accessStates;
+
+        final State[] egressStates;
+
+        final int[] accessTimes;
+
+        final int[] egressTimes;
+
+        final double[] accessDistances;
+
+        final double[] egressDistances;
+
+        /** the state reaching the destination by walking all the way, if it is close enough */
+        final State directState;
+
+        final int directTime;
+
+        /** the walks between stops already followed when replaying journeys, by stop pair */
+        final Map<Long, List<Edge>> transfers = new HashMap<Long, List<Edge>>();
+
+        Endpoints(RaptorData data, RoutingRequest options) {
+            int nStops = data.countStops();
+            accessStates = new State[nStops];
+            egressStates = new State[nStops];
+            accessTimes = new int[nStops];
+            egressTimes = new int[nStops];
+            accessDistances = new double[nStops];
+            egressDistances = new double[nStops];
+            directState = streetSearch(data, options, false, accessStates, accessTimes,
+                    accessDistances);
+            streetSearch(data, options, true, egressStates, egressTimes, egressDistances);
+            directTime = directState == null ? RaptorSearch.UNREACHED
+                    : (int) (directState.getTime() - options.getSecondsSinceEpoch());
+        }
+
+        List<Edge> getTransfer(RaptorData data, Graph graph, int fromStop, int toStop) {
+            Long key = (long) fromStop * data.countStops() + toStop;
+            if (!transfers.containsKey(key))
+                transfers.put(key, transferEdges(data, graph, fromStop, toStop));
+            return transfers.get(key);
+        }
+    }
+
+    /**
+     * Search the streets around the origin or the destination of the request, recording for each
+     * stop the state reaching it, and the time it takes and distance walked to get between it and
+     * the endpoint.
+     *
+     * @return the state reaching the other endpoint, if it is close enough
+     */
+    private State streetSearch(RaptorData data, RoutingRequest options, boolean arriveBy,
+            State[] states, int[] times, double[] distances) {
+        RoutingRequest streetOptions = options.clone();
+        streetOptions.setArriveBy(arriveBy);
+        streetOptions.setBatch(true);
+        streetOptions.setMaxWalkDistance(Math.min(options.maxWalkDistance, maxAccessDistance));
+        streetOptions.rctx = options.rctx.forConcurrentSearch(streetOptions);
+        ShortestPathTree spt = StreetSearch.search(streetOptions);
+        long t0 = options.getSecondsSinceEpoch();
+        for (int i = 0; i < times.length; ++i)
+            times[i] = RaptorSearch.UNREACHED;
+        if (spt == null)
+            return null;
+        State direct = null;
+        Vertex target = streetOptions.rctx.target;
+        for (State s : spt.getAllStates()) {
+            Vertex v = s.getVertex();
+            if (v == target && s.isFinal()) {
+                if (direct == null || duration(s, t0) < duration(direct, t0))
+                    direct = s;
+                continue;
+            }
+            if (!(v instanceof TransitStop))
+                continue;
+            int stop = data.getStopIndex(v);
+            if (stop < 0)
+                continue;
+            int duration = duration(s, t0);
+            if (duration < times[stop]) {
+                times[stop] = duration;
+                distances[stop] = s.getWalkDistance();
+                states[stop] = s;
+            }
+        }
+        SearchWorkspace.recycle(spt);
+        return direct;
+    }
+
+    private static int duration(State s, long t0) {
+        return (int) Math.abs(s.getTime() - t0);
+    }
+
+    /**
+     * Follow the given journey on the graph from the origin of the request.
+     *
+     * @return the state at the destination, or null if the journey could not be followed.
+     */
+    private State replay(RaptorData data, RoutingContext rctx, Journey journey,
+            Endpoints endpoints) {
+        RoutingRequest options = rctx.opt;
+        State s = new State(rctx.origin, options.getSecondsSinceEpoch() + journey.departure,
+                options);
+        if (journey.accessStop < 0) {
+            s = traverse(s, StreetSearch.edgesTo(endpoints.directState));
+        } else {
+            s = traverse(s, StreetSearch.edgesTo(endpoints.accessStates[journey.accessStop]));
+            for (Leg leg : journey.legs) {
+                if (leg.isTransfer())
+                    s = traverse(s, endpoints.getTransfer(data, rctx.graph, leg.fromStop,
+                            leg.toStop));
+                else
+                    s = ride(data, s, leg);
+            }
+            s = traverse(s, StreetSearch.edgesTo(endpoints.egressStates[journey.egressStop]));
+        }
+        if (s == null || s.getVertex() != rctx.target || !s.isFinal())
+            return null;
+        return s;
+    }
+
+    private State ride(RaptorData data, State s, Leg leg) {
+        RaptorRoute route = data.routes[leg.route];
+        s = traverse(s, data.preBoards[route.stops[leg.boardPos]]);
+        s = traverse(s, route.boards[leg.boardPos]);
+        int p = leg.boardPos;
+        while (s != null) {
+            if (p == leg.alightPos && route.alights[p].getFromVertex() == s.getVertex()) {
+                s = traverse(s, route.alights[p]);
+                break;
+            }
+            Edge next = nextPatternEdge(s.getContext(), s.getVertex(), route);
+            if (next == null || p >= leg.alightPos)
+                return null;
+            s = traverse(s, next);
+            if (next instanceof PatternHop)
+                p = ((PatternHop) next).getStopIndex() + 1;
+        }
+        return traverse(s, data.preAlights[route.stops[leg.alightPos]]);
+    }
+
+    /** @return the hop or dwell edge of the given route leaving the given vertex */
+    private static Edge nextPatternEdge(RoutingContext rctx, Vertex v, RaptorRoute route) {
+        for (Edge e : rctx.getOutgoing(v)) {
+            if ((e instanceof PatternHop || e instanceof PatternDwell)
+                    && ((PatternEdge) e).getPattern() == route.pattern)
+                return e;
+        }
+        return null;
+    }
+
+    /** @return the edges of the shortest walk between two stops */
+    private static List<Edge> transferEdges(RaptorData data, Graph graph, int fromStop,
+            int toStop) {
+        RoutingRequest walk = new RoutingRequest(TraverseMode.WALK);
+        walk.setWalkSpeed(data.transferWalkSpeed);
+        walk.setMaxWalkDistance(data.maxTransferDistance);
+        walk.setRoutingContext(graph, data.stops[fromStop], data.stops[toStop]);
+        try {
+            ShortestPathTree spt = StreetSearch.search(walk);
+            State state = spt == null ? null : spt.getState(data.stops[toStop]);
+            return state == null ? null : StreetSearch.edgesTo(state);
+        } finally {
+            walk.cleanup();
+        }
+    }
+
+    private static State traverse(State s, List<Edge> edges) {
+        if (edges == null)
+            return null;
+        for (Edge e : edges) {
+            s = traverse(s, e);
+            if (s == null)
+                return null;
+        }
+        return s;
+    }
+
+    private static State traverse(State s, Edge e) {
+        if (s == null || e == null || e.getFromVertex() != s.getVertex())
+            return null;
+        return e.traverse(s);
+    }
+
+    /** @return the paths not dominated by another in departure time, arrival time and boardings */
+    private static List<GraphPath> paretoFilter(List<GraphPath> paths) {
+        List<GraphPath> result = new ArrayList<GraphPath>();
+        for (GraphPath path : paths) {
+            boolean dominated = false;
+            for (GraphPath other : paths) {
+                if (other != path && dominates(other, path)) {
+                    dominated = true;
+                    break;
+                }
+            }
+            if (!dominated)
+                result.add(path);
+        }
+        return result;
+    }
+
+    private static boolean dominates(GraphPath a, GraphPath b) {
+        int aTrips = countVehicles(a);
+        int bTrips = countVehicles(b);
+        if (a.getStartTime() < b.getStartTime() || a.getEndTime() > b.getEndTime()
+                || aTrips > bTrips)
+            return false;
+        return a.getStartTime() > b.getStartTime() || a.getEndTime() < b.getEndTime()
+                || aTrips < bTrips;
+    }
+
+    /** @return the number of vehicles boarded along the given path */
+    static int countVehicles(GraphPath path) {
+        // the boarding counts of states are not kept by reverse optimization
+        int vehicles = 0;
+        AgencyAndId previousTrip = null;
+        for (AgencyAndId trip : path.getTrips()) {
+            if (!trip.equals(previousTrip))
+                ++vehicles;
+            previousTrip = trip;
+        }
+        return vehicles;
+    }
+
+}
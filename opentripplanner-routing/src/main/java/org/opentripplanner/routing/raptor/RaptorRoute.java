@@ -0,0 +1,66 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.raptor;
+
+import org.onebusaway.gtfs.model.Route;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.core.RouteSpec;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PatternAlight;
+import org.opentripplanner.routing.edgetype.PatternBoard;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+
+/**
+ * One trip pattern as seen by the round-based search: the stops it serves, in order, and the
+ * graph edges used to board and alight at each of them.
+ */
+final class RaptorRoute {
+
+    final TableTripPattern pattern;
+
+    /** stop indices in RaptorData, by position along the pattern; -1 where unknown */
+    final int[] stops;
+
+    /** the edges used to board at each position, null where boarding is not possible */
+    final PatternBoard[] boards;
+
+    /** the edges used to alight at each position, null where alighting is not possible */
+    final PatternAlight[] alights;
+
+    /** the code of the service id of the pattern's trips, see ServiceDay */
+    final int serviceCode;
+
+    final TraverseMode mode;
+
+    final RouteSpec routeSpec;
+
+    RaptorRoute(TableTripPattern pattern, TraverseMode mode) {
+        this.pattern = pattern;
+        this.mode = mode;
+        int nStops = pattern.getStops().size();
+        stops = new int[nStops];
+        for (int i = 0; i < nStops; ++i)
+            stops[i] = -1;
+        boards = new PatternBoard[nStops];
+        alights = new PatternAlight[nStops];
+        serviceCode = pattern.getServiceCode();
+        Route route = pattern.getExemplar().getRoute();
+        routeSpec = new RouteSpec(route.getId().getAgencyId(), GtfsLibrary.getRouteName(route));
+    }
+
+    int size() {
+        return stops.length;
+    }
+
+}
@@ -0,0 +1,594 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.raptor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.TransferTable;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+
+/**
+ * A round-based search over the timetables of all trip patterns (RAPTOR, Delling, Pajor and
+ * Werneck 2012). Round k finds the earliest arrival at every stop using at most k vehicles; each
+ * round scans every pattern serving a stop improved in the previous round once, then relaxes the
+ * walking transfers from the stops it improved.
+ *
+ * Given a departure window, the search is run for each departure time at which some vehicle can be
+ * caught at an access stop, latest first, keeping labels between runs (rRAPTOR). A journey is
+ * recorded whenever the destination is reached earlier than by any later departure with the same
+ * or a smaller number of vehicles, so the journeys found are the Pareto set over departure time,
+ * arrival time and number of vehicles.
+ *
+ * Times are in seconds relative to the departure time of the request. Boarding and alighting follow
+ * the rules of PreBoardEdge and PreAlightEdge, including the transfer table.
+ */
+final class RaptorSearch {
+
+    static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** upper bound on the number of vehicles in a journey, whatever the request allows */
+    static final int MAX_ROUNDS = 8;
+
+    private final RaptorData data;
+
+    private final RoutingRequest options;
+
+    private final List<ServiceDay> serviceDays;
+
+    private final TransferTable transferTable;
+
+    private final long baseTime;
+
+    private final int halfTransferTime;
+
+    private final double transferTimeFactor;
+
+    private final boolean bikes;
+
+    private final int nRounds;
+
+    /** for each stop, the time needed to reach it from the origin; UNREACHED if it cannot be */
+    private final int[] accessTimes;
+
+    /** for each stop, the time needed to reach the destination from it */
+    private final int[] egressTimes;
+
+    /** the distances walked to reach each stop from the origin, and the destination from it */
+    private final double[] accessDistances;
+
+    private final double[] egressDistances;
+
+    /** the time needed to reach the destination without using transit */
+    private final int directTime;
+
+    private final double maxWalkDistance;
+
+    private final boolean[] usableRoutes;
+
+    /* labels by round and stop */
+
+    /** the arrival time at the stop, by vehicle or on foot */
+    private final int[][] arrivals;
+
+    /** the arrival time at the stop by vehicle, including the alighting slack */
+    private final int[][] transitArrivals;
+
+    /** the distance walked since the origin */
+    private final double[][] walkDistances;
+
+    /** the distance walked since the origin when arriving by vehicle */
+    private final double[][] transitWalkDistances;
+
+    /** the time the vehicle reached the stop, which the transfer table is relative to */
+    private final int[][] vehicleArrivals;
+
+    /** the stop the arrival was walked from, or -1 if the stop was reached by vehicle */
+    private final int[][] transferFrom;
+
+    private final int[][] labelRoutes;
+
+    private final int[][] labelTrips;
+
+    private final int[][] labelDays;
+
+    private final int[][] boardPositions;
+
+    private final int[][] alightPositions;
+
+    /** the best arrival at the destination using at most k vehicles */
+    private final int[] targetArrivals;
+
+    private final BitSet marked;
+
+    private final BitSet improvedByTransit;
+
+    /** for each route, the first position at which a marked stop is served, or -1 */
+    private final int[] routeStarts;
+
+    private final List<Journey> journeys = new ArrayList<Journey>();
+
+    /* trip search results */
+
+    private int foundTrip;
+
+    private int foundDay;
+
+    RaptorSearch(RaptorData data, RoutingRequest options, int[] accessTimes,
+            double[] accessDistances, int[] egressTimes, double[] egressDistances, int directTime) {
+        this.data = data;
+        this.options = options;
+        this.accessTimes = accessTimes;
+        this.accessDistances = accessDistances;
+        this.egressTimes = egressTimes;
+        this.egressDistances = egressDistances;
+        this.directTime = directTime;
+        // like the graph search, limit the distance walked over the whole journey
+        maxWalkDistance = options.maxWalkDistance;
+        RoutingContext rctx = options.rctx;
+        serviceDays = rctx.serviceDays;
+        transferTable = rctx.transferTable;
+        baseTime = options.getSecondsSinceEpoch();
+        halfTransferTime = options.minTransferTime / 2;
+        transferTimeFactor = data.transferWalkSpeed / options.getSpeed(TraverseMode.WALK);
+        bikes = options.getModes().getBicycle() && !options.getModes().getWalk();
+        nRounds = Math.min(options.getMaxTransfers() + 1, MAX_ROUNDS);
+
+        int nStops = data.countStops();
+        arrivals = newLabels(nRounds + 1, nStops, UNREACHED);
+        transitArrivals = newLabels(nRounds + 1, nStops, UNREACHED);
+        vehicleArrivals = newLabels(nRounds + 1, nStops, UNREACHED);
+        walkDistances = new double[nRounds + 1][nStops];
+        transitWalkDistances = new double[nRounds + 1][nStops];
+        transferFrom = newLabels(nRounds + 1, nStops, -1);
+        labelRoutes = newLabels(nRounds + 1, nStops, -1);
+        labelTrips = newLabels(nRounds + 1, nStops, -1);
+        labelDays = newLabels(nRounds + 1, nStops, -1);
+        boardPositions = newLabels(nRounds + 1, nStops, -1);
+        alightPositions = newLabels(nRounds + 1, nStops, -1);
+        targetArrivals = new int[nRounds + 1];
+        for (int k = 0; k <= nRounds; ++k)
+            targetArrivals[k] = UNREACHED;
+        marked = new BitSet(nStops);
+        improvedByTransit = new BitSet(nStops);
+
+        routeStarts = new int[data.countRoutes()];
+        usableRoutes = new boolean[data.countRoutes()];
+        for (int r = 0; r < usableRoutes.length; ++r) {
+            RaptorRoute route = data.routes[r];
+            routeStarts[r] = -1;
+            usableRoutes[r] = options.getModes().contains(route.mode)
+                    && !(options.bannedRoutes != null && options.bannedRoutes.contains(route.routeSpec));
+        }
+    }
+
+    private static int[][] newLabels(int rounds, int stops, int initialValue) {
+        int[][] labels = new int[rounds][stops];
+        if (initialValue != 0) {
+            for (int[] round : labels) {
+                for (int i = 0; i < stops; ++i)
+                    round[i] = initialValue;
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Search for journeys leaving the origin at most window seconds after the requested departure
+     * time.
+     *
+     * @return the Pareto-optimal journeys, in the order they were found
+     */
+    List<Journey> run(int window) {
+        if (window <= 0) {
+            runRounds(0);
+        } else {
+            for (int departure : departureTimes(window))
+                runRounds(departure);
+        }
+        return journeys;
+    }
+
+    /**
+     * Search from the origin every step seconds across the window, latest first, the same way run
+     * does: each search keeps the labels of the later ones, so it only costs the improvements an
+     * earlier departure brings. The step marks are merged into the departure times that catch a
+     * vehicle, and the whole sequence is searched latest first. The listener is given the earliest
+     * arrivals at every stop at each mark in turn.
+     */
+    void sweep(int window, int step, DepartureListener listener) {
+        SortedSet<Integer> departures = departureTimes(window);
+        int mark = window - window % step;
+        for (int m = mark; m >= 0; m -= step)
+            departures.add(m);
+        int[] stopArrivals = new int[accessTimes.length];
+        for (int departure : departures) {
+            // the journeys of every later departure can be taken by waiting at the origin
+            runRounds(departure);
+            if (departure != mark)
+                continue;
+            for (int stop = 0; stop < stopArrivals.length; ++stop)
+                stopArrivals[stop] = earliestArrival(nRounds, stop);
+            listener.departure(mark, stopArrivals);
+            mark -= step;
+        }
+    }
+
+    /**
+     * @return the departure times from the origin at which a vehicle can be caught at an access
+     *         stop without waiting, latest first. Departures between those lead to the same
+     *         journeys with some waiting at the first stop.
+     */
+    private SortedSet<Integer> departureTimes(int window) {
+        SortedSet<Integer> departures = new TreeSet<Integer>(Collections.reverseOrder());
+        departures.add(0);
+        for (int stop = 0; stop < accessTimes.length; ++stop) {
+            if (accessTimes[stop] == UNREACHED)
+                continue;
+            int[] stopRoutes = data.stopRoutes[stop];
+            for (int i = 0; i < stopRoutes.length; ++i) {
+                RaptorRoute route = data.routes[stopRoutes[i]];
+                int p = data.stopRoutePositions[stop][i];
+                if (!usableRoutes[stopRoutes[i]] || route.boards[p] == null)
+                    continue;
+                TableTripPattern pattern = route.pattern;
+                int nTrips = pattern.getTrips().size();
+                for (int d = 0; d < serviceDays.size(); ++d) {
+                    ServiceDay sd = serviceDays.get(d);
+                    if (!sd.serviceIdRunning(route.serviceCode))
+                        continue;
+                    for (int trip = 0; trip < nTrips; ++trip) {
+                        int departure = (int) (sd.time(pattern.getDepartureTime(p, trip)) - baseTime)
+                                - halfTransferTime - accessTimes[stop];
+                        if (departure >= 0 && departure <= window)
+                            departures.add(departure);
+                    }
+                }
+            }
+        }
+        return departures;
+    }
+
+    private void runRounds(int departure) {
+        marked.clear();
+        for (int stop = 0; stop < accessTimes.length; ++stop) {
+            if (accessTimes[stop] == UNREACHED)
+                continue;
+            int t = departure + accessTimes[stop];
+            if (t < arrivals[0][stop]) {
+                arrivals[0][stop] = t;
+                walkDistances[0][stop] = accessDistances[stop];
+                marked.set(stop);
+            }
+        }
+        // walking all the way is the same at any departure time, so it is only recorded once
+        if (departure == 0 && directTime != UNREACHED && directTime < targetArrivals[0]) {
+            targetArrivals[0] = directTime;
+            journeys.add(new Journey(0, directTime));
+        }
+        for (int k = 1; k <= nRounds && !marked.isEmpty(); ++k) {
+            for (int stop = marked.nextSetBit(0); stop >= 0; stop = marked.nextSetBit(stop + 1)) {
+                int[] stopRoutes = data.stopRoutes[stop];
+                for (int i = 0; i < stopRoutes.length; ++i) {
+                    int r = stopRoutes[i];
+                    int p = data.stopRoutePositions[stop][i];
+                    if (routeStarts[r] < 0 || p < routeStarts[r])
+                        routeStarts[r] = p;
+                }
+            }
+            marked.clear();
+            improvedByTransit.clear();
+            for (int r = 0; r < routeStarts.length; ++r) {
+                if (routeStarts[r] >= 0) {
+                    if (usableRoutes[r])
+                        scanRoute(k, r, routeStarts[r]);
+                    routeStarts[r] = -1;
+                }
+            }
+            relaxTransfers(k);
+            checkTarget(k);
+        }
+    }
+
+    private void scanRoute(int k, int r, int start) {
+        RaptorRoute route = data.routes[r];
+        TableTripPattern pattern = route.pattern;
+        int trip = -1;
+        int day = -1;
+        int boardPos = -1;
+        double boardWalkDistance = 0;
+        int tripDeparture = UNREACHED;
+        for (int p = start; p < route.size(); ++p) {
+            int stop = route.stops[p];
+            if (stop < 0)
+                continue;
+            if (trip >= 0 && route.alights[p] != null && canBoardOrAlight(pattern.getAlightType(p))) {
+                int vehicleArrival = time(day, pattern.getArrivalTime(p - 1, trip));
+                int t = vehicleArrival + halfTransferTime;
+                if (t < earliestArrival(k, stop) && t < targetBound(k)) {
+                    arrivals[k][stop] = t;
+                    transitArrivals[k][stop] = t;
+                    walkDistances[k][stop] = boardWalkDistance;
+                    transitWalkDistances[k][stop] = boardWalkDistance;
+                    vehicleArrivals[k][stop] = vehicleArrival;
+                    transferFrom[k][stop] = -1;
+                    labelRoutes[k][stop] = r;
+                    labelTrips[k][stop] = trip;
+                    labelDays[k][stop] = day;
+                    boardPositions[k][stop] = boardPos;
+                    alightPositions[k][stop] = p;
+                    marked.set(stop);
+                    improvedByTransit.set(stop);
+                }
+            }
+            if (route.boards[p] == null || arrivals[k - 1][stop] == UNREACHED
+                    || !canBoardOrAlight(pattern.getBoardType(p)))
+                continue;
+            if (trip >= 0)
+                tripDeparture = time(day, pattern.getDepartureTime(p, trip));
+            int boardAfter = boardingTime(k - 1, stop);
+            // an earlier trip can only be caught if we are here before the current one leaves
+            if (boardAfter == UNREACHED || (trip >= 0 && boardAfter >= tripDeparture))
+                continue;
+            if (findTrip(route, p, boardAfter) && (trip < 0
+                    || time(foundDay, pattern.getDepartureTime(p, foundTrip)) < tripDeparture)) {
+                trip = foundTrip;
+                day = foundDay;
+                boardPos = p;
+                boardWalkDistance = walkDistances[k - 1][stop];
+            }
+        }
+    }
+
+    private static boolean canBoardOrAlight(int type) {
+        // other types only add costs, which the replayed path will account for
+        return type != 1;
+    }
+
+    /**
+     * @return the earliest time a vehicle can be boarded at the given stop with the label of the
+     *         given round, or UNREACHED if the transfer table forbids it
+     */
+    private int boardingTime(int k, int stop) {
+        int boardAfter = arrivals[k][stop] + halfTransferTime;
+        if (k == 0 || data.preBoards[stop] == null)
+            return boardAfter;
+        int alightStop = transferFrom[k][stop] >= 0 ? transferFrom[k][stop] : stop;
+        if (data.preAlights[alightStop] == null)
+            return boardAfter;
+        int transferTime = transferTable.getTransferTime(data.preAlights[alightStop].getFromVertex(),
+                data.preBoards[stop].getToVertex());
+        if (transferTime == TransferTable.FORBIDDEN_TRANSFER)
+            return UNREACHED;
+        if (transferTime >= 0)
+            boardAfter = Math.max(boardAfter, vehicleArrivals[k][alightStop] + transferTime);
+        return boardAfter;
+    }
+
+    /**
+     * Find the trip of the given route leaving position p the soonest at or after the given time,
+     * the way PatternBoard does, and leave it in foundTrip and foundDay.
+     *
+     * @return whether a trip was found
+     */
+    private boolean findTrip(RaptorRoute route, int p, int boardAfter) {
+        TableTripPattern pattern = route.pattern;
+        int nTrips = pattern.getTrips().size();
+        long time = baseTime + boardAfter;
+        int best = UNREACHED;
+        SD: for (int d = 0; d < serviceDays.size(); ++d) {
+            ServiceDay sd = serviceDays.get(d);
+            int secondsSinceMidnight = sd.secondsSinceMidnight(time);
+            if (secondsSinceMidnight < 0 || !sd.serviceIdRunning(route.serviceCode))
+                continue;
+            int trip = pattern.getNextTrip(p, secondsSinceMidnight, options.wheelchairAccessible,
+                    bikes, true);
+            if (trip < 0)
+                continue;
+            if (!options.bannedTrips.isEmpty()) {
+                while (options.bannedTrips.contains(pattern.getTrip(trip).getId())) {
+                    if (++trip >= nTrips)
+                        continue SD;
+                }
+            }
+            int departure = time(d, pattern.getDepartureTime(p, trip));
+            if (departure < best) {
+                best = departure;
+                foundTrip = trip;
+                foundDay = d;
+            }
+        }
+        return best != UNREACHED;
+    }
+
+    private void relaxTransfers(int k) {
+        for (int stop = improvedByTransit.nextSetBit(0); stop >= 0;
+                stop = improvedByTransit.nextSetBit(stop + 1)) {
+            RaptorData.Transfers transfers = data.getTransfers(options.rctx.graph, stop);
+            for (int i = 0; i < transfers.stops.length; ++i) {
+                int target = transfers.stops[i];
+                double walkDistance = transitWalkDistances[k][stop] + transfers.distances[i];
+                if (walkDistance >= maxWalkDistance)
+                    continue;
+                int t = transitArrivals[k][stop] + (int) (transfers.times[i] * transferTimeFactor);
+                if (t < earliestArrival(k, target) && t < targetBound(k)) {
+                    arrivals[k][target] = t;
+                    walkDistances[k][target] = walkDistance;
+                    transferFrom[k][target] = stop;
+                    marked.set(target);
+                }
+            }
+        }
+    }
+
+    private void checkTarget(int k) {
+        int best = targetBound(k);
+        int bestStop = -1;
+        for (int stop = marked.nextSetBit(0); stop >= 0; stop = marked.nextSetBit(stop + 1)) {
+            if (egressTimes[stop] == UNREACHED
+                    || walkDistances[k][stop] + egressDistances[stop] >= maxWalkDistance)
+                continue;
+            int t = arrivals[k][stop] + egressTimes[stop];
+            if (t < best) {
+                best = t;
+                bestStop = stop;
+            }
+        }
+        if (bestStop >= 0) {
+            targetArrivals[k] = best;
+            journeys.add(extractJourney(k, bestStop, best));
+        }
+    }
+
+    private Journey extractJourney(int k, int egressStop, int arrival) {
+        LinkedList<Leg> legs = new LinkedList<Leg>();
+        int stop = egressStop;
+        for (int round = k; round > 0; --round) {
+            int from = transferFrom[round][stop];
+            if (from >= 0) {
+                legs.addFirst(new Leg(from, stop));
+                stop = from;
+            }
+            int boardStop = data.routes[labelRoutes[round][stop]].stops[boardPositions[round][stop]];
+            legs.addFirst(new Leg(labelRoutes[round][stop], labelTrips[round][stop],
+                    labelDays[round][stop], boardPositions[round][stop],
+                    alightPositions[round][stop]));
+            stop = boardStop;
+        }
+        Leg first = legs.getFirst();
+        TableTripPattern pattern = data.routes[first.route].pattern;
+        int departure = time(first.serviceDay, pattern.getDepartureTime(first.boardPos, first.trip))
+                - halfTransferTime - accessTimes[stop];
+        return new Journey(departure, arrival, stop, egressStop, legs);
+    }
+
+    /** @return the earliest arrival at the stop with at most k vehicles */
+    private int earliestArrival(int k, int stop) {
+        int t = UNREACHED;
+        for (int i = 0; i <= k; ++i) {
+            if (arrivals[i][stop] < t)
+                t = arrivals[i][stop];
+        }
+        return t;
+    }
+
+    /** @return the earliest arrival at the destination with at most k vehicles */
+    private int targetBound(int k) {
+        int t = UNREACHED;
+        for (int i = 0; i <= k; ++i) {
+            if (targetArrivals[i] < t)
+                t = targetArrivals[i];
+        }
+        return t;
+    }
+
+    private int time(int day, int secondsSinceMidnight) {
+        return (int) (serviceDays.get(day).time(secondsSinceMidnight) - baseTime);
+    }
+
+    /** Receives the results of a sweep over departure times, see sweep(). */
+    interface DepartureListener {
+
+        /**
+         * @param departure the departure time from the origin, relative to the requested time
+         * @param stopArrivals the earliest arrival at each stop when leaving then, relative to the
+         *        requested time, or UNREACHED. The array is reused for the next departure.
+         */
+        void departure(int departure, int[] stopArrivals);
+
+    }
+
+    /** A journey found by the search, described well enough to be replayed on the graph. */
+    static final class Journey {
+
+        /** departure from the origin, relative to the requested time */
+        final int departure;
+
+        final int arrival;
+
+        /** the stops the journey enters and leaves the transit network at; -1 for direct walks */
+        final int accessStop;
+
+        final int egressStop;
+
+        final List<Leg> legs;
+
+        Journey(int departure, int arrival) {
+            this(departure, arrival, -1, -1, Collections.<Leg> emptyList());
+        }
+
+        Journey(int departure, int arrival, int accessStop, int egressStop, List<Leg> legs) {
+            this.departure = departure;
+            this.arrival = arrival;
+            this.accessStop = accessStop;
+            this.egressStop = egressStop;
+            this.legs = legs;
+        }
+
+    }
+
+    /** Either a ride on one trip of a route, or a walk between two stops. */
+    static final class Leg {
+
+        /** the route ridden, or -1 for a walk */
+        final int route;
+
+        final int trip;
+
+        final int serviceDay;
+
+        final int boardPos;
+
+        final int alightPos;
+
+        final int fromStop;
+
+        final int toStop;
+
+        Leg(int route, int trip, int serviceDay, int boardPos, int alightPos) {
+            this.route = route;
+            this.trip = trip;
+            this.serviceDay = serviceDay;
+            this.boardPos = boardPos;
+            this.alightPos = alightPos;
+            this.fromStop = -1;
+            this.toStop = -1;
+        }
+
+        Leg(int fromStop, int toStop) {
+            this.route = -1;
+            this.trip = -1;
+            this.serviceDay = -1;
+            this.boardPos = -1;
+            this.alightPos = -1;
+            this.fromStop = fromStop;
+            this.toStop = toStop;
+        }
+
+        boolean isTransfer() {
+            return route < 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,293 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.raptor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * The walking transfers between all pairs of stops within some distance of each other, found
+ * when the graph is built and stored with it as a graph service, so that transit searches do not
+ * have to search the streets between stops. Transfers are stored in flat arrays: those leaving
+ * stop i are the ones from firstTransfer[i] up to firstTransfer[i + 1].
+ */
+public class StopTransferTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(StopTransferTable.class);
+
+    private final TransitStop[] stops;
+
+    private final double maxDistance;
+
+    private final double walkSpeed;
+
+    private final int[] firstTransfer;
+
+    private final int[] targets;
+
+    private final int[] times;
+
+    private final float[] distances;
+
+    /** where the coordinates of each transfer start in the coordinate array; null without geometry */
+    private final int[] firstCoordinate;
+
+    /** the x and y coordinates of all the transfers, one after the other */
+    private final double[] coordinates;
+
+    private transient Map<Vertex, Integer> stopIndices;
+
+    private StopTransferTable(TransitStop[] stops, double maxDistance, double walkSpeed,
+            int[] firstTransfer, int[] targets, int[] times, float[] distances,
+            int[] firstCoordinate, double[] coordinates) {
+        this.stops = stops;
+        this.maxDistance = maxDistance;
+        this.walkSpeed = walkSpeed;
+        this.firstTransfer = firstTransfer;
+        this.targets = targets;
+        this.times = times;
+        this.distances = distances;
+        this.firstCoordinate = firstCoordinate;
+        this.coordinates = coordinates;
+    }
+
+    /**
+     * Find the walking transfers between the stops of the given graph by searching the streets
+     * around each of them.
+     *
+     * @param maxDistance the maximum length of a transfer, in meters
+     * @param storeGeometry whether to keep the geometry of each transfer
+     */
+    public static StopTransferTable build(Graph graph, double maxDistance, boolean storeGeometry) {
+        List<TransitStop> stopList = new ArrayList<TransitStop>();
+        for (TransitStop stop : IterableLibrary.filter(graph.getVertices(), TransitStop.class))
+            stopList.add(stop);
+        TransitStop[] stops = stopList.toArray(new TransitStop[stopList.size()]);
+        Map<Vertex, Integer> stopIndices = indexStops(stops);
+        double walkSpeed = new RoutingRequest(TraverseMode.WALK).getSpeed(TraverseMode.WALK);
+
+        int[] firstTransfer = new int[stops.length + 1];
+        IntList targets = new IntList();
+        IntList times = new IntList();
+        List<Float> distances = new ArrayList<Float>();
+        IntList firstCoordinate = new IntList();
+        List<Coordinate> coordinates = new ArrayList<Coordinate>();
+        State[] best = new State[stops.length];
+        List<Integer> reached = new ArrayList<Integer>();
+        for (int i = 0; i < stops.length; ++i) {
+            firstTransfer[i] = targets.size;
+            RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+            options.setWalkSpeed(walkSpeed);
+            options.setMaxWalkDistance(maxDistance);
+            options.setBatch(true);
+            options.setRoutingContext(graph, stops[i], stops[i]);
+            ShortestPathTree spt;
+            try {
+                spt = StreetSearch.search(options);
+            } finally {
+                options.cleanup();
+            }
+            long t0 = options.getSecondsSinceEpoch();
+            for (State s : spt.getAllStates()) {
+                Integer target = stopIndices.get(s.getVertex());
+                if (target == null || target == i)
+                    continue;
+                if (best[target] == null)
+                    reached.add(target);
+                else if (best[target].getTime() <= s.getTime())
+                    continue;
+                best[target] = s;
+            }
+            for (int target : reached) {
+                State s = best[target];
+                targets.add(target);
+                times.add((int) (s.getTime() - t0));
+                distances.add((float) s.getWalkDistance());
+                if (storeGeometry) {
+                    firstCoordinate.add(coordinates.size());
+                    addCoordinates(StreetSearch.edgesTo(s), coordinates);
+                }
+                best[target] = null;
+            }
+            reached.clear();
+            SearchWorkspace.recycle(spt);
+            if (i % 1000 == 999)
+                LOG.info("found transfers from {} of {} stops", i + 1, stops.length);
+        }
+        firstTransfer[stops.length] = targets.size;
+        LOG.info("found {} transfers between {} stops", targets.size, stops.length);
+
+        float[] distanceArray = new float[distances.size()];
+        for (int i = 0; i < distanceArray.length; ++i)
+            distanceArray[i] = distances.get(i);
+        int[] firstCoordinateArray = null;
+        double[] coordinateArray = null;
+        if (storeGeometry) {
+            firstCoordinate.add(coordinates.size());
+            firstCoordinateArray = firstCoordinate.toArray();
+            coordinateArray = new double[coordinates.size() * 2];
+            for (int i = 0; i < coordinates.size(); ++i) {
+                coordinateArray[i * 2] = coordinates.get(i).x;
+                coordinateArray[i * 2 + 1] = coordinates.get(i).y;
+            }
+        }
+        StopTransferTable table = new StopTransferTable(stops, maxDistance, walkSpeed,
+                firstTransfer, targets.toArray(), times.toArray(), distanceArray,
+                firstCoordinateArray, coordinateArray);
+        table.stopIndices = stopIndices;
+        return table;
+    }
+
+    private static void addCoordinates(List<Edge> edges, List<Coordinate> coordinates) {
+        Coordinate last = null;
+        for (Edge e : edges) {
+            Geometry geometry = e.getGeometry();
+            if (geometry == null)
+                continue;
+            for (Coordinate c : geometry.getCoordinates()) {
+                if (!c.equals(last))
+                    coordinates.add(c);
+                last = c;
+            }
+        }
+    }
+
+    private static Map<Vertex, Integer> indexStops(TransitStop[] stops) {
+        Map<Vertex, Integer> stopIndices = new IdentityHashMap<Vertex, Integer>();
+        for (int i = 0; i < stops.length; ++i)
+            stopIndices.put(stops[i], i);
+        return stopIndices;
+    }
+
+    public int countStops() {
+        return stops.length;
+    }
+
+    public TransitStop getStop(int stop) {
+        return stops[stop];
+    }
+
+    /** @return the index of the given stop in this table, or -1 if it is not there */
+    public synchronized int getStopIndex(Vertex stop) {
+        if (stopIndices == null)
+            stopIndices = indexStops(stops);
+        Integer index = stopIndices.get(stop);
+        return index == null ? -1 : index;
+    }
+
+    /** @return the length of the longest transfers stored, in meters */
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /** @return the walk speed transfer times were computed at, in meters per second */
+    public double getWalkSpeed() {
+        return walkSpeed;
+    }
+
+    public int countTransfers() {
+        return targets.length;
+    }
+
+    /** @return the index of the first transfer leaving the given stop */
+    public int getFirstTransfer(int stop) {
+        return firstTransfer[stop];
+    }
+
+    /** @return the index following that of the last transfer leaving the given stop */
+    public int getLastTransfer(int stop) {
+        return firstTransfer[stop + 1];
+    }
+
+    /** @return the stop the given transfer leads to */
+    public int getTarget(int transfer) {
+        return targets[transfer];
+    }
+
+    /** @return the time taken by the given transfer at getWalkSpeed(), in seconds */
+    public int getTime(int transfer) {
+        return times[transfer];
+    }
+
+    /** @return the length of the given transfer, in meters */
+    public double getDistance(int transfer) {
+        return distances[transfer];
+    }
+
+    public boolean hasGeometry() {
+        return coordinates != null;
+    }
+
+    /** @return the path walked by the given transfer, or null if geometry was not stored */
+    public LineString getGeometry(int transfer) {
+        if (coordinates == null)
+            return null;
+        int first = firstCoordinate[transfer];
+        int n = firstCoordinate[transfer + 1] - first;
+        if (n < 2)
+            return null;
+        Coordinate[] path = new Coordinate[n];
+        for (int i = 0; i < n; ++i)
+            path[i] = new Coordinate(coordinates[(first + i) * 2], coordinates[(first + i) * 2 + 1]);
+        return GeometryUtils.getGeometryFactory().createLineString(path);
+    }
+
+    /** A growable array of ints. */
+    private static class IntList {
+
+        int[] values = new int[16];
+
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            int[] result = new int[size];
+            System.arraycopy(values, 0, result, 0, size);
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,132 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.raptor;
+
+import org.opentripplanner.routing.algorithm.SearchWorkspace;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The street vertices within walking distance of every stop, used to spread the arrival times at
+ * stops found by a round-based search onto the street network. For each vertex, the stops it can
+ * be walked to from are listed together with the distances walked, in flat arrays indexed by
+ * vertex index. Only graph vertices are covered: temporary vertices, whose indices keep growing as
+ * requests are made, are left out.
+ */
+final class StopTrees {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StopTrees.class);
+
+    /** the entries for vertex index i are those from vertexStarts[i] to vertexStarts[i + 1] */
+    private final int[] vertexStarts;
+
+    final int[] stops;
+
+    /** in meters */
+    final float[] distances;
+
+    StopTrees(RaptorData data, Graph graph, double maxDistance) {
+        long t0 = System.currentTimeMillis();
+        int nVertices = 0;
+        for (Vertex v : graph.getVertices())
+            nVertices = Math.max(nVertices, v.getIndex() + 1);
+        int nStops = data.countStops();
+        int[][] treeVertices = new int[nStops][];
+        float[][] treeDistances = new float[nStops][];
+        int[] counts = new int[nVertices + 1];
+        // the best distance to each vertex from the current stop, reused between stops
+        float[] best = new float[nVertices];
+        for (int i = 0; i < nVertices; ++i)
+            best[i] = Float.POSITIVE_INFINITY;
+        for (int stop = 0; stop < nStops; ++stop) {
+            RoutingRequest walk = new RoutingRequest(TraverseMode.WALK);
+            walk.setMaxWalkDistance(maxDistance);
+            walk.setBatch(true);
+            walk.setRoutingContext(graph, data.stops[stop], data.stops[stop]);
+            ShortestPathTree spt;
+            try {
+                spt = StreetSearch.search(walk);
+            } finally {
+                walk.cleanup();
+            }
+            if (spt == null) {
+                treeVertices[stop] = new int[0];
+                treeDistances[stop] = new float[0];
+                continue;
+            }
+            int n = 0;
+            int[] reached = new int[spt.getAllStates().size()];
+            for (State s : spt.getAllStates()) {
+                if (s.getVertex().isTemporary())
+                    continue;
+                int v = s.getVertex().getIndex();
+                if (v >= nVertices)
+                    continue;
+                if (best[v] == Float.POSITIVE_INFINITY)
+                    reached[n++] = v;
+                best[v] = Math.min(best[v], (float) s.getWalkDistance());
+            }
+            SearchWorkspace.recycle(spt);
+            treeVertices[stop] = new int[n];
+            treeDistances[stop] = new float[n];
+            for (int i = 0; i < n; ++i) {
+                int v = reached[i];
+                treeVertices[stop][i] = v;
+                treeDistances[stop][i] = best[v];
+                best[v] = Float.POSITIVE_INFINITY;
+                ++counts[v + 1];
+            }
+        }
+        vertexStarts = new int[nVertices + 1];
+        for (int v = 0; v < nVertices; ++v)
+            vertexStarts[v + 1] = vertexStarts[v] + counts[v + 1];
+        int nEntries = vertexStarts[nVertices];
+        stops = new int[nEntries];
+        distances = new float[nEntries];
+        int[] next = new int[nVertices];
+        System.arraycopy(vertexStarts, 0, next, 0, nVertices);
+        for (int stop = 0; stop < nStops; ++stop) {
+            for (int i = 0; i < treeVertices[stop].length; ++i) {
+                int e = next[treeVertices[stop][i]]++;
+                stops[e] = stop;
+                distances[e] = treeDistances[stop][i];
+            }
+        }
+        LOG.info("found {} street vertices within {} meters of {} stops in {} msec", new Object[] {
+                nEntries, maxDistance, nStops, System.currentTimeMillis() - t0 });
+    }
+
+    /** @return the number of vertex indices covered */
+    int countVertices() {
+        return vertexStarts.length - 1;
+    }
+
+    /** @return the first entry of the stops near the vertex with the given index */
+    int getStart(int vertexIndex) {
+        return vertexStarts[vertexIndex];
+    }
+
+    /** @return the entry after the last of the stops near the vertex with the given index */
+    int getEnd(int vertexIndex) {
+        return vertexStarts[vertexIndex + 1];
+    }
+
+}
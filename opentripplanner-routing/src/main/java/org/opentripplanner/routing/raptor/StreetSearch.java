@@ -0,0 +1,77 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.raptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrategy;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.PreAlightEdge;
+import org.opentripplanner.routing.edgetype.PreBoardEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+/**
+ * The street searches used around the round-based transit search: access and egress searches
+ * toward all nearby stops, and walks between stops. These never board a vehicle, and since the
+ * walk distance limit is only enforced by the graph for transit searches, it is enforced here.
+ */
+final class StreetSearch {
+
+    private static final GenericAStar aStar = new GenericAStar();
+
+    static {
+        aStar.setSkipTraverseResultStrategy(new SkipTransitAndLongWalks());
+    }
+
+    private StreetSearch() {
+    }
+
+    static ShortestPathTree search(RoutingRequest options) {
+        return aStar.getShortestPathTree(options);
+    }
+
+    /**
+     * @return the edges between the origin of the search that produced the given state and the
+     *         state itself, in the order they would be traversed when moving forward in time.
+     */
+    static List<Edge> edgesTo(State state) {
+        List<Edge> edges = new ArrayList<Edge>();
+        for (State s = state; s.getBackEdge() != null; s = s.getBackState())
+            edges.add(s.getBackEdge());
+        if (!state.getOptions().isArriveBy())
+            Collections.reverse(edges);
+        return edges;
+    }
+
+    private static class SkipTransitAndLongWalks implements SkipTraverseResultStrategy {
+
+        @Override
+        public boolean shouldSkipTraversalResult(Vertex origin, Vertex target, State parent,
+                State current, ShortestPathTree spt, RoutingRequest traverseOptions) {
+            Edge backEdge = current.getBackEdge();
+            if (backEdge instanceof PreBoardEdge || backEdge instanceof PreAlightEdge)
+                return true;
+            // getMaxWalkDistance() ignores the limit when transit modes are selected
+            return current.getWalkDistance() > traverseOptions.maxWalkDistance;
+        }
+
+    }
+
+}
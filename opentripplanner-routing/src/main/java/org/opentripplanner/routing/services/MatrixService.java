@@ -0,0 +1,48 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.services;
+
+import java.util.List;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Travel times between every origin and every destination of two lists of places, for trips that
+ * depart at the time of the request.
+ */
+public interface MatrixService {
+
+    /** Receives the rows of a matrix, in origin order, as soon as each one is computed. */
+    public interface RowHandler {
+        /**
+         * Both arrays hold positive infinity for unreachable destinations, and are reused for the
+         * next row once this method returns.
+         * 
+         * @param origin - the position of the origin in the list of origins
+         * @param weights - the weights of the best paths to each destination
+         * @param durations - the durations in seconds of those paths
+         */
+        public void handleRow(int origin, double[] weights, double[] durations);
+    }
+
+    /**
+     * Compute the matrix between two lists of coordinates, each snapped to the nearest street
+     * intersection, for the modes and optimization of the request.
+     */
+    public void getMatrix(RoutingRequest options, List<Coordinate> origins,
+            List<Coordinate> destinations, RowHandler handler);
+
+}
@@ -16,9 +16,7 @@ package org.opentripplanner.routing.spt;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.routing.core.State;
@@ -38,7 +36,7 @@ public class BasicShortestPathTree extends AbstractShortestPathTree {
 
     private static final int DEFAULT_CAPACITY = 500;
 
-    Map<Vertex, State> states;
+    private final VertexStateTable<State> states;
 
     /**
      * Parameterless constructor that uses a default capacity for internal vertex-keyed data
@@ -57,7 +55,18 @@ public class BasicShortestPathTree extends AbstractShortestPathTree {
      */
     public BasicShortestPathTree(RoutingRequest options, int n) {
         super(options);
-        states = new IdentityHashMap<Vertex, State>(n);
+        states = new VertexStateTable<State>(0, n);
+    }
+
+    /**
+     * Constructor storing states in the given table, which is cleared first. This allows the
+     * arrays of a table sized to the whole graph to be reused from one search to the next, as 
+     * long as the previous tree using the table is no longer needed.
+     */
+    public BasicShortestPathTree(RoutingRequest options, VertexStateTable<State> states) {
+        super(options);
+        states.clear();
+        this.states = states;
     }
 
     @Override
@@ -65,6 +74,11 @@ public class BasicShortestPathTree extends AbstractShortestPathTree {
         return states.values();
     }
 
+    /** @return the table in which this tree stores its states. */
+    public VertexStateTable<State> getStateTable() {
+        return states;
+    }
+
     /****
      * {@link ShortestPathTree} Interface
      ****/
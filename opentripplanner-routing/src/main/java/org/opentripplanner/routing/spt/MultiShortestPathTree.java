@@ -15,10 +15,10 @@ package org.opentripplanner.routing.spt;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.opentripplanner.common.MavenVersion;
@@ -32,15 +32,34 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
     public static final ShortestPathTreeFactory FACTORY = new FactoryImpl();
 
-    private Map<Vertex, List<State>> stateSets;
+    private final VertexStateTable<List<State>> stateSets;
 
     public MultiShortestPathTree(RoutingRequest options) {
         super(options);
-        stateSets = new IdentityHashMap<Vertex, List<State>>();
+        stateSets = new VertexStateTable<List<State>>(0, 32);
+    }
+
+    /**
+     * Constructor storing state sets in the given table, which is cleared first. This allows the
+     * arrays of a table sized to the whole graph to be reused from one search to the next, as 
+     * long as the previous tree using the table is no longer needed.
+     */
+    public MultiShortestPathTree(RoutingRequest options, VertexStateTable<List<State>> stateSets) {
+        super(options);
+        stateSets.clear();
+        this.stateSets = stateSets;
     }
     
     public Set<Vertex> getVertices() {
-        return stateSets.keySet();
+        Set<Vertex> vertices = Collections.newSetFromMap(new IdentityHashMap<Vertex, Boolean>());
+        for (List<State> states : stateSets.values())
+            vertices.add(states.get(0).getVertex());
+        return vertices;
+    }
+
+    /** @return the table in which this tree stores its state sets. */
+    public VertexStateTable<List<State>> getStateTable() {
+        return stateSets;
     }
 
     /****
@@ -92,7 +111,7 @@ public class MultiShortestPathTree extends AbstractShortestPathTree {
 
 	@Override
 	public int getVertexCount() {
-		return stateSets.keySet().size();
+		return stateSets.size();
 	}
 
 	@Override
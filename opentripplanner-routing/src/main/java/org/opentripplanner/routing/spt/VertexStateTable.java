@@ -0,0 +1,128 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * Vertex-keyed storage for shortest path trees. Vertices whose index is below the table's
+ * capacity are stored in flat arrays indexed by vertex index; any others (temporary vertices, or
+ * vertices of graphs that have not been densely numbered) go into an identity hash map.
+ *
+ * Array slots are only valid if they were written during the current generation, so clearing the
+ * table only visits the slots written since the last clear, and the same table can be reused for
+ * many searches. Tables are not thread safe.
+ */
+public final class VertexStateTable<T> implements Serializable {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    private final Object[] values;
+
+    private final int[] generations;
+
+    private int generation = 1;
+
+    /* indices of the array slots written during the current generation, for iteration */
+    private int[] touched;
+
+    private int nTouched = 0;
+
+    private final Map<Vertex, T> overflow;
+
+    /**
+     * @param capacity the number of vertex indices to store in arrays, typically the number of
+     *        vertices in a densely numbered graph. With a capacity of zero this table behaves
+     *        like a plain identity hash map.
+     * @param overflowCapacity initial capacity of the map holding all other vertices.
+     */
+    public VertexStateTable(int capacity, int overflowCapacity) {
+        values = new Object[capacity];
+        generations = new int[capacity];
+        touched = new int[Math.min(capacity, 64)];
+        overflow = new IdentityHashMap<Vertex, T>(overflowCapacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(Vertex v) {
+        int i = v.getIndex();
+        if (i >= 0 && i < values.length) {
+            if (generations[i] == generation)
+                return (T) values[i];
+            return null;
+        }
+        return overflow.get(v);
+    }
+
+    public void put(Vertex v, T value) {
+        int i = v.getIndex();
+        if (i >= 0 && i < values.length) {
+            if (generations[i] != generation) {
+                generations[i] = generation;
+                if (nTouched == touched.length)
+                    touched = Arrays.copyOf(touched, Math.min(values.length, nTouched * 2));
+                touched[nTouched++] = i;
+            }
+            values[i] = value;
+        } else {
+            overflow.put(v, value);
+        }
+    }
+
+    /** @return the number of vertices with an entry in this table. */
+    public int size() {
+        return nTouched + overflow.size();
+    }
+
+    /** @return a new list of all the values in this table. */
+    @SuppressWarnings("unchecked")
+    public List<T> values() {
+        List<T> ret = new ArrayList<T>(size());
+        for (int t = 0; t < nTouched; ++t)
+            ret.add((T) values[touched[t]]);
+        ret.addAll(overflow.values());
+        return ret;
+    }
+
+    /** 
+     * Remove all entries from this table. Only the slots written since the last clear are
+     * visited; they are emptied so that the values of a previous search can be collected while
+     * the table waits to be reused.
+     */
+    public void clear() {
+        for (int t = 0; t < nTouched; ++t)
+            values[touched[t]] = null;
+        nTouched = 0;
+        overflow.clear();
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    /** @return the number of vertex indices stored in arrays. */
+    public int getCapacity() {
+        return values.length;
+    }
+
+}
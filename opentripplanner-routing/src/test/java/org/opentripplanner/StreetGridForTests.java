@@ -0,0 +1,68 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner;
+
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/** Small street graphs built in code, for tests that do not need real data. */
+public class StreetGridForTests {
+
+    /**
+     * Make a size by size grid of streets about 200 m apart around (-74.0, 40.0). The corner at
+     * (x, y) is labelled "corner x y". Every other row of corners is moved east by rowShift
+     * degrees, so that the streets between rows are not all the same length as the streets
+     * along them.
+     * 
+     * @param oneWayBottom whether the streets along the bottom row only go east
+     * @return the corners, indexed by x then y
+     */
+    public static IntersectionVertex[][] makeGrid(Graph graph, int size, double rowShift,
+            boolean oneWayBottom) {
+        IntersectionVertex[][] corners = new IntersectionVertex[size][size];
+        for (int x = 0; x < size; ++x)
+            for (int y = 0; y < size; ++y)
+                corners[x][y] = new IntersectionVertex(graph, "corner " + x + " " + y,
+                        -74.0 + x * 0.002 + (y % 2) * rowShift, 40.0 + y * 0.002);
+        for (int x = 0; x < size; ++x) {
+            for (int y = 0; y < size; ++y) {
+                if (x + 1 < size)
+                    makeStreet(corners[x][y], corners[x + 1][y], !(oneWayBottom && y == 0));
+                if (y + 1 < size)
+                    makeStreet(corners[x][y], corners[x][y + 1], true);
+            }
+        }
+        return corners;
+    }
+
+    /** Make a straight street from v0 to v1, and back unless it is one way. */
+    public static void makeStreet(IntersectionVertex v0, IntersectionVertex v1, boolean twoWay) {
+        Coordinate c0 = v0.getCoordinate();
+        Coordinate c1 = v1.getCoordinate();
+        double length = DistanceLibrary.distance(c0, c1);
+        new PlainStreetEdge(v0, v1, GeometryUtils.makeLineString(c0.x, c0.y, c1.x, c1.y),
+                "street", length, StreetTraversalPermission.ALL, false);
+        if (twoWay)
+            new PlainStreetEdge(v1, v0, GeometryUtils.makeLineString(c1.x, c1.y, c0.x, c0.y),
+                    "street", length, StreetTraversalPermission.ALL, true);
+    }
+
+}
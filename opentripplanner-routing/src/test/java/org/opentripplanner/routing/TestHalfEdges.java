@@ -17,6 +17,7 @@ import static org.opentripplanner.common.IterableLibrary.cast;
 
 import java.util.Collection;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
@@ -26,6 +27,7 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Stop;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.algorithm.GenericDijkstra;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
@@ -313,6 +315,59 @@ public class TestHalfEdges extends TestCase {
         }
     }
     
+    public void testGraphUnchangedByRequests() {
+        HashMap<Vertex, Integer> degrees = new HashMap<Vertex, Integer>();
+        for (Vertex v : graph.getVertices())
+            degrees.put(v, v.getDegreeIn() * 1000 + v.getDegreeOut());
+
+        StreetVertexIndexServiceImpl finder = new StreetVertexIndexServiceImpl(graph);
+        finder.setup();
+        RoutingRequest walking = new RoutingRequest(TraverseMode.WALK);
+        StreetLocation start = (StreetLocation) finder.getClosestVertex(
+                new Coordinate(-74.01, 40.004), null, walking);
+        StreetLocation end = (StreetLocation) finder.getClosestVertex(
+                new Coordinate(-74.0, 40.008), null, walking);
+        walking.setRoutingContext(graph, start, end);
+        assertTrue(walking.rctx.getTemporaryEdges().countEdges() > 0);
+
+        // the edges linking the endpoints to the graph are only seen by this request
+        for (Vertex v : graph.getVertices())
+            assertEquals(degrees.get(v).intValue(), v.getDegreeIn() * 1000 + v.getDegreeOut());
+
+        ShortestPathTree spt = aStar.getShortestPathTree(walking);
+        assertNotNull(spt.getPath(end, false));
+        RoutingRequest backward = walking.clone();
+        backward.setArriveBy(true);
+        backward.setRoutingContext(graph, start, end);
+        assertNotNull(aStar.getShortestPathTree(backward).getPath(start, false));
+
+        assertEquals(walking.rctx.getTemporaryEdges().countEdges(), walking.rctx.destroy());
+        assertEquals(0, walking.rctx.destroy());
+    }
+
+    public void testDijkstraFindsTemporaryEdges() {
+        StreetVertexIndexServiceImpl finder = new StreetVertexIndexServiceImpl(graph);
+        finder.setup();
+        RoutingRequest walking = new RoutingRequest(TraverseMode.WALK);
+        StreetLocation start = (StreetLocation) finder.getClosestVertex(
+                new Coordinate(-74.01, 40.004), null, walking);
+        StreetLocation end = (StreetLocation) finder.getClosestVertex(
+                new Coordinate(-74.0, 40.008), null, walking);
+        walking.setRoutingContext(graph, start, end);
+        // the end is only linked to the graph by the temporary edges of the request
+        ShortestPathTree spt = new GenericDijkstra(walking).getShortestPathTree(
+                new State(start, walking));
+        assertNotNull(spt.getState(end));
+
+        RoutingRequest backward = walking.clone();
+        backward.setArriveBy(true);
+        backward.setRoutingContext(graph, start, end);
+        spt = new GenericDijkstra(backward).getShortestPathTree(new State(end, backward));
+        assertNotNull(spt.getState(start));
+        walking.cleanup();
+        backward.cleanup();
+    }
+
     public void testNetworkLinker() {
         int numVerticesBefore = graph.getVertices().size();
         NetworkLinker nl = new NetworkLinker(graph);
@@ -0,0 +1,86 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.algorithm;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.StreetGridForTests;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.util.monitoring.Histogram;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+
+public class TestSearchStatistics extends TestCase {
+
+    private static final int SIZE = 3;
+
+    private Graph graph;
+
+    private IntersectionVertex origin;
+
+    /* a grid of two way streets */
+    public void setUp() {
+        graph = new Graph();
+        origin = StreetGridForTests.makeGrid(graph, SIZE, 0, false)[0][0];
+    }
+
+    private SearchStatistics search() {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK, OptimizeType.QUICK);
+        options.setBatch(true);
+        options.setRoutingContext(graph, origin, origin);
+        new GenericAStar().getShortestPathTree(options);
+        return options.rctx.searchStatistics;
+    }
+
+    public void testCounters() {
+        SearchStatistics stats = search();
+        assertNotNull(stats);
+        assertEquals(SIZE * SIZE, stats.getVerticesExpanded());
+        // each vertex is reached along each of its streets
+        assertEquals(2 * 2 * SIZE * (SIZE - 1), stats.getStatesCreated());
+        assertTrue(stats.getStatesDominated() > 0);
+        assertTrue(stats.getPeakQueueSize() > 1);
+        assertTrue(stats.getWallMicros() >= 0);
+        // the heuristic is only timed in monitored searches
+        assertEquals(0, stats.getHeuristicMicros());
+    }
+
+    public void testMonitoredSearchesAreRecorded() {
+        MonitoringStore store = MonitoringStoreFactory.getStore();
+        store.monitor(SearchStatistics.MONITORING_KEY);
+        try {
+            store.clearHistograms("search.");
+            search();
+            search();
+            Histogram expanded = store.getHistogram("search.verticesExpanded");
+            assertEquals(2, expanded.getCount());
+            assertEquals(SIZE * SIZE, expanded.getMax());
+            Histogram edges = store.getHistogram("search.edges.PlainStreetEdge");
+            assertEquals(2 * 2 * SIZE * (SIZE - 1), edges.getMax());
+            assertNotNull(store.getHistogram("search.wallMicros"));
+        } finally {
+            store.stopMonitoring(SearchStatistics.MONITORING_KEY);
+            store.clearHistograms("search.");
+        }
+        search();
+        assertNull(store.getHistogram("search.verticesExpanded"));
+    }
+
+}
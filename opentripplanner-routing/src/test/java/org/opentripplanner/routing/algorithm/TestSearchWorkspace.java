@@ -0,0 +1,69 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.VertexStateTable;
+
+public class TestSearchWorkspace extends TestCase {
+
+    public void testReuse() {
+        SearchWorkspace workspace = SearchWorkspace.acquire();
+        try {
+            // a nested search gets its own workspace
+            SearchWorkspace nested = SearchWorkspace.acquire();
+            assertNotSame(workspace, nested);
+            nested.release();
+
+            BinHeap<State> queue = workspace.getQueue();
+            assertTrue(queue.empty());
+            assertSame(queue, workspace.getQueue());
+
+            VertexStateTable<State> table = workspace.basicStateTable(0);
+            assertNotSame(table, workspace.basicStateTable(0));
+            BasicShortestPathTree spt = new BasicShortestPathTree(new RoutingRequest(), table);
+            SearchWorkspace.recycle(spt);
+            assertSame(table, workspace.basicStateTable(0));
+            // tables are only reused for searches with the same capacity
+            SearchWorkspace.recycle(spt);
+            assertNotSame(table, workspace.basicStateTable(10));
+        } finally {
+            workspace.release();
+        }
+        assertSame(workspace, SearchWorkspace.acquire());
+        workspace.release();
+    }
+
+    public void testQueueShrinks() {
+        SearchWorkspace workspace = SearchWorkspace.acquire();
+        try {
+            BinHeap<State> queue = workspace.getQueue();
+            queue.resize(1000000);
+            // one exceptionally large search should not pin down a huge queue
+            workspace.recordSearchSize(1000000, 10);
+            for (int i = 0; i < 100; ++i)
+                workspace.recordSearchSize(100, 10);
+            assertNotSame(queue, workspace.getQueue());
+            assertTrue(workspace.getQueue().getCapacity() < 1000000);
+        } finally {
+            workspace.release();
+        }
+    }
+
+}
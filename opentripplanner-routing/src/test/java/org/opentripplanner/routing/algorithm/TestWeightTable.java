@@ -0,0 +1,98 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.strategies.WeightTable;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.TestUtils;
+
+public class TestWeightTable extends TestCase {
+
+    private Graph graph;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        graph = new Graph();
+        GTFSPatternHopFactory hl = new GTFSPatternHopFactory(context);
+        hl.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+    }
+
+    public void testWeightsAreLowerBounds() {
+        WeightTable wt = new WeightTable(graph);
+        wt.buildTable();
+        Vertex stop_a = graph.getVertex("agency_A");
+        Vertex stop_e = graph.getVertex("agency_E");
+        assertTrue(wt.includes(stop_a));
+        assertEquals(0.0, wt.getWeight(stop_a, stop_a));
+
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 0, 0, 0);
+        options.setRoutingContext(graph, stop_a, stop_e);
+        GraphPath path = new GenericAStar().getShortestPathTree(options).getPath(stop_e, false);
+        assertNotNull(path);
+        double bound = wt.getWeight(stop_a, stop_e);
+        assertTrue(bound > 0);
+        assertTrue(bound <= path.getWeight());
+    }
+
+    public void testTableFile() throws Exception {
+        WeightTable inHeap = new WeightTable(graph);
+        inHeap.buildTable();
+
+        File tableFile = File.createTempFile("weights", ".bin");
+        tableFile.deleteOnExit();
+        WeightTable mapped = new WeightTable(graph);
+        mapped.setTableFile(tableFile);
+        mapped.buildTable();
+        graph.putService(WeightTable.class, mapped);
+        Vertex stop_a = graph.getVertex("agency_A");
+        for (String label : new String[] { "agency_B", "agency_C", "agency_E" }) {
+            Vertex stop = graph.getVertex(label);
+            assertEquals(inHeap.getWeight(stop_a, stop), mapped.getWeight(stop_a, stop));
+            assertEquals(inHeap.getWeight(stop, stop_a), mapped.getWeight(stop, stop_a));
+        }
+
+        File graphFile = File.createTempFile("graph", ".obj");
+        graphFile.deleteOnExit();
+        graph.save(graphFile);
+        Graph loaded = Graph.load(graphFile, LoadLevel.DEBUG);
+        WeightTable loadedTable = loaded.getService(WeightTable.class);
+        Vertex loaded_a = loaded.getVertex("agency_A");
+        Vertex loaded_e = loaded.getVertex("agency_E");
+        assertTrue(loadedTable.includes(loaded_a));
+        assertEquals(mapped.getWeight(stop_a, graph.getVertex("agency_E")),
+                loadedTable.getWeight(loaded_a, loaded_e));
+
+        // without its file, the table is not used
+        assertTrue(tableFile.delete());
+        loaded = Graph.load(graphFile, LoadLevel.DEBUG);
+        assertFalse(loaded.getService(WeightTable.class).includes(loaded.getVertex("agency_A")));
+    }
+
+}
@@ -0,0 +1,131 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.StreetGridForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestCompactHierarchy extends TestCase {
+
+    private static final int SIZE = 6;
+
+    private Graph graph;
+
+    private List<Vertex> vertices;
+
+    /* a grid of streets, where the streets along the bottom row are one way */
+    public void setUp() {
+        graph = new Graph();
+        vertices = new ArrayList<Vertex>();
+        IntersectionVertex[][] corners = StreetGridForTests.makeGrid(graph, SIZE, 0.0004, true);
+        for (int x = 0; x < SIZE; ++x)
+            for (int y = 0; y < SIZE; ++y)
+                vertices.add(corners[x][y]);
+    }
+
+    private RoutingRequest makeOptions() {
+        return new RoutingRequest(TraverseMode.WALK, OptimizeType.QUICK);
+    }
+
+    private CompactHierarchy makeCompactHierarchy(double contractionFactor) {
+        RoutingRequest options = makeOptions();
+        ContractionHierarchy hierarchy = new ContractionHierarchy(graph, options,
+                contractionFactor);
+        CompactHierarchy compact = new CompactHierarchy(hierarchy, options);
+        assertEquals(SIZE * SIZE, compact.getVertexCount());
+        return compact;
+    }
+
+    /* 
+     * check weights and paths against a plain search from a few origins. Witness searches accept
+     * paths up to a hundredth worse, so the weights may differ by a little more than that.
+     */
+    private void checkAgainstSearch(CompactHierarchy compact) {
+        for (Vertex origin : new Vertex[] { vertices.get(0), vertices.get(SIZE * SIZE - 1),
+                vertices.get(SIZE + 2) }) {
+            RoutingRequest options = makeOptions();
+            options.setBatch(true);
+            options.setRoutingContext(graph, origin, origin);
+            ShortestPathTree spt = new GenericAStar().getShortestPathTree(options);
+            for (Vertex target : vertices) {
+                GraphPath expected = spt.getPath(target, false);
+                double weight = compact.getWeight(origin, target);
+                assertEquals(expected.getWeight(), weight, 0.1);
+                GraphPath path = compact.getShortestPath(origin, target, makeOptions());
+                assertNotNull(path);
+                assertSame(origin, path.states.getFirst().getVertex());
+                assertSame(target, path.states.getLast().getVertex());
+                assertEquals(expected.getWeight(), path.getWeight(), 0.1);
+            }
+        }
+    }
+
+    public void testQueries() {
+        CompactHierarchy compact = makeCompactHierarchy(1.0);
+        checkAgainstSearch(compact);
+    }
+
+    public void testQueriesWithCore() {
+        CompactHierarchy compact = makeCompactHierarchy(0.5);
+        checkAgainstSearch(compact);
+    }
+
+    public void testHierarchyWithoutOrder() throws Exception {
+        ContractionHierarchy hierarchy = new ContractionHierarchy(graph, makeOptions(), 1.0);
+        // as if saved before the contraction order was recorded
+        Field order = ContractionHierarchy.class.getDeclaredField("contractionOrder");
+        order.setAccessible(true);
+        order.set(hierarchy, null);
+        assertFalse(CompactHierarchy.hasContractionOrder(hierarchy));
+        try {
+            new CompactHierarchy(hierarchy, makeOptions());
+            fail("a hierarchy without its contraction order cannot be made compact");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testManyToMany() {
+        CompactHierarchy compact = makeCompactHierarchy(1.0);
+        List<Vertex> origins = vertices.subList(0, 10);
+        List<Vertex> destinations = vertices.subList(20, SIZE * SIZE);
+        double[][] weights = compact.getWeights(origins, destinations);
+        for (int o = 0; o < origins.size(); o++)
+            for (int d = 0; d < destinations.size(); d++)
+                assertEquals(compact.getWeight(origins.get(o), destinations.get(d)),
+                        weights[o][d], 0.01);
+        // vertices outside the hierarchy have no paths
+        Graph other = new Graph();
+        Vertex outside = new IntersectionVertex(other, "outside", -74.0, 40.0);
+        List<Vertex> none = new ArrayList<Vertex>();
+        none.add(outside);
+        assertEquals(Double.POSITIVE_INFINITY, compact.getWeights(none, destinations)[0][0]);
+        assertNull(compact.getShortestPath(outside, vertices.get(0), makeOptions()));
+    }
+
+}
@@ -0,0 +1,123 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.StreetGridForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+
+public class TestContractionHierarchyBuild extends TestCase {
+
+    private static final int SIZE = 7;
+
+    /* a grid of streets of uneven lengths, where the streets along the bottom row are one way */
+    private Graph makeGraph(int size) {
+        Graph graph = new Graph();
+        StreetGridForTests.makeGrid(graph, size, 0.0004, true);
+        return graph;
+    }
+
+    private ContractionHierarchy contract(Graph graph, double factor, File checkpoint) {
+        return new ContractionHierarchy(graph, new RoutingRequest(TraverseMode.WALK,
+                OptimizeType.QUICK), factor, checkpoint);
+    }
+
+    /* the shortcuts of a graph as sorted strings, to compare graphs built separately */
+    private List<String> describeShortcuts(Graph graph) {
+        List<String> shortcuts = new ArrayList<String>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof Shortcut) {
+                    Shortcut s = (Shortcut) e;
+                    shortcuts.add(v.getLabel() + " -> " + s.getToVertex().getLabel() + " via "
+                            + s.edge1.getToVertex().getLabel() + " " + s.weight);
+                }
+            }
+        }
+        Collections.sort(shortcuts);
+        return shortcuts;
+    }
+
+    public void testDeterministicBuild() {
+        Graph graph = makeGraph(SIZE);
+        ContractionHierarchy hierarchy = contract(graph, 1.0, null);
+        assertEquals(0, hierarchy.corev.size());
+        assertEquals(SIZE * SIZE, hierarchy.chv.size());
+
+        Graph other = makeGraph(SIZE);
+        contract(other, 1.0, null);
+        List<String> shortcuts = describeShortcuts(graph);
+        assertFalse(shortcuts.isEmpty());
+        assertEquals(shortcuts, describeShortcuts(other));
+
+        // the hierarchy gives the same paths as a search on the graph
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK, OptimizeType.QUICK);
+        String[][] pairs = { { "corner 0 0", "corner 6 6" }, { "corner 6 0", "corner 0 0" },
+                { "corner 3 5", "corner 1 0" } };
+        for (String[] pair : pairs) {
+            Vertex from = graph.getVertex(pair[0]);
+            Vertex to = graph.getVertex(pair[1]);
+            GraphPath chPath = hierarchy.getShortestPath(from, to, 1000000000, options);
+            RoutingRequest aStarOptions = new RoutingRequest(TraverseMode.WALK, OptimizeType.QUICK);
+            aStarOptions.dateTime = 1000000000;
+            aStarOptions.setRoutingContext(graph, from, to);
+            GraphPath path = new GenericAStar().getShortestPathTree(aStarOptions).getPath(to,
+                    false);
+            assertNotNull(chPath);
+            assertEquals(path.getWeight(), chPath.getWeight(), 0.01);
+        }
+    }
+
+    public void testResumeFromCheckpoint() throws Exception {
+        File checkpoint = File.createTempFile("contraction", ".checkpoint");
+        checkpoint.delete();
+        checkpoint.deleteOnExit();
+
+        // an interrupted build, stopping half way
+        Graph partial = makeGraph(SIZE);
+        ContractionHierarchy hierarchy = contract(partial, 0.5, checkpoint);
+        assertTrue(checkpoint.exists());
+        int core = hierarchy.corev.size();
+        assertTrue(core > 0);
+
+        // resuming it gives the same hierarchy as a build done in one go
+        Graph resumed = makeGraph(SIZE);
+        hierarchy = contract(resumed, 1.0, checkpoint);
+        assertEquals(0, hierarchy.corev.size());
+        Graph complete = makeGraph(SIZE);
+        contract(complete, 1.0, null);
+        assertEquals(describeShortcuts(complete), describeShortcuts(resumed));
+
+        // the checkpoint of another graph is not used
+        Graph smaller = makeGraph(SIZE - 1);
+        hierarchy = contract(smaller, 1.0, checkpoint);
+        assertEquals(0, hierarchy.corev.size());
+        assertEquals((SIZE - 1) * (SIZE - 1), hierarchy.chv.size());
+        checkpoint.delete();
+    }
+
+}
@@ -13,10 +13,18 @@
 
 package org.opentripplanner.routing.core;
 
+import java.io.File;
+import java.util.HashSet;
+import java.util.RandomAccess;
+import java.util.Set;
+
 import junit.framework.TestCase;
 
 import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.graph.AbstractVertex;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
 
@@ -46,4 +54,73 @@ public class TestGraph extends TestCase {
         FreeEdge ee = new FreeEdge(a,b);
         assertNotNull(ee);
     }
+
+    public void testSaveAndLoad() throws Exception {
+        Graph g = new Graph();
+        Vertex a = new IntersectionVertex(g, "A", 5, 5);
+        Vertex b = new IntersectionVertex(g, "B", 6, 6);
+        Vertex c = new IntersectionVertex(g, "C", 7, 7);
+        new FreeEdge(a, b);
+        new FreeEdge(b, a);
+        new FreeEdge(b, c);
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        g.save(file);
+
+        Graph loaded = Graph.load(file, LoadLevel.DEBUG);
+        assertEquals(3, loaded.countVertices());
+        assertEquals(3, loaded.countEdges());
+        for (Vertex v : g.getVertices()) {
+            Vertex lv = loaded.getVertex(v.getLabel());
+            // vertex numbering is preserved across save and load
+            assertEquals(v.getIndex(), lv.getIndex());
+            assertEquals(v.getDegreeOut(), lv.getDegreeOut());
+            assertEquals(v.getDegreeIn(), lv.getDegreeIn());
+        }
+        // edge ID numbers are rebuilt from vertex indices
+        Vertex lb = loaded.getVertex("B");
+        for (Edge e : lb.getOutgoing()) {
+            assertSame(e, loaded.getEdgeById(loaded.getIdForEdge(e)));
+            assertEquals(lb.getIndex(), loaded.getIdForEdge(e) / 100);
+        }
+        // new vertices do not reuse indices read back from the file
+        assertTrue(AbstractVertex.getMaxIndex() > lb.getIndex());
+
+        // the build id identifies the saved numbering, and changes when the graph is saved again
+        assertEquals(g.getBuildId(), loaded.getBuildId());
+        assertEquals(loaded.getBuildId(), Graph.load(file, LoadLevel.DEBUG).getBuildId());
+        String saved = g.getBuildId();
+        g.save(file);
+        assertFalse(saved.equals(g.getBuildId()));
+        assertFalse(saved.equals(new Graph().getBuildId()));
+    }
+
+    public void testCompactAdjacency() throws Exception {
+        Graph g = new Graph();
+        Vertex a = new IntersectionVertex(g, "A", 5, 5);
+        Vertex b = new IntersectionVertex(g, "B", 6, 6);
+        Vertex c = new IntersectionVertex(g, "C", 7, 7);
+        FreeEdge ab = new FreeEdge(a, b);
+        FreeEdge ba = new FreeEdge(b, a);
+        FreeEdge bc = new FreeEdge(b, c);
+        g.compactAdjacency();
+
+        assertTrue(b.getOutgoing() instanceof RandomAccess);
+        Set<Edge> out = new HashSet<Edge>(b.getOutgoing());
+        assertEquals(2, out.size());
+        assertTrue(out.contains(ba));
+        assertTrue(out.contains(bc));
+        assertEquals(1, b.getDegreeIn());
+        assertSame(ab, b.getIncoming().iterator().next());
+        assertEquals(0, c.getDegreeOut());
+        assertSame(bc, c.getIncoming().iterator().next());
+
+        // compacted edge lists become mutable again when edges are added or removed
+        FreeEdge ca = new FreeEdge(c, a);
+        assertEquals(1, c.getDegreeOut());
+        assertEquals(2, a.getDegreeIn());
+        assertTrue(a.removeIncoming(ca));
+        assertEquals(1, a.getDegreeIn());
+        assertSame(ba, a.getIncoming().iterator().next());
+    }
 }
@@ -0,0 +1,133 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.StreetGridForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.DefaultRemainingWeightHeuristicFactoryImpl;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.impl.LandmarkRemainingWeightHeuristicFactoryImpl;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestLandmarkTable extends TestCase {
+
+    private static final int SIZE = 6;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] corners;
+
+    /* a grid of streets, where the streets along the bottom row are one way */
+    public void setUp() {
+        graph = new Graph();
+        corners = StreetGridForTests.makeGrid(graph, SIZE, 0, true);
+    }
+
+    /* all-pairs network distances by Floyd-Warshall, indexed by table position */
+    private double[][] exactDistances(LandmarkTable table) {
+        int n = table.countVertices();
+        double[][] d = new double[n][n];
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j)
+                d[i][j] = i == j ? 0 : Double.POSITIVE_INFINITY;
+        for (Vertex v : graph.getVertices())
+            for (Edge e : v.getOutgoing())
+                d[table.getPosition(v)][table.getPosition(e.getToVertex())] = e.getDistance();
+        for (int k = 0; k < n; ++k)
+            for (int i = 0; i < n; ++i)
+                for (int j = 0; j < n; ++j)
+                    d[i][j] = Math.min(d[i][j], d[i][k] + d[k][j]);
+        return d;
+    }
+
+    public void testBoundsAreAdmissible() {
+        LandmarkTable table = LandmarkTable.build(graph, 4);
+        assertEquals(4, table.countLandmarks());
+        assertEquals(SIZE * SIZE, table.countVertices());
+        double[][] exact = exactDistances(table);
+        for (int a = 0; a < table.countVertices(); ++a)
+            for (int b = 0; b < table.countVertices(); ++b)
+                assertTrue(table.lowerBound(a, b) <= exact[a][b] + 0.01);
+        // the bounds are exact for paths starting at a landmark
+        for (int k = 0; k < table.countLandmarks(); ++k) {
+            int l = table.getPosition(table.getLandmark(k));
+            for (int b = 0; b < table.countVertices(); ++b)
+                assertEquals(exact[l][b], table.lowerBound(l, b), 0.01);
+        }
+        // landmarks are spread out on the edges of the grid
+        Vertex first = table.getLandmark(0);
+        Vertex second = table.getLandmark(1);
+        assertTrue(first.distance(second) > 1000);
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        graph.putService(LandmarkTable.class, LandmarkTable.build(graph, 4));
+        LandmarkTable table = graph.getService(LandmarkTable.class);
+        int a = table.getPosition(corners[0][0]);
+        int b = table.getPosition(corners[SIZE - 1][SIZE - 1]);
+        double bound = table.lowerBound(a, b);
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        // saving renumbers the vertices
+        graph.save(file);
+        assertEquals(bound, table.lowerBound(table.getPosition(corners[0][0]),
+                table.getPosition(corners[SIZE - 1][SIZE - 1])));
+
+        Graph loaded = Graph.load(file, LoadLevel.DEBUG);
+        LandmarkTable loadedTable = loaded.getService(LandmarkTable.class);
+        a = loadedTable.getPosition(loaded.getVertex("corner 0 0"));
+        b = loadedTable.getPosition(loaded.getVertex("corner " + (SIZE - 1) + " " + (SIZE - 1)));
+        assertEquals(bound, loadedTable.lowerBound(a, b));
+        // vertices of other graphs are not in the table
+        assertEquals(-1, loadedTable.getPosition(corners[0][0]));
+    }
+
+    public void testSearchWithLandmarks() {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.setRoutingContext(graph, corners[SIZE - 1][0], corners[0][0]);
+        GraphPath euclidean = new GenericAStar().getShortestPathTree(options)
+                .getPath(corners[0][0], false);
+
+        graph.putService(LandmarkTable.class, LandmarkTable.build(graph, 4));
+        // the landmark heuristic is only used when its factory is configured
+        options = new RoutingRequest(TraverseMode.WALK);
+        options.setRoutingContext(graph, corners[SIZE - 1][0], corners[0][0]);
+        assertFalse(options.rctx.remainingWeightHeuristic instanceof LandmarkRemainingWeightHeuristic);
+
+        RoutingContext.setHeuristicFactory(new LandmarkRemainingWeightHeuristicFactoryImpl(
+                new GraphServiceBeanImpl(graph)));
+        try {
+            options = new RoutingRequest(TraverseMode.WALK);
+            options.setRoutingContext(graph, corners[SIZE - 1][0], corners[0][0]);
+            assertTrue(options.rctx.remainingWeightHeuristic instanceof LandmarkRemainingWeightHeuristic);
+            GraphPath landmarks = new GenericAStar().getShortestPathTree(options)
+                    .getPath(corners[0][0], false);
+            assertNotNull(landmarks);
+            assertEquals(euclidean.getWeight(), landmarks.getWeight(), 0.001);
+        } finally {
+            RoutingContext.setHeuristicFactory(new DefaultRemainingWeightHeuristicFactoryImpl());
+        }
+    }
+
+}
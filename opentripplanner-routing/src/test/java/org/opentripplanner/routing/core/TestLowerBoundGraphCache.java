@@ -0,0 +1,86 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestLowerBoundGraphCache extends TestCase {
+
+    private Graph graph;
+
+    public void setUp() {
+        graph = new Graph();
+        IntersectionVertex previous = new IntersectionVertex(graph, "v0", -74.0, 40.0);
+        for (int i = 1; i < 10; ++i) {
+            IntersectionVertex v = new IntersectionVertex(graph, "v" + i, -74.0 + i * 0.01, 40.0);
+            new FreeEdge(previous, v);
+            new FreeEdge(v, previous);
+            previous = v;
+        }
+    }
+
+    public void testConcurrentRequestsShareOneLowerBoundGraph() throws Exception {
+        final LowerBoundGraphCache cache = graph.getLowerBoundGraphs();
+        assertSame(cache, graph.getLowerBoundGraphs());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<LowerBoundGraph>> results = new ArrayList<Future<LowerBoundGraph>>();
+            for (int i = 0; i < 8; ++i) {
+                results.add(executor.submit(new Callable<LowerBoundGraph>() {
+                    public LowerBoundGraph call() {
+                        return cache.getLowerBoundGraph(false);
+                    }
+                }));
+            }
+            LowerBoundGraph lbg = results.get(0).get();
+            assertNotNull(lbg);
+            for (Future<LowerBoundGraph> result : results)
+                assertSame(lbg, result.get());
+            assertNotSame(lbg, cache.getLowerBoundGraph(true));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testPrecomputeAndRelease() throws Exception {
+        LowerBoundGraphCache cache = graph.getLowerBoundGraphs();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            cache.precompute(executor);
+            LowerBoundGraph lbg = cache.getLowerBoundGraph(true);
+            SimplifiedLowerBoundGraph slbg = cache.getSimplifiedLowerBoundGraph();
+            assertSame(lbg, cache.getLowerBoundGraph(true));
+            assertSame(slbg, cache.getSimplifiedLowerBoundGraph());
+
+            cache.release();
+            LowerBoundGraph rebuilt = cache.getLowerBoundGraph(true);
+            assertNotNull(rebuilt);
+            assertNotSame(lbg, rebuilt);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
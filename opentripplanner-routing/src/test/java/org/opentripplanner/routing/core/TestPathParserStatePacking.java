@@ -0,0 +1,49 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.automata.AutomatonState;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestPathParserStatePacking extends TestCase {
+
+    public void testPacking() {
+        Graph g = new Graph();
+        Vertex v = new IntersectionVertex(g, "A", 5, 5);
+        State s = new State(v, 0, new RoutingRequest());
+        assertNull(s.pathParserStates);
+        assertEquals(AutomatonState.START, s.getPathParserState(0));
+        assertEquals(AutomatonState.START, s.getPathParserState(1));
+
+        s.packedParserStates = State.pack(s.packedParserStates, 1, 7);
+        assertEquals(AutomatonState.START, s.getPathParserState(0));
+        assertEquals(7, s.getPathParserState(1));
+        s.packedParserStates = State.pack(s.packedParserStates, 0, AutomatonState.REJECT);
+        assertEquals(AutomatonState.REJECT, s.getPathParserState(0));
+        assertEquals(7, s.getPathParserState(1));
+        s.packedParserStates = State.pack(s.packedParserStates, 0, 0xFFFE);
+        assertEquals(0xFFFE, s.getPathParserState(0));
+        assertEquals(7, s.getPathParserState(1));
+
+        assertTrue(State.isPackable(AutomatonState.REJECT));
+        assertTrue(State.isPackable(0xFFFE));
+        assertFalse(State.isPackable(0xFFFF));
+        assertFalse(State.isPackable(-2));
+    }
+
+}
@@ -0,0 +1,88 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.edgetype.PatternBoard;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.util.TestUtils;
+
+public class TestServiceDay extends TestCase {
+
+    private Graph graph;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        graph = new Graph();
+        new GTFSPatternHopFactory(context).run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+    }
+
+    public void testServiceCodes() {
+        long time = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+        ServiceDay day = graph.getServiceDay(time, "Caltrain");
+        CalendarService cs = graph.getCalendarService();
+        Set<AgencyAndId> running = cs.getServiceIdsOnDate(new ServiceDate(
+                ServiceDay.calendarFor(time, cs.getTimeZoneForAgencyId("Caltrain"))));
+        Map<AgencyAndId, Integer> codes = graph.getServiceCodes();
+        assertFalse(codes.isEmpty());
+        for (Map.Entry<AgencyAndId, Integer> entry : codes.entrySet())
+            assertEquals(running.contains(entry.getKey()), day.serviceIdRunning(entry.getValue()));
+        // patterns made without a service code never run
+        assertFalse(day.serviceIdRunning(-1));
+
+        int boards = 0;
+        for (Vertex v : graph.getVertices()) {
+            for (PatternBoard board : IterableLibrary.filter(v.getOutgoing(), PatternBoard.class)) {
+                AgencyAndId serviceId = board.getPattern().getExemplar().getServiceId();
+                assertEquals(codes.get(serviceId).intValue(), board.getPattern().getServiceCode());
+                ++boards;
+            }
+        }
+        assertTrue(boards > 0);
+        assertEquals(time, day.time(day.secondsSinceMidnight(time)));
+        assertEquals(12 * 3600, day.secondsSinceMidnight(time));
+    }
+
+    public void testServiceDaysAreShared() {
+        long time = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 8, 0, 0);
+        ServiceDay day = graph.getServiceDay(time, "Caltrain");
+        assertSame(day, graph.getServiceDay(time + 3600 * 12, "Caltrain"));
+        assertNotSame(day, graph.getServiceDay(time + 3600 * 24, "Caltrain"));
+
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = time;
+        options.setRoutingContext(graph, "Caltrain_Millbrae Caltrain",
+                "Caltrain_Mountain View Caltrain");
+        assertEquals(3, options.rctx.serviceDays.size());
+        assertSame(day, options.rctx.serviceDays.get(1));
+    }
+
+}
@@ -0,0 +1,80 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestTransferTable extends TestCase {
+
+    public void testLookup() throws Exception {
+        Graph g = new Graph();
+        Vertex[] stops = new Vertex[100];
+        for (int i = 0; i < stops.length; ++i)
+            stops[i] = new IntersectionVertex(g, "stop " + i, i, i);
+        TransferTable table = new TransferTable();
+        for (int i = 1; i < stops.length; ++i)
+            table.setTransferTime(stops[i - 1], stops[i], i * 10);
+        table.setTransferTime(stops[3], stops[4], TransferTable.FORBIDDEN_TRANSFER);
+
+        assertEquals(20, table.getTransferTime(stops[1], stops[2]));
+        assertEquals(TransferTable.FORBIDDEN_TRANSFER, table.getTransferTime(stops[3], stops[4]));
+        // transfers are directional
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(stops[2], stops[1]));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(null, stops[1]));
+        assertFalse(table.hasPreferredTransfers());
+        table.setTransferTime(stops[5], stops[0], TransferTable.PREFERRED_TRANSFER);
+        assertTrue(table.hasPreferredTransfers());
+
+        int n = 0;
+        for (TransferTable.Transfer transfer : table.getAllTransfers()) {
+            assertEquals(transfer.seconds, table.getTransferTime(transfer.from, transfer.to));
+            ++n;
+        }
+        assertEquals(stops.length, n);
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        Graph g = new Graph();
+        Vertex a = new IntersectionVertex(g, "A", 5, 5);
+        Vertex b = new IntersectionVertex(g, "B", 6, 6);
+        Vertex c = new IntersectionVertex(g, "C", 7, 7);
+        // vertices without edges are not saved
+        new FreeEdge(a, b);
+        new FreeEdge(b, c);
+        g.getTransferTable().setTransferTime(a, b, 120);
+        g.getTransferTable().setTransferTime(c, a, TransferTable.TIMED_TRANSFER);
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        // saving renumbers the vertices
+        g.save(file);
+        assertEquals(120, g.getTransferTable().getTransferTime(a, b));
+
+        Graph loaded = Graph.load(file, LoadLevel.DEBUG);
+        TransferTable table = loaded.getTransferTable();
+        assertEquals(120, table.getTransferTime(loaded.getVertex("A"), loaded.getVertex("B")));
+        assertEquals(TransferTable.TIMED_TRANSFER,
+                table.getTransferTime(loaded.getVertex("C"), loaded.getVertex("A")));
+        assertEquals(TransferTable.UNKNOWN_TRANSFER,
+                table.getTransferTime(loaded.getVertex("B"), loaded.getVertex("C")));
+    }
+
+}
@@ -0,0 +1,111 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.impl;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.common.IterableLibrary;
+import org.opentripplanner.common.geometry.DistanceLibrary;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.location.StreetLocation;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class TestGraphServiceImpl extends TestCase {
+
+    private File directory;
+
+    private GraphServiceImpl graphService;
+
+    public void setUp() throws Exception {
+        directory = File.createTempFile("graph", "");
+        directory.delete();
+        directory.mkdir();
+        graphService = new GraphServiceImpl();
+        graphService.setPath(directory.getPath());
+        graphService.setResourceLoader(new DefaultResourceLoader());
+    }
+
+    public void tearDown() {
+        new File(directory, "Graph.obj").delete();
+        directory.delete();
+    }
+
+    /* a graph of a single street between two named corners */
+    private void saveGraph(String from, String to) throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex v0 = new IntersectionVertex(graph, from, -74.0, 40.0);
+        IntersectionVertex v1 = new IntersectionVertex(graph, to, -74.001, 40.0);
+        Coordinate c0 = v0.getCoordinate();
+        Coordinate c1 = v1.getCoordinate();
+        new PlainStreetEdge(v0, v1, GeometryUtils.makeLineString(c0.x, c0.y, c1.x, c1.y),
+                "street", DistanceLibrary.distance(c0, c1), StreetTraversalPermission.ALL, false);
+        graph.save(new File(directory, "Graph.obj"));
+    }
+
+    public void testReloadKeepsServingOldGraph() throws Exception {
+        saveGraph("a", "b");
+        Graph graph = graphService.getGraph();
+        assertNotNull(graph.getVertex("a"));
+        assertSame(graph, graphService.getGraph(""));
+
+        // a search in progress on the graph when it is replaced, from a point along the street
+        Vertex a = graph.getVertex("a");
+        StreetLocation start = StreetLocation.createStreetLocation(graph, "start", "start",
+                IterableLibrary.filter(a.getOutgoing(), StreetEdge.class), new Coordinate(
+                        -74.0005, 40.0));
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK, OptimizeType.QUICK);
+        options.setRoutingContext(graph, start, graph.getVertex("b"));
+
+        saveGraph("c", "d");
+        List<Future<Graph>> reloads = graphService.reloadGraphs();
+        assertEquals(1, reloads.size());
+        Graph reloaded = reloads.get(0).get();
+        assertNotNull(reloaded);
+        assertNotNull(reloaded.getVertex("c"));
+        assertSame(reloaded, graphService.getGraph());
+
+        // the old graph is only released once the search is done
+        assertFalse(graph.isReleased());
+        options.cleanup();
+        assertTrue(graph.isReleased());
+        assertFalse(reloaded.isReleased());
+    }
+
+    public void testFailedReloadKeepsGraph() throws Exception {
+        saveGraph("a", "b");
+        Graph graph = graphService.getGraph();
+        assertTrue(new File(directory, "Graph.obj").delete());
+        Graph reloaded = graphService.reloadGraphs().get(0).get();
+        assertNull(reloaded);
+        assertSame(graph, graphService.getGraph());
+        assertFalse(graph.isReleased());
+    }
+
+}
@@ -0,0 +1,117 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.StreetGridForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.MatrixService.RowHandler;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class TestMatrixServiceImpl extends TestCase {
+
+    private static final int SIZE = 5;
+
+    private Graph graph;
+
+    private MatrixServiceImpl matrixService;
+
+    private List<Coordinate> origins;
+
+    private List<Coordinate> destinations;
+
+    /* a grid of streets, where the streets along the bottom row are one way */
+    public void setUp() {
+        graph = new Graph();
+        IntersectionVertex[][] corners = StreetGridForTests.makeGrid(graph, SIZE, 0.0004, true);
+        graph.streetIndex = new StreetVertexIndexServiceImpl(graph);
+
+        matrixService = new MatrixServiceImpl();
+        matrixService.setGraphService(new GraphServiceBeanImpl(graph));
+        matrixService.setSptService(new GenericAStar());
+
+        origins = new ArrayList<Coordinate>();
+        destinations = new ArrayList<Coordinate>();
+        for (int x = 0; x < SIZE; ++x) {
+            origins.add(corners[x][0].getCoordinate());
+            destinations.add(corners[SIZE - 1 - x][SIZE - 1].getCoordinate());
+        }
+        // part way along a street, and far from any street
+        destinations.add(new Coordinate(-74.0 + 0.0003, 40.002 + 0.0009));
+        origins.add(new Coordinate(-70.0, 45.0));
+    }
+
+    private RoutingRequest makeOptions() {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK, OptimizeType.QUICK);
+        options.setMaxWalkDistance(Double.MAX_VALUE);
+        return options;
+    }
+
+    /* collects the rows, checking that they arrive in order */
+    private double[][] getMatrix(final boolean durations) {
+        final double[][] matrix = new double[origins.size()][];
+        matrixService.getMatrix(makeOptions(), origins, destinations, new RowHandler() {
+            int next = 0;
+
+            public void handleRow(int origin, double[] weights, double[] times) {
+                assertEquals(next++, origin);
+                double[] row = durations ? times : weights;
+                matrix[origin] = Arrays.copyOf(row, row.length);
+            }
+        });
+        return matrix;
+    }
+
+    public void testHierarchyAgreesWithSearch() {
+        double[][] searched = getMatrix(false);
+        double[][] searchedDurations = getMatrix(true);
+        List<RoutingRequest> modes = new ArrayList<RoutingRequest>();
+        modes.add(makeOptions());
+        ContractionHierarchySet hierarchies = new ContractionHierarchySet(graph, modes);
+        hierarchies.build();
+        graph.setHierarchies(hierarchies);
+        double[][] contracted = getMatrix(false);
+        double[][] contractedDurations = getMatrix(true);
+
+        int last = origins.size() - 1;
+        for (int o = 0; o < last; o++) {
+            for (int d = 0; d < destinations.size(); d++) {
+                assertTrue(searched[o][d] > 0);
+                assertTrue(searched[o][d] < Double.POSITIVE_INFINITY);
+                // witness searches accept paths up to a hundredth worse
+                assertEquals(searched[o][d], contracted[o][d], 0.1);
+                assertEquals(searchedDurations[o][d], contractedDurations[o][d], 1.0);
+            }
+        }
+        // the last origin is away from the streets
+        for (int d = 0; d < destinations.size(); d++) {
+            assertEquals(Double.POSITIVE_INFINITY, searched[last][d]);
+            assertEquals(Double.POSITIVE_INFINITY, contracted[last][d]);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.util.TestUtils;
+
+public class TestRetryingPathServiceImpl extends TestCase {
+
+    private Graph graph;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+    }
+
+    private List<GraphPath> getPaths(int parallelSearchThreads) {
+        RetryingPathServiceImpl pathService = new RetryingPathServiceImpl();
+        pathService.graphService = new GraphServiceBeanImpl(graph);
+        pathService.sptService = new GenericAStar();
+        pathService.setParallelSearchThreads(parallelSearchThreads);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+        options.setNumItineraries(3);
+        options.setFrom("Caltrain_Millbrae Caltrain");
+        options.setTo("Caltrain_Mountain View Caltrain");
+        options.setRoutingContext(graph, "Caltrain_Millbrae Caltrain",
+                "Caltrain_Mountain View Caltrain");
+        try {
+            return pathService.getPaths(options);
+        } finally {
+            pathService.shutdown();
+        }
+    }
+
+    public void testParallelSearch() {
+        List<GraphPath> sequential = getPaths(0);
+        List<GraphPath> parallel = getPaths(4);
+        assertEquals(3, sequential.size());
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); ++i) {
+            assertEquals(sequential.get(i).getTrips(), parallel.get(i).getTrips());
+            assertEquals(sequential.get(i).getEndTime(), parallel.get(i).getEndTime());
+        }
+    }
+
+    public void testRetriesRunConcurrently() throws Exception {
+        // A to E on the test agency takes two trips, so there are independent retries
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS));
+        Graph graph = new Graph();
+        new GTFSPatternHopFactory(context).run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        CountingSPTService sptService = new CountingSPTService();
+        RetryingPathServiceImpl pathService = new RetryingPathServiceImpl();
+        pathService.graphService = new GraphServiceBeanImpl(graph);
+        pathService.sptService = sptService;
+        pathService.setParallelSearchThreads(4);
+        RoutingRequest options = new RoutingRequest();
+        options.minTransferTime = 0;
+        options.dateTime = TestUtils.dateInSeconds("America/New_York", 2009, 8, 7, 0, 0, 0);
+        options.setNumItineraries(3);
+        options.setFrom("agency_A");
+        options.setTo("agency_E");
+        options.setRoutingContext(graph, "agency_A", "agency_E");
+        try {
+            List<GraphPath> paths = pathService.getPaths(options);
+            assertNotNull(paths);
+            assertTrue(paths.size() > 1);
+        } finally {
+            pathService.shutdown();
+        }
+        assertTrue(sptService.maxActive > 1);
+    }
+
+    /** Counts how many searches are running at the same time. */
+    private static class CountingSPTService implements SPTService {
+
+        private GenericAStar aStar = new GenericAStar();
+
+        private AtomicInteger active = new AtomicInteger();
+
+        private volatile int maxActive = 0;
+
+        @Override
+        public ShortestPathTree getShortestPathTree(RoutingRequest req) {
+            return getShortestPathTree(req, 0);
+        }
+
+        @Override
+        public ShortestPathTree getShortestPathTree(RoutingRequest req, double timeoutSeconds) {
+            int n = active.incrementAndGet();
+            synchronized (this) {
+                maxActive = Math.max(maxActive, n);
+            }
+            try {
+                // give the other searches of the batch a chance to start
+                Thread.sleep(100);
+                return aStar.getShortestPathTree(req, timeoutSeconds);
+            } catch (InterruptedException e) {
+                return null;
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    public void testConcurrentContextKeepsTemporaryEdges() {
+        RoutingRequest options = new RoutingRequest();
+        options.setRoutingContext(graph, "Caltrain_Millbrae Caltrain",
+                "Caltrain_Mountain View Caltrain");
+        RoutingContext child = options.rctx.forConcurrentSearch(options.clone());
+        assertSame(options.rctx.origin, child.origin);
+        assertNotSame(options.rctx.remainingWeightHeuristic, child.remainingWeightHeuristic);
+        assertEquals(0, child.destroy());
+    }
+
+}
@@ -0,0 +1,87 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.raptor;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.TestUtils;
+
+public class TestDepartureSweep extends TestCase {
+
+    private static final String FROM = "Caltrain_Millbrae Caltrain";
+
+    private static final String TO = "Caltrain_Mountain View Caltrain";
+
+    private Graph graph;
+
+    private long noon;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        noon = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+    }
+
+    public void testPercentilesMatchSeparateSearches() {
+        int window = 3600;
+        int step = 600;
+        RaptorPathServiceImpl pathService = new RaptorPathServiceImpl();
+        DepartureSweep sweep = pathService.getDepartureSweep(graph);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = noon;
+        options.setBatch(true);
+        Vertex from = graph.getVertex(FROM);
+        Vertex to = graph.getVertex(TO);
+        options.setRoutingContext(graph, from, from);
+        int[][] surfaces = sweep.getPercentileSurfaces(options, window, step, new double[] { 0,
+                0.5, 1 });
+        options.cleanup();
+        assertEquals(0, surfaces[0][from.getIndex()]);
+
+        // the travel times when leaving at each step, found by separate searches
+        int[] times = new int[window / step + 1];
+        for (int d = 0; d < times.length; ++d) {
+            RoutingRequest aStarOptions = new RoutingRequest();
+            aStarOptions.dateTime = noon + d * step;
+            aStarOptions.setRoutingContext(graph, from, to);
+            GraphPath path = new GenericAStar().getShortestPathTree(aStarOptions).getPath(to, true);
+            times[d] = (int) (path.getEndTime() - aStarOptions.dateTime);
+        }
+        Arrays.sort(times);
+        int v = to.getIndex();
+        assertEquals(times[0], surfaces[0][v]);
+        assertEquals(times[times.length / 2], surfaces[1][v]);
+        assertEquals(times[times.length - 1], surfaces[2][v]);
+        assertTrue(surfaces[0][v] < surfaces[2][v]);
+    }
+
+}
@@ -0,0 +1,120 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.raptor;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.gtfs.GtfsContext;
+import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.util.TestUtils;
+
+public class TestRaptorPathServiceImpl extends TestCase {
+
+    private static final String FROM = "Caltrain_Millbrae Caltrain";
+
+    private static final String TO = "Caltrain_Mountain View Caltrain";
+
+    private Graph graph;
+
+    private RaptorPathServiceImpl pathService;
+
+    public void setUp() throws Exception {
+        GtfsContext context = GtfsLibrary.readGtfs(new File(ConstantsForTests.CALTRAIN_GTFS));
+        graph = new Graph();
+        GTFSPatternHopFactory factory = new GTFSPatternHopFactory(context);
+        factory.run(graph);
+        graph.putService(CalendarServiceData.class,
+                GtfsLibrary.createCalendarServiceData(context.getDao()));
+        pathService = new RaptorPathServiceImpl();
+        pathService.graphService = new GraphServiceBeanImpl(graph);
+        pathService.sptService = new GenericAStar();
+    }
+
+    private RoutingRequest makeRequest(int hour) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, hour, 0, 0);
+        options.setFrom(FROM);
+        options.setTo(TO);
+        options.setRoutingContext(graph, FROM, TO);
+        return options;
+    }
+
+    public void testEarliestArrivalMatchesAStar() {
+        for (int hour = 9; hour < 20; hour += 3) {
+            RoutingRequest options = makeRequest(hour);
+            List<GraphPath> paths = pathService.getPaths(options);
+            assertEquals(options.numItineraries, paths.size());
+            GraphPath first = paths.get(0);
+            assertEquals(graph.getVertex(FROM), first.states.getFirst().getVertex());
+            assertEquals(graph.getVertex(TO), first.states.getLast().getVertex());
+
+            RoutingRequest aStarOptions = makeRequest(hour);
+            ShortestPathTree spt = new GenericAStar().getShortestPathTree(aStarOptions);
+            GraphPath aStarPath = spt.getPath(graph.getVertex(TO), true);
+            assertEquals(aStarPath.getEndTime(), first.getEndTime());
+        }
+    }
+
+    public void testRangeSearch() {
+        RoutingRequest options = makeRequest(12);
+        int window = 3 * 3600;
+        List<GraphPath> paths = pathService.getRangePaths(options, window);
+        assertTrue(paths.size() > 1);
+        for (GraphPath path : paths) {
+            assertTrue(path.getStartTime() >= options.dateTime);
+            assertTrue(path.getStartTime() <= options.dateTime + window);
+            for (GraphPath other : paths) {
+                if (other == path)
+                    continue;
+                // no path leaves later and arrives earlier than another with as few vehicles
+                assertFalse(other.getStartTime() >= path.getStartTime()
+                        && other.getEndTime() < path.getEndTime()
+                        && RaptorPathServiceImpl.countVehicles(other)
+                                <= RaptorPathServiceImpl.countVehicles(path));
+            }
+        }
+    }
+
+    public void testRetiredGraphIsReleased() {
+        RoutingRequest options = makeRequest(12);
+        assertFalse(pathService.getPaths(options).isEmpty());
+        options.cleanup();
+        // the street searches made for transfers and replays do not hold on to the graph
+        graph.retire();
+        assertTrue(graph.isReleased());
+    }
+
+    public void testArriveByUsesFallback() {
+        RoutingRequest options = makeRequest(12);
+        options.setArriveBy(true);
+        options.setRoutingContext(graph, FROM, TO);
+        List<GraphPath> paths = pathService.getPaths(options);
+        assertFalse(paths.isEmpty());
+        for (GraphPath path : paths)
+            assertTrue(path.getEndTime() <= options.dateTime);
+    }
+
+}
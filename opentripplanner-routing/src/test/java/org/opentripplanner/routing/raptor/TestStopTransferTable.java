@@ -0,0 +1,128 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.raptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.StreetGridForTests;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import com.vividsolutions.jts.geom.LineString;
+
+public class TestStopTransferTable extends TestCase {
+
+    private Graph graph;
+
+    private TransitStop[] stops;
+
+    /* three stops along a street, 1 km apart from one end to the other */
+    public void setUp() {
+        graph = new Graph();
+        IntersectionVertex[] corners = new IntersectionVertex[3];
+        stops = new TransitStop[3];
+        for (int i = 0; i < 3; ++i) {
+            double lon = -74.0 + i * 0.006;
+            corners[i] = new IntersectionVertex(graph, "corner " + i, lon, 40.0);
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("A", "stop " + i));
+            stop.setName("stop " + i);
+            stop.setLon(lon);
+            stop.setLat(40.0001);
+            stops[i] = new TransitStop(graph, stop);
+            new StreetTransitLink(corners[i], stops[i], true);
+            new StreetTransitLink(stops[i], corners[i], true);
+        }
+        for (int i = 0; i < 2; ++i)
+            StreetGridForTests.makeStreet(corners[i], corners[i + 1], true);
+    }
+
+    private int[] targets(StopTransferTable table, TransitStop stop) {
+        int i = table.getStopIndex(stop);
+        int[] targets = new int[table.getLastTransfer(i) - table.getFirstTransfer(i)];
+        for (int t = table.getFirstTransfer(i); t < table.getLastTransfer(i); ++t)
+            targets[t - table.getFirstTransfer(i)] = table.getTarget(t);
+        return targets;
+    }
+
+    public void testTransfersWithinRadius() {
+        StopTransferTable table = StopTransferTable.build(graph, 600, true);
+        assertEquals(3, table.countStops());
+        // only neighboring stops are within 600 m of each other
+        assertEquals(4, table.countTransfers());
+        int[] fromMiddle = targets(table, stops[1]);
+        assertEquals(2, fromMiddle.length);
+        int[] fromEnd = targets(table, stops[0]);
+        assertEquals(1, fromEnd.length);
+        assertSame(stops[1], table.getStop(fromEnd[0]));
+
+        int t = table.getFirstTransfer(table.getStopIndex(stops[0]));
+        assertTrue(table.getDistance(t) > 500 && table.getDistance(t) < 600);
+        // a few seconds may be added on the links between stops and streets
+        assertTrue(table.getTime(t) >= table.getDistance(t) / table.getWalkSpeed());
+        assertTrue(table.getTime(t) < table.getDistance(t) / table.getWalkSpeed() + 30);
+        LineString geometry = table.getGeometry(t);
+        assertNotNull(geometry);
+        assertEquals(stops[0].getCoordinate(), geometry.getCoordinateN(0));
+        assertEquals(stops[1].getCoordinate(),
+                geometry.getCoordinateN(geometry.getNumPoints() - 1));
+    }
+
+    public void testWithoutGeometry() {
+        StopTransferTable table = StopTransferTable.build(graph, 1500, false);
+        assertEquals(6, table.countTransfers());
+        assertFalse(table.hasGeometry());
+        assertNull(table.getGeometry(0));
+    }
+
+    public void testBuildDoesNotHoldGraph() {
+        StopTransferTable.build(graph, 600, false);
+        graph.retire();
+        assertTrue(graph.isReleased());
+    }
+
+    public void testSerialization() throws Exception {
+        StopTransferTable table = StopTransferTable.build(graph, 600, true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(table);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        StopTransferTable copy = (StopTransferTable) in.readObject();
+        assertEquals(table.countTransfers(), copy.countTransfers());
+        for (int i = 0; i < table.countStops(); ++i)
+            assertEquals(i, copy.getStopIndex(copy.getStop(i)));
+        assertEquals(table.getGeometry(1), copy.getGeometry(1));
+    }
+
+    public void testRaptorDataUsesTable() {
+        graph.putService(StopTransferTable.class, StopTransferTable.build(graph, 600, false));
+        RaptorData data = new RaptorData(graph, 500);
+        // transfers longer than the search allows are left out
+        for (TransitStop stop : stops)
+            assertEquals(0, data.getTransfers(graph, data.getStopIndex(stop)).stops.length);
+        data = new RaptorData(graph, 600);
+        assertEquals(2, data.getTransfers(graph, data.getStopIndex(stops[1])).stops.length);
+    }
+
+}
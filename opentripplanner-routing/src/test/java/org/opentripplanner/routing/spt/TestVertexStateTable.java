@@ -0,0 +1,56 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import junit.framework.TestCase;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TestVertexStateTable extends TestCase {
+
+    public void testPutGetClear() {
+        Graph g = new Graph();
+        Vertex a = new IntersectionVertex(g, "A", 5, 5);
+        Vertex b = new IntersectionVertex(g, "B", 6, 6);
+        Vertex c = new IntersectionVertex(g, "C", 7, 7);
+        // only a and b fit in the arrays, c goes into the overflow map
+        int capacity = Math.max(a.getIndex(), b.getIndex()) + 1;
+        assertTrue(c.getIndex() >= capacity);
+        VertexStateTable<String> table = new VertexStateTable<String>(capacity, 4);
+        assertNull(table.get(a));
+        table.put(a, "a");
+        table.put(c, "c");
+        assertEquals("a", table.get(a));
+        assertNull(table.get(b));
+        assertEquals("c", table.get(c));
+        table.put(a, "a2");
+        assertEquals("a2", table.get(a));
+        assertEquals(2, table.size());
+        assertEquals(2, table.values().size());
+        assertTrue(table.values().contains("a2"));
+        assertTrue(table.values().contains("c"));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertNull(table.get(a));
+        assertNull(table.get(c));
+        table.put(b, "b");
+        assertEquals("b", table.get(b));
+        assertNull(table.get(a));
+        assertEquals(1, table.values().size());
+    }
+
+}
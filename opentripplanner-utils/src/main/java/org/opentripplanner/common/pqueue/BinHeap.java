@@ -118,11 +118,20 @@ public class BinHeap<T> implements OTPPriorityQueue<T> {
     	System.out.printf("-----------------------\n");
     }
     
+    /** 
+     * Empty the queue, dropping its references to the elements so that a queue kept for reuse
+     * does not hold on to them.
+     */
     public void reset() {
-    	// empties the queue in one operation
+        Arrays.fill(elem, 1, size + 1, null);
     	size=0;
     } 
 
+    /** @return the number of elements this heap can hold before it has to grow. */
+    public int getCapacity() {
+        return capacity;
+    }
+
     @Override
     public void insert(T e, double p) {
         int i;
@@ -146,6 +155,9 @@ public class BinHeap<T> implements OTPPriorityQueue<T> {
         if (size <= 0) 
             return null;
     	size -= 1;
+        elem[size + 1] = null; // the vacated slot, lastElem moves up below
+        if (size == 0)
+            return minElem; // lastElem was minElem, do not put it back
         for (i=1; i*2 <= size; i=child) {
             child = i*2;
             if (child != size && prio[child+1] < prio[child])
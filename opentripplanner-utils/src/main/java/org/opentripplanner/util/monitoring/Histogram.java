@@ -0,0 +1,109 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.util.monitoring;
+
+/**
+ * Counts of values in buckets bounded by powers of two, so that a fixed amount of memory
+ * summarizes any number of values spanning many orders of magnitude. Percentiles are estimated
+ * to within a factor of two, which is enough to tell ordinary requests from pathological ones.
+ */
+public class Histogram {
+
+    /* bucket 0 holds zero and below, bucket i the values from 2^(i-1) to 2^i - 1 */
+    private static final int N_BUCKETS = 64;
+
+    private final long[] counts = new long[N_BUCKETS];
+
+    private long count = 0;
+
+    private long sum = 0;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max = Long.MIN_VALUE;
+
+    public synchronized void add(long value) {
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    private static int bucket(long value) {
+        if (value <= 0)
+            return 0;
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket == 0)
+            return 0;
+        if (bucket == N_BUCKETS - 1)
+            return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    /** @return the smallest value added, or 0 if there is none */
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /** @return the largest value added, or 0 if there is none */
+    public synchronized long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param fraction - between 0 and 1, for instance 0.9 for the 90th percentile
+     * @return an upper bound on the value below which the given fraction of the values fall, at
+     *         most twice that value, or 0 if there are no values.
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < N_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return Math.max(min, Math.min(max, upperBound(i)));
+        }
+        return max;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < N_BUCKETS; i++)
+            counts[i] = 0;
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+}
@@ -13,9 +13,15 @@
 
 package org.opentripplanner.util.monitoring;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opentripplanner.util.MapUtils;
 
@@ -26,6 +32,10 @@ import org.opentripplanner.util.MapUtils;
  * tracking max values as well as a list of notes.  The use pattern, when monitoring is expensive,
  * is to check isMonitoring before computing anything.
  * 
+ * Histograms summarize values recorded once per event, such as the work done by each search.
+ * Recording in a histogram does not check isMonitoring, since a whole family of histograms is
+ * usually recorded together: the caller checks a single key for the family instead.
+ * 
  * TODO: allow registering special case monitoring for complex cases like long queries.
  * 
  * @author novalis
@@ -33,19 +43,55 @@ import org.opentripplanner.util.MapUtils;
  */
 public class MonitoringStore {
 
-    private HashSet<String> monitoring = new HashSet<String>();
+    private Set<String> monitoring = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     private HashMap<String, Long> longs = new HashMap<String, Long>();
 
     private HashMap<String, List<String>> notes = new HashMap<String, List<String>>();
 
-    public void addNote(String k, String v) {
+    private ConcurrentHashMap<String, Histogram> histograms =
+            new ConcurrentHashMap<String, Histogram>();
+
+    public void addToHistogram(String k, long v) {
+        Histogram histogram = histograms.get(k);
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram existing = histograms.putIfAbsent(k, histogram);
+            if (existing != null)
+                histogram = existing;
+        }
+        histogram.add(v);
+    }
+
+    public Histogram getHistogram(String k) {
+        return histograms.get(k);
+    }
+
+    /** @return the histograms whose keys start with the given prefix, by key */
+    public SortedMap<String, Histogram> getHistograms(String prefix) {
+        SortedMap<String, Histogram> result = new TreeMap<String, Histogram>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            if (entry.getKey().startsWith(prefix))
+                result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    public void clearHistograms(String prefix) {
+        for (String k : histograms.keySet()) {
+            if (k.startsWith(prefix))
+                histograms.remove(k);
+        }
+    }
+
+    public synchronized void addNote(String k, String v) {
         if (!monitoring.contains(k))
             return;
         MapUtils.addToMapList(notes, k, v);
     }
 
-    public void clearNotes(String k) {
+    public synchronized void clearNotes(String k) {
         notes.remove(k);
     }
 
@@ -53,8 +99,9 @@ public class MonitoringStore {
         return longs.get(k);
     }
 
-    public List<String> getNotes(String k) {
-        return notes.get(k);
+    public synchronized List<String> getNotes(String k) {
+        List<String> list = notes.get(k);
+        return list == null ? null : new ArrayList<String>(list);
     }
 
     public boolean isMonitoring(String k) {
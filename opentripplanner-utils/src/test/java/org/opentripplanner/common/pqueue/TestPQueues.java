@@ -13,6 +13,7 @@
 
 package org.opentripplanner.common.pqueue;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.PriorityQueue;
@@ -199,4 +200,25 @@ public class TestPQueues extends TestCase {
 
         }
     }    
+
+    /* an emptied or reset heap refers to none of the elements it held */
+    public void testBinHeapDropsElements() throws Exception {
+        BinHeap<Integer> bh = new BinHeap<Integer>(10);
+        Field elemField = BinHeap.class.getDeclaredField("elem");
+        elemField.setAccessible(true);
+        for (int n = 1; n < 5; n++) {
+            for (int i = 0; i < n; i++)
+                bh.insert(1000 + i, i);
+            while (!bh.empty())
+                bh.extract_min();
+            for (Object e : (Object[]) elemField.get(bh))
+                assertNull(e);
+        }
+        for (int i = 0; i < 5; i++)
+            bh.insert(1000 + i, i);
+        bh.extract_min();
+        bh.reset();
+        for (Object e : (Object[]) elemField.get(bh))
+            assertNull(e);
+    }
 }
@@ -0,0 +1,42 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.util.monitoring;
+
+import junit.framework.TestCase;
+
+public class TestHistogram extends TestCase {
+
+    public void testSummary() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        for (int i = 1; i <= 100; i++)
+            histogram.add(i);
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        // percentiles are bucket bounds, within a factor of two of the exact values
+        long median = histogram.getPercentile(0.5);
+        assertTrue(median >= 50 && median <= 100);
+        assertEquals(100, histogram.getPercentile(0.99));
+        assertEquals(1, histogram.getPercentile(0.01));
+
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        histogram.add(0);
+        assertEquals(0, histogram.getPercentile(1.0));
+    }
+
+}